@@ -0,0 +1,82 @@
+package es.rbp.ejemplo_widget;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.widget.RemoteViews;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import es.rbp.ejemplo_widget.servicios.ServicioContador;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que el tamaño de la notificación que se envía al sistema no crece con el número de actualizaciones, con el
+ * {@link android.widget.Chronometer} y con el texto de cada segundo
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotificacionTest {
+
+    private static final int TICKS = 100_000;
+
+    /**
+     * Margen para los dígitos de más que tiene el último segundo respecto al primero
+     */
+    private static final int MARGEN_DIGITOS = 32;
+
+    @Test
+    public void tamanoParcelConstanteEnModoCronometro() {
+        comprobarTamanoParcel(true);
+    }
+
+    @Test
+    public void tamanoParcelConstanteEnModoTexto() {
+        comprobarTamanoParcel(false);
+    }
+
+    @Test
+    public void enModoTextoSoloSePublicaSiCambiaElTexto() {
+        Notificacion notificacion = Notificacion.crearNotificacion(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        notificacion.modoCronometro = false;
+        try {
+            assertTrue(notificacion.actualizarContador(61));
+            assertFalse(notificacion.actualizarContador(61));
+            assertTrue(notificacion.actualizarContador(62));
+        } finally {
+            notificacion.modoCronometro = ServicioContador.MODO_CRONOMETRO;
+        }
+    }
+
+    private static void comprobarTamanoParcel(boolean modoCronometro) {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Notificacion notificacion = Notificacion.crearNotificacion(context);
+        notificacion.modoCronometro = modoCronometro;
+        try {
+            notificacion.prepararContador(1);
+            int tamanoInicial = tamanoParcel(notificacion.getNotification().contentView);
+
+            for (int segundo = 2; segundo <= TICKS; segundo++)
+                notificacion.prepararContador(segundo);
+
+            int tamanoFinal = tamanoParcel(notificacion.getNotification().contentView);
+            assertTrue("El parcel ha crecido de " + tamanoInicial + " a " + tamanoFinal + " bytes",
+                    tamanoFinal <= tamanoInicial + MARGEN_DIGITOS);
+        } finally {
+            notificacion.modoCronometro = ServicioContador.MODO_CRONOMETRO;
+        }
+    }
+
+    private static int tamanoParcel(RemoteViews vistas) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            vistas.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package es.rbp.ejemplo_widget.providers;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import es.rbp.ejemplo_widget.servicios.ServicioContador;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Mide el coste por tick de actualizar 1, 10 y 50 widgets con el layout completo y con la actualización parcial del contador, con el
+ * {@link android.widget.Chronometer} y con el texto de cada segundo.
+ * <p>
+ * Solo se miden los widgets que están en la pantalla de inicio del dispositivo, ya que el sistema descarta las actualizaciones de ids
+ * que no pertenecen a {@link WidgetProvider}. Hay que añadir antes los widgets a mano: si hay menos de 10 o de 50, no se mide ese
+ * número, y si no hay ninguno se omite la prueba.
+ * <p>
+ * Los resultados se escriben en el log con la etiqueta {@link WidgetProviderRendimientoTest#TAG}
+ */
+@RunWith(AndroidJUnit4.class)
+public class WidgetProviderRendimientoTest {
+
+    private static final String TAG = "RENDIMIENTO WIDGET";
+
+    private static final int CALENTAMIENTO = 50;
+
+    private static final int TICKS = 500;
+
+    @Test
+    public void costePorTick() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        int[] enPantalla = manager.getAppWidgetIds(new ComponentName(context, WidgetProvider.class));
+        assumeTrue("No hay ningún widget en la pantalla de inicio", enPantalla.length > 0);
+
+        try {
+            for (boolean modoCronometro : new boolean[]{true, false}) {
+                WidgetProvider.modoCronometro = modoCronometro;
+                for (int widgets : new int[]{1, 10, 50}) {
+                    if (widgets > enPantalla.length)
+                        break;
+
+                    int[] ids = Arrays.copyOf(enPantalla, widgets);
+                    long completo = medir(context, manager, ids, true);
+                    long parcial = medir(context, manager, ids, false);
+                    Log.i(TAG, (modoCronometro ? "Cronómetro, " : "Texto, ") + widgets + " widgets: completo " + completo / 1000
+                            + " us/tick, parcial " + parcial / 1000 + " us/tick");
+                }
+            }
+        } finally {
+            WidgetProvider.modoCronometro = ServicioContador.MODO_CRONOMETRO;
+        }
+    }
+
+    /**
+     * Devuelve los nanosegundos que tarda de media en renderizar los widgets en cada tick
+     */
+    private static long medir(Context context, AppWidgetManager manager, int[] ids, boolean completo) {
+        WidgetProvider.renderizar(context, manager, ids, true);
+        for (int i = 0; i < CALENTAMIENTO; i++)
+            WidgetProvider.renderizar(context, manager, ids, completo);
+
+        long inicio = System.nanoTime();
+        for (int i = 0; i < TICKS; i++)
+            WidgetProvider.renderizar(context, manager, ids, completo);
+
+        return (System.nanoTime() - inicio) / TICKS;
+    }
+}
@@ -9,34 +9,126 @@ import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.BaseAdapter;
 import android.widget.Button;
+import android.widget.ListView;
 import android.widget.TextView;
 
+import es.rbp.ejemplo_widget.contador.AlmacenEstado;
+import es.rbp.ejemplo_widget.contador.AnclaNanos;
+import es.rbp.ejemplo_widget.contador.CajaNegra;
+import es.rbp.ejemplo_widget.contador.DifusorContador;
+import es.rbp.ejemplo_widget.contador.EstadisticasSesiones;
+import es.rbp.ejemplo_widget.contador.LoteVueltas;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+import es.rbp.ejemplo_widget.contador.MedidorTiempo;
+import es.rbp.ejemplo_widget.contador.PaginaContador;
+import es.rbp.ejemplo_widget.contador.TextoTiempo;
 import es.rbp.ejemplo_widget.servicios.ServicioContador;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * Esta activity empieza, pausa o termina el {@link ServicioContador} y muestra el segundo actual del servicio
  * <p>
  * Para conectarse al servicio, hay que implementar la interfaz {@link ServiceConnection} y llamar al método {@link Context#bindService(Intent, ServiceConnection, int)}.
- * Solo puede haber un cliente por servicio, por lo que hay que llamar al método {@link Context#unbindService(ServiceConnection)} cuando se detenga
- * el activity para que cuando se cree otra vez poder conectarse al servicio de nuevo.
+ * Se conecta en onStart y se desconecta en onStop, para que cada conexión tenga su desconexión aunque la activity pase varias veces
+ * por onResume.
+ * <p>
+ * El primer fotograma no espera a la conexión: en onCreate se lee el último estado guardado por el servicio y se pinta con él.
+ * <p>
+ * En {@link ServicioContador#PROCESO_SEPARADO} el servicio está en otro proceso: la activity se conecta con
+ * {@link ServicioContador#ACCION_MENSAJERO}, envía los comandos como mensajes y lee el estado de {@link PaginaContador} cuando el servicio
+ * avisa de que ha publicado. La lista de vueltas no se muestra en este modo, solo su resumen.
  *
  * @author Ricardo Bordería Pi
  */
-public class MainActivity extends AppCompatActivity implements View.OnClickListener, ServiceConnection, ServicioContador.Llamada {
+public class MainActivity extends AppCompatActivity implements View.OnClickListener, ServiceConnection {
+
+    /**
+     * Segundo de la cuenta en el que avisa el botón de avisar
+     */
+    private static final int SEGUNDO_AVISO = 25 * 60;
+
+    /**
+     * Número de entregas con las que se calcula la media de tiempo que se escribe en el log
+     */
+    private static final int MUESTRAS_MEDICION = 60;
+
+    /**
+     * Indica si la cuenta se muestra con milisegundos. Es el modo por defecto, y se cambia al compilar con {@code -PmodoSegundos}.
+     * <p>
+     * En este modo el texto se pinta en cada fotograma a partir del {@link AnclaNanos} del servicio mientras la activity está en primer
+     * plano y la cuenta en marcha. El servicio no hace ningún trabajo más: solo guarda el ancla en cada cambio de estado, y la
+     * notificación y el widget siguen con el tick de cada segundo o con su {@link android.widget.Chronometer}. Si es false, el texto
+     * se actualiza con el segundo que entrega el servicio en cada tick
+     */
+    public static final boolean MODO_PRECISO = BuildConfig.MODO_PRECISO;
 
     /**
      * TextView que muestra el segundo actual del servicio
      */
     private TextView lblSegundoActual;
 
+    /**
+     * Texto de {@link MainActivity#lblSegundoActual}. Se pasa como char[] para no crear un String en cada tick
+     */
+    private final TextoTiempo textoSegundo = new TextoTiempo();
+
+    /**
+     * TextView con los totales de las sesiones
+     */
+    private TextView lblEstadisticas;
+
+    /**
+     * TextView con la mejor, la peor y la media de las vueltas
+     */
+    private TextView lblVueltas;
+
+    /**
+     * Lote en el que el servicio escribe las vueltas nuevas desde la última lectura
+     */
+    private final LoteVueltas loteVueltas = new LoteVueltas();
+
+    /**
+     * Muestra las vueltas de la sesión, de la más reciente a la más antigua
+     */
+    private final AdaptadorVueltas adaptadorVueltas = new AdaptadorVueltas();
+
+    /**
+     * Da formato a los tiempos de las vueltas
+     */
+    private final TextoTiempo textoVuelta = new TextoTiempo();
+
     /**
      * Botón para empezar o reanudar el servicio
      */
     private Button btnEmpezar;
 
+    /**
+     * Instante de onCreate, en la escala de {@link SystemClock#elapsedRealtime()}, con el que se mide el tiempo hasta el primer fotograma
+     */
+    private long inicioCreacion;
+
+    /**
+     * Instante de la última llamada a bindService, en la escala de {@link SystemClock#elapsedRealtime()}, con el que se mide lo que
+     * tarda la conexión con el servicio
+     */
+    private long inicioConexion;
+
     /**
      * Instancia del servicio para acceder a sus métodos
      */
@@ -47,6 +139,47 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
      */
     private Intent intent;
 
+    /**
+     * Intent con el que se conecta al servicio. En {@link ServicioContador#PROCESO_SEPARADO} lleva
+     * {@link ServicioContador#ACCION_MENSAJERO}
+     */
+    private Intent intentConexion;
+
+    /**
+     * Mensajero del servicio en {@link ServicioContador#PROCESO_SEPARADO}. Es null si no está conectada
+     */
+    private Messenger mensajero;
+
+    /**
+     * Recibe en el hilo principal los avisos del servicio en {@link ServicioContador#PROCESO_SEPARADO}, y los entrega a
+     * {@link MainActivity#suscriptor} como si llegaran del difusor
+     */
+    private final Messenger receptor = new Messenger(new Handler(Looper.getMainLooper(), new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (msg.what != ServicioContador.MENSAJE_ACTUALIZADO)
+                return false;
+
+            suscriptor.alRecibir(msg.arg1, msg.arg2);
+            return true;
+        }
+    }));
+
+    /**
+     * Página en la que publica el servicio en {@link ServicioContador#PROCESO_SEPARADO}. Es null hasta que el servicio la crea
+     */
+    private PaginaContador.Lector pagina;
+
+    /**
+     * Última lectura de {@link MainActivity#pagina}
+     */
+    private final PaginaContador.Instantanea instantanea = new PaginaContador.Instantanea();
+
+    /**
+     * Número de vueltas con el que se pintó el resumen leído de {@link MainActivity#pagina}
+     */
+    private long vueltasPintadas;
+
     /**
      * Estado actual de la cuenta del servicio.
      * <p>
@@ -54,35 +187,140 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
      */
     private int estadoServicio;
 
+    /**
+     * Ancla de la cuenta del servicio con la que se pinta cada fotograma en {@link MainActivity#MODO_PRECISO}
+     */
+    private AnclaNanos anclaNanos = AnclaNanos.DETENIDA;
+
+    /**
+     * Indica si la activity está entre onResume y onPause, que es cuando se pinta en cada fotograma
+     */
+    private boolean visible;
+
+    /**
+     * Indica si {@link MainActivity#fotograma} está programado en el {@link Choreographer}
+     */
+    private boolean pintandoFotogramas;
+
+    /**
+     * Pinta la cuenta con milisegundos en cada fotograma mientras esté en marcha y la activity sea visible
+     */
+    private final Choreographer.FrameCallback fotograma = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            pintandoFotogramas = false;
+            pintarMilis();
+            actualizarVueltas();
+            programarFotograma();
+        }
+    };
+
+    /**
+     * Suscripción a la cuenta del servicio. Es null si la activity no está suscrita
+     */
+    private DifusorContador.Suscripcion suscripcion;
+
+    /**
+     * Mide el tiempo que ocupa cada entrega de la cuenta en el hilo principal
+     */
+    private final MedidorTiempo medidorEntrega = new MedidorTiempo(MUESTRAS_MEDICION);
+
+    /**
+     * Recibe el estado y el segundo de la cuenta en el hilo principal. Al suscribirse recibe el valor actual, y después solo el último si
+     * la interfaz va retrasada
+     */
+    private final DifusorContador.Suscriptor suscriptor = new DifusorContador.Suscriptor() {
+        @Override
+        public void alSuscribirse(DifusorContador.Suscripcion suscripcion) {
+            suscripcion.pedir(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void alRecibir(int estado, int segundo) {
+            long inicio = System.nanoTime();
+            if (estado != estadoServicio)
+                actualizarEstado(estado);
+            // En el modo preciso el texto lo pinta cada fotograma, y el tick de cada segundo solo trae los cambios de estado
+            if (!MODO_PRECISO)
+                actualizarContador(segundo);
+            actualizarVueltas();
+
+            long media = medidorEntrega.medir(System.nanoTime() - inicio);
+            if (media >= 0)
+                Log.d("MAIN ACTIVITY", "Tiempo en el hilo principal por tick: " + media / 1000 + " us");
+        }
+
+        @Override
+        public void alCompletar() {
+            suscripcion = null;
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        inicioCreacion = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
         btnEmpezar = findViewById(R.id.btnEmpezar);
         Button btnParar = findViewById(R.id.btnParar);
         Button btnPausar = findViewById(R.id.btnPausar);
+        Button btnAvisar = findViewById(R.id.btnAvisar);
+        Button btnVuelta = findViewById(R.id.btnVuelta);
 
         btnEmpezar.setOnClickListener(this);
         btnParar.setOnClickListener(this);
         btnPausar.setOnClickListener(this);
+        btnAvisar.setOnClickListener(this);
+        btnVuelta.setOnClickListener(this);
 
         lblSegundoActual = findViewById(R.id.lblContador);
+        lblEstadisticas = findViewById(R.id.lblEstadisticas);
+        lblVueltas = findViewById(R.id.lblVueltas);
+        ListView lstVueltas = findViewById(R.id.lstVueltas);
+        lstVueltas.setAdapter(adaptadorVueltas);
 
         intent = new Intent(this, ServicioContador.class);
+        intentConexion = ServicioContador.PROCESO_SEPARADO
+                ? new Intent(this, ServicioContador.class).setAction(ServicioContador.ACCION_MENSAJERO) : intent;
 
         estadoServicio = ServicioContador.ESTADO_DETENIDO;
+        mostrarEstadoGuardado();
+        medirPrimerFotograma();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        inicioConexion = SystemClock.elapsedRealtime();
+        bindService(intentConexion, this, Context.BIND_AUTO_CREATE);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        bindService(intent, this, Context.BIND_AUTO_CREATE);
+        visible = true;
+        programarFotograma();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        visible = false;
+        programarFotograma();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
+        if (suscripcion != null) {
+            suscripcion.cancelar();
+            suscripcion = null;
+        }
+        if (mensajero != null) {
+            enviarMensaje(ServicioContador.MENSAJE_DESUSCRIBIR, 0);
+            mensajero = null;
+        }
         unbindService(this);
         Log.d("MAIN ACTIVITY", "STOP");
     }
@@ -90,6 +328,13 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     @Override
     protected void onDestroy() {
         Log.i("ACTIVITY", "DESTRUIDO");
+        if (pagina != null) {
+            try {
+                pagina.close();
+            } catch (IOException e) {
+                Log.e("MAIN ACTIVITY", "No se puede cerrar la página del servicio", e);
+            }
+        }
         super.onDestroy();
     }
 
@@ -98,53 +343,369 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         int id = v.getId();
         if (id == R.id.btnEmpezar)
             empezarServicio();
+        else if (mensajero != null)
+            enviarComando(id);
+        else if (servicio == null)
+            // Aún no se ha conectado, o se ha desconectado al morir el proceso del servicio, y no hay a quién enviar el comando
+            Log.w("MAIN ACTIVITY", "Botón pulsado sin conexión con el servicio");
         else if (id == R.id.btnParar)
             servicio.stop();
         else if (id == R.id.btnPausar)
             servicio.pause();
+        else if (id == R.id.btnAvisar)
+            servicio.programarAviso(SEGUNDO_AVISO);
+        else if (id == R.id.btnVuelta && servicio.vuelta())
+            actualizarVueltas();
     }
 
     @Override
     public void onServiceConnected(ComponentName name, IBinder service) {
-        ServicioContador.LocalBinder binder = (ServicioContador.LocalBinder) service;
-        servicio = binder.getServiceInstance();
-        servicio.registrarActivity(MainActivity.this);
-        actualizarContador(servicio.cargarSegundo());
+        if (ServicioContador.PROCESO_SEPARADO) {
+            mensajero = new Messenger(service);
+            enviarMensaje(ServicioContador.MENSAJE_SUSCRIBIR, 0);
+        } else {
+            ServicioContador.LocalBinder binder = (ServicioContador.LocalBinder) service;
+            servicio = binder.getServiceInstance();
+            suscripcion = servicio.suscribir(suscriptor);
+        }
+        // Mientras no estaba conectada la cuenta ha podido cambiar de estado y volver al mismo, con otra ancla
+        actualizarAncla();
+        actualizarEstadisticas();
+        actualizarVueltas();
+        Log.d("MAIN ACTIVITY", "Conectada al servicio en " + (SystemClock.elapsedRealtime() - inicioConexion) + " ms");
         Log.i("SERVICIO", "REGISTRADO");
     }
 
     @Override
     public void onServiceDisconnected(ComponentName name) {
+        // Solo ocurre si muere el proceso del servicio. Al volver a crearlo se conecta de nuevo y vuelve a suscribirse
+        mensajero = null;
     }
 
-    @Override
-    public void actualizarContador(int segundoActual) {
-        lblSegundoActual.setText(String.valueOf(segundoActual));
+    /**
+     * Envía al servicio el mensaje del botón pulsado en {@link ServicioContador#PROCESO_SEPARADO}
+     *
+     * @param idBoton id del botón
+     */
+    private void enviarComando(int idBoton) {
+        if (idBoton == R.id.btnParar)
+            enviarMensaje(ServicioContador.MENSAJE_COMANDO, MaquinaEstados.COMANDO_PARAR);
+        else if (idBoton == R.id.btnPausar)
+            enviarMensaje(ServicioContador.MENSAJE_COMANDO, MaquinaEstados.COMANDO_PAUSAR);
+        else if (idBoton == R.id.btnAvisar)
+            enviarMensaje(ServicioContador.MENSAJE_AVISO, SEGUNDO_AVISO);
+        else if (idBoton == R.id.btnVuelta)
+            enviarMensaje(ServicioContador.MENSAJE_VUELTA, 0);
     }
 
-    @Override
-    public void actualizarEstado(int estado) {
+    /**
+     * Envía un mensaje a {@link MainActivity#mensajero}, con {@link MainActivity#receptor} como destino de las respuestas
+     *
+     * @param what uno de los MENSAJE_ de {@link ServicioContador}
+     * @param arg1 argumento del mensaje
+     */
+    private void enviarMensaje(int what, int arg1) {
+        Message mensaje = Message.obtain(null, what, arg1, 0);
+        mensaje.replyTo = receptor;
+        if (what == ServicioContador.MENSAJE_COMANDO)
+            mensaje.getData().putLong(ServicioContador.EXTRA_MARCA_TIEMPO, SystemClock.elapsedRealtimeNanos());
+        try {
+            mensajero.send(mensaje);
+        } catch (RemoteException e) {
+            Log.e("MAIN ACTIVITY", "El proceso del servicio ya no existe", e);
+        }
+    }
+
+    /**
+     * Lee la última publicación de la página del servicio en {@link MainActivity#instantanea}, abriéndola si aún no se ha abierto
+     *
+     * @return true si se ha leído una publicación de este arranque del dispositivo
+     */
+    private boolean leerPagina() {
+        if (pagina == null)
+            pagina = ServicioContador.abrirPagina(this);
+        return pagina != null && pagina.leer(instantanea)
+                && instantanea.esDeEsteArranque(SystemClock.elapsedRealtime(), System.currentTimeMillis());
+    }
+
+    /**
+     * Pinta la cuenta con el último estado guardado por el servicio, sin esperar a conectarse a él. Si el servicio no está en marcha,
+     * al conectarse lo restaurará desde el mismo estado, así que el valor coincide con el que enviará después
+     */
+    private void mostrarEstadoGuardado() {
+        // El servicio de otro proceso publica su estado actual, que es más reciente que el guardado en el último cambio de estado
+        if (ServicioContador.PROCESO_SEPARADO && leerPagina()) {
+            estadoServicio = instantanea.estado;
+            if (estadoServicio == ServicioContador.ESTADO_PAUSADO)
+                btnEmpezar.setText(R.string.reanudar);
+            anclaNanos = instantanea.getAncla();
+            pintarMilis();
+            return;
+        }
+
+        AlmacenEstado.EstadoGuardado guardado = ServicioContador.leerEstadoGuardado(this);
+        if (guardado == null) {
+            actualizarContador(ServicioContador.SEGUNDO_POR_DEFECTO);
+            return;
+        }
+
+        estadoServicio = guardado.estado;
+        if (estadoServicio == ServicioContador.ESTADO_PAUSADO)
+            btnEmpezar.setText(R.string.reanudar);
+        if (MODO_PRECISO) {
+            anclaNanos = guardado.anclaNanos(SystemClock.elapsedRealtime(), System.currentTimeMillis(), SystemClock.elapsedRealtimeNanos());
+            pintarMilis();
+        } else {
+            long milis = guardado.milisTranscurridos(SystemClock.elapsedRealtime(), System.currentTimeMillis());
+            actualizarContador((int) (milis / 1000));
+        }
+    }
+
+    /**
+     * Registra el tiempo hasta que se dibuja el primer fotograma, que ya muestra la cuenta correcta, desde onCreate y desde que se creó
+     * el proceso, y lo indica al sistema con {@link #reportFullyDrawn()}
+     */
+    private void medirPrimerFotograma() {
+        final View raiz = getWindow().getDecorView();
+        raiz.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                raiz.getViewTreeObserver().removeOnPreDrawListener(this);
+                long ahora = SystemClock.elapsedRealtime();
+                Log.d("MAIN ACTIVITY", "Primer fotograma con la cuenta correcta " + (ahora - inicioCreacion) + " ms después de onCreate y "
+                        + (ahora - Process.getStartElapsedRealtime()) + " ms después de crear el proceso"
+                        + (servicio == null && mensajero == null ? ", antes de conectarse al servicio" : ""));
+                reportFullyDrawn();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Muestra el segundo actual de la cuenta
+     *
+     * @param segundoActual segundo actual de la cuenta principal
+     */
+    private void actualizarContador(int segundoActual) {
+        if (textoSegundo.formatear(segundoActual))
+            lblSegundoActual.setText(textoSegundo.getTexto(), 0, textoSegundo.getLongitud());
+    }
+
+    /**
+     * Muestra el estado actual de la cuenta
+     *
+     * @param estado estado actual de la cuenta
+     */
+    private void actualizarEstado(int estado) {
         estadoServicio = estado;
+        actualizarAncla();
         if (estado == ServicioContador.ESTADO_DETENIDO) {
-            lblSegundoActual.setText(String.valueOf(ServicioContador.SEGUNDO_POR_DEFECTO));
+            if (!MODO_PRECISO)
+                actualizarContador(ServicioContador.SEGUNDO_POR_DEFECTO);
+            actualizarEstadisticas();
         }
         if (estado == ServicioContador.ESTADO_PAUSADO)
             btnEmpezar.setText(R.string.reanudar);
     }
 
+    /**
+     * En {@link MainActivity#MODO_PRECISO}, pide el ancla al servicio, pinta el tiempo exacto en el que está la cuenta y empieza o deja de
+     * pintar en cada fotograma. El ancla solo cambia con el estado, así que basta con pedirla una vez por cambio
+     */
+    private void actualizarAncla() {
+        if (!MODO_PRECISO)
+            return;
+        if (mensajero != null && leerPagina())
+            anclaNanos = instantanea.getAncla();
+        else if (servicio != null)
+            anclaNanos = servicio.getAnclaNanos();
+        else
+            return;
+
+        pintarMilis();
+        programarFotograma();
+    }
+
+    /**
+     * Pinta la cuenta con milisegundos a partir de {@link MainActivity#anclaNanos}. No crea ningún objeto y no toca la vista si el texto
+     * no ha cambiado
+     */
+    private void pintarMilis() {
+        if (textoSegundo.formatearMilis(anclaNanos.milisTranscurridos(SystemClock.elapsedRealtimeNanos())))
+            lblSegundoActual.setText(textoSegundo.getTexto(), 0, textoSegundo.getLongitud());
+    }
+
+    /**
+     * Programa el siguiente fotograma si la activity es visible y la cuenta está en marcha, o lo quita si no
+     */
+    private void programarFotograma() {
+        boolean pintar = MODO_PRECISO && visible && anclaNanos.corriendo;
+        if (pintar == pintandoFotogramas)
+            return;
+
+        pintandoFotogramas = pintar;
+        if (pintar)
+            Choreographer.getInstance().postFrameCallback(fotograma);
+        else
+            Choreographer.getInstance().removeFrameCallback(fotograma);
+    }
+
+    /**
+     * Muestra los totales de las sesiones. Se leen ya calculados, así que no depende del número de sesiones guardadas
+     */
+    private void actualizarEstadisticas() {
+        EstadisticasSesiones.Resumen resumen = servicio != null ? servicio.leerEstadisticas()
+                : mensajero != null ? leerEstadisticas() : null;
+        if (resumen != null)
+            lblEstadisticas.setText(ServicioContador.textoEstadisticas(this, resumen));
+    }
+
+    /**
+     * Pide al servicio las vueltas nuevas y las añade a la lista. Si no hay ninguna no crea ningún objeto ni toca las vistas, así que se
+     * puede llamar en cada fotograma
+     */
+    private void actualizarVueltas() {
+        if (mensajero != null) {
+            actualizarResumenVueltas();
+            return;
+        }
+        if (servicio == null || !servicio.leerVueltas(loteVueltas))
+            return;
+
+        adaptadorVueltas.aplicar(loteVueltas);
+        if (loteVueltas.vueltas == 0) {
+            lblVueltas.setText(null);
+            return;
+        }
+        lblVueltas.setText(getString(R.string.resumen_vueltas, loteVueltas.vueltas, textoMilis(loteVueltas.mejor),
+                textoMilis(loteVueltas.peor), textoMilis(loteVueltas.media)));
+    }
+
+    /**
+     * Muestra el resumen de las vueltas publicado en la página del servicio en {@link ServicioContador#PROCESO_SEPARADO}. Leer la página
+     * no crea objetos, y solo se toca la vista si ha cambiado el número de vueltas
+     */
+    private void actualizarResumenVueltas() {
+        if (!leerPagina() || instantanea.vueltas == vueltasPintadas)
+            return;
+
+        vueltasPintadas = instantanea.vueltas;
+        if (vueltasPintadas == 0) {
+            lblVueltas.setText(null);
+            return;
+        }
+        lblVueltas.setText(getString(R.string.resumen_vueltas, vueltasPintadas, textoMilis(instantanea.mejor),
+                textoMilis(instantanea.peor), textoMilis(instantanea.media)));
+    }
+
+    /**
+     * Lee los totales de las sesiones del archivo, ya que en {@link ServicioContador#PROCESO_SEPARADO} el servicio no está en este proceso
+     *
+     * @return totales de las sesiones, o null si no se pueden leer
+     */
+    private EstadisticasSesiones.Resumen leerEstadisticas() {
+        try {
+            return ServicioContador.leerEstadisticasGuardadas(this);
+        } catch (IOException e) {
+            Log.e("MAIN ACTIVITY", "No se pueden leer las estadísticas", e);
+            return null;
+        }
+    }
+
+    /**
+     * Da formato a una duración de vuelta
+     *
+     * @param nanos duración en nanosegundos
+     * @return "MM:SS.mmm"
+     */
+    private String textoMilis(long nanos) {
+        textoVuelta.formatearMilis(nanos / 1_000_000);
+        return textoVuelta.toString();
+    }
+
     /**
      * Si {@link MainActivity#estadoServicio} es diferente a {@link ServicioContador#ESTADO_CORRIENDO} empieza un {@link ServicioContador}.
      */
     private void empezarServicio() {
-        if (estadoServicio != ServicioContador.ESTADO_CORRIENDO) {
-            findViewById(R.id.btnEmpezar).setEnabled(false);
-            startForegroundService(intent);
-            new Handler().postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    findViewById(R.id.btnEmpezar).setEnabled(true);
-                }
-            }, 500);
+        if (estadoServicio != ServicioContador.ESTADO_CORRIENDO)
+            startForegroundService(intent.putExtra(ServicioContador.EXTRA_MARCA_TIEMPO, SystemClock.elapsedRealtimeNanos())
+                    .putExtra(ServicioContador.EXTRA_ORIGEN, CajaNegra.ORIGEN_ACTIVIDAD));
+    }
+
+    /**
+     * Adaptador de la lista de vueltas. Guarda las vueltas en arrays de {@code long} que crecen al añadir lotes, así que cada vuelta
+     * nueva solo copia dos números; los textos se crean solo para las filas que se pintan
+     */
+    private class AdaptadorVueltas extends BaseAdapter {
+
+        /**
+         * Número de la primera vuelta guardada, empezando en 0
+         */
+        private long primera;
+
+        private long[] duraciones = new long[16];
+
+        private long[] splits = new long[16];
+
+        private int tamano;
+
+        /**
+         * Añade las vueltas del lote, vaciando antes la lista si el lote lo indica
+         *
+         * @param lote vueltas nuevas
+         */
+        void aplicar(LoteVueltas lote) {
+            if (lote.reinicio) {
+                primera = lote.primera;
+                tamano = 0;
+            }
+            if (tamano + lote.tamano > splits.length) {
+                int capacidad = Math.max(tamano + lote.tamano, splits.length * 2);
+                duraciones = Arrays.copyOf(duraciones, capacidad);
+                splits = Arrays.copyOf(splits, capacidad);
+            }
+            System.arraycopy(lote.duraciones, 0, duraciones, tamano, lote.tamano);
+            System.arraycopy(lote.splits, 0, splits, tamano, lote.tamano);
+            tamano += lote.tamano;
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return tamano;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return primera + indice(position);
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView fila = (TextView) convertView;
+            if (fila == null)
+                fila = (TextView) LayoutInflater.from(parent.getContext()).inflate(android.R.layout.simple_list_item_1, parent, false);
+
+            int indice = indice(position);
+            fila.setText(getString(R.string.fila_vuelta, primera + indice + 1, textoMilis(duraciones[indice]), textoMilis(splits[indice])));
+            return fila;
+        }
+
+        /**
+         * La vuelta más reciente se muestra arriba
+         */
+        private int indice(int position) {
+            return tamano - 1 - position;
         }
     }
 }
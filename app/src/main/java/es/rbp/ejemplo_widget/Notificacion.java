@@ -4,25 +4,31 @@ import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.text.format.DateUtils;
+import android.view.View;
 import android.widget.RemoteViews;
 
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
-import es.rbp.ejemplo_widget.recivers.EnviarAccionAServicio;
+import es.rbp.ejemplo_widget.contador.CajaNegra;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+import es.rbp.ejemplo_widget.contador.TextoTiempo;
 import es.rbp.ejemplo_widget.servicios.ServicioContador;
 
 /**
  * @author Ricardo Bordería Pi
  * <p>
  * Para mantener un servicio vivo aunque el Activity que lo empezo sea destruida se necesita de una notificación que mantenga su ciclo de vida.
- * Esta clase se encarga de la creación y actualización de la notificación. Es una notificación con tres funciones:
+ * Esta clase se encarga de la creación y actualización de la notificación. Es una notificación con cuatro funciones:
  * <p>
  * 1.- Puede reanudar el contador
  * <p>
  * 2.- Puede pausar el contador
  * <p>
- * 3.- Muestra el segundo actual del contador
+ * 3.- Puede marcar una vuelta
+ * <p>
+ * 4.- Muestra el segundo actual del contador
  * <p>
  * IMPORTANTE: Para que se muestre la notificación en la pantalla de bloqueo se debe permitir el acceso a la pantalla de bloqueo desde los ajustes
  * del sistema
@@ -34,11 +40,26 @@ public class Notificacion {
      */
     public static final int FOREGROUND_ID = 1;
 
+    /**
+     * El ID de la notificación que avisa de que la cuenta ha llegado al segundo programado
+     */
+    public static final int AVISO_ID = 2;
+
+    /**
+     * El ID de la notificación de las alertas vencidas, que se sustituye en cada avance
+     */
+    public static final int ALERTA_ID = 3;
+
     /**
      * Nombre del canal en el que se crea la notificación
      */
     public static final String CHANNEL_ID = "canalnotificacion";
 
+    /**
+     * Código de request de los PendingIntent de la notificación
+     */
+    public static final int REQUEST_CODE = 0;
+
     /**
      * Instancia de la clase siguiendo el patrón singleton
      */
@@ -50,11 +71,57 @@ public class Notificacion {
     private Context context;
 
     /**
-     * Objeto con el layout personalizado que posee la notificación.
+     * PendingIntent que abre {@link MainActivity} al pulsar la notificación
+     */
+    private PendingIntent pendingCargarActivityIntent;
+
+    /**
+     * PendingIntent que detiene el servicio cuando se elimina la notificación
+     */
+    private PendingIntent pendingIntentDelete;
+
+    /**
+     * PendingIntent del botón de Reanudar
+     */
+    private PendingIntent pendingIntentReanudar;
+
+    /**
+     * PendingIntent del botón de Pausar
+     */
+    private PendingIntent pendingIntentPausar;
+
+    /**
+     * PendingIntent del botón de Vuelta
+     */
+    private PendingIntent pendingIntentVuelta;
+
+    /**
+     * Estado de la cuenta que muestra la notificación.
      * <p>
-     * Mencionar que el aspecto de los botones por defecto puede verse alterada según el dispositivo en el que se ejecute la aplicación.
+     * El servicio actualiza la notificación desde el hilo del tick y desde el de los comandos, así que este campo,
+     * {@link Notificacion#baseCronometro}, {@link Notificacion#texto} y {@link Notificacion#notification} solo se usan con el cerrojo
+     * de la instancia tomado
      */
-    private RemoteViews layoutNotificacion;
+    private int estado = ServicioContador.ESTADO_DETENIDO;
+
+    /**
+     * Indica si la notificación muestra un {@link android.widget.Chronometer} mientras la cuenta está en marcha.
+     * <p>
+     * Es {@link ServicioContador#MODO_CRONOMETRO}, y solo se cambia en las pruebas para comprobar los dos modos con la misma compilación
+     */
+    boolean modoCronometro = ServicioContador.MODO_CRONOMETRO;
+
+    /**
+     * Base del cronómetro que muestra la notificación
+     *
+     * @see Notificacion#actualizarEstado(int, int, long)
+     */
+    private long baseCronometro;
+
+    /**
+     * Texto del segundo que muestra la notificación. Evita volver a publicarla en los ticks en los que no cambia
+     */
+    private final TextoTiempo texto = new TextoTiempo();
 
     /**
      * Instancia de la clase {@link Notification} que contiene la notificación
@@ -75,38 +142,29 @@ public class Notificacion {
         // Hay que añadir la propiedad android:launchMode="singleTop" en la etiqueta del activity que se quiere iniciar.
         // Si no se añade, se crearán varias ventanas una encima de otra, pero sigue funcionando aunque no se añada esta propiedad
         Intent cargarActivityIntent = new Intent(context, MainActivity.class);
-        PendingIntent pendingCargarActivityIntent = PendingIntent.getActivity(context, EnviarAccionAServicio.REQUEST_CODE,
+        this.pendingCargarActivityIntent = PendingIntent.getActivity(context, REQUEST_CODE,
                 cargarActivityIntent, PendingIntent.FLAG_UPDATE_CURRENT);
 
+        // Los botones envían el comando directamente al servicio
         // Intent para detener el servicio cuando se elimine la notificación
-        Intent deleteIntent = new Intent(context, EnviarAccionAServicio.class).setAction(ServicioContador.ACCION_PARAR);
-        PendingIntent pendingIntentDelete = PendingIntent.getBroadcast(context, EnviarAccionAServicio.REQUEST_CODE,
-                deleteIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+        this.pendingIntentDelete = ServicioContador.crearPendingIntent(context, REQUEST_CODE,
+                ServicioContador.ACCION_PARAR, MaquinaEstados.COMANDO_PARAR,
+                ServicioContador.ID_CONTADOR_PRINCIPAL, CajaNegra.ORIGEN_NOTIFICACION);
 
         // Intent para reanudar la cuenta. Se ejecuta cuendo el usuario pulsa el botón de Reanudar
-        Intent intentReanudar = new Intent(context, EnviarAccionAServicio.class).setAction(ServicioContador.ACCION_REANUDAR);
-        PendingIntent pendingIntentReanudar = PendingIntent.getBroadcast(context, EnviarAccionAServicio.REQUEST_CODE,
-                intentReanudar, PendingIntent.FLAG_UPDATE_CURRENT);
+        this.pendingIntentReanudar = ServicioContador.crearPendingIntent(context, REQUEST_CODE,
+                ServicioContador.ACCION_REANUDAR, MaquinaEstados.COMANDO_REANUDAR,
+                ServicioContador.ID_CONTADOR_PRINCIPAL, CajaNegra.ORIGEN_NOTIFICACION);
 
         // Intent para pausar la cuenta del servicio. Se ejecuta cuendo el usuario pulsa sobre el botón de Pausar
-        Intent intentPsausar = new Intent(context, EnviarAccionAServicio.class).setAction(ServicioContador.ACCION_PAUSAR);
-        PendingIntent pendingIntentPausar = PendingIntent.getBroadcast(context, EnviarAccionAServicio.REQUEST_CODE,
-                intentPsausar, PendingIntent.FLAG_UPDATE_CURRENT);
-
-        this.layoutNotificacion = new RemoteViews(context.getPackageName(), R.layout.notificacion);
-        this.layoutNotificacion.setOnClickPendingIntent(R.id.btnEmpezarNotificacion, pendingIntentReanudar);
-        this.layoutNotificacion.setOnClickPendingIntent(R.id.btnPararNotificacion, pendingIntentPausar);
+        this.pendingIntentPausar = ServicioContador.crearPendingIntent(context, REQUEST_CODE,
+                ServicioContador.ACCION_PAUSAR, MaquinaEstados.COMANDO_PAUSAR,
+                ServicioContador.ID_CONTADOR_PRINCIPAL, CajaNegra.ORIGEN_NOTIFICACION);
 
+        // Intent para marcar una vuelta. Se ejecuta cuando el usuario pulsa sobre el botón de Vuelta
+        this.pendingIntentVuelta = ServicioContador.crearPendingIntentVuelta(context, REQUEST_CODE, CajaNegra.ORIGEN_NOTIFICACION);
 
-        this.notification = new NotificationCompat.Builder(context, CHANNEL_ID)
-                .setContent(this.layoutNotificacion)
-                .setContentTitle(context.getString(R.string.app_name))
-                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
-                .setDeleteIntent(pendingIntentDelete)
-                .setContentIntent(pendingCargarActivityIntent)
-                .setAutoCancel(false)
-                .setSmallIcon(R.drawable.clock)
-                .build();
+        this.notification = construirNotificacion(construirVistas(ServicioContador.SEGUNDO_POR_DEFECTO));
     }
 
     /**
@@ -124,14 +182,148 @@ public class Notificacion {
     }
 
     /**
-     * Actualiza el contador de la notificación con el segundo que indica el servicio
+     * Crea un {@link RemoteViews} nuevo con el layout personalizado de la notificación.
+     * <p>
+     * Cada llamada a los métodos set de un {@link RemoteViews} añade una acción que se envía al sistema junto a la notificación,
+     * así que reutilizar el mismo objeto hace que crezca en cada actualización. Creando uno nuevo a partir de los PendingIntent
+     * guardados, todas las notificaciones tienen el mismo número de acciones.
+     * <p>
+     * Mencionar que el aspecto de los botones por defecto puede verse alterada según el dispositivo en el que se ejecute la aplicación.
+     *
+     * @param segundoActual segundo de la cuenta del servicio
+     * @return layout de la notificación
+     */
+    private RemoteViews construirVistas(int segundoActual) {
+        RemoteViews layoutNotificacion = new RemoteViews(context.getPackageName(), R.layout.notificacion);
+        layoutNotificacion.setOnClickPendingIntent(R.id.btnEmpezarNotificacion, pendingIntentReanudar);
+        layoutNotificacion.setOnClickPendingIntent(R.id.btnPararNotificacion, pendingIntentPausar);
+        layoutNotificacion.setOnClickPendingIntent(R.id.btnVueltaNotificacion, pendingIntentVuelta);
+
+        if (modoCronometro) {
+            boolean corriendo = estado == ServicioContador.ESTADO_CORRIENDO;
+            layoutNotificacion.setChronometer(R.id.cronometroNotificacion, baseCronometro, null, corriendo);
+            layoutNotificacion.setViewVisibility(R.id.cronometroNotificacion, corriendo ? View.VISIBLE : View.GONE);
+            layoutNotificacion.setViewVisibility(R.id.lblContadorNotificacion, corriendo ? View.GONE : View.VISIBLE);
+        }
+        // RemoteViews guarda el texto hasta que se publica la notificación, así que necesita su propio String
+        texto.formatear(segundoActual);
+        layoutNotificacion.setTextViewText(R.id.lblContadorNotificacion, texto.toString());
+
+        return layoutNotificacion;
+    }
+
+    /**
+     * Crea la notificación con el layout indicado
+     *
+     * @param layoutNotificacion layout personalizado de la notificación
+     * @return notificación
+     */
+    private Notification construirNotificacion(RemoteViews layoutNotificacion) {
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContent(layoutNotificacion)
+                .setContentTitle(context.getString(R.string.app_name))
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                .setDeleteIntent(pendingIntentDelete)
+                .setContentIntent(pendingCargarActivityIntent)
+                .setAutoCancel(false)
+                // En reposo el servicio no está en primer plano, así que la notificación no se puede descartar mientras la cuenta avanza
+                .setOngoing(estado == ServicioContador.ESTADO_CORRIENDO)
+                .setOnlyAlertOnce(true)
+                .setSmallIcon(R.drawable.clock)
+                .build();
+    }
+
+    /**
+     * Prepara la notificación con el segundo indicado sin publicarla
      *
      * @param segundoActual segundo de la cuenta del servicio
      */
-    public void actualizarContador(int segundoActual) {
-        notificacion.layoutNotificacion.setTextViewText(R.id.lblContadorNotificacion, String.valueOf(segundoActual));
+    synchronized void prepararContador(int segundoActual) {
+        notification = construirNotificacion(construirVistas(segundoActual));
+    }
+
+    /**
+     * Actualiza el contador de la notificación con el segundo que indica el servicio. Si el texto no cambia no se vuelve a publicar
+     *
+     * @param segundoActual segundo de la cuenta del servicio
+     * @return true si se ha publicado la notificación
+     */
+    public synchronized boolean actualizarContador(int segundoActual) {
+        if (!texto.formatear(segundoActual))
+            return false;
+
+        prepararContador(segundoActual);
+        publicar();
+        return true;
+    }
+
+    /**
+     * Actualiza la notificación cuando cambia el estado de la cuenta.
+     * <p>
+     * Mientras la cuenta está en marcha se muestra un {@link android.widget.Chronometer} que avanza por sí solo a partir de la base,
+     * por lo que no hace falta volver a publicar la notificación cada segundo. Si está pausada se muestra el segundo fijo.
+     *
+     * @param estado         estado de la cuenta del servicio
+     * @param segundoActual  segundo de la cuenta del servicio
+     * @param baseCronometro base de la cuenta en la escala de {@link android.os.SystemClock#elapsedRealtime()}
+     */
+    public synchronized void actualizarEstado(int estado, int segundoActual, long baseCronometro) {
+        this.estado = estado;
+        this.baseCronometro = baseCronometro;
+        prepararContador(segundoActual);
+        publicar();
+    }
+
+    /**
+     * Muestra una notificación aparte que avisa de que la cuenta ha llegado a un segundo
+     *
+     * @param segundo segundo de la cuenta al que ha llegado
+     * @see ServicioContador#programarAviso(int)
+     */
+    public void mostrarAviso(int segundo) {
+        mostrarAparte(AVISO_ID, context.getString(R.string.aviso, DateUtils.formatElapsedTime(segundo)));
+    }
+
+    /**
+     * Muestra una notificación aparte con las alertas que han vencido en un mismo avance. Sustituye a la anterior, para que miles de
+     * alertas no llenen la barra de notificaciones
+     *
+     * @param vencidas número de alertas vencidas
+     * @param etiqueta etiqueta de la última alerta vencida, que se muestra si solo hay una
+     * @param segundo  segundo de la cuenta al que ha llegado
+     * @see ServicioContador#programarAlerta(int, int)
+     */
+    public void mostrarAlertas(int vencidas, int etiqueta, int segundo) {
+        String tiempo = DateUtils.formatElapsedTime(segundo);
+        mostrarAparte(ALERTA_ID, vencidas == 1 ? context.getString(R.string.alerta, etiqueta, tiempo)
+                : context.getString(R.string.alertas, vencidas, tiempo));
+    }
+
+    /**
+     * Muestra una notificación de prioridad alta, aparte de la del servicio, que abre {@link MainActivity} al pulsarla
+     *
+     * @param id    ID de la notificación
+     * @param texto texto de la notificación
+     */
+    private void mostrarAparte(int id, String texto) {
+        Notification notificacionAparte = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle(context.getString(R.string.app_name))
+                .setContentText(texto)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setContentIntent(pendingCargarActivityIntent)
+                .setAutoCancel(true)
+                .setSmallIcon(R.drawable.clock)
+                .build();
+        NotificationManagerCompat.from(context).notify(id, notificacionAparte);
+    }
+
+    /**
+     * Publica la última notificación preparada. Se llama con el cerrojo tomado, para que una actualización del tick no publique la
+     * notificación que ha dejado a medias un cambio de estado ni al revés
+     */
+    private void publicar() {
         NotificationManagerCompat notificationManagerCompat = NotificationManagerCompat.from(context);
-        notificationManagerCompat.notify(FOREGROUND_ID, notificacion.notification);
+        notificationManagerCompat.notify(FOREGROUND_ID, notification);
     }
 
     /**
@@ -140,7 +332,7 @@ public class Notificacion {
      * @return notificación de la clase
      * @see Notificacion#notification
      */
-    public Notification getNotification() {
-        return notificacion.notification;
+    public synchronized Notification getNotification() {
+        return notification;
     }
 }
@@ -6,12 +6,25 @@ import android.appwidget.AppWidgetProvider;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
+import android.view.View;
 import android.widget.RemoteViews;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 import es.rbp.ejemplo_widget.MainActivity;
 import es.rbp.ejemplo_widget.R;
-import es.rbp.ejemplo_widget.recivers.EnviarAccionAServicio;
+import es.rbp.ejemplo_widget.contador.AlmacenEstado;
+import es.rbp.ejemplo_widget.contador.CajaNegra;
+import es.rbp.ejemplo_widget.contador.EstadisticasSesiones;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+import es.rbp.ejemplo_widget.contador.MotorTick;
+import es.rbp.ejemplo_widget.contador.PaginaContador;
+import es.rbp.ejemplo_widget.contador.TextoTiempo;
 import es.rbp.ejemplo_widget.servicios.ServicioContador;
 
 public class WidgetProvider extends AppWidgetProvider {
@@ -22,69 +35,427 @@ public class WidgetProvider extends AppWidgetProvider {
     public static final int REQUEST_CODE = 1;
 
     /**
-     * Segundo en el que se encuantra la cuenta del servicio
+     * Nombre de las preferencias en las que se guarda la cuenta que muestra cada widget
+     */
+    private static final String PREFERENCIAS = "widgets";
+
+    /**
+     * Prefijo de la clave de las preferencias con la cuenta de un widget, seguido del id del widget
+     */
+    private static final String CLAVE_CONTADOR = "contador_";
+
+    /**
+     * Índice de {@link WidgetProvider#pendingIntents} del PendingIntent que lanza {@link MainActivity}
+     */
+    private static final int PENDING_ABRIR = 0;
+    /**
+     * Índice de {@link WidgetProvider#pendingIntents} del PendingIntent que empieza o reanuda la cuenta
+     */
+    private static final int PENDING_EMPEZAR = 1;
+    /**
+     * Índice de {@link WidgetProvider#pendingIntents} del PendingIntent que pausa la cuenta
+     */
+    private static final int PENDING_PAUSAR = 2;
+
+    /**
+     * Valor de {@link WidgetProvider#estadoRenderizado} cuando aún no se ha enviado ningún layout completo
      */
-    private static int segundoActual = ServicioContador.SEGUNDO_POR_DEFECTO;
+    private static final int SIN_RENDERIZAR = -1;
 
     /**
-     * Estado de la cuenta del servicio
+     * PendingIntents de los botones de los widgets de cada cuenta, indexados por el id de la cuenta.
+     * <p>
+     * El id del widget no forma parte de los intents, así que todos los widgets de una cuenta comparten los mismos PendingIntents,
+     * que se crean una sola vez por cuenta en lugar de en cada actualización
      */
-    private static int estadoServicio = ServicioContador.ESTADO_DETENIDO;
+    private static final SparseArray<PendingIntent[]> pendingIntents = new SparseArray<>();
+
+    /**
+     * Estado de cada cuenta que muestran los widgets, indexado por el id de la cuenta
+     */
+    private static final SparseArray<EstadoContador> contadores = new SparseArray<>();
+
+    /**
+     * Indica si ya se ha leído el estado guardado por el servicio desde que se creó el proceso
+     */
+    private static boolean estadoRestaurado;
+
+    /**
+     * Indica si los widgets muestran un {@link android.widget.Chronometer} mientras la cuenta está en marcha.
+     * <p>
+     * Es {@link ServicioContador#MODO_CRONOMETRO}, y solo se cambia en las pruebas para comprobar los dos modos con la misma compilación
+     */
+    static boolean modoCronometro = ServicioContador.MODO_CRONOMETRO;
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        renderizar(context, appWidgetManager, appWidgetIds, true);
+    }
+
+    /**
+     * Envía el estado de las cuentas a los widgets, agrupándolos por la cuenta que muestra cada uno
+     *
+     * @param context          contexto de la aplicación
+     * @param appWidgetManager instancia de {@link AppWidgetManager}
+     * @param appWidgetIds     ids de los widgets que se actualizan
+     * @param completo         true para enviar el layout completo aunque no haya cambiado el estado
+     */
+    static void renderizar(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds, boolean completo) {
+        if (!estadoRestaurado)
+            restaurarEstado(context);
+
+        SharedPreferences preferencias = context.getSharedPreferences(PREFERENCIAS, Context.MODE_PRIVATE);
+        int[] idsContador = new int[appWidgetIds.length];
+        for (int i = 0; i < appWidgetIds.length; i++)
+            idsContador[i] = preferencias.getInt(CLAVE_CONTADOR + appWidgetIds[i], ServicioContador.ID_CONTADOR_PRINCIPAL);
+
+        boolean[] renderizados = new boolean[appWidgetIds.length];
+        for (int i = 0; i < appWidgetIds.length; i++) {
+            if (renderizados[i])
+                continue;
+
+            int[] grupo = new int[appWidgetIds.length];
+            int tamanoGrupo = 0;
+            for (int j = i; j < appWidgetIds.length; j++)
+                if (idsContador[j] == idsContador[i]) {
+                    grupo[tamanoGrupo++] = appWidgetIds[j];
+                    renderizados[j] = true;
+                }
+
+            renderizar(context, appWidgetManager, obtenerContador(idsContador[i]), Arrays.copyOf(grupo, tamanoGrupo), completo);
+        }
+    }
+
+    /**
+     * Envía el estado de una cuenta a los widgets que la muestran.
+     * <p>
+     * Si el estado y los widgets son los mismos que en el último envío completo, solo se envía el texto del contador con
+     * {@link AppWidgetManager#partiallyUpdateAppWidget(int[], RemoteViews)}, y no se envía nada si el texto tampoco ha cambiado.
+     * Si no, se envía el layout completo a todos los widgets en una sola llamada, ya que todos muestran la misma cuenta.
+     *
+     * @param context          contexto de la aplicación
+     * @param appWidgetManager instancia de {@link AppWidgetManager}
+     * @param contador         cuenta que muestran los widgets
+     * @param appWidgetIds     ids de los widgets que se actualizan
+     * @param completo         true para enviar el layout completo aunque no haya cambiado el estado
+     */
+    private static void renderizar(Context context, AppWidgetManager appWidgetManager, EstadoContador contador, int[] appWidgetIds,
+                                   boolean completo) {
+        if (!completo && contador.estadoRenderizado == contador.estado && Arrays.equals(appWidgetIds, contador.idsRenderizados)) {
+            if (!contador.texto.formatear(contador.segundo))
+                return;
+
+            RemoteViews delta = new RemoteViews(context.getPackageName(), R.layout.layout_widget);
+            delta.setTextViewText(R.id.lblContadorWidget, textoContador(contador));
+            appWidgetManager.partiallyUpdateAppWidget(appWidgetIds, delta);
+            return;
+        }
+
+        appWidgetManager.updateAppWidget(appWidgetIds, construirVistas(context, contador));
+        contador.estadoRenderizado = contador.estado;
+        contador.idsRenderizados = appWidgetIds.clone();
+    }
+
+    /**
+     * Hace que un widget muestre otra cuenta del servicio
+     *
+     * @param context    contexto de la aplicación
+     * @param widgetId   id del widget
+     * @param idContador id de la cuenta, o {@link ServicioContador#ID_CONTADOR_PRINCIPAL}
+     */
+    public static void asignarContador(Context context, int widgetId, int idContador) {
+        context.getSharedPreferences(PREFERENCIAS, Context.MODE_PRIVATE).edit()
+                .putInt(CLAVE_CONTADOR + widgetId, idContador)
+                .apply();
+
+        renderizar(context, AppWidgetManager.getInstance(context), new int[]{widgetId}, true);
+        avisarCuentasMostradas(context);
+    }
+
+    /**
+     * Devuelve las cuentas del servicio que muestra algún widget, sin contar la principal
+     *
+     * @param context contexto de la aplicación
+     * @return ids de las cuentas, sin repetir
+     */
+    public static int[] cuentasMostradas(Context context) {
+        int[] appWidgetIds = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, WidgetProvider.class));
+        if (appWidgetIds == null)
+            return new int[0];
+
+        SharedPreferences preferencias = context.getSharedPreferences(PREFERENCIAS, Context.MODE_PRIVATE);
+        int[] cuentas = new int[appWidgetIds.length];
+        int total = 0;
         for (int widgetId : appWidgetIds) {
-            RemoteViews remoteViews = new RemoteViews(context.getPackageName(), R.layout.layout_widget);
-            remoteViews.setTextViewText(R.id.lblContadorWidget, String.valueOf(segundoActual));
+            int idContador = preferencias.getInt(CLAVE_CONTADOR + widgetId, ServicioContador.ID_CONTADOR_PRINCIPAL);
+            boolean repetida = idContador == ServicioContador.ID_CONTADOR_PRINCIPAL;
+            for (int i = 0; i < total && !repetida; i++)
+                repetida = cuentas[i] == idContador;
+            if (!repetida)
+                cuentas[total++] = idContador;
+        }
+        return Arrays.copyOf(cuentas, total);
+    }
+
+    /**
+     * Avisa al servicio, si está en marcha, de las cuentas que muestran ahora los widgets
+     *
+     * @param context contexto de la aplicación
+     * @see ServicioContador#ACCION_CUENTAS_MOSTRADAS
+     */
+    private static void avisarCuentasMostradas(Context context) {
+        context.sendBroadcast(new Intent(ServicioContador.ACCION_CUENTAS_MOSTRADAS)
+                .setPackage(context.getPackageName())
+                .putExtra(ServicioContador.EXTRA_CUENTAS_MOSTRADAS, cuentasMostradas(context)));
+    }
+
+    /**
+     * Devuelve el estado de una cuenta, creándolo si es la primera vez que se pide
+     *
+     * @param idContador id de la cuenta
+     * @return estado de la cuenta
+     */
+    private static EstadoContador obtenerContador(int idContador) {
+        EstadoContador contador = contadores.get(idContador);
+        if (contador == null) {
+            contador = new EstadoContador(idContador);
+            contadores.put(idContador, contador);
+        }
+        return contador;
+    }
 
-            // Lanza MainActivity
-            Intent empezarActivityIntent = new Intent(context, MainActivity.class);
-            PendingIntent empezarActivityPendingIntent = PendingIntent.getActivity(context, REQUEST_CODE, empezarActivityIntent, 0);
+    /**
+     * Lee el último estado guardado por {@link ServicioContador} para que, tras reiniciarse el proceso, el widget no muestre 0
+     * hasta que el servicio vuelva a enviar su estado. Se lee sin abrir el almacén, así que no crea el archivo ni espera al servicio.
+     * <p>
+     * En {@link ServicioContador#PROCESO_SEPARADO} se lee antes la página en la que publica el servicio, que sigue en marcha aunque este
+     * proceso se haya reiniciado
+     *
+     * @param context contexto de la aplicación
+     */
+    private static void restaurarEstado(Context context) {
+        estadoRestaurado = true;
+        long inicio = System.nanoTime();
+        if (ServicioContador.PROCESO_SEPARADO && restaurarDePagina(context)) {
+            Log.d("ESTADO WIDGET", "Página del servicio leída en " + (System.nanoTime() - inicio) / 1000 + " us");
+            return;
+        }
 
-            // Empieza la cuenta
-            Intent intentEmpezarReanudar = new Intent(context, WidgetProvider.class).setAction(ServicioContador.ACCION_EMPEZAR);
-            PendingIntent pendingIntentEmpezarReanudar = PendingIntent.getBroadcast(context, REQUEST_CODE,
-                    intentEmpezarReanudar, PendingIntent.FLAG_UPDATE_CURRENT);
+        AlmacenEstado.EstadoGuardado guardado = ServicioContador.leerEstadoGuardado(context);
+        if (guardado == null)
+            return;
 
-            // Pausa la cuenta
-            Intent intentPausar = new Intent(context, EnviarAccionAServicio.class).setAction(ServicioContador.ACCION_PAUSAR);
-            PendingIntent pendingIntentPausar = PendingIntent.getBroadcast(context, EnviarAccionAServicio.REQUEST_CODE,
-                    intentPausar, PendingIntent.FLAG_UPDATE_CURRENT);
+        long ahora = SystemClock.elapsedRealtime();
+        long milis = guardado.milisTranscurridos(ahora, System.currentTimeMillis());
+        EstadoContador principal = obtenerContador(ServicioContador.ID_CONTADOR_PRINCIPAL);
+        principal.estado = guardado.estado;
+        principal.segundo = (int) (milis / MotorTick.MILIS_POR_SEGUNDO);
+        principal.base = ahora - milis;
+        Log.d("ESTADO WIDGET", "Estado guardado leído en " + (System.nanoTime() - inicio) / 1000 + " us");
+    }
 
-            remoteViews.setOnClickPendingIntent(R.id.rootWidget, empezarActivityPendingIntent);
-            remoteViews.setOnClickPendingIntent(R.id.btnEmpezarWidget, pendingIntentEmpezarReanudar);
-            remoteViews.setOnClickPendingIntent(R.id.btnPausarWidget, pendingIntentPausar);
+    /**
+     * Lee el estado de la cuenta principal de la página en la que publica el servicio desde su proceso
+     *
+     * @param context contexto de la aplicación
+     * @return true si se ha leído una publicación de este arranque del dispositivo
+     */
+    private static boolean restaurarDePagina(Context context) {
+        PaginaContador.Instantanea instantanea = new PaginaContador.Instantanea();
+        try (PaginaContador.Lector pagina = ServicioContador.abrirPagina(context)) {
+            long ahora = SystemClock.elapsedRealtime();
+            if (pagina == null || !pagina.leer(instantanea) || !instantanea.esDeEsteArranque(ahora, System.currentTimeMillis()))
+                return false;
 
-            if (estadoServicio == ServicioContador.ESTADO_DETENIDO)
-                remoteViews.setTextViewText(R.id.btnEmpezarWidget, context.getString(R.string.empezar));
-            else if (estadoServicio == ServicioContador.ESTADO_PAUSADO)
-                remoteViews.setTextViewText(R.id.btnEmpezarWidget, context.getString(R.string.reanudar));
+            long milis = instantanea.getAncla().milisTranscurridos(SystemClock.elapsedRealtimeNanos());
+            EstadoContador principal = obtenerContador(ServicioContador.ID_CONTADOR_PRINCIPAL);
+            principal.estado = instantanea.estado;
+            principal.segundo = (int) (milis / MotorTick.MILIS_POR_SEGUNDO);
+            principal.base = ahora - milis;
+            return true;
+        } catch (IOException e) {
+            Log.e("ESTADO WIDGET", "No se puede cerrar la página del servicio", e);
+            return false;
+        }
+    }
+
+    /**
+     * Crea el layout completo del widget
+     *
+     * @param context  contexto de la aplicación
+     * @param contador cuenta que muestra el widget
+     * @return layout del widget
+     */
+    private static RemoteViews construirVistas(Context context, EstadoContador contador) {
+        RemoteViews remoteViews = new RemoteViews(context.getPackageName(), R.layout.layout_widget);
+        if (modoCronometro) {
+            // El cronómetro avanza por sí solo, así que el widget solo se actualiza cuando cambia el estado
+            boolean corriendo = contador.estado == ServicioContador.ESTADO_CORRIENDO;
+            remoteViews.setChronometer(R.id.cronometroWidget, contador.base, null, corriendo);
+            remoteViews.setViewVisibility(R.id.cronometroWidget, corriendo ? View.VISIBLE : View.GONE);
+            remoteViews.setViewVisibility(R.id.lblContadorWidget, corriendo ? View.GONE : View.VISIBLE);
+        }
+        remoteViews.setTextViewText(R.id.lblContadorWidget, textoContador(contador));
+        mostrarEstadisticas(context, remoteViews, contador);
+
+        PendingIntent[] pendingIntentsWidget = obtenerPendingIntents(context, contador.id);
+        remoteViews.setOnClickPendingIntent(R.id.rootWidget, pendingIntentsWidget[PENDING_ABRIR]);
+        remoteViews.setOnClickPendingIntent(R.id.btnEmpezarWidget, pendingIntentsWidget[PENDING_EMPEZAR]);
+        remoteViews.setOnClickPendingIntent(R.id.btnPausarWidget, pendingIntentsWidget[PENDING_PAUSAR]);
+
+        if (contador.estado == ServicioContador.ESTADO_DETENIDO)
+            remoteViews.setTextViewText(R.id.btnEmpezarWidget, context.getString(R.string.empezar));
+        else if (contador.estado == ServicioContador.ESTADO_PAUSADO)
+            remoteViews.setTextViewText(R.id.btnEmpezarWidget, context.getString(R.string.reanudar));
+
+        return remoteViews;
+    }
+
+    /**
+     * Muestra los totales de las sesiones en los widgets de la cuenta principal.
+     * <p>
+     * Solo se leen al enviar el layout completo, es decir, al cambiar de estado y en cada {@code updatePeriodMillis}, que es cuando
+     * pasan a 0 los totales de hoy y de la semana tras el cambio de día. Leerlos no depende del número de sesiones guardadas
+     *
+     * @param context     contexto de la aplicación
+     * @param remoteViews layout del widget
+     * @param contador    cuenta que muestra el widget
+     */
+    private static void mostrarEstadisticas(Context context, RemoteViews remoteViews, EstadoContador contador) {
+        if (contador.id != ServicioContador.ID_CONTADOR_PRINCIPAL) {
+            remoteViews.setViewVisibility(R.id.lblEstadisticasWidget, View.GONE);
+            return;
+        }
 
-            appWidgetManager.updateAppWidget(widgetId, remoteViews);
+        EstadisticasSesiones.Resumen resumen;
+        try {
+            resumen = ServicioContador.leerEstadisticasGuardadas(context);
+        } catch (IOException e) {
+            Log.e("ESTADO WIDGET", "No se pueden leer las estadísticas", e);
+            remoteViews.setViewVisibility(R.id.lblEstadisticasWidget, View.GONE);
+            return;
         }
+        remoteViews.setViewVisibility(R.id.lblEstadisticasWidget, View.VISIBLE);
+        remoteViews.setTextViewText(R.id.lblEstadisticasWidget, ServicioContador.textoEstadisticas(context, resumen));
+    }
+
+    /**
+     * Devuelve el texto que muestra el contador del widget.
+     * <p>
+     * {@link RemoteViews} guarda el texto hasta enviarlo, así que aquí sí se crea un String a partir de {@link EstadoContador#texto}
+     *
+     * @param contador cuenta que muestra el widget
+     * @return segundo actual formateado
+     */
+    private static CharSequence textoContador(EstadoContador contador) {
+        contador.texto.formatear(contador.segundo);
+        return contador.texto.toString();
+    }
+
+    /**
+     * Devuelve los PendingIntents de los botones de los widgets de una cuenta, creándolos si es la primera vez que se piden
+     *
+     * @param context    contexto de la aplicación
+     * @param idContador id de la cuenta que muestran los widgets
+     * @return PendingIntents de los widgets de la cuenta
+     */
+    private static PendingIntent[] obtenerPendingIntents(Context context, int idContador) {
+        PendingIntent[] pendingIntentsWidget = pendingIntents.get(idContador);
+        if (pendingIntentsWidget != null)
+            return pendingIntentsWidget;
+
+        pendingIntentsWidget = new PendingIntent[3];
+
+        // Lanza MainActivity
+        Intent empezarActivityIntent = new Intent(context, MainActivity.class);
+        pendingIntentsWidget[PENDING_ABRIR] = PendingIntent.getActivity(context, REQUEST_CODE, empezarActivityIntent, 0);
+
+        // Empieza la cuenta, o la reanuda si está pausada
+        pendingIntentsWidget[PENDING_EMPEZAR] = ServicioContador.crearPendingIntent(context, REQUEST_CODE,
+                ServicioContador.ACCION_EMPEZAR, MaquinaEstados.COMANDO_EMPEZAR, idContador, CajaNegra.ORIGEN_WIDGET);
+
+        // Pausa la cuenta
+        pendingIntentsWidget[PENDING_PAUSAR] = ServicioContador.crearPendingIntent(context, REQUEST_CODE,
+                ServicioContador.ACCION_PAUSAR, MaquinaEstados.COMANDO_PAUSAR, idContador, CajaNegra.ORIGEN_WIDGET);
+
+        pendingIntents.put(idContador, pendingIntentsWidget);
+        return pendingIntentsWidget;
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
         String accion = intent.getAction();
         assert accion != null;
-        if (accion.equals(ServicioContador.ACCION_EMPEZAR)) {
-            if (estadoServicio == ServicioContador.ESTADO_DETENIDO) {
-                Intent servicioIntent = new Intent(context, ServicioContador.class);
-                context.startForegroundService(servicioIntent);
-            } else if (estadoServicio == ServicioContador.ESTADO_PAUSADO)
-                context.sendBroadcast(new Intent(EnviarAccionAServicio.FILTRO_INTENT)
-                        .putExtra(EnviarAccionAServicio.ACCION_EXTRA, ServicioContador.ACCION_REANUDAR));
+        if (accion.equals(AppWidgetManager.ACTION_APPWIDGET_DELETED)) {
+            int[] idsEliminados = intent.getIntArrayExtra(AppWidgetManager.EXTRA_APPWIDGET_IDS);
+            if (idsEliminados != null) {
+                SharedPreferences.Editor editor = context.getSharedPreferences(PREFERENCIAS, Context.MODE_PRIVATE).edit();
+                for (int widgetId : idsEliminados)
+                    editor.remove(CLAVE_CONTADOR + widgetId);
+                editor.apply();
+                avisarCuentasMostradas(context);
+            }
         } else if (accion.equals(ServicioContador.ACCION_ACTUALIZAR_DATOS)) {
-            segundoActual = intent.getIntExtra(ServicioContador.EXTRA_ACTUALIZAR_SEGUNDOS, ServicioContador.SEGUNDO_POR_DEFECTO);
-            estadoServicio = intent.getIntExtra(ServicioContador.EXTRA_ACTUALIZAR_ESTADO, ServicioContador.ESTADO_DETENIDO);
-            Log.d("ESTADO WIDGET", String.valueOf(estadoServicio));
+            // El estado restaurado es el de la cuenta principal, así que solo deja de hacer falta cuando llega el de esa cuenta
+            int idContador = intent.getIntExtra(ServicioContador.EXTRA_ID_CONTADOR, ServicioContador.ID_CONTADOR_PRINCIPAL);
+            if (idContador == ServicioContador.ID_CONTADOR_PRINCIPAL)
+                estadoRestaurado = true;
+            EstadoContador contador = obtenerContador(idContador);
+            contador.segundo = intent.getIntExtra(ServicioContador.EXTRA_ACTUALIZAR_SEGUNDOS, ServicioContador.SEGUNDO_POR_DEFECTO);
+            contador.estado = intent.getIntExtra(ServicioContador.EXTRA_ACTUALIZAR_ESTADO, ServicioContador.ESTADO_DETENIDO);
+            contador.base = intent.getLongExtra(ServicioContador.EXTRA_BASE_CRONOMETRO, SystemClock.elapsedRealtime());
+            Log.d("ESTADO WIDGET", idContador + ": " + contador.estado);
         }
 
         AppWidgetManager manager = AppWidgetManager.getInstance(context);
         ComponentName esteWidget = new ComponentName(context, WidgetProvider.class);
         int[] appWidgetIds = manager.getAppWidgetIds(esteWidget);
         if (appWidgetIds != null && appWidgetIds.length > 0)
-            onUpdate(context, manager, appWidgetIds);
+            renderizar(context, manager, appWidgetIds, !accion.equals(ServicioContador.ACCION_ACTUALIZAR_DATOS));
+    }
+
+    /**
+     * Estado de una cuenta del servicio tal y como lo muestran los widgets
+     */
+    private static class EstadoContador {
+
+        /**
+         * Id de la cuenta
+         */
+        final int id;
+
+        /**
+         * Segundo en el que se encuentra la cuenta
+         */
+        int segundo = ServicioContador.SEGUNDO_POR_DEFECTO;
+
+        /**
+         * Estado de la cuenta
+         */
+        int estado = ServicioContador.ESTADO_DETENIDO;
+
+        /**
+         * Base de la cuenta en la escala de {@link SystemClock#elapsedRealtime()}
+         */
+        long base = SystemClock.elapsedRealtime();
+
+        /**
+         * Estado de la cuenta con el que se envió el último layout completo
+         */
+        int estadoRenderizado = SIN_RENDERIZAR;
+
+        /**
+         * Ids de los widgets a los que se envió el último layout completo
+         */
+        int[] idsRenderizados;
+
+        /**
+         * Texto del segundo enviado en el último envío, que evita volver a enviarlo si no ha cambiado
+         */
+        final TextoTiempo texto = new TextoTiempo();
+
+        EstadoContador(int id) {
+            this.id = id;
+        }
     }
 }
@@ -1,27 +1,86 @@
 package es.rbp.ejemplo_widget.servicios;
 
+import android.app.AlarmManager;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.net.Uri;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.system.Os;
+import android.system.OsConstants;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 
+import es.rbp.ejemplo_widget.BuildConfig;
 import es.rbp.ejemplo_widget.MainActivity;
 import es.rbp.ejemplo_widget.Notificacion;
+import es.rbp.ejemplo_widget.R;
+import es.rbp.ejemplo_widget.contador.AlmacenEstado;
+import es.rbp.ejemplo_widget.contador.AnclaNanos;
+import es.rbp.ejemplo_widget.contador.CajaNegra;
+import es.rbp.ejemplo_widget.contador.Contador;
+import es.rbp.ejemplo_widget.contador.DifusorContador;
+import es.rbp.ejemplo_widget.contador.EstadisticasSesiones;
+import es.rbp.ejemplo_widget.contador.ExportadorSesiones;
+import es.rbp.ejemplo_widget.contador.HistogramaLatencia;
+import es.rbp.ejemplo_widget.contador.HistorialSesiones;
+import es.rbp.ejemplo_widget.contador.LectorCajaNegra;
+import es.rbp.ejemplo_widget.contador.LoteVueltas;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+import es.rbp.ejemplo_widget.contador.MedidorTiempo;
+import es.rbp.ejemplo_widget.contador.MotorTick;
+import es.rbp.ejemplo_widget.contador.PaginaContador;
+import es.rbp.ejemplo_widget.contador.Planificador;
+import es.rbp.ejemplo_widget.contador.Reloj;
+import es.rbp.ejemplo_widget.contador.RuedaTemporizadores;
+import es.rbp.ejemplo_widget.contador.TasaPorMinuto;
 import es.rbp.ejemplo_widget.providers.WidgetProvider;
-import es.rbp.ejemplo_widget.recivers.EnviarAccionAServicio;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Cuenta los segundos que psasn desde que se inció el servicio y los envía a {@link MainActivity} y a {@link Notificacion}
+ * <p>
+ * La lógica de las cuentas está en {@link Contador}, que no depende de Android. El servicio le da un {@link Reloj} basado en
+ * {@link SystemClock} y un {@link Planificador} basado en un {@link Handler}, y traduce sus cambios a la notificación, al widget y a los
+ * suscriptores de {@link DifusorContador}
  *
  * @author Ricardo Bordería Pi
  */
@@ -30,20 +89,45 @@ public class ServicioContador extends Service {
     /**
      * Extra para el valor por defecto para el intent del contador
      */
-    public static final int SEGUNDO_POR_DEFECTO = 0;
+    public static final int SEGUNDO_POR_DEFECTO = Contador.SEGUNDO_INICIAL;
+
+    /**
+     * Indica si la notificación y el widget muestran la cuenta con un {@link android.widget.Chronometer}. Es el modo por defecto, y se
+     * cambia al compilar con {@code -PmodoTexto}.
+     * <p>
+     * En este modo el servicio solo envía las vistas cuando cambia el estado de la cuenta, y cada segundo únicamente publica en {@link ServicioContador#difusor}.
+     * Si es false, se actualiza el texto de la notificación y del widget en cada segundo.
+     */
+    public static final boolean MODO_CRONOMETRO = BuildConfig.MODO_CRONOMETRO;
+
+    /**
+     * Indica si el servicio se ejecuta en su propio proceso, {@code :timer}, que se elige al compilar con {@code -PprocesoSeparado}.
+     * <p>
+     * Así las pausas del recolector y los bloqueos de la interfaz no retrasan el tick, y si la interfaz falla la cuenta sigue en marcha.
+     * El servicio publica su estado en {@link ServicioContador#ARCHIVO_PAGINA}, que la activity y el widget leen sin llamar al
+     * servicio, y la activity envía los comandos con los mensajes MENSAJE_ a través de un {@link Messenger}
+     */
+    public static final boolean PROCESO_SEPARADO = BuildConfig.PROCESO_SEPARADO;
+
+    /**
+     * Id de la cuenta principal, la que muestran {@link MainActivity} y {@link Notificacion}.
+     * <p>
+     * El resto de cuentas comparten el tick de la principal
+     */
+    public static final int ID_CONTADOR_PRINCIPAL = Contador.ID_PRINCIPAL;
 
     /**
      * Estado de la cuenta del servicio que indica que la cuenta está pausada
      */
-    public static final int ESTADO_PAUSADO = 1;
+    public static final int ESTADO_PAUSADO = MaquinaEstados.ESTADO_PAUSADO;
     /**
      * Estado de la cuenta del servicio que indica que la cuenta está en marcha
      */
-    public static final int ESTADO_CORRIENDO = 2;
+    public static final int ESTADO_CORRIENDO = MaquinaEstados.ESTADO_CORRIENDO;
     /**
      * Estado de la cuenta del servicio que indica que la cuenta está detenida
      */
-    public static final int ESTADO_DETENIDO = 3;
+    public static final int ESTADO_DETENIDO = MaquinaEstados.ESTADO_DETENIDO;
 
     /**
      * Acción indicando que empieze la cuenta
@@ -65,292 +149,1656 @@ public class ServicioContador extends Service {
      * Acción indicando que se están enviando nuevos datos para actualizar las vistas
      */
     public static final String ACCION_ACTUALIZAR_DATOS = "accion_actualizar_datos";
+    /**
+     * Acción de la alarma que avisa de que la cuenta ha llegado al segundo programado
+     *
+     * @see ServicioContador#programarAviso(int)
+     */
+    public static final String ACCION_AVISO = "accion_aviso";
+    /**
+     * Acción de la alarma que avanza {@link ServicioContador#alertas} cuando no hay tick
+     *
+     * @see ServicioContador#programarAlerta(int, int)
+     */
+    public static final String ACCION_ALERTAS = "accion_alertas";
+    /**
+     * Acción indicando que marque una vuelta de la cuenta principal
+     *
+     * @see ServicioContador#crearPendingIntentVuelta(Context, int, int)
+     */
+    public static final String ACCION_VUELTA = "accion_vuelta";
+    /**
+     * Acción del intent con el que se conecta al servicio quien está en otro proceso. Con ella onBind devuelve el {@link Messenger}
+     * del servicio en lugar de {@link LocalBinder}
+     */
+    public static final String ACCION_MENSAJERO = "accion_mensajero";
+    /**
+     * Acción del broadcast con el que {@link WidgetProvider} avisa de qué cuentas muestran los widgets, para que el servicio solo
+     * observe esas cuentas
+     *
+     * @see WidgetProvider#cuentasMostradas(Context)
+     */
+    public static final String ACCION_CUENTAS_MOSTRADAS = "accion_cuentas_mostradas";
+
+    /**
+     * Mensaje para recibir {@link ServicioContador#MENSAJE_ACTUALIZADO} en el {@link Message#replyTo} del mensaje
+     */
+    public static final int MENSAJE_SUSCRIBIR = 1;
+    /**
+     * Mensaje para dejar de recibir {@link ServicioContador#MENSAJE_ACTUALIZADO} en el {@link Message#replyTo} del mensaje
+     */
+    public static final int MENSAJE_DESUSCRIBIR = 2;
+    /**
+     * Mensaje con un comando de {@link MaquinaEstados} en arg1 para la cuenta principal. Puede llevar
+     * {@link ServicioContador#EXTRA_MARCA_TIEMPO} en sus datos
+     */
+    public static final int MENSAJE_COMANDO = 3;
+    /**
+     * Mensaje para marcar una vuelta de la cuenta principal
+     */
+    public static final int MENSAJE_VUELTA = 4;
+    /**
+     * Mensaje para avisar cuando la cuenta principal llegue al segundo de arg1
+     *
+     * @see ServicioContador#programarAviso(int)
+     */
+    public static final int MENSAJE_AVISO = 5;
+    /**
+     * Mensaje que el servicio envía a los suscritos cuando publica la cuenta principal, con el estado en arg1 y el segundo en arg2.
+     * El resto del estado se lee de {@link ServicioContador#ARCHIVO_PAGINA}
+     */
+    public static final int MENSAJE_ACTUALIZADO = 6;
 
 
     /**
      * Extra para indicar que se envía el segundo actual
      *
-     * @see ServicioContador#segundoActual
+     * @see Contador#getSegundoActual()
      */
     public static final String EXTRA_ACTUALIZAR_SEGUNDOS = "extra_actualizar_segundos";
     /**
      * Extra para indicar que se envía el estado actual de la cuenta del servicio
      *
-     * @see ServicioContador#estado
+     * @see Contador#getEstado(int)
      */
     public static final String EXTRA_ACTUALIZAR_ESTADO = "extra_actualizar_estado";
+    /**
+     * Extra para indicar la base de la cuenta en la escala de {@link SystemClock#elapsedRealtime()}
+     *
+     * @see MotorTick#base(long)
+     */
+    public static final String EXTRA_BASE_CRONOMETRO = "extra_base_cronometro";
+    /**
+     * Extra con el comando de {@link MaquinaEstados} que se envía al servicio
+     *
+     * @see ServicioContador#crearPendingIntent(Context, int, String, int, int, int)
+     */
+    public static final String EXTRA_COMANDO = "extra_comando";
+    /**
+     * Extra con el instante, en la escala de {@link SystemClock#elapsedRealtimeNanos()}, en el que se pulsó el botón que envía el comando
+     */
+    public static final String EXTRA_MARCA_TIEMPO = "extra_marca_tiempo";
+    /**
+     * Extra con el id de la cuenta a la que se envía el comando, o de la que se envía el estado
+     *
+     * @see ServicioContador#ID_CONTADOR_PRINCIPAL
+     */
+    public static final String EXTRA_ID_CONTADOR = "extra_id_contador";
+    /**
+     * Extra con los ids de las cuentas que muestran los widgets, sin repetir
+     *
+     * @see ServicioContador#ACCION_CUENTAS_MOSTRADAS
+     */
+    public static final String EXTRA_CUENTAS_MOSTRADAS = "extra_cuentas_mostradas";
+    /**
+     * Extra con la vista desde la que se envía el comando, una de las constantes ORIGEN_ de {@link CajaNegra}
+     */
+    public static final String EXTRA_ORIGEN = "extra_origen";
 
     /**
-     * Handler para manejar los hilos
+     * Nombre del archivo, dentro de {@link Context#getFilesDir()}, en el que se guarda el estado de la cuenta
+     *
+     * @see AlmacenEstado
      */
-    private Handler handler;
+    public static final String ARCHIVO_ESTADO = "estado_contador.bin";
+
+    /**
+     * Nombre del archivo, dentro de {@link Context#getFilesDir()}, en el que se guardan las sesiones de la cuenta principal
+     *
+     * @see HistorialSesiones
+     */
+    public static final String ARCHIVO_HISTORIAL = "historial_sesiones.bin";
 
     /**
-     * Hilo que realiza el conteo y lo envía a las activities que lo escuchen
+     * Nombre del archivo, dentro de {@link Context#getFilesDir()}, con el índice de {@link ServicioContador#ARCHIVO_HISTORIAL}
      */
-    private Runnable hiloContador;
+    public static final String ARCHIVO_INDICE_HISTORIAL = "historial_sesiones.idx";
 
-    private final IBinder binder = new LocalBinder();
+    /**
+     * Nombre del archivo, dentro de {@link Context#getFilesDir()}, con los totales de las sesiones
+     *
+     * @see EstadisticasSesiones
+     */
+    public static final String ARCHIVO_ESTADISTICAS = "estadisticas_sesiones.bin";
 
     /**
-     * Instancia para recibir los mensajes de broadcast de {@link EnviarAccionAServicio} por parte de {@link Notificacion}
+     * Nombre del archivo, dentro de {@link Context#getFilesDir()}, en el que se vuelca {@link ServicioContador#cajaNegra}
+     *
+     * @see LectorCajaNegra
      */
-    private BroadcastReceiver receiver;
+    public static final String ARCHIVO_CAJA_NEGRA = "caja_negra.bin";
 
     /**
-     * Instancia de {@link Llamada} para acceder a sus métodos y enviar la información
+     * Nombre del archivo, dentro de {@link Context#getFilesDir()}, en el que se publica el estado en
+     * {@link ServicioContador#PROCESO_SEPARADO}
+     *
+     * @see PaginaContador
      */
-    private Llamada llamada;
+    public static final String ARCHIVO_PAGINA = "pagina_contador.bin";
 
     /**
-     * Instacia de {@link Notificacion} para manejar la notificación del servicio
+     * Eventos que conserva {@link ServicioContador#cajaNegra}. Con 32 bytes por evento son 32 KB
      */
-    private Notificacion notificacion;
+    private static final int CAPACIDAD_CAJA_NEGRA = 1024;
 
     /**
-     * Segundo actual desde el inicio del servicio
+     * Latencia de un comando a partir de la cual se considera una anomalía y se vuelca la caja negra
      */
-    private int segundoActual;
+    private static final long LATENCIA_ANOMALA_NANOS = 500_000_000;
 
     /**
-     * Estado actual de la cuenta del servicio.
-     * <p>
-     * Puede ser {@link ServicioContador#ESTADO_DETENIDO}, {@link ServicioContador#ESTADO_PAUSADO} o {@link ServicioContador#ESTADO_CORRIENDO}
+     * Tiempo mínimo entre dos volcados por anomalía, para que una ráfaga de toques rechazados no escriba el archivo en cada uno
      */
-    private int estado = ESTADO_DETENIDO;
+    private static final long MILIS_ENTRE_VOLCADOS = 60_000;
 
     /**
-     * Indica si las acciones sobre la cuenta están habilitadas
+     * Argumento de dump que escribe la línea de tiempo de {@link ServicioContador#cajaNegra} y la vuelca al archivo
      */
-    private boolean estaHabilitado;
+    private static final String ARGUMENTO_CAJA_NEGRA = "caja-negra";
+
     /**
-     * Indica si el servicio está empezado o no
+     * Primer argumento de dump que escribe todas las sesiones en CSV en lugar de las métricas
      */
-    private boolean servicioEmpezado;
+    private static final String ARGUMENTO_EXPORTAR_CSV = "exportar-csv";
 
     /**
-     * Esta clase devuelve la instancia del servicio
-     *
-     * @author Ricardo Bordería Pi
+     * Primer argumento de dump que escribe todas las sesiones en JSON en lugar de las métricas
      */
-    public class LocalBinder extends Binder {
+    private static final String ARGUMENTO_EXPORTAR_JSON = "exportar-json";
 
-        /**
-         * Devuelve una instancia de {@link ServicioContador}
-         *
-         * @return {@link ServicioContador}
-         */
-        public ServicioContador getServiceInstance() {
-            return ServicioContador.this;
-        }
-    }
+    /**
+     * Valor de {@link ServicioContador#programarAviso(int)} para no avisar
+     */
+    public static final int SIN_AVISO = -1;
 
-    @Nullable
-    @Override
-    public IBinder onBind(Intent intent) {
-        return binder;
-    }
+    /**
+     * Código de request del PendingIntent de la alarma del aviso
+     */
+    private static final int REQUEST_CODE_AVISO = 2;
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
-        handler = new Handler();
+    /**
+     * Código de request del PendingIntent de la alarma de las alertas
+     */
+    private static final int REQUEST_CODE_ALERTAS = 3;
 
-        receiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                String accion = intent.getStringExtra(EnviarAccionAServicio.ACCION_EXTRA);
-                assert accion != null;
-                switch (accion) {
-                    case ACCION_REANUDAR:
-                        play();
-                        break;
-                    case ACCION_PAUSAR:
-                        pause();
-                        break;
-                    case ACCION_PARAR:
-                        stop();
-                        break;
-                }
-            }
-        };
+    /**
+     * Alertas para las que se reserva memoria al crear el servicio. Si se programan más, se amplía
+     */
+    private static final int CAPACIDAD_ALERTAS = 64;
 
-        hiloContador = new Runnable() {
-            @Override
-            public void run() {
-                segundoActual++;
+    /**
+     * Nombre de las preferencias del servicio
+     */
+    private static final String PREFERENCIAS = "servicio";
 
-                if (llamada != null)
-                    llamada.actualizarContador(segundoActual);
+    /**
+     * Clave de las preferencias con el segundo del aviso, para que no se pierda si el sistema mata el servicio en reposo
+     */
+    private static final String CLAVE_SEGUNDO_AVISO = "segundo_aviso";
 
-                notificacion.actualizarContador(segundoActual);
-                enviarEstadoBroadcast();
-                handler.postDelayed(hiloContador, 1000);
-            }
-        };
+    /**
+     * Número de ticks con los que se calcula la media de tiempo que se escribe en el log
+     */
+    private static final int MUESTRAS_MEDICION = 60;
 
-        notificacion = Notificacion.crearNotificacion(this);
-        crearCanal();
-    }
+    /**
+     * Hilo en el que se ejecuta el tick de {@link ServicioContador#contador}, para no competir con el trabajo de la interfaz en el hilo principal
+     */
+    private HandlerThread hiloTrabajo;
 
-    @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        if (!servicioEmpezado) {
-            registerReceiver(receiver, new IntentFilter(EnviarAccionAServicio.FILTRO_INTENT));
-            Log.i("SERVICIO", "EMPEZADO");
-            Toast.makeText(getApplicationContext(), "Empezado", Toast.LENGTH_SHORT).show();
-        } else {
-            Log.i("SERVICIO", "REANUDADO");
-            Toast.makeText(getApplicationContext(), "Reanudado", Toast.LENGTH_SHORT).show();
-        }
+    /**
+     * Handler del {@link ServicioContador#hiloTrabajo} para manejar los hilos
+     */
+    private Handler handler;
 
-        servicioEmpezado = true;
+    /**
+     * Handler del hilo principal
+     */
+    private Handler handlerPrincipal;
 
-        estaHabilitado = true;
+    /**
+     * Reparte el estado y el segundo actual de la cuenta principal a las activities, fragments y consumidores en segundo plano suscritos,
+     * cada uno a su ritmo. Mientras haya algún suscriptor se mantiene el tick
+     */
+    private DifusorContador difusor;
 
-        if (estado == ESTADO_PAUSADO || estado == ESTADO_DETENIDO)
-            play();
+    /**
+     * Ejecutor del hilo principal, en el que reciben los valores los suscriptores de la interfaz
+     */
+    private Executor ejecutorPrincipal;
 
-        return super.onStartCommand(intent, flags, startId);
-    }
+    /**
+     * Hilo de las exportaciones del historial, con prioridad de segundo plano para que una exportación de meses de sesiones no le quite
+     * CPU al tick ni a la interfaz
+     */
+    private ExecutorService ejecutorExportacion;
 
     /**
-     * Envía el estado y el segundo actual a {@link WidgetProvider}
+     * Exportaciones pendientes o en curso, para cancelarlas al destruir el servicio
      */
-    private void enviarEstadoBroadcast() {
-        Context context = getApplicationContext();
-        Intent intent = new Intent(context, WidgetProvider.class);
-        intent.setAction(ACCION_ACTUALIZAR_DATOS);
-        intent.putExtra(EXTRA_ACTUALIZAR_ESTADO, estado);
-        intent.putExtra(EXTRA_ACTUALIZAR_SEGUNDOS, segundoActual);
-        context.sendBroadcast(intent);
-    }
+    private final Set<ExportadorSesiones> exportaciones = new CopyOnWriteArraySet<>();
 
     /**
-     * Crea el canal para lanzar la notificación
-     *
-     * @see Notificacion
+     * Decide el primer plano en el hilo principal cuando cambian los suscriptores, que pueden darse de baja desde cualquier hilo
      */
-    private void crearCanal() {
-        NotificationChannel channel = new NotificationChannel(Notificacion.CHANNEL_ID, "nombre", NotificationManager.IMPORTANCE_DEFAULT);
-        NotificationManager manager = getSystemService(NotificationManager.class);
-        if (manager != null) {
-            manager.createNotificationChannel(channel);
+    private final Runnable actualizacionPrimerPlano = new Runnable() {
+        @Override
+        public void run() {
+            actualizarPrimerPlano();
         }
-    }
+    };
 
     /**
-     * Si el estado de la cuenta del servicio es {@link ServicioContador#ESTADO_DETENIDO} o {@link ServicioContador#ESTADO_PAUSADO} empieza la cuenta
-     *
-     * @see ServicioContador#ESTADO_PAUSADO
+     * Mide el tiempo que ocupa el trabajo del servicio en cada tick en {@link ServicioContador#hiloTrabajo}
      */
-    private void play() {
-        if ((estado == ESTADO_PAUSADO || estado == ESTADO_DETENIDO) && estaHabilitado) {
-            if (!servicioEmpezado)
-                startService(new Intent(this, ServicioContador.class));
+    private final MedidorTiempo medidorTick = new MedidorTiempo(MUESTRAS_MEDICION);
 
-            handler.postDelayed(hiloContador, 1000);
-            startForeground(Notificacion.FOREGROUND_ID, notificacion.getNotification());
-            cambiarEstado(ESTADO_CORRIENDO);
-        }
-    }
+    /**
+     * Lógica de las cuentas. El servicio solo traduce sus cambios a la notificación, al widget y a {@link ServicioContador#difusor}
+     */
+    private Contador contador;
+
+    private final IBinder binder = new LocalBinder();
 
     /**
-     * Si el estado de la cuenta del servicio está en marcha, pausa la cuenta
-     *
-     * @see ServicioContador#ESTADO_PAUSADO
-     * @see ServicioContador#ESTADO_CORRIENDO
+     * Latencia desde que llega un comando hasta que se han aplicado los efectos de su transición
      */
-    public void pause() {
-        if (estado == ESTADO_CORRIENDO && estaHabilitado) {
-            estaHabilitado = false;
-            handler.removeCallbacks(hiloContador);
-            stopForeground(false);
+    private final HistogramaLatencia latenciaComandos = new HistogramaLatencia();
+
+    /**
+     * Coste de cada publicación de la notificación
+     */
+    private final HistogramaLatencia costeNotificacion = new HistogramaLatencia();
+
+    /**
+     * Coste de cada envío del estado a {@link WidgetProvider}
+     */
+    private final HistogramaLatencia costeWidget = new HistogramaLatencia();
+
+    /**
+     * Coste de cada entrega a los suscriptores de {@link ServicioContador#difusor}, como {@link MainActivity}, en su ejecutor
+     */
+    private final HistogramaLatencia costeSuscriptores = new HistogramaLatencia();
+
+    /**
+     * Notificaciones publicadas por minuto
+     */
+    private final TasaPorMinuto ipcNotificaciones = new TasaPorMinuto();
+
+    /**
+     * Broadcasts enviados a {@link WidgetProvider} por minuto
+     */
+    private final TasaPorMinuto ipcWidget = new TasaPorMinuto();
+
+    /**
+     * Intents recibidos en onStartCommand y mensajes recibidos en {@link ServicioContador#mensajero} por minuto
+     */
+    private final TasaPorMinuto ipcComandos = new TasaPorMinuto();
+
+    /**
+     * Llamadas a startForeground y stopForeground por minuto
+     */
+    private final TasaPorMinuto ipcPrimerPlano = new TasaPorMinuto();
+
+    /**
+     * Instante de onCreate en la escala de {@link SystemClock#elapsedRealtime()}
+     */
+    private long inicioServicio;
+
+    /**
+     * Registro de vuelo de los comandos y los cambios de estado, siempre activo
+     */
+    private final CajaNegra cajaNegra = new CajaNegra(CAPACIDAD_CAJA_NEGRA);
 
-            cambiarEstado(ESTADO_PAUSADO);
+    /**
+     * Instante del último volcado por anomalía en la escala de {@link SystemClock#elapsedRealtime()}, o 0 si no ha habido ninguno
+     */
+    private volatile long ultimoVolcado;
 
-            Log.i("SERVICIO", "PAUSADO");
-            Toast.makeText(getApplicationContext(), "Pausado", Toast.LENGTH_SHORT).show();
-            habilitarBotones();
+    /**
+     * Vuelca {@link ServicioContador#cajaNegra} en {@link ServicioContador#hiloTrabajo}, para no escribir el archivo en el hilo del comando
+     */
+    private final Runnable volcadoCajaNegra = new Runnable() {
+        @Override
+        public void run() {
+            volcarCajaNegra();
         }
-    }
+    };
 
     /**
-     * Detiene la cuenta, reinicia los valores, elimina {@link ServicioContador#receiver} y detiene el servicio.
+     * Página en la que se publica el estado para los otros procesos. Solo se abre en {@link ServicioContador#PROCESO_SEPARADO}, y es
+     * null si no se ha podido abrir
      */
-    public void stop() {
-        handler.removeCallbacks(hiloContador);
-        servicioEmpezado = false;
-        segundoActual = 0;
-        unregisterReceiver(receiver);
-        cambiarEstado(ESTADO_DETENIDO);
-        stopSelf();
-        stopForeground(true);
-        Log.i("SERVICIO", "PARADO");
-        Toast.makeText(getApplicationContext(), "Parado", Toast.LENGTH_SHORT).show();
-    }
+    private PaginaContador pagina;
 
     /**
-     * Cambia el estado de la cuenta y lo notifica a los clientes a la escucha
-     *
-     * @param estado estado de la cuenta
+     * Lote con el que se leen las vueltas para publicar su resumen en {@link ServicioContador#pagina}. También sirve de cerrojo
      */
-    private void cambiarEstado(int estado) {
-        this.estado = estado;
-        enviarEstadoBroadcast();
+    private final LoteVueltas lotePagina = new LoteVueltas();
 
-        if (llamada != null)
-            llamada.actualizarEstado(estado);
-    }
+    /**
+     * Recibe en el hilo principal los mensajes de quien se conecta desde otro proceso
+     */
+    private Messenger mensajero;
 
     /**
-     * Pasado medio segundo, habilita los botones para evitar una sobrecarga de órdenes
+     * Suscripciones de quien se conecta desde otro proceso, indexadas por el binder de su {@link Messenger}
      */
-    private void habilitarBotones() {
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                estaHabilitado = true;
-            }
-        }, 500);
-    }
+    private final ArrayMap<IBinder, DifusorContador.Suscripcion> clientesRemotos = new ArrayMap<>();
 
     /**
-     * Indica al activity el estado de la cuenta del servicio, y el segundo actual de la misma
+     * Indica si la pantalla está encendida
      *
-     * @return segundo actual de la cuenta del servicio
+     * @see ServicioContador#receptorPantalla
      */
-    public int cargarSegundo() {
-        llamada.actualizarEstado(estado);
-        return segundoActual;
-    }
+    private volatile boolean pantallaEncendida = true;
+
+    /**
+     * Reanuda el tick al encender la pantalla y lo detiene al apagarla cuando el widget y la notificación muestran el texto de cada segundo
+     */
+    private BroadcastReceiver receptorPantalla;
 
     /**
-     * Registra la activity desde la que es llamado
+     * Recibe las cuentas que muestran los widgets para observar solo esas en {@link ServicioContador#contador}
      *
-     * @param activity activity que implemente {@link Llamada}
+     * @see ServicioContador#mostrarCuentas(int[])
      */
-    public void registrarActivity(Llamada activity) {
-        this.llamada = activity;
-    }
+    private BroadcastReceiver receptorWidgets;
 
     /**
-     * Interfaz para enviar información desde el servicio hasta el activity que la implemente
+     * Cuentas del registro que muestran los widgets y que por eso reciben el tick
      */
-    public interface Llamada {
-        /**
-         * Envía el segundo actual
-         *
-         * @param segundoActual {@link ServicioContador#segundoActual}
-         */
-        void actualizarContador(int segundoActual);
+    private int[] cuentasMostradas = new int[0];
 
-        /**
-         * Envía el estado actual de la cuenta del servicio
-         *
-         * @param estado estado actual de la cuenta.
-         * @see ServicioContador#estado
-         */
-        void actualizarEstado(int estado);
+    private AlarmManager alarmManager;
+
+    /**
+     * PendingIntent de la alarma que avisa al llegar a {@link ServicioContador#segundoAviso}
+     */
+    private PendingIntent pendingIntentAviso;
+
+    /**
+     * Segundo de la cuenta en el que se avisa, o {@link ServicioContador#SIN_AVISO}
+     */
+    private int segundoAviso = SIN_AVISO;
+
+    /**
+     * Alertas de la cuenta principal, con un paso por segundo de la cuenta. Avanza con el tick y, si no lo hay, con una sola alarma en
+     * su siguiente paso. Solo está en memoria, así que si el sistema mata el servicio en reposo se pierden las alertas pendientes
+     */
+    private final RuedaTemporizadores alertas = new RuedaTemporizadores(CAPACIDAD_ALERTAS);
+
+    /**
+     * PendingIntent de la alarma que avanza {@link ServicioContador#alertas}
+     */
+    private PendingIntent pendingIntentAlertas;
+
+    /**
+     * Paso de {@link ServicioContador#alertas} para el que está programada su alarma, o {@link RuedaTemporizadores#SIN_PASO}. Se
+     * protege con el cerrojo de {@link ServicioContador#alertas}
+     */
+    private long pasoAlarmaAlertas = RuedaTemporizadores.SIN_PASO;
+
+    /**
+     * Alertas vencidas en el avance en curso, que se muestran en una sola notificación. Se protege con el cerrojo de
+     * {@link ServicioContador#alertas}
+     */
+    private int alertasVencidas;
+
+    /**
+     * Etiqueta de la última alerta vencida en el avance en curso. Se protege con el cerrojo de {@link ServicioContador#alertas}
+     */
+    private int ultimaAlerta;
+
+    private final RuedaTemporizadores.Oyente oyenteAlertas = new RuedaTemporizadores.Oyente() {
+        @Override
+        public void alVencer(long temporizador, int dato, long paso) {
+            alertasVencidas++;
+            ultimaAlerta = dato;
+        }
+    };
+
+    /**
+     * Instacia de {@link Notificacion} para manejar la notificación del servicio
+     */
+    private Notificacion notificacion;
+
+    /**
+     * Guarda el estado de la cuenta en cada transición para restaurarlo si se mata el proceso. Es null si no se ha podido abrir
+     */
+    private AlmacenEstado almacen;
+
+    /**
+     * Guarda cada sesión de la cuenta principal al detenerla. Es null si no se ha podido abrir
+     */
+    private HistorialSesiones historial;
+
+    /**
+     * Totales de las sesiones, que se actualizan al guardar cada una en {@link ServicioContador#historial}. Es null si no se han podido
+     * abrir
+     */
+    private EstadisticasSesiones estadisticas;
+
+    /**
+     * Último intent enviado a {@link WidgetProvider} por cada cuenta, indexado por el id de la cuenta.
+     * <p>
+     * Se reutiliza en cada envío cambiando solo los extras que han cambiado, así que en cada tick solo se escribe el segundo.
+     * También sirve de cerrojo, ya que se envía desde el hilo del tick y desde el de los comandos
+     */
+    private final SparseArray<Intent> intentsEstado = new SparseArray<>();
+
+    /**
+     * Esta clase devuelve la instancia del servicio
+     *
+     * @author Ricardo Bordería Pi
+     */
+    public class LocalBinder extends Binder {
+
+        /**
+         * Devuelve una instancia de {@link ServicioContador}
+         *
+         * @return {@link ServicioContador}
+         */
+        public ServicioContador getServiceInstance() {
+            return ServicioContador.this;
+        }
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return ACCION_MENSAJERO.equals(intent.getAction()) ? mensajero.getBinder() : binder;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        inicioServicio = SystemClock.elapsedRealtime();
+        hiloTrabajo = new HandlerThread("ServicioContador");
+        hiloTrabajo.start();
+        handler = new Handler(hiloTrabajo.getLooper());
+        handlerPrincipal = new Handler(Looper.getMainLooper());
+
+        ejecutorPrincipal = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handlerPrincipal.post(command);
+            }
+        };
+        ejecutorExportacion = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable tarea) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        tarea.run();
+                    }
+                }, "ExportacionSesiones");
+            }
+        });
+        difusor = new DifusorContador(new DifusorContador.OyenteSuscriptores() {
+            @Override
+            public void alCambiarSuscriptores(int suscriptores) {
+                contador.setObservado(hayQuienMire());
+                handlerPrincipal.post(actualizacionPrimerPlano);
+            }
+        });
+        difusor.publicar(ESTADO_DETENIDO, SEGUNDO_POR_DEFECTO);
+        mensajero = new Messenger(new Handler(Looper.getMainLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                return recibirMensaje(msg);
+            }
+        }));
+
+        contador = new Contador(new Reloj() {
+            @Override
+            public long ahora() {
+                return SystemClock.elapsedRealtime();
+            }
+
+            @Override
+            public long ahoraNanos() {
+                return SystemClock.elapsedRealtimeNanos();
+            }
+
+            @Override
+            public long ahoraPared() {
+                return System.currentTimeMillis();
+            }
+        }, new Planificador() {
+            @Override
+            public void programar(Runnable tarea, long retrasoMilis) {
+                handler.postDelayed(tarea, retrasoMilis);
+            }
+
+            @Override
+            public void cancelar(Runnable tarea) {
+                handler.removeCallbacks(tarea);
+            }
+        }, !MODO_CRONOMETRO);
+
+        contador.agregarOyente(new Contador.Oyente() {
+            @Override
+            public void publicar(int id, int estado, int segundo) {
+                if (id != ID_CONTADOR_PRINCIPAL)
+                    return;
+
+                difusor.publicar(estado, segundo);
+                // Se llama con el cerrojo de la cuenta tomado, así que el ancla es ya la del estado que se publica
+                if (pagina != null)
+                    pagina.publicar(estado, segundo, contador.getAnclaNanos(), SystemClock.elapsedRealtime(), System.currentTimeMillis());
+            }
+
+            @Override
+            public void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base) {
+                cajaNegra.registrar(SystemClock.elapsedRealtimeNanos(), CajaNegra.ORIGEN_SERVICIO, CajaNegra.EVENTO_TRANSICION,
+                        CajaNegra.SIN_COMANDO, anterior, nuevo, id, 0);
+                if (id == ID_CONTADOR_PRINCIPAL)
+                    cambiarEstado(anterior, nuevo, segundo, base);
+                else {
+                    enviarEstadoBroadcast(id, nuevo, segundo, base);
+                    Log.i("SERVICIO", "Cuenta " + id + ": " + nuevo);
+                }
+            }
+
+            @Override
+            public void alTick(int id, int segundo) {
+                if (id == ID_CONTADOR_PRINCIPAL)
+                    avanzarAlertas(segundo);
+                if (MODO_CRONOMETRO)
+                    return;
+
+                long inicio = System.nanoTime();
+                if (id == ID_CONTADOR_PRINCIPAL && notificacion.actualizarContador(segundo))
+                    medirNotificacion(inicio);
+                enviarEstadoBroadcast(id, ESTADO_CORRIENDO, segundo, contador.getBase(id));
+
+                long media = medidorTick.medir(System.nanoTime() - inicio);
+                if (media >= 0)
+                    Log.d("SERVICIO", "Tiempo por tick en el hilo del contador: " + media / 1000 + " us");
+            }
+        });
+
+        receptorPantalla = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                pantallaEncendida = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+                contador.setObservado(hayQuienMire());
+            }
+        };
+        IntentFilter filtroPantalla = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filtroPantalla.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(receptorPantalla, filtroPantalla);
+        PowerManager powerManager = getSystemService(PowerManager.class);
+        if (powerManager != null)
+            pantallaEncendida = powerManager.isInteractive();
+        contador.setObservado(hayQuienMire());
+
+        receptorWidgets = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                int[] cuentas = intent.getIntArrayExtra(EXTRA_CUENTAS_MOSTRADAS);
+                mostrarCuentas(cuentas != null ? cuentas : new int[0]);
+            }
+        };
+        registerReceiver(receptorWidgets, new IntentFilter(ACCION_CUENTAS_MOSTRADAS));
+        mostrarCuentas(WidgetProvider.cuentasMostradas(this));
+
+        alarmManager = getSystemService(AlarmManager.class);
+        Intent intentAviso = new Intent(this, ServicioContador.class).setAction(ACCION_AVISO);
+        pendingIntentAviso = PendingIntent.getForegroundService(this, REQUEST_CODE_AVISO, intentAviso, PendingIntent.FLAG_UPDATE_CURRENT);
+        segundoAviso = getSharedPreferences(PREFERENCIAS, MODE_PRIVATE).getInt(CLAVE_SEGUNDO_AVISO, SIN_AVISO);
+        Intent intentAlertas = new Intent(this, ServicioContador.class).setAction(ACCION_ALERTAS);
+        pendingIntentAlertas = PendingIntent.getForegroundService(this, REQUEST_CODE_ALERTAS, intentAlertas,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        notificacion = Notificacion.crearNotificacion(this);
+        crearCanal();
+        abrirHistorial();
+        restaurarEstado();
+        if (PROCESO_SEPARADO)
+            abrirPagina();
+    }
+
+    /**
+     * Abre {@link ServicioContador#pagina} y publica en ella el estado actual, que ya es el restaurado. Desde entonces se publica cada
+     * vez que se publica la cuenta principal en {@link ServicioContador#difusor}
+     */
+    private void abrirPagina() {
+        try {
+            pagina = new PaginaContador(new File(getFilesDir(), ARCHIVO_PAGINA));
+        } catch (IOException e) {
+            Log.e("SERVICIO", "No se puede abrir la página compartida", e);
+            return;
+        }
+        pagina.publicar(contador.getEstado(), contador.getSegundoActual(), contador.getAnclaNanos(), SystemClock.elapsedRealtime(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Abre la página en la que el servicio publica su estado en {@link ServicioContador#PROCESO_SEPARADO}, para leerla desde otro proceso
+     *
+     * @param context contexto de la aplicación
+     * @return lector de la página, o null si el servicio no la ha creado todavía o no se puede abrir
+     */
+    public static PaginaContador.Lector abrirPagina(Context context) {
+        try {
+            return PaginaContador.Lector.abrir(new File(context.getFilesDir(), ARCHIVO_PAGINA));
+        } catch (IOException e) {
+            Log.e("SERVICIO", "No se puede abrir la página compartida", e);
+            return null;
+        }
+    }
+
+    /**
+     * Abre {@link ServicioContador#historial} y {@link ServicioContador#estadisticas}, y guarda en ellos cada sesión de la cuenta
+     * principal cuando se detiene
+     */
+    private void abrirHistorial() {
+        try {
+            historial = abrirHistorial(this);
+            estadisticas = abrirEstadisticas(this);
+            // Solo ocurre la primera vez o si el proceso murió entre las dos escrituras de una sesión
+            if (estadisticas.getSesiones() != historial.getSesiones()) {
+                long inicio = System.nanoTime();
+                estadisticas.reconstruir(historial);
+                Log.d("SERVICIO", "Estadísticas reconstruidas en " + (System.nanoTime() - inicio) / 1000 + " us");
+            }
+        } catch (IOException e) {
+            Log.e("SERVICIO", "No se puede abrir el historial de sesiones", e);
+            cerrarHistorial();
+            return;
+        }
+
+        contador.setOyenteSesiones(new Contador.OyenteSesiones() {
+            @Override
+            public void alTerminarSesion(long inicio, long fin, long milisContados, int pausas) {
+                // Solo se escriben unos pocos bytes al detener la cuenta, así que se escribe en el hilo del comando
+                try {
+                    historial.agregar(inicio, fin, milisContados, pausas);
+                    estadisticas.agregar(fin, milisContados);
+                } catch (IOException e) {
+                    Log.e("SERVICIO", "No se puede guardar la sesión", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cierra {@link ServicioContador#historial} y {@link ServicioContador#estadisticas}
+     */
+    private void cerrarHistorial() {
+        contador.setOyenteSesiones(null);
+        try {
+            if (historial != null)
+                historial.close();
+            if (estadisticas != null)
+                estadisticas.close();
+        } catch (IOException e) {
+            Log.e("SERVICIO", "No se puede cerrar el historial de sesiones", e);
+        }
+        historial = null;
+        estadisticas = null;
+    }
+
+    /**
+     * Devuelve los totales de las sesiones de la cuenta principal. Leerlos no depende del número de sesiones guardadas
+     *
+     * @return totales de las sesiones, o null si no se han podido abrir
+     */
+    public EstadisticasSesiones.Resumen leerEstadisticas() {
+        return estadisticas == null ? null : estadisticas.leer();
+    }
+
+    /**
+     * Exporta en segundo plano las sesiones de la cuenta principal que empezaron dentro de un rango.
+     * <p>
+     * Las exportaciones se hacen de una en una en {@link ServicioContador#ejecutorExportacion}, y cada una solo retiene el historial
+     * mientras lee una página, así que ni el tick ni guardar una sesión esperan a que termine
+     *
+     * @param salida  destino, por ejemplo el de {@code ContentResolver#openOutputStream} con un documento elegido por el usuario.
+     *                Se cierra al terminar
+     * @param formato {@link ExportadorSesiones#FORMATO_CSV} o {@link ExportadorSesiones#FORMATO_JSON}
+     * @param desde   primer inicio de las sesiones exportadas en el reloj de pared, incluido
+     * @param hasta   último inicio de las sesiones exportadas en el reloj de pared, excluido
+     * @param oyente  recibe el final de la exportación en el hilo principal
+     * @return exportador, con el que se puede cancelar, o null si el historial no se ha podido abrir
+     */
+    public ExportadorSesiones exportarSesiones(final OutputStream salida, int formato, long desde, long hasta,
+                                               final ExportadorSesiones.Oyente oyente) {
+        if (historial == null)
+            return null;
+
+        final ExportadorSesiones exportador = new ExportadorSesiones(historial, formato, desde, hasta);
+        exportaciones.add(exportador);
+        ejecutorExportacion.execute(new Runnable() {
+            @Override
+            public void run() {
+                long inicio = SystemClock.elapsedRealtime();
+                IOException fallo = null;
+                try (OutputStream destino = salida) {
+                    exportador.exportar(destino);
+                } catch (IOException e) {
+                    fallo = e;
+                }
+                exportaciones.remove(exportador);
+                Log.d("SERVICIO", "Exportación " + (fallo != null ? "fallida" : exportador.estaCancelado() ? "cancelada" : "terminada")
+                        + ": " + exportador.getExportadas() + " sesiones, " + exportador.getBytesEscritos() + " bytes en "
+                        + (SystemClock.elapsedRealtime() - inicio) + " ms");
+
+                final IOException error = fallo;
+                ejecutorPrincipal.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (error == null)
+                            oyente.alTerminar(exportador);
+                        else
+                            oyente.alFallar(exportador, error);
+                    }
+                });
+            }
+        });
+        return exportador;
+    }
+
+    /**
+     * Devuelve el texto con los totales de las sesiones que muestran {@link MainActivity} y {@link WidgetProvider}
+     *
+     * @param context contexto de la aplicación
+     * @param resumen totales de las sesiones
+     * @return totales de hoy, de esta semana y de siempre, la racha actual y la media por sesión
+     */
+    public static String textoEstadisticas(Context context, EstadisticasSesiones.Resumen resumen) {
+        long ahora = System.currentTimeMillis();
+        return context.getString(R.string.estadisticas,
+                DateUtils.formatElapsedTime(resumen.getMilisHoy(ahora) / MotorTick.MILIS_POR_SEGUNDO),
+                DateUtils.formatElapsedTime(resumen.getMilisSemana(ahora) / MotorTick.MILIS_POR_SEGUNDO),
+                DateUtils.formatElapsedTime(resumen.milisTotales / MotorTick.MILIS_POR_SEGUNDO),
+                resumen.getRacha(ahora),
+                DateUtils.formatElapsedTime(resumen.getMediaMilis() / MotorTick.MILIS_POR_SEGUNDO));
+    }
+
+    /**
+     * Abre los totales de las sesiones de la cuenta principal, contando los días en la zona horaria del dispositivo
+     *
+     * @param context contexto de la aplicación
+     * @return totales de las sesiones
+     * @throws IOException si no se puede abrir el archivo
+     */
+    public static EstadisticasSesiones abrirEstadisticas(Context context) throws IOException {
+        return new EstadisticasSesiones(new File(context.getFilesDir(), ARCHIVO_ESTADISTICAS), TimeZone.getDefault());
+    }
+
+    /**
+     * Lee los últimos totales de las sesiones de la cuenta principal sin abrir el archivo para escribir, para las vistas que no están
+     * en el servicio o que pueden estar en otro proceso mientras el servicio escribe en él
+     *
+     * @param context contexto de la aplicación
+     * @return totales de las sesiones, a 0 si aún no hay ninguna
+     * @throws IOException si no se puede leer el archivo
+     * @see EstadisticasSesiones#leerInstantanea(File, TimeZone)
+     */
+    public static EstadisticasSesiones.Resumen leerEstadisticasGuardadas(Context context) throws IOException {
+        return EstadisticasSesiones.leerInstantanea(new File(context.getFilesDir(), ARCHIVO_ESTADISTICAS), TimeZone.getDefault());
+    }
+
+    /**
+     * Abre el historial de las sesiones de la cuenta principal
+     *
+     * @param context contexto de la aplicación
+     * @return historial de sesiones
+     * @throws IOException si no se pueden abrir los archivos
+     */
+    public static HistorialSesiones abrirHistorial(Context context) throws IOException {
+        return new HistorialSesiones(new File(context.getFilesDir(), ARCHIVO_HISTORIAL),
+                new File(context.getFilesDir(), ARCHIVO_INDICE_HISTORIAL));
+    }
+
+    /**
+     * Abre {@link ServicioContador#almacen} y, si el proceso murió con la cuenta empezada, la restaura desde el último estado guardado
+     */
+    private void restaurarEstado() {
+        long inicio = System.nanoTime();
+        try {
+            almacen = abrirAlmacen(this);
+        } catch (IOException e) {
+            Log.e("SERVICIO", "No se puede abrir el estado guardado", e);
+            return;
+        }
+
+        contador.setAlmacen(almacen);
+        if (!contador.restaurar())
+            return;
+
+        long duracion = System.nanoTime() - inicio;
+        cajaNegra.registrar(SystemClock.elapsedRealtimeNanos(), CajaNegra.ORIGEN_SERVICIO, CajaNegra.EVENTO_RESTAURADO,
+                CajaNegra.SIN_COMANDO, ESTADO_DETENIDO, contador.getEstado(), ID_CONTADOR_PRINCIPAL, duracion);
+        Log.d("SERVICIO", "Estado restaurado en " + duracion / 1000 + " us");
+
+        enviarEstadoBroadcast();
+        notificacion.actualizarEstado(contador.getEstado(), contador.getSegundoActual(), contador.getBase(ID_CONTADOR_PRINCIPAL));
+        reprogramarAviso();
+    }
+
+    /**
+     * Abre el archivo en el que se guarda el estado de la cuenta
+     *
+     * @param context contexto de la aplicación
+     * @return almacén del estado de la cuenta
+     * @throws IOException si no se puede abrir el archivo
+     */
+    public static AlmacenEstado abrirAlmacen(Context context) throws IOException {
+        return new AlmacenEstado(new File(context.getFilesDir(), ARCHIVO_ESTADO));
+    }
+
+    /**
+     * Lee el último estado guardado de la cuenta principal sin abrir el almacén ni esperar al servicio, para que las vistas pinten el
+     * valor correcto desde su primer fotograma
+     *
+     * @param context contexto de la aplicación
+     * @return estado guardado, o null si no hay ninguno o no se puede leer
+     * @see AlmacenEstado#leerInstantanea(File)
+     */
+    public static AlmacenEstado.EstadoGuardado leerEstadoGuardado(Context context) {
+        try {
+            return AlmacenEstado.leerInstantanea(new File(context.getFilesDir(), ARCHIVO_ESTADO));
+        } catch (IOException e) {
+            Log.e("SERVICIO", "No se puede leer el estado guardado", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(receptorPantalla);
+        unregisterReceiver(receptorWidgets);
+        clientesRemotos.clear();
+        difusor.cerrar();
+        handlerPrincipal.removeCallbacks(actualizacionPrimerPlano);
+        contador.setObservado(false);
+        handler.removeCallbacksAndMessages(null);
+        hiloTrabajo.quitSafely();
+        for (ExportadorSesiones exportador : exportaciones)
+            exportador.cancelar();
+        ejecutorExportacion.shutdown();
+        if (almacen != null) {
+            try {
+                almacen.close();
+            } catch (IOException e) {
+                Log.e("SERVICIO", "No se puede cerrar el estado guardado", e);
+            }
+        }
+        cerrarHistorial();
+        if (pagina != null) {
+            try {
+                pagina.close();
+            } catch (IOException e) {
+                Log.e("SERVICIO", "No se puede cerrar la página compartida", e);
+            }
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        ipcComandos.registrar(SystemClock.elapsedRealtime());
+        // Los comandos llegan con startForegroundService, así que siempre hay que pasar a primer plano aunque el comando se rechace
+        startForeground(Notificacion.FOREGROUND_ID, notificacion.getNotification());
+        ipcPrimerPlano.registrar(SystemClock.elapsedRealtime());
+
+        // Si el sistema vuelve a crear el servicio sin intent, el estado ya se ha restaurado en onCreate y no hay ningún comando
+        if (intent != null && ACCION_AVISO.equals(intent.getAction())) {
+            if (contador.getEstado() == ESTADO_CORRIENDO && segundoAviso != SIN_AVISO)
+                notificacion.mostrarAviso(segundoAviso);
+        } else if (intent != null && ACCION_ALERTAS.equals(intent.getAction())) {
+            // La alarma ya ha sonado, así que hay que volver a programarla aunque el siguiente paso no cambie
+            synchronized (alertas) {
+                pasoAlarmaAlertas = RuedaTemporizadores.SIN_PASO;
+            }
+            if (contador.getEstado() == ESTADO_CORRIENDO)
+                avanzarAlertas(contador.getSegundoActual());
+            else
+                reprogramarAlarmaAlertas();
+        } else if (intent != null && ACCION_VUELTA.equals(intent.getAction())) {
+            vuelta(intent.getLongExtra(EXTRA_MARCA_TIEMPO, SystemClock.elapsedRealtimeNanos()),
+                    intent.getIntExtra(EXTRA_ORIGEN, CajaNegra.ORIGEN_DESCONOCIDO));
+        } else if (intent != null) {
+            long marcaTiempo = intent.getLongExtra(EXTRA_MARCA_TIEMPO, SystemClock.elapsedRealtimeNanos());
+            int comando = intent.getIntExtra(EXTRA_COMANDO, MaquinaEstados.COMANDO_EMPEZAR);
+            int idContador = intent.getIntExtra(EXTRA_ID_CONTADOR, ID_CONTADOR_PRINCIPAL);
+            ejecutar(idContador, comando, marcaTiempo, intent.getIntExtra(EXTRA_ORIGEN, CajaNegra.ORIGEN_DESCONOCIDO));
+        }
+        actualizarPrimerPlano();
+
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    /**
+     * Crea un {@link PendingIntent} que envía un comando a una de las cuentas del servicio directamente, sin pasar por ningún
+     * {@link android.content.BroadcastReceiver}
+     *
+     * @param context     contexto de la aplicación
+     * @param requestCode código de request del PendingIntent
+     * @param accion      acción del intent, que diferencia los PendingIntent de cada comando
+     * @param comando     comando de {@link MaquinaEstados}
+     * @param idContador  id de la cuenta, o {@link ServicioContador#ID_CONTADOR_PRINCIPAL}
+     * @param origen      vista que envía el comando, una de las constantes ORIGEN_ de {@link CajaNegra}
+     * @return PendingIntent que arranca el servicio con el comando
+     */
+    public static PendingIntent crearPendingIntent(Context context, int requestCode, String accion, int comando, int idContador,
+                                                   int origen) {
+        Intent intent = new Intent(context, ServicioContador.class).setAction(accion).putExtra(EXTRA_COMANDO, comando)
+                .putExtra(EXTRA_ORIGEN, origen);
+        if (idContador != ID_CONTADOR_PRINCIPAL) {
+            // Los extras no diferencian los PendingIntent, así que cada cuenta lleva su propio Uri
+            intent.setData(Uri.fromParts("contador", String.valueOf(idContador), null));
+            intent.putExtra(EXTRA_ID_CONTADOR, idContador);
+        }
+        return PendingIntent.getForegroundService(context, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Crea un {@link PendingIntent} que marca una vuelta de la cuenta principal
+     *
+     * @param context     contexto de la aplicación
+     * @param requestCode código de request del PendingIntent
+     * @param origen      vista que marca la vuelta, una de las constantes ORIGEN_ de {@link CajaNegra}
+     * @return PendingIntent que arranca el servicio con {@link ServicioContador#ACCION_VUELTA}
+     */
+    public static PendingIntent crearPendingIntentVuelta(Context context, int requestCode, int origen) {
+        Intent intent = new Intent(context, ServicioContador.class).setAction(ACCION_VUELTA).putExtra(EXTRA_ORIGEN, origen);
+        return PendingIntent.getForegroundService(context, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Envía el estado y el segundo actual de la cuenta principal a {@link WidgetProvider}
+     */
+    private void enviarEstadoBroadcast() {
+        enviarEstadoBroadcast(ID_CONTADOR_PRINCIPAL, contador.getEstado(), contador.getSegundoActual(), contador.getBase(ID_CONTADOR_PRINCIPAL));
+    }
+
+    /**
+     * Envía el estado y el segundo actual de una cuenta a {@link WidgetProvider}, reutilizando el intent del último envío de la cuenta
+     *
+     * @param idContador id de la cuenta
+     * @param estado     estado de la cuenta
+     * @param segundo    segundo actual de la cuenta
+     * @param base       base de la cuenta en la escala de {@link SystemClock#elapsedRealtime()}
+     */
+    private void enviarEstadoBroadcast(int idContador, int estado, int segundo, long base) {
+        long inicio = System.nanoTime();
+        Context context = getApplicationContext();
+        synchronized (intentsEstado) {
+            Intent intent = intentsEstado.get(idContador);
+            if (intent == null) {
+                intent = new Intent(context, WidgetProvider.class);
+                intent.setAction(ACCION_ACTUALIZAR_DATOS);
+                intent.putExtra(EXTRA_ID_CONTADOR, idContador);
+                intent.putExtra(EXTRA_ACTUALIZAR_ESTADO, estado);
+                intent.putExtra(EXTRA_ACTUALIZAR_SEGUNDOS, segundo);
+                intent.putExtra(EXTRA_BASE_CRONOMETRO, base);
+                intentsEstado.put(idContador, intent);
+            } else {
+                if (intent.getIntExtra(EXTRA_ACTUALIZAR_ESTADO, estado) != estado)
+                    intent.putExtra(EXTRA_ACTUALIZAR_ESTADO, estado);
+                if (intent.getIntExtra(EXTRA_ACTUALIZAR_SEGUNDOS, segundo) != segundo)
+                    intent.putExtra(EXTRA_ACTUALIZAR_SEGUNDOS, segundo);
+                if (intent.getLongExtra(EXTRA_BASE_CRONOMETRO, base) != base)
+                    intent.putExtra(EXTRA_BASE_CRONOMETRO, base);
+            }
+
+            // sendBroadcast escribe el intent en un Parcel antes de volver, así que se puede modificar para el siguiente envío
+            context.sendBroadcast(intent);
+
+            // Una cuenta del registro detenida ya no existe, así que no se vuelve a enviar
+            if (estado == ESTADO_DETENIDO && idContador != ID_CONTADOR_PRINCIPAL)
+                intentsEstado.remove(idContador);
+        }
+        costeWidget.registrar(System.nanoTime() - inicio);
+        ipcWidget.registrar(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Registra el coste de una publicación de la notificación
+     *
+     * @param inicio instante en el que empezó la publicación, en la escala de {@link System#nanoTime()}
+     */
+    private void medirNotificacion(long inicio) {
+        costeNotificacion.registrar(System.nanoTime() - inicio);
+        ipcNotificaciones.registrar(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Crea el canal para lanzar la notificación
+     *
+     * @see Notificacion
+     */
+    private void crearCanal() {
+        NotificationChannel channel = new NotificationChannel(Notificacion.CHANNEL_ID, "nombre", NotificationManager.IMPORTANCE_DEFAULT);
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        if (manager != null) {
+            manager.createNotificationChannel(channel);
+        }
+    }
+
+    /**
+     * Si el estado de la cuenta del servicio está en marcha, pausa la cuenta
+     *
+     * @see ServicioContador#ESTADO_PAUSADO
+     * @see ServicioContador#ESTADO_CORRIENDO
+     */
+    public void pause() {
+        ejecutar(ID_CONTADOR_PRINCIPAL, MaquinaEstados.COMANDO_PAUSAR, SystemClock.elapsedRealtimeNanos(), CajaNegra.ORIGEN_ACTIVIDAD);
+    }
+
+    /**
+     * Detiene la cuenta, reinicia los valores y detiene el servicio.
+     */
+    public void stop() {
+        ejecutar(ID_CONTADOR_PRINCIPAL, MaquinaEstados.COMANDO_PARAR, SystemClock.elapsedRealtimeNanos(), CajaNegra.ORIGEN_ACTIVIDAD);
+    }
+
+    /**
+     * Marca una vuelta de la cuenta principal
+     *
+     * @return true si se ha marcado, false si la cuenta no está en marcha
+     */
+    public boolean vuelta() {
+        return vuelta(SystemClock.elapsedRealtimeNanos(), CajaNegra.ORIGEN_ACTIVIDAD);
+    }
+
+    /**
+     * Marca una vuelta de la cuenta principal y la registra en {@link ServicioContador#cajaNegra}
+     *
+     * @param marcaTiempo instante en el que se pidió la vuelta, en la escala de {@link SystemClock#elapsedRealtimeNanos()}
+     * @param origen      vista que pide la vuelta
+     * @return true si se ha marcado
+     */
+    private boolean vuelta(long marcaTiempo, int origen) {
+        boolean marcada = contador.vuelta(marcaTiempo);
+        int estado = contador.getEstado();
+        cajaNegra.registrar(SystemClock.elapsedRealtimeNanos(), origen, CajaNegra.EVENTO_VUELTA, CajaNegra.SIN_COMANDO,
+                estado, marcada ? ESTADO_CORRIENDO : estado, ID_CONTADOR_PRINCIPAL, 0);
+        if (marcada)
+            publicarVueltas();
+        return marcada;
+    }
+
+    /**
+     * Publica en {@link ServicioContador#pagina} el resumen de las vueltas de la sesión
+     */
+    private void publicarVueltas() {
+        if (pagina == null)
+            return;
+
+        synchronized (lotePagina) {
+            if (contador.leerVueltas(lotePagina))
+                pagina.publicarVueltas(lotePagina.vueltas, lotePagina.mejor, lotePagina.peor, lotePagina.media);
+        }
+    }
+
+    /**
+     * Escribe en el lote las vueltas de la cuenta principal que no ha recibido todavía, sin crear objetos
+     *
+     * @param lote lote de quien muestra las vueltas
+     * @return true si hay algo nuevo
+     */
+    public boolean leerVueltas(LoteVueltas lote) {
+        return contador.leerVueltas(lote);
+    }
+
+    /**
+     * Envía un comando a {@link ServicioContador#contador} y registra la latencia hasta que se han aplicado sus efectos.
+     * <p>
+     * No hace falta deshabilitar los botones durante un tiempo: si llegan varios comandos a la vez, {@link MaquinaEstados}
+     * los ordena y rechaza los que ya no tienen sentido.
+     *
+     * @param idContador  id de la cuenta
+     * @param comando     comando de {@link MaquinaEstados}
+     * @param marcaTiempo instante en el que se envió el comando, en la escala de {@link SystemClock#elapsedRealtimeNanos()}
+     * @param origen      vista que envía el comando, una de las constantes ORIGEN_ de {@link CajaNegra}
+     * @return true si se ha aplicado el comando
+     */
+    private boolean ejecutar(int idContador, int comando, long marcaTiempo, int origen) {
+        int anterior = contador.getEstado(idContador);
+        boolean aplicado = contador.ejecutar(idContador, comando);
+        long ahora = SystemClock.elapsedRealtimeNanos();
+        long latencia = ahora - marcaTiempo;
+        cajaNegra.registrar(ahora, origen, aplicado ? CajaNegra.EVENTO_COMANDO : CajaNegra.EVENTO_RECHAZADO, comando, anterior,
+                contador.getEstado(idContador), idContador, latencia);
+
+        // Un toque rechazado en el widget o en la notificación es el "no hizo nada" que la caja negra tiene que explicar
+        boolean remoto = origen == CajaNegra.ORIGEN_WIDGET || origen == CajaNegra.ORIGEN_NOTIFICACION;
+        if ((!aplicado && remoto) || latencia > LATENCIA_ANOMALA_NANOS)
+            programarVolcadoCajaNegra();
+        if (!aplicado)
+            return false;
+
+        latenciaComandos.registrar(latencia);
+        return true;
+    }
+
+    /**
+     * Programa un volcado de {@link ServicioContador#cajaNegra} tras una anomalía, salvo que ya se haya hecho uno hace menos de
+     * {@link ServicioContador#MILIS_ENTRE_VOLCADOS}
+     */
+    private void programarVolcadoCajaNegra() {
+        long ahora = SystemClock.elapsedRealtime();
+        if (ultimoVolcado != 0 && ahora - ultimoVolcado < MILIS_ENTRE_VOLCADOS)
+            return;
+
+        ultimoVolcado = ahora;
+        handler.post(volcadoCajaNegra);
+    }
+
+    /**
+     * Escribe {@link ServicioContador#cajaNegra} en {@link ServicioContador#ARCHIVO_CAJA_NEGRA}
+     */
+    private void volcarCajaNegra() {
+        try {
+            int eventos = cajaNegra.volcar(new File(getFilesDir(), ARCHIVO_CAJA_NEGRA));
+            Log.i("SERVICIO", "Caja negra volcada: " + eventos + " eventos");
+        } catch (IOException e) {
+            Log.e("SERVICIO", "No se ha podido volcar la caja negra", e);
+        }
+    }
+
+    /**
+     * Indica si alguna vista necesita el tick de cada segundo.
+     * <p>
+     * Los suscriptores de {@link ServicioContador#difusor} siempre lo necesitan. El widget y la notificación solo lo necesitan si muestran el texto de cada segundo y la pantalla
+     * está encendida, ya que en {@link ServicioContador#MODO_CRONOMETRO} avanzan por sí solos
+     *
+     * @return true si hay que mantener el tick
+     */
+    private boolean hayQuienMire() {
+        return difusor.getSuscriptores() > 0 || (!MODO_CRONOMETRO && pantallaEncendida);
+    }
+
+    /**
+     * Observa en {@link ServicioContador#contador} las cuentas que muestran los widgets y deja de observar las que han dejado de
+     * mostrarse, ya que el tick recorre todas las cuentas observadas aunque nadie las vea
+     *
+     * @param cuentas ids de las cuentas que muestran los widgets, sin repetir
+     */
+    private void mostrarCuentas(int[] cuentas) {
+        for (int cuenta : cuentasMostradas)
+            if (!contiene(cuentas, cuenta))
+                contador.dejarDeObservar(cuenta);
+        for (int cuenta : cuentas)
+            if (!contiene(cuentasMostradas, cuenta))
+                contador.observar(cuenta);
+        cuentasMostradas = cuentas;
+    }
+
+    private static boolean contiene(int[] valores, int valor) {
+        for (int v : valores)
+            if (v == valor)
+                return true;
+        return false;
+    }
+
+    /**
+     * Decide si el servicio tiene que estar en primer plano.
+     * <p>
+     * Con alguna cuenta en marcha, el servicio solo está en primer plano si alguien la mira o si el widget y la notificación necesitan
+     * el tick al encender la pantalla. En {@link ServicioContador#MODO_CRONOMETRO} y sin ningún suscriptor, el servicio entra en reposo:
+     * sale de primer plano dejando la notificación, que sigue avanzando por sí sola, y si el sistema lo mata la cuenta se restaura desde
+     * {@link ServicioContador#almacen}. Si no hay ninguna cuenta en marcha sale de primer plano, y se detiene si además todas están detenidas
+     *
+     * @return true si se ha detenido el servicio
+     */
+    private boolean actualizarPrimerPlano() {
+        ipcPrimerPlano.registrar(SystemClock.elapsedRealtime());
+        if (contador.hayCuentasEnMarcha()) {
+            if (MODO_CRONOMETRO && !hayQuienMire())
+                stopForeground(false);
+            else
+                startForeground(Notificacion.FOREGROUND_ID, notificacion.getNotification());
+            return false;
+        }
+
+        boolean detenido = contador.estaDetenido();
+        stopForeground(detenido);
+        if (detenido)
+            stopSelf();
+        return detenido;
+    }
+
+    /**
+     * Aplica en la notificación, el widget y el primer plano del servicio un cambio de estado de la cuenta principal
+     *
+     * @param anterior estado anterior
+     * @param nuevo    nuevo estado
+     * @param segundo  segundo actual de la cuenta
+     * @param base     base de la cuenta en la escala de {@link SystemClock#elapsedRealtime()}
+     */
+    private void cambiarEstado(int anterior, int nuevo, int segundo, long base) {
+        boolean detenido = false;
+        switch (nuevo) {
+            case ESTADO_CORRIENDO:
+                actualizarPrimerPlano();
+                mostrarMensaje(anterior == ESTADO_DETENIDO ? "Empezado" : "Reanudado");
+                break;
+            case ESTADO_PAUSADO:
+                actualizarPrimerPlano();
+                mostrarMensaje("Pausado");
+                break;
+            case ESTADO_DETENIDO:
+                detenido = actualizarPrimerPlano();
+                mostrarMensaje("Parado");
+                break;
+        }
+
+        reprogramarAviso();
+        // Las alertas son de la sesión: al detener la cuenta se cancelan y la rueda vuelve al segundo 0
+        if (nuevo == ESTADO_DETENIDO) {
+            alertas.vaciar(0);
+            reprogramarAlarmaAlertas();
+        } else
+            avanzarAlertas(segundo);
+        // Al empezar una sesión se vacían las vueltas
+        publicarVueltas();
+        enviarEstadoBroadcast(ID_CONTADOR_PRINCIPAL, nuevo, segundo, base);
+
+        // Al detener el servicio se elimina la notificación, por lo que no hay que volver a publicarla
+        if (MODO_CRONOMETRO && !detenido) {
+            long inicio = System.nanoTime();
+            notificacion.actualizarEstado(nuevo, segundo, base);
+            medirNotificacion(inicio);
+        }
+    }
+
+    /**
+     * Escribe el mensaje en el log y lo muestra en un {@link Toast}
+     *
+     * @param mensaje mensaje que se muestra
+     */
+    private void mostrarMensaje(final String mensaje) {
+        Log.i("SERVICIO", mensaje.toUpperCase());
+        handlerPrincipal.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), mensaje, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Suscribe a la cuenta principal un suscriptor de la interfaz, que recibe los valores en el hilo principal.
+     * <p>
+     * Mientras haya algún suscriptor se mantiene el tick. Hay que cancelar la suscripción al dejar de mostrar la cuenta, por ejemplo en
+     * onStop, para que el servicio deje de referenciar la activity
+     *
+     * @param suscriptor suscriptor
+     * @return suscripción
+     */
+    public DifusorContador.Suscripcion suscribir(DifusorContador.Suscriptor suscriptor) {
+        return suscribir(suscriptor, ejecutorPrincipal);
+    }
+
+    /**
+     * Suscribe a la cuenta principal un suscriptor que recibe los valores en el ejecutor indicado, por ejemplo un consumidor en segundo plano
+     *
+     * @param suscriptor suscriptor
+     * @param ejecutor   ejecutor en el que se llama al suscriptor
+     * @return suscripción
+     * @see ServicioContador#suscribir(DifusorContador.Suscriptor)
+     */
+    public DifusorContador.Suscripcion suscribir(DifusorContador.Suscriptor suscriptor, Executor ejecutor) {
+        return difusor.suscribir(medirSuscriptor(suscriptor), ejecutor);
+    }
+
+    /**
+     * Atiende en el hilo principal un mensaje de quien se conecta desde otro proceso
+     *
+     * @param msg mensaje, uno de los MENSAJE_
+     * @return true si se ha atendido
+     */
+    private boolean recibirMensaje(Message msg) {
+        ipcComandos.registrar(SystemClock.elapsedRealtime());
+        switch (msg.what) {
+            case MENSAJE_SUSCRIBIR:
+                if (msg.replyTo != null && !clientesRemotos.containsKey(msg.replyTo.getBinder()))
+                    clientesRemotos.put(msg.replyTo.getBinder(), suscribir(crearClienteRemoto(msg.replyTo)));
+                return true;
+            case MENSAJE_DESUSCRIBIR:
+                DifusorContador.Suscripcion suscripcion = msg.replyTo == null ? null : clientesRemotos.remove(msg.replyTo.getBinder());
+                if (suscripcion != null)
+                    suscripcion.cancelar();
+                return true;
+            case MENSAJE_COMANDO:
+                // El comando llega de otro proceso, así que se comprueba antes de usarlo como índice de la tabla de transiciones
+                if (!MaquinaEstados.esComando(msg.arg1)) {
+                    Log.w("SERVICIO", "Comando desconocido de otro proceso: " + msg.arg1);
+                    return true;
+                }
+                long marcaTiempo = msg.peekData() == null ? SystemClock.elapsedRealtimeNanos()
+                        : msg.getData().getLong(EXTRA_MARCA_TIEMPO, SystemClock.elapsedRealtimeNanos());
+                ejecutar(ID_CONTADOR_PRINCIPAL, msg.arg1, marcaTiempo, CajaNegra.ORIGEN_ACTIVIDAD);
+                return true;
+            case MENSAJE_VUELTA:
+                vuelta();
+                return true;
+            case MENSAJE_AVISO:
+                programarAviso(msg.arg1);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Crea el suscriptor de {@link ServicioContador#difusor} que avisa a quien se conecta desde otro proceso con
+     * {@link ServicioContador#MENSAJE_ACTUALIZADO}. Si ese proceso ha muerto, cancela la suscripción
+     *
+     * @param cliente mensajero de quien se suscribe
+     * @return suscriptor, que recibe los valores en el hilo principal
+     */
+    private DifusorContador.Suscriptor crearClienteRemoto(final Messenger cliente) {
+        return new DifusorContador.Suscriptor() {
+
+            private DifusorContador.Suscripcion suscripcion;
+
+            @Override
+            public void alSuscribirse(DifusorContador.Suscripcion suscripcion) {
+                this.suscripcion = suscripcion;
+                suscripcion.pedir(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void alRecibir(int estado, int segundo) {
+                try {
+                    cliente.send(Message.obtain(null, MENSAJE_ACTUALIZADO, estado, segundo));
+                } catch (RemoteException e) {
+                    Log.w("SERVICIO", "El cliente remoto ya no existe", e);
+                    clientesRemotos.remove(cliente.getBinder());
+                    suscripcion.cancelar();
+                }
+            }
+
+            @Override
+            public void alCompletar() {
+                clientesRemotos.remove(cliente.getBinder());
+            }
+        };
+    }
+
+    /**
+     * Envuelve un suscriptor para registrar en {@link ServicioContador#costeSuscriptores} lo que tarda cada entrega. Solo se crea un
+     * objeto por suscripción, no por entrega
+     *
+     * @param suscriptor suscriptor
+     * @return suscriptor que mide las entregas
+     */
+    private DifusorContador.Suscriptor medirSuscriptor(final DifusorContador.Suscriptor suscriptor) {
+        return new DifusorContador.Suscriptor() {
+            @Override
+            public void alSuscribirse(DifusorContador.Suscripcion suscripcion) {
+                suscriptor.alSuscribirse(suscripcion);
+            }
+
+            @Override
+            public void alRecibir(int estado, int segundo) {
+                long inicio = System.nanoTime();
+                suscriptor.alRecibir(estado, segundo);
+                costeSuscriptores.registrar(System.nanoTime() - inicio);
+            }
+
+            @Override
+            public void alCompletar() {
+                suscriptor.alCompletar();
+            }
+        };
+    }
+
+    /**
+     * Escribe las métricas del servicio en {@code adb shell dumpsys activity service es.rbp.ejemplo_widget/.servicios.ServicioContador},
+     * que también se incluyen en los informes de errores. Todas se registran sin cerrojos y con memoria fija, así que se pueden dejar
+     * activas en producción.
+     * <p>
+     * Con el argumento {@value #ARGUMENTO_CAJA_NEGRA} también vuelca {@link ServicioContador#cajaNegra} a su archivo y escribe su
+     * línea de tiempo. Con {@value #ARGUMENTO_EXPORTAR_CSV} o {@value #ARGUMENTO_EXPORTAR_JSON} como primer argumento solo escribe
+     * todas las sesiones, para sacarlas con {@code adb shell dumpsys ... exportar-csv > sesiones.csv}
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0 && (ARGUMENTO_EXPORTAR_CSV.equals(args[0]) || ARGUMENTO_EXPORTAR_JSON.equals(args[0]))) {
+            exportarEnDump(fd, writer, ARGUMENTO_EXPORTAR_CSV.equals(args[0]) ? ExportadorSesiones.FORMATO_CSV
+                    : ExportadorSesiones.FORMATO_JSON);
+            return;
+        }
+
+        long ahora = SystemClock.elapsedRealtime();
+        writer.println("ServicioContador");
+        writer.println("  Estado: " + contador.getEstado() + ", segundo " + contador.getSegundoActual() + ", "
+                + difusor.getSuscriptores() + " suscriptores, pantalla " + (pantallaEncendida ? "encendida" : "apagada")
+                + ", modo cronómetro " + MODO_CRONOMETRO);
+        writer.println("  Cuentas en los widgets: " + cuentasMostradas.length + ", " + contador.getObservadasRegistro()
+                + " observadas en el tick");
+        if (pagina != null)
+            writer.println("  Proceso separado: " + clientesRemotos.size() + " clientes remotos, " + pagina.getPublicaciones()
+                    + " publicaciones en la página");
+        writer.println("  Servicio creado hace " + (ahora - inicioServicio) / 1000 + " s");
+
+        writer.println("  Retraso del tick respecto a su instante programado:");
+        contador.getRetrasoTick().escribir(writer, "    ");
+
+        writer.println("  Latencia de los comandos aplicados:");
+        latenciaComandos.escribir(writer, "    ");
+
+        writer.println("  Coste por destino:");
+        writer.println("    Notificación: " + costeNotificacion);
+        writer.println("    Widget: " + costeWidget);
+        writer.println("    Suscriptores: " + costeSuscriptores);
+
+        writer.println("  IPC por minuto, desde el actual hacia atrás:");
+        writer.print("    Notificaciones: ");
+        ipcNotificaciones.escribir(writer, ahora);
+        writer.print("    Broadcasts al widget: ");
+        ipcWidget.escribir(writer, ahora);
+        writer.print("    Comandos recibidos: ");
+        ipcComandos.escribir(writer, ahora);
+        writer.print("    Primer plano: ");
+        ipcPrimerPlano.escribir(writer, ahora);
+
+        writer.println("  CPU del hilo del tick: " + tiempoCpuHilo(hiloTrabajo.getThreadId()) + " ms, del proceso: "
+                + Process.getElapsedCpuTime() + " ms");
+
+        long siguienteAlerta = alertas.getSiguientePaso();
+        writer.println("  Alertas: " + alertas.getPendientes() + " pendientes, rueda en el segundo " + alertas.getPaso()
+                + (siguienteAlerta == RuedaTemporizadores.SIN_PASO ? "" : ", siguiente paso en el segundo " + siguienteAlerta));
+
+        writer.println("  Caja negra: " + cajaNegra.getEventos() + " eventos registrados, capacidad " + cajaNegra.getCapacidad()
+                + (ultimoVolcado == 0 ? ", sin volcados por anomalía"
+                : ", último volcado hace " + (ahora - ultimoVolcado) / 1000 + " s"));
+        if (args == null || !Arrays.asList(args).contains(ARGUMENTO_CAJA_NEGRA))
+            return;
+
+        // Se escribe lo mismo que queda en el archivo, para poder compararlo con el que se saque después del dispositivo
+        File archivo = new File(getFilesDir(), ARCHIVO_CAJA_NEGRA);
+        try {
+            cajaNegra.volcar(archivo);
+            try (InputStream entrada = new BufferedInputStream(new FileInputStream(archivo))) {
+                LectorCajaNegra.escribir(LectorCajaNegra.leer(entrada), writer);
+            }
+        } catch (IOException e) {
+            writer.println("  No se puede leer la caja negra: " + e);
+        }
+    }
+
+    /**
+     * Escribe todas las sesiones directamente en el descriptor de dump. Se hace en el hilo de binder que llama a dump, que no es el del
+     * tick, y el descriptor no se cierra porque es del sistema
+     */
+    private void exportarEnDump(FileDescriptor fd, PrintWriter writer, int formato) {
+        HistorialSesiones historial = this.historial;
+        if (historial == null) {
+            writer.println("El historial de sesiones no se ha podido abrir");
+            return;
+        }
+
+        try {
+            new ExportadorSesiones(historial, formato, Long.MIN_VALUE, Long.MAX_VALUE).exportar(new FileOutputStream(fd));
+        } catch (IOException e) {
+            writer.println("No se pueden exportar las sesiones: " + e);
+        }
+    }
+
+    /**
+     * Lee el tiempo de CPU que ha usado un hilo del proceso, en modo usuario y en modo núcleo
+     *
+     * @param tid id del hilo en el sistema
+     * @return milisegundos de CPU, o -1 si no se pueden leer
+     */
+    private static long tiempoCpuHilo(int tid) {
+        try (RandomAccessFile stat = new RandomAccessFile("/proc/self/task/" + tid + "/stat", "r")) {
+            String linea = stat.readLine();
+            // El nombre del hilo va entre paréntesis y puede tener espacios, así que los campos se cuentan desde el último paréntesis.
+            // Tras él vienen el estado, campo 3, y utime y stime, campos 14 y 15, en ticks del reloj del sistema
+            String[] campos = linea.substring(linea.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(campos[11]) + Long.parseLong(campos[12]);
+            return ticks * 1000 / Os.sysconf(OsConstants._SC_CLK_TCK);
+        } catch (IOException | RuntimeException e) {
+            Log.e("SERVICIO", "No se puede leer el tiempo de CPU del hilo " + tid, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Devuelve el ancla en nanosegundos de la cuenta principal, en la escala de {@link SystemClock#elapsedRealtimeNanos()}.
+     * <p>
+     * Con ella una vista calcula el tiempo con precisión de milisegundos en cada fotograma, sin que el servicio haga nada más que el tick
+     * de cada segundo. Solo cambia con el estado de la cuenta, así que basta con volver a pedirla cuando llega un estado nuevo
+     *
+     * @return ancla de la cuenta principal
+     */
+    public AnclaNanos getAnclaNanos() {
+        return contador.getAnclaNanos();
+    }
+
+    /**
+     * Programa un aviso para cuando la cuenta principal llegue a un segundo, por ejemplo a los 25 minutos.
+     * <p>
+     * El aviso usa una sola alarma exacta de {@link AlarmManager}, así que llega aunque el servicio esté en reposo sin tick
+     *
+     * @param segundo segundo de la cuenta en el que se avisa, o {@link ServicioContador#SIN_AVISO}
+     */
+    public void programarAviso(int segundo) {
+        segundoAviso = segundo;
+        getSharedPreferences(PREFERENCIAS, MODE_PRIVATE).edit().putInt(CLAVE_SEGUNDO_AVISO, segundo).apply();
+        reprogramarAviso();
+    }
+
+    /**
+     * Programa la alarma del aviso a partir de las anclas de la cuenta, o la cancela si la cuenta no está en marcha
+     * o ya ha pasado el segundo del aviso
+     */
+    private void reprogramarAviso() {
+        alarmManager.cancel(pendingIntentAviso);
+        if (segundoAviso == SIN_AVISO || contador.getEstado() != ESTADO_CORRIENDO)
+            return;
+
+        long restante = segundoAviso * MotorTick.MILIS_POR_SEGUNDO - contador.getMilisTranscurridos();
+        if (restante > 0)
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + restante,
+                    pendingIntentAviso);
+    }
+
+    /**
+     * Programa una alerta para cuando la cuenta principal llegue a un segundo.
+     * <p>
+     * A diferencia de {@link ServicioContador#programarAviso(int)}, se pueden programar miles, como todos los intervalos de un
+     * entrenamiento o una cadena de pomodoros, sin un {@code postDelayed} ni una alarma por cada una: van en
+     * {@link ServicioContador#alertas}, que avanza con el tick y tiene como mucho una alarma. Se cuentan en segundos de la cuenta, así
+     * que no avanzan mientras está pausada, y se cancelan todas al detenerla. Las que vencen a la vez se muestran en una sola
+     * notificación
+     *
+     * @param segundo  segundo de la cuenta en el que se avisa. Si ya ha pasado, se avisa en cuanto la cuenta esté en marcha
+     * @param etiqueta número que se muestra en la notificación, por ejemplo el del intervalo
+     * @return alerta, para cancelarla
+     */
+    public long programarAlerta(int segundo, int etiqueta) {
+        long alerta = alertas.programar(segundo, etiqueta);
+        reprogramarAlarmaAlertas();
+        return alerta;
+    }
+
+    /**
+     * Cancela una alerta pendiente
+     *
+     * @param alerta alerta devuelta por {@link ServicioContador#programarAlerta(int, int)}
+     * @return true si estaba pendiente
+     */
+    public boolean cancelarAlerta(long alerta) {
+        if (!alertas.cancelar(alerta))
+            return false;
+
+        reprogramarAlarmaAlertas();
+        return true;
+    }
+
+    /**
+     * Avanza {@link ServicioContador#alertas} hasta un segundo de la cuenta y muestra las que vencen en una sola notificación
+     *
+     * @param segundo segundo actual de la cuenta principal
+     */
+    private void avanzarAlertas(int segundo) {
+        int vencidas;
+        int ultima;
+        synchronized (alertas) {
+            alertasVencidas = 0;
+            alertas.avanzar(segundo, oyenteAlertas);
+            vencidas = alertasVencidas;
+            ultima = ultimaAlerta;
+        }
+        if (vencidas > 0)
+            notificacion.mostrarAlertas(vencidas, ultima, segundo);
+        reprogramarAlarmaAlertas();
+    }
+
+    /**
+     * Programa la alarma de las alertas en el siguiente paso de {@link ServicioContador#alertas}, para que avancen aunque no haya tick,
+     * o la cancela si no hay alertas o la cuenta no está en marcha. Solo llama a {@link AlarmManager} si el paso cambia, así que se
+     * puede llamar en cada tick
+     */
+    private void reprogramarAlarmaAlertas() {
+        synchronized (alertas) {
+            long paso = contador.getEstado() == ESTADO_CORRIENDO ? alertas.getSiguientePaso() : RuedaTemporizadores.SIN_PASO;
+            if (paso == pasoAlarmaAlertas)
+                return;
+
+            pasoAlarmaAlertas = paso;
+            if (paso == RuedaTemporizadores.SIN_PASO) {
+                alarmManager.cancel(pendingIntentAlertas);
+                return;
+            }
+
+            long restante = paso * MotorTick.MILIS_POR_SEGUNDO - contador.getMilisTranscurridos();
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    SystemClock.elapsedRealtime() + Math.max(restante, 0), pendingIntentAlertas);
+        }
     }
 }
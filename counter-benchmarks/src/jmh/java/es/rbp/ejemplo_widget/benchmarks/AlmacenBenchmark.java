@@ -0,0 +1,85 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.AlmacenEstado;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+
+/**
+ * Mide la escritura y la lectura del estado en {@link AlmacenEstado}, que se hacen en cada transición y al restaurar la cuenta, y la
+ * restauración completa que hace el servicio al arrancar: abrir y mapear el archivo, leer el último estado y cerrarlo
+ *
+ * @author Ricardo Bordería Pi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AlmacenBenchmark {
+
+    private static final int APERTURAS_POR_LOTE = 100;
+
+    private File archivo;
+
+    private AlmacenEstado almacen;
+
+    private long instante;
+
+    @Setup
+    public void preparar() throws IOException {
+        archivo = File.createTempFile("estado_contador", ".bin");
+        almacen = new AlmacenEstado(archivo);
+        almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 0, 1_000, 50_000);
+    }
+
+    @TearDown
+    public void cerrar() throws IOException {
+        almacen.close();
+        archivo.delete();
+    }
+
+    @Benchmark
+    public void guardar() {
+        instante += 1_000;
+        almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, instante, instante, instante);
+    }
+
+    @Benchmark
+    public AlmacenEstado.EstadoGuardado leer() {
+        return almacen.leer();
+    }
+
+    /**
+     * Cada apertura mapea el archivo y el mapa solo se libera cuando el recolector recoge el buffer, así que se mide en lotes de
+     * {@value #APERTURAS_POR_LOTE} aperturas con una recolección entre lotes. El tiempo de cada restauración es el del lote entre
+     * {@value #APERTURAS_POR_LOTE}
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20, batchSize = APERTURAS_POR_LOTE)
+    @Measurement(iterations = 20, batchSize = APERTURAS_POR_LOTE)
+    public AlmacenEstado.EstadoGuardado restaurar() throws IOException {
+        try (AlmacenEstado restaurado = new AlmacenEstado(archivo)) {
+            return restaurado.leer();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void liberarMapas() {
+        System.gc();
+    }
+}
@@ -0,0 +1,40 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.CajaNegra;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+
+/**
+ * Mide lo que cuesta registrar un evento en {@link CajaNegra}, desde un hilo y desde varios a la vez como el hilo principal y el del
+ * tick del servicio. Con {@code -prof gc} se ve que registrar no crea ningún objeto
+ *
+ * @author Ricardo Bordería Pi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class CajaNegraBenchmark {
+
+    CajaNegra caja = new CajaNegra(1024);
+
+    @Benchmark
+    public void registrar() {
+        caja.registrar(System.nanoTime(), CajaNegra.ORIGEN_WIDGET, CajaNegra.EVENTO_COMANDO, MaquinaEstados.COMANDO_PAUSAR,
+                MaquinaEstados.ESTADO_CORRIENDO, MaquinaEstados.ESTADO_PAUSADO, 0, 1_000);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void registrarDosHilos() {
+        registrar();
+    }
+}
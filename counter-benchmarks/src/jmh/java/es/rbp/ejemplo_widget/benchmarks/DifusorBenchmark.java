@@ -0,0 +1,88 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.DifusorContador;
+
+/**
+ * Mide el coste de publicar un valor en {@link DifusorContador} según el número de suscriptores.
+ * <p>
+ * En {@link DifusorBenchmark#publicarEntregando()} cada suscriptor recibe el valor en el acto, así que se mide el reparto completo.
+ * En {@link DifusorBenchmark#publicarSinEntregar()} ningún suscriptor llega a ejecutar su entrega, como una interfaz muy retrasada,
+ * y se mide lo que cuesta al hilo del tick conflar el valor en cada suscripción
+ *
+ * @author Ricardo Bordería Pi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DifusorBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    private int suscriptores;
+
+    private final DifusorContador difusorEntregando = new DifusorContador();
+
+    private final DifusorContador difusorSinEntregar = new DifusorContador();
+
+    private int segundo;
+
+    private int recibidos;
+
+    @Setup
+    public void preparar() {
+        Executor directo = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        Executor retrasado = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        };
+
+        DifusorContador.Suscriptor suscriptor = new DifusorContador.Suscriptor() {
+            @Override
+            public void alSuscribirse(DifusorContador.Suscripcion suscripcion) {
+                suscripcion.pedir(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void alRecibir(int estado, int segundo) {
+                recibidos += segundo;
+            }
+
+            @Override
+            public void alCompletar() {
+            }
+        };
+
+        for (int i = 0; i < suscriptores; i++) {
+            difusorEntregando.suscribir(suscriptor, directo);
+            difusorSinEntregar.suscribir(suscriptor, retrasado);
+        }
+    }
+
+    @Benchmark
+    public int publicarEntregando() {
+        difusorEntregando.publicar(2, ++segundo);
+        return recibidos;
+    }
+
+    @Benchmark
+    public void publicarSinEntregar() {
+        difusorSinEntregar.publicar(2, ++segundo);
+    }
+}
@@ -0,0 +1,82 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import es.rbp.ejemplo_widget.contador.DifusorContador;
+
+/**
+ * Mide la entrega conflada de {@link DifusorContador} a un suscriptor: un hilo publica como el hilo del contador y otro entrega
+ * como el hilo principal
+ *
+ * @author Ricardo Bordería Pi
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EntregaBenchmark {
+
+    /**
+     * Entrega pendiente, que hace de cola del hilo principal
+     */
+    private final AtomicReference<Runnable> pendiente = new AtomicReference<>();
+
+    private DifusorContador difusor;
+
+    private int segundo;
+
+    private volatile int recibido;
+
+    @Setup
+    public void preparar() {
+        difusor = new DifusorContador();
+        difusor.suscribir(new DifusorContador.Suscriptor() {
+            @Override
+            public void alSuscribirse(DifusorContador.Suscripcion suscripcion) {
+                suscripcion.pedir(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void alRecibir(int estado, int segundo) {
+                recibido = segundo;
+            }
+
+            @Override
+            public void alCompletar() {
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pendiente.set(command);
+            }
+        });
+    }
+
+    @Benchmark
+    @Group("entrega")
+    @GroupThreads(1)
+    public void publicar() {
+        difusor.publicar(2, ++segundo);
+    }
+
+    @Benchmark
+    @Group("entrega")
+    @GroupThreads(1)
+    public int entregar() {
+        Runnable entrega = pendiente.getAndSet(null);
+        if (entrega != null)
+            entrega.run();
+        return recibido;
+    }
+}
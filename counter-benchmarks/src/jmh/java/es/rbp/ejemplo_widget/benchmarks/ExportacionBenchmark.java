@@ -0,0 +1,85 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.ExportadorSesiones;
+import es.rbp.ejemplo_widget.contador.HistorialSesiones;
+
+/**
+ * Mide la exportación completa de {@link HistorialSesiones} con distinto número de sesiones guardadas. Con {@code -prof gc}, la memoria
+ * reservada por exportación ({@code gc.alloc.rate.norm}) es la del bloque del exportador y no crece con las sesiones
+ *
+ * @author Ricardo Bordería Pi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ExportacionBenchmark {
+
+    /**
+     * Una sesión cada 10 minutos
+     */
+    private static final long SEPARACION = 10 * 60_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int sesiones;
+
+    private File registro;
+
+    private File indice;
+
+    private HistorialSesiones historial;
+
+    /**
+     * Descarta lo que se exporta, para medir solo la lectura y el formato
+     */
+    private final OutputStream descarte = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        registro = File.createTempFile("exportacion", ".bin");
+        indice = File.createTempFile("exportacion", ".idx");
+        historial = new HistorialSesiones(registro, indice);
+        for (int i = 0; i < sesiones; i++)
+            historial.agregar(i * SEPARACION, i * SEPARACION + SEPARACION / 2, SEPARACION / 2, i % 3);
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws IOException {
+        historial.close();
+        registro.delete();
+        indice.delete();
+    }
+
+    @Benchmark
+    public long csv() throws IOException {
+        return new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_CSV, Long.MIN_VALUE, Long.MAX_VALUE).exportar(descarte);
+    }
+
+    @Benchmark
+    public long json() throws IOException {
+        return new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_JSON, Long.MIN_VALUE, Long.MAX_VALUE).exportar(descarte);
+    }
+}
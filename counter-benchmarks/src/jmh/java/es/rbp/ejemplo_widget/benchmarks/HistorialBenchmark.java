@@ -0,0 +1,163 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.EstadisticasSesiones;
+import es.rbp.ejemplo_widget.contador.HistorialSesiones;
+
+/**
+ * Mide {@link HistorialSesiones} con un millón de sesiones guardadas: la consulta de los últimos 30 días, que solo lee sus páginas,
+ * frente a recorrer todo el historial, y el coste de abrirlo y de añadir una sesión. También compara leer los totales de
+ * {@link EstadisticasSesiones} con volver a calcularlos desde el historial
+ *
+ * @author Ricardo Bordería Pi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistorialBenchmark {
+
+    private static final int SESIONES = 1_000_000;
+
+    /**
+     * Una sesión cada 10 minutos, unos 19 años de historial
+     */
+    private static final long SEPARACION = 10 * 60_000;
+
+    private static final long DIA = 24 * 3_600_000;
+
+    /**
+     * Historial lleno que solo se consulta
+     */
+    @State(Scope.Benchmark)
+    public static class Lleno {
+
+        File registro;
+
+        File indice;
+
+        File archivoEstadisticas;
+
+        HistorialSesiones historial;
+
+        EstadisticasSesiones estadisticas;
+
+        long fin;
+
+        @Setup(Level.Trial)
+        public void preparar() throws IOException {
+            registro = File.createTempFile("historial", ".bin");
+            indice = File.createTempFile("historial", ".idx");
+            archivoEstadisticas = File.createTempFile("estadisticas", ".bin");
+            historial = new HistorialSesiones(registro, indice);
+            estadisticas = new EstadisticasSesiones(archivoEstadisticas, TimeZone.getTimeZone("UTC"));
+            for (int i = 0; i < SESIONES; i++) {
+                historial.agregar(i * SEPARACION, i * SEPARACION + SEPARACION / 2, SEPARACION / 2, i % 3);
+                estadisticas.agregar(i * SEPARACION + SEPARACION / 2, SEPARACION / 2);
+            }
+            fin = SESIONES * SEPARACION;
+        }
+
+        @TearDown(Level.Trial)
+        public void cerrar() throws IOException {
+            historial.close();
+            estadisticas.close();
+            registro.delete();
+            indice.delete();
+            archivoEstadisticas.delete();
+        }
+    }
+
+    /**
+     * Historial en el que se añaden sesiones
+     */
+    @State(Scope.Thread)
+    public static class Escritura {
+
+        File registro;
+
+        File indice;
+
+        HistorialSesiones historial;
+
+        long instante;
+
+        @Setup(Level.Trial)
+        public void preparar() throws IOException {
+            registro = File.createTempFile("historial_escritura", ".bin");
+            indice = File.createTempFile("historial_escritura", ".idx");
+            historial = new HistorialSesiones(registro, indice);
+        }
+
+        @TearDown(Level.Trial)
+        public void cerrar() throws IOException {
+            historial.close();
+            registro.delete();
+            indice.delete();
+        }
+    }
+
+    /**
+     * Recibe las sesiones sin crear objetos
+     */
+    @State(Scope.Thread)
+    public static class Suma implements HistorialSesiones.Visitante {
+
+        long milis;
+
+        @Override
+        public void visitar(long inicio, long fin, long milisContados, int pausas) {
+            milis += milisContados;
+        }
+    }
+
+    @Benchmark
+    public long ultimos30Dias(Lleno lleno, Suma suma) throws IOException {
+        lleno.historial.consultar(lleno.fin - 30 * DIA, Long.MAX_VALUE, suma);
+        return suma.milis;
+    }
+
+    @Benchmark
+    public long recorrerTodo(Lleno lleno, Suma suma) throws IOException {
+        lleno.historial.consultar(Long.MIN_VALUE, Long.MAX_VALUE, suma);
+        return suma.milis;
+    }
+
+    @Benchmark
+    public long leerEstadisticas(Lleno lleno) {
+        EstadisticasSesiones.Resumen resumen = lleno.estadisticas.leer();
+        return resumen.getMilisHoy(lleno.fin) + resumen.getMilisSemana(lleno.fin) + resumen.getRacha(lleno.fin);
+    }
+
+    @Benchmark
+    public long reconstruirEstadisticas(Lleno lleno) throws IOException {
+        lleno.estadisticas.reconstruir(lleno.historial);
+        return lleno.estadisticas.getSesiones();
+    }
+
+    @Benchmark
+    public void abrir(Lleno lleno, Blackhole blackhole) throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(lleno.registro, lleno.indice)) {
+            blackhole.consume(historial.getSesiones());
+        }
+    }
+
+    @Benchmark
+    public void agregar(Escritura escritura) throws IOException {
+        escritura.instante += SEPARACION;
+        escritura.historial.agregar(escritura.instante, escritura.instante + 1, 1, 0);
+    }
+}
@@ -0,0 +1,68 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.AnclaNanos;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+import es.rbp.ejemplo_widget.contador.PaginaContador;
+
+/**
+ * Mide la publicación en {@link PaginaContador}, que se hace en cada tick, y la lectura desde otro mapeo del archivo, que la activity
+ * hace en cada fotograma. Con {@code -prof gc} se ve que ninguna de las dos crea objetos
+ *
+ * @author Ricardo Bordería Pi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PaginaBenchmark {
+
+    private File archivo;
+
+    private PaginaContador pagina;
+
+    private PaginaContador.Lector lector;
+
+    private final PaginaContador.Instantanea instantanea = new PaginaContador.Instantanea();
+
+    private final AnclaNanos ancla = AnclaNanos.corriendo(10_000_000_000L, 0);
+
+    private int segundo;
+
+    @Setup
+    public void preparar() throws IOException {
+        archivo = File.createTempFile("pagina_contador", ".bin");
+        pagina = new PaginaContador(archivo);
+        pagina.publicar(MaquinaEstados.ESTADO_CORRIENDO, 0, ancla, 0, 0);
+        lector = PaginaContador.Lector.abrir(archivo);
+    }
+
+    @TearDown
+    public void cerrar() throws IOException {
+        lector.close();
+        pagina.close();
+        archivo.delete();
+    }
+
+    @Benchmark
+    public void publicar() {
+        segundo++;
+        pagina.publicar(MaquinaEstados.ESTADO_CORRIENDO, segundo, ancla, segundo * 1_000L, segundo * 1_000L);
+    }
+
+    @Benchmark
+    public boolean leer() {
+        return lector.leer(instantanea);
+    }
+}
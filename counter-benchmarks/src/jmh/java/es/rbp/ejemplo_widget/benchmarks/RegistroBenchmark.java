@@ -0,0 +1,76 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+import es.rbp.ejemplo_widget.contador.MotorTick;
+import es.rbp.ejemplo_widget.contador.RegistroContadores;
+
+/**
+ * Mide el tick compartido de {@link RegistroContadores} con 1 a 10.000 cuentas en marcha.
+ * <p>
+ * El tick recorre las cuentas observadas, así que su coste crece con ellas: {@code tickMostrandoTodas} observa todas las cuentas en
+ * marcha, como hacía el servicio al empezar cada una, y {@code tickMostrandoUna} solo la que muestra un widget, como hace ahora que
+ * solo se observan las cuentas de los widgets
+ *
+ * @author Ricardo Bordería Pi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegistroBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int cuentas;
+
+    private RegistroContadores todas;
+
+    private RegistroContadores una;
+
+    private long ahora;
+
+    private Blackhole blackhole;
+
+    private final RegistroContadores.Oyente oyente = new RegistroContadores.Oyente() {
+        @Override
+        public void tick(int id, int segundoActual) {
+            blackhole.consume(segundoActual);
+        }
+    };
+
+    @Setup
+    public void preparar(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        todas = new RegistroContadores();
+        una = new RegistroContadores();
+        for (int id = 1; id <= cuentas; id++) {
+            todas.aplicar(id, MaquinaEstados.COMANDO_EMPEZAR, id);
+            todas.observar(id);
+            una.aplicar(id, MaquinaEstados.COMANDO_EMPEZAR, id);
+        }
+        una.observar(cuentas);
+        ahora = 100_000;
+    }
+
+    @Benchmark
+    public void tickMostrandoTodas() {
+        ahora += MotorTick.MILIS_POR_SEGUNDO;
+        todas.tick(ahora, oyente);
+    }
+
+    @Benchmark
+    public void tickMostrandoUna() {
+        ahora += MotorTick.MILIS_POR_SEGUNDO;
+        una.tick(ahora, oyente);
+    }
+}
@@ -0,0 +1,186 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.RuedaTemporizadores;
+
+/**
+ * Compara {@link RuedaTemporizadores} con un planificador sobre {@link PriorityQueue}, con {@value #PENDIENTES} temporizadores
+ * pendientes repartidos en las próximas 8 horas de segundos: sustituir un temporizador, cancelando uno cualquiera y programando otro,
+ * y avanzar un segundo volviendo a programar los que vencen, para que siempre haya los mismos pendientes.
+ * <p>
+ * En la cola, programar es O(log n) pero cancelar uno que no está al principio es una búsqueda lineal. Con {@code -prof gc} se ve
+ * además que la rueda no crea objetos, mientras que la cola crea uno por temporizador
+ *
+ * @author Ricardo Bordería Pi
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemporizadoresBenchmark {
+
+    private static final int PENDIENTES = 100_000;
+
+    /**
+     * Distancia máxima de los temporizadores: 8 horas de segundos
+     */
+    private static final int DISTANCIA = 8 * 3600;
+
+    /**
+     * Distancias y orden de sustitución, iguales para los dos planificadores
+     */
+    @State(Scope.Thread)
+    public static class Datos {
+
+        final int[] distancias = new int[PENDIENTES];
+
+        final int[] orden = new int[PENDIENTES];
+
+        int siguiente;
+
+        @Setup(Level.Trial)
+        public void preparar() {
+            Random random = new Random(25);
+            for (int i = 0; i < PENDIENTES; i++) {
+                distancias[i] = 1 + random.nextInt(DISTANCIA);
+                orden[i] = random.nextInt(PENDIENTES);
+            }
+        }
+
+        int siguiente() {
+            int i = orden[siguiente];
+            siguiente = (siguiente + 1) % PENDIENTES;
+            return i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Rueda {
+
+        RuedaTemporizadores rueda;
+
+        long[] temporizadores;
+
+        Datos datos;
+
+        final RuedaTemporizadores.Oyente reprogramar = new RuedaTemporizadores.Oyente() {
+            @Override
+            public void alVencer(long temporizador, int dato, long paso) {
+                temporizadores[dato] = rueda.programar(rueda.getPaso() + DISTANCIA, dato);
+            }
+        };
+
+        @Setup(Level.Iteration)
+        public void preparar(Datos datos) {
+            this.datos = datos;
+            rueda = new RuedaTemporizadores(PENDIENTES);
+            temporizadores = new long[PENDIENTES];
+            for (int i = 0; i < PENDIENTES; i++)
+                temporizadores[i] = rueda.programar(datos.distancias[i], i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cola {
+
+        ColaTemporizadores cola;
+
+        ColaTemporizadores.Temporizador[] temporizadores;
+
+        @Setup(Level.Iteration)
+        public void preparar(Datos datos) {
+            cola = new ColaTemporizadores();
+            temporizadores = new ColaTemporizadores.Temporizador[PENDIENTES];
+            for (int i = 0; i < PENDIENTES; i++)
+                temporizadores[i] = cola.programar(datos.distancias[i], i);
+        }
+    }
+
+    @Benchmark
+    public long ruedaSustituir(Rueda rueda, Datos datos) {
+        int i = datos.siguiente();
+        rueda.rueda.cancelar(rueda.temporizadores[i]);
+        rueda.temporizadores[i] = rueda.rueda.programar(rueda.rueda.getPaso() + datos.distancias[i], i);
+        return rueda.temporizadores[i];
+    }
+
+    @Benchmark
+    public Object colaSustituir(Cola cola, Datos datos) {
+        int i = datos.siguiente();
+        cola.cola.cancelar(cola.temporizadores[i]);
+        cola.temporizadores[i] = cola.cola.programar(cola.cola.ahora + datos.distancias[i], i);
+        return cola.temporizadores[i];
+    }
+
+    @Benchmark
+    public int ruedaAvanzar(Rueda rueda) {
+        return rueda.rueda.avanzar(rueda.rueda.getPaso() + 1, rueda.reprogramar);
+    }
+
+    @Benchmark
+    public int colaAvanzar(Cola cola) {
+        int vencidos = 0;
+        ColaTemporizadores.Temporizador temporizador;
+        while ((temporizador = cola.cola.vencer(cola.cola.ahora + 1)) != null) {
+            cola.temporizadores[temporizador.dato] = cola.cola.programar(temporizador.paso + DISTANCIA, temporizador.dato);
+            vencidos++;
+        }
+        cola.cola.ahora++;
+        return vencidos;
+    }
+
+    /**
+     * Planificador habitual con una cola de prioridad ordenada por vencimiento
+     */
+    static class ColaTemporizadores {
+
+        final PriorityQueue<Temporizador> cola = new PriorityQueue<>(PENDIENTES);
+
+        long ahora;
+
+        Temporizador programar(long paso, int dato) {
+            Temporizador temporizador = new Temporizador(paso, dato);
+            cola.add(temporizador);
+            return temporizador;
+        }
+
+        void cancelar(Temporizador temporizador) {
+            cola.remove(temporizador);
+        }
+
+        /**
+         * Saca el primer temporizador si vence como muy tarde en el paso indicado
+         */
+        Temporizador vencer(long hasta) {
+            Temporizador primero = cola.peek();
+            return primero != null && primero.paso <= hasta ? cola.poll() : null;
+        }
+
+        static class Temporizador implements Comparable<Temporizador> {
+
+            final long paso;
+
+            final int dato;
+
+            Temporizador(long paso, int dato) {
+                this.paso = paso;
+                this.dato = dato;
+            }
+
+            @Override
+            public int compareTo(Temporizador otro) {
+                return Long.compare(paso, otro.paso);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package es.rbp.ejemplo_widget.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import es.rbp.ejemplo_widget.contador.Contador;
+import es.rbp.ejemplo_widget.contador.MaquinaEstados;
+import es.rbp.ejemplo_widget.contador.MotorTick;
+import es.rbp.ejemplo_widget.contador.Planificador;
+import es.rbp.ejemplo_widget.contador.Reloj;
+import es.rbp.ejemplo_widget.contador.TextoTiempo;
+
+/**
+ * Mide cada paso del tick de la cuenta: la transición de estado, la instantánea del segundo actual, el texto del contador
+ * y el tick completo de {@link Contador} repartido a un oyente
+ *
+ * @author Ricardo Bordería Pi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TickBenchmark {
+
+    private final MaquinaEstados maquina = new MaquinaEstados();
+
+    private final MotorTick motor = new MotorTick();
+
+    private final TextoTiempo texto = new TextoTiempo();
+
+    /**
+     * Reloj que avanza un segundo en cada tick
+     */
+    private final RelojBenchmark reloj = new RelojBenchmark();
+
+    private Contador contador;
+
+    private int segundo;
+
+    @Setup
+    public void preparar(final Blackhole blackhole) {
+        maquina.aplicar(MaquinaEstados.COMANDO_EMPEZAR);
+        motor.empezar(0);
+
+        contador = new Contador(reloj, reloj, false);
+        contador.agregarOyente(new Contador.Oyente() {
+            @Override
+            public void publicar(int id, int estado, int segundo) {
+                blackhole.consume(segundo);
+            }
+
+            @Override
+            public void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base) {
+                blackhole.consume(nuevo);
+            }
+
+            @Override
+            public void alTick(int id, int segundo) {
+                blackhole.consume(segundo);
+            }
+        });
+        contador.ejecutar(MaquinaEstados.COMANDO_EMPEZAR);
+    }
+
+    /**
+     * Pausa y reanuda la cuenta en {@link MaquinaEstados}
+     */
+    @Benchmark
+    public long transicion() {
+        return maquina.aplicar(MaquinaEstados.COMANDO_PAUSAR) ^ maquina.aplicar(MaquinaEstados.COMANDO_REANUDAR);
+    }
+
+    /**
+     * Calcula el segundo actual y la base del cronómetro, que es lo que se envía en cada tick
+     */
+    @Benchmark
+    public long instantanea() {
+        long ahora = (++segundo) * MotorTick.MILIS_POR_SEGUNDO;
+        return motor.segundosTranscurridos(ahora) + motor.base(ahora);
+    }
+
+    /**
+     * Crea el texto del contador con {@code String.valueOf(segundoActual)}, como se hacía antes de {@link TextoTiempo}
+     */
+    @Benchmark
+    public String textoContador() {
+        return String.valueOf(++segundo);
+    }
+
+    /**
+     * Escribe el texto del contador en el buffer de {@link TextoTiempo}, como lo hace la activity en cada tick
+     */
+    @Benchmark
+    public char[] textoTiempo() {
+        texto.formatear(++segundo);
+        return texto.getTexto();
+    }
+
+    /**
+     * Ejecuta el tick completo de {@link Contador}: instantánea, reparto a los oyentes y programación del siguiente tick
+     */
+    @Benchmark
+    public void tickContador() {
+        reloj.avanzar(MotorTick.MILIS_POR_SEGUNDO);
+        reloj.tarea.run();
+    }
+
+    /**
+     * Reloj y planificador que guardan la última tarea en lugar de ejecutarla
+     */
+    private static class RelojBenchmark implements Reloj, Planificador {
+
+        Runnable tarea;
+
+        private long ahora;
+
+        void avanzar(long milis) {
+            ahora += milis;
+        }
+
+        @Override
+        public long ahora() {
+            return ahora;
+        }
+
+        @Override
+        public long ahoraNanos() {
+            return ahora * 1_000_000;
+        }
+
+        @Override
+        public long ahoraPared() {
+            return ahora;
+        }
+
+        @Override
+        public void programar(Runnable tarea, long retrasoMilis) {
+            this.tarea = tarea;
+        }
+
+        @Override
+        public void cancelar(Runnable tarea) {
+        }
+    }
+}
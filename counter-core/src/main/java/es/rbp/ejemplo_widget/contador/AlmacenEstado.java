@@ -0,0 +1,268 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Guarda el estado de la cuenta en un archivo mapeado en memoria de tamaño fijo para poder restaurarlo si se mata el proceso.
+ * <p>
+ * Solo se escribe cuando cambia el estado de la cuenta, nunca en cada tick: se guardan los milisegundos acumulados y el instante
+ * en el que se guardaron, y a partir de ellos se calcula el tiempo transcurrido al restaurar. Así el coste no depende de lo que dure la cuenta.
+ * <p>
+ * El archivo tiene dos huecos que se escriben de forma alterna. Cada hueco lleva un número de secuencia y un CRC32, por lo que si el proceso
+ * muere a mitad de una escritura se restaura el hueco anterior, que sigue intacto. Lo escrito en un archivo mapeado sobrevive a la muerte
+ * del proceso aunque no se llame a {@link MappedByteBuffer#force()}.
+ * <p>
+ * Las vistas que solo necesitan pintar el primer fotograma antes de conectarse al servicio usan
+ * {@link AlmacenEstado#leerInstantanea(File)}, que lee el archivo sin mapearlo ni escribir en él.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class AlmacenEstado implements Closeable {
+
+    /**
+     * Número mágico de la cabecera del archivo
+     */
+    private static final int MAGIA = 0x45535443;
+
+    /**
+     * Versión del formato del archivo
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Tamaño de la cabecera del archivo
+     */
+    private static final int TAMANO_CABECERA = 8;
+
+    /**
+     * Tamaño de cada hueco: secuencia, marca monótona, marca de pared, milisegundos acumulados, estado y CRC32
+     */
+    private static final int TAMANO_HUECO = 40;
+
+    private static final int POS_SECUENCIA = 0;
+    private static final int POS_MARCA_MONOTONA = 8;
+    private static final int POS_MARCA_PARED = 16;
+    private static final int POS_ACUMULADO = 24;
+    private static final int POS_ESTADO = 32;
+    private static final int POS_CRC = 36;
+
+    /**
+     * Tamaño total del archivo
+     */
+    private static final int TAMANO_ARCHIVO = TAMANO_CABECERA + 2 * TAMANO_HUECO;
+
+    private final RandomAccessFile archivo;
+
+    private final MappedByteBuffer buffer;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Secuencia del último hueco escrito
+     */
+    private long secuencia;
+
+    /**
+     * Abre el archivo o lo crea si no existe
+     *
+     * @param ruta ruta del archivo
+     * @throws IOException si no se puede abrir o mapear el archivo
+     */
+    public AlmacenEstado(File ruta) throws IOException {
+        archivo = new RandomAccessFile(ruta, "rw");
+        if (archivo.length() != TAMANO_ARCHIVO)
+            archivo.setLength(TAMANO_ARCHIVO);
+
+        buffer = archivo.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, TAMANO_ARCHIVO);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIA || buffer.getInt(4) != VERSION) {
+            for (int i = 0; i < TAMANO_ARCHIVO; i++)
+                buffer.put(i, (byte) 0);
+            buffer.putInt(0, MAGIA);
+            buffer.putInt(4, VERSION);
+        }
+
+        int hueco = huecoValido(buffer, crc);
+        secuencia = hueco < 0 ? 0 : buffer.getLong(posicion(hueco) + POS_SECUENCIA);
+    }
+
+    /**
+     * Lee el último estado guardado sin abrir el almacén: no crea el archivo, no lo mapea y nunca escribe en él, así que se puede
+     * llamar desde cualquier proceso mientras el servicio lo tiene abierto. Cuesta una sola lectura del archivo, de menos de 100 bytes
+     *
+     * @param ruta ruta del archivo
+     * @return estado guardado, o null si el archivo no existe o no tiene ningún estado válido
+     * @throws IOException si no se puede leer el archivo
+     */
+    public static EstadoGuardado leerInstantanea(File ruta) throws IOException {
+        if (!ruta.exists())
+            return null;
+
+        byte[] bytes = new byte[TAMANO_ARCHIVO];
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "r")) {
+            if (archivo.length() != TAMANO_ARCHIVO)
+                return null;
+            archivo.readFully(bytes);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIA || buffer.getInt(4) != VERSION)
+            return null;
+
+        // Si el servicio escribe a la vez, el hueco a medio escribir no pasa el CRC y se usa el anterior
+        int hueco = huecoValido(buffer, new CRC32());
+        return hueco < 0 ? null : leer(buffer, posicion(hueco));
+    }
+
+    /**
+     * Guarda el estado de la cuenta
+     *
+     * @param estado          estado de la cuenta de {@link MaquinaEstados}
+     * @param milisAcumulados milisegundos de cuenta en el instante de la marca
+     * @param marcaMonotona   instante de un reloj monótono, como {@code SystemClock.elapsedRealtime()}
+     * @param marcaPared      instante del reloj de pared, como {@link System#currentTimeMillis()}
+     */
+    public synchronized void guardar(int estado, long milisAcumulados, long marcaMonotona, long marcaPared) {
+        secuencia++;
+        int pos = posicion((int) (secuencia & 1));
+        buffer.putLong(pos + POS_SECUENCIA, secuencia);
+        buffer.putLong(pos + POS_MARCA_MONOTONA, marcaMonotona);
+        buffer.putLong(pos + POS_MARCA_PARED, marcaPared);
+        buffer.putLong(pos + POS_ACUMULADO, milisAcumulados);
+        buffer.putInt(pos + POS_ESTADO, estado);
+        buffer.putInt(pos + POS_CRC, calcularCrc(buffer, pos, crc));
+    }
+
+    /**
+     * Lee el último estado guardado
+     *
+     * @return estado guardado, o null si no hay ningún estado válido
+     */
+    public synchronized EstadoGuardado leer() {
+        int hueco = huecoValido(buffer, crc);
+        return hueco < 0 ? null : leer(buffer, posicion(hueco));
+    }
+
+    @Override
+    public void close() throws IOException {
+        archivo.close();
+    }
+
+    /**
+     * Devuelve el hueco válido con la secuencia más alta
+     *
+     * @return 0 o 1, o -1 si ninguno es válido
+     */
+    private static int huecoValido(ByteBuffer buffer, CRC32 crc) {
+        int mejor = -1;
+        long mejorSecuencia = 0;
+        for (int hueco = 0; hueco < 2; hueco++) {
+            int pos = posicion(hueco);
+            long secuenciaHueco = buffer.getLong(pos + POS_SECUENCIA);
+            if (secuenciaHueco > mejorSecuencia && buffer.getInt(pos + POS_CRC) == calcularCrc(buffer, pos, crc)) {
+                mejor = hueco;
+                mejorSecuencia = secuenciaHueco;
+            }
+        }
+        return mejor;
+    }
+
+    private static EstadoGuardado leer(ByteBuffer buffer, int pos) {
+        return new EstadoGuardado(buffer.getInt(pos + POS_ESTADO), buffer.getLong(pos + POS_ACUMULADO),
+                buffer.getLong(pos + POS_MARCA_MONOTONA), buffer.getLong(pos + POS_MARCA_PARED));
+    }
+
+    private static int calcularCrc(ByteBuffer buffer, int pos, CRC32 crc) {
+        crc.reset();
+        for (int i = 0; i < POS_CRC; i++)
+            crc.update(buffer.get(pos + i));
+        return (int) crc.getValue();
+    }
+
+    private static int posicion(int hueco) {
+        return TAMANO_CABECERA + hueco * TAMANO_HUECO;
+    }
+
+    /**
+     * Estado de la cuenta leído de {@link AlmacenEstado}
+     */
+    public static class EstadoGuardado {
+
+        /**
+         * Estado de la cuenta de {@link MaquinaEstados}
+         */
+        public final int estado;
+
+        /**
+         * Milisegundos de cuenta en el instante de las marcas
+         */
+        public final long milisAcumulados;
+
+        /**
+         * Instante del reloj monótono en el que se guardó el estado
+         */
+        public final long marcaMonotona;
+
+        /**
+         * Instante del reloj de pared en el que se guardó el estado. Junto a {@link EstadoGuardado#marcaMonotona} da el ancla de
+         * arranque del dispositivo en el que se guardó
+         *
+         * @see ArranqueDispositivo
+         */
+        public final long marcaPared;
+
+        EstadoGuardado(int estado, long milisAcumulados, long marcaMonotona, long marcaPared) {
+            this.estado = estado;
+            this.milisAcumulados = milisAcumulados;
+            this.marcaMonotona = marcaMonotona;
+            this.marcaPared = marcaPared;
+        }
+
+        /**
+         * Calcula los milisegundos de cuenta en el instante actual.
+         * <p>
+         * Si el estado se guardó en otro arranque del dispositivo se usa el reloj de pared, aunque el reloj monótono ya haya superado
+         * la marca
+         *
+         * @param ahoraMonotono instante actual del reloj monótono
+         * @param ahoraPared    instante actual del reloj de pared
+         * @return milisegundos transcurridos
+         */
+        public long milisTranscurridos(long ahoraMonotono, long ahoraPared) {
+            if (estado != MaquinaEstados.ESTADO_CORRIENDO)
+                return estado == MaquinaEstados.ESTADO_PAUSADO ? milisAcumulados : 0;
+
+            long transcurrido = ArranqueDispositivo.milisDesde(marcaMonotona, marcaPared, ahoraMonotono, ahoraPared);
+            return milisAcumulados + Math.max(0, transcurrido);
+        }
+
+        /**
+         * Calcula el ancla en nanosegundos de la cuenta en el instante actual
+         *
+         * @param ahoraMonotono instante actual del reloj monótono
+         * @param ahoraPared    instante actual del reloj de pared
+         * @param ahoraNanos    instante actual en la escala de {@link Reloj#ahoraNanos()}
+         * @return ancla de la cuenta
+         */
+        public AnclaNanos anclaNanos(long ahoraMonotono, long ahoraPared, long ahoraNanos) {
+            long nanos = milisTranscurridos(ahoraMonotono, ahoraPared) * 1_000_000;
+            switch (estado) {
+                case MaquinaEstados.ESTADO_CORRIENDO:
+                    return AnclaNanos.corriendo(ahoraNanos, nanos);
+                case MaquinaEstados.ESTADO_PAUSADO:
+                    return AnclaNanos.pausada(nanos);
+                default:
+                    return AnclaNanos.DETENIDA;
+            }
+        }
+    }
+}
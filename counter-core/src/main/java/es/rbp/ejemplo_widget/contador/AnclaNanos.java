@@ -0,0 +1,89 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Ancla en nanosegundos de la cuenta principal, con la que una vista calcula el tiempo transcurrido con precisión de milisegundos
+ * en cada fotograma sin que el servicio haga ningún trabajo.
+ * <p>
+ * Es inmutable: {@link Contador} crea una nueva en cada cambio de estado y la publica de una vez, así que se puede leer desde cualquier
+ * hilo sin cerrojos y nunca se ve una mezcla de dos estados. Entre cambios de estado no se crea ninguna.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public final class AnclaNanos {
+
+    /**
+     * Ancla de una cuenta detenida
+     */
+    public static final AnclaNanos DETENIDA = new AnclaNanos(false, 0);
+
+    /**
+     * Indica si la cuenta está en marcha
+     */
+    public final boolean corriendo;
+
+    /**
+     * Si la cuenta está en marcha, instante en el que habría empezado si nunca se hubiera pausado, en la escala de
+     * {@link Reloj#ahoraNanos()}. Si no, nanosegundos contados
+     */
+    private final long valor;
+
+    private AnclaNanos(boolean corriendo, long valor) {
+        this.corriendo = corriendo;
+        this.valor = valor;
+    }
+
+    /**
+     * Crea el ancla de una cuenta en marcha
+     *
+     * @param ahoraNanos         instante actual en la escala de {@link Reloj#ahoraNanos()}
+     * @param nanosTranscurridos nanosegundos contados hasta ahora
+     * @return ancla de la cuenta
+     */
+    public static AnclaNanos corriendo(long ahoraNanos, long nanosTranscurridos) {
+        return new AnclaNanos(true, ahoraNanos - nanosTranscurridos);
+    }
+
+    /**
+     * Crea el ancla de una cuenta pausada
+     *
+     * @param nanosTranscurridos nanosegundos contados
+     * @return ancla de la cuenta
+     */
+    public static AnclaNanos pausada(long nanosTranscurridos) {
+        return new AnclaNanos(false, nanosTranscurridos);
+    }
+
+    /**
+     * Crea un ancla a partir de su valor, por ejemplo al leerla de {@link PaginaContador}
+     */
+    static AnclaNanos desdeValor(boolean corriendo, long valor) {
+        return corriendo || valor != 0 ? new AnclaNanos(corriendo, valor) : DETENIDA;
+    }
+
+    /**
+     * Devuelve el instante de inicio sin pausas si la cuenta está en marcha, o los nanosegundos contados si no
+     */
+    long getValor() {
+        return valor;
+    }
+
+    /**
+     * Devuelve los nanosegundos contados en un instante, descontando las pausas
+     *
+     * @param ahoraNanos instante en la escala de {@link Reloj#ahoraNanos()}
+     * @return nanosegundos transcurridos
+     */
+    public long nanosTranscurridos(long ahoraNanos) {
+        return corriendo ? Math.max(ahoraNanos - valor, 0) : valor;
+    }
+
+    /**
+     * Devuelve los milisegundos contados en un instante, descontando las pausas
+     *
+     * @param ahoraNanos instante en la escala de {@link Reloj#ahoraNanos()}
+     * @return milisegundos transcurridos
+     */
+    public long milisTranscurridos(long ahoraNanos) {
+        return nanosTranscurridos(ahoraNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,63 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Reconoce si una marca de tiempo guardada es del arranque actual del dispositivo, para saber si se puede usar el reloj monótono.
+ * <p>
+ * Cada marca se compara por su ancla de arranque: el instante del reloj de pared en el que el reloj monótono valía 0, es decir,
+ * {@code System.currentTimeMillis() - SystemClock.elapsedRealtime()}. Comparar solo el reloj monótono no basta: tras reiniciar vuelve a
+ * empezar desde 0, y en cuanto supera la marca guardada parece el mismo arranque y se pierde el tiempo que el dispositivo estuvo
+ * apagado. El ancla, en cambio, avanza en cada arranque al menos lo que duró el anterior, y dentro de un mismo arranque solo se mueve
+ * cuando se ajusta el reloj de pared, así que dos anclas son del mismo arranque si se parecen dentro de
+ * {@link ArranqueDispositivo#TOLERANCIA_MILIS}.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public final class ArranqueDispositivo {
+
+    /**
+     * Diferencia máxima entre dos anclas del mismo arranque, que cubre los ajustes pequeños del reloj de pared, como los de NTP. Antes de
+     * que el servicio pueda guardar nada el dispositivo ya lleva en marcha bastante más que esto, así que un reinicio nunca cabe en ella
+     */
+    public static final long TOLERANCIA_MILIS = 5_000;
+
+    private ArranqueDispositivo() {
+    }
+
+    /**
+     * Calcula el ancla de arranque de un instante
+     *
+     * @param monotono instante del reloj monótono, como {@code SystemClock.elapsedRealtime()}
+     * @param pared    mismo instante en el reloj de pared, como {@link System#currentTimeMillis()}
+     * @return instante del arranque en el reloj de pared
+     */
+    public static long ancla(long monotono, long pared) {
+        return pared - monotono;
+    }
+
+    /**
+     * Indica si dos anclas de arranque son del mismo arranque del dispositivo
+     *
+     * @param ancla     ancla de arranque
+     * @param otraAncla otra ancla de arranque
+     * @return true si se diferencian como mucho en {@link ArranqueDispositivo#TOLERANCIA_MILIS}
+     */
+    public static boolean mismoArranque(long ancla, long otraAncla) {
+        return Math.abs(ancla - otraAncla) <= TOLERANCIA_MILIS;
+    }
+
+    /**
+     * Calcula los milisegundos que han pasado desde una marca. Si la marca es de este arranque se usa el reloj monótono, que no cambia
+     * con los ajustes de hora, y si no el reloj de pared, que es el único que sigue avanzando con el dispositivo apagado
+     *
+     * @param marcaMonotona instante de la marca en el reloj monótono
+     * @param marcaPared    instante de la marca en el reloj de pared
+     * @param ahoraMonotono instante actual del reloj monótono
+     * @param ahoraPared    instante actual del reloj de pared
+     * @return milisegundos transcurridos, que pueden ser negativos si se ha atrasado el reloj de pared
+     */
+    public static long milisDesde(long marcaMonotona, long marcaPared, long ahoraMonotono, long ahoraPared) {
+        if (mismoArranque(ancla(marcaMonotona, marcaPared), ancla(ahoraMonotono, ahoraPared)))
+            return ahoraMonotono - marcaMonotona;
+        return ahoraPared - marcaPared;
+    }
+}
@@ -0,0 +1,221 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registro de vuelo de los comandos y los cambios de estado de la cuenta, siempre activo, para reconstruir después por qué un toque en el
+ * widget o en la notificación "no hizo nada".
+ * <p>
+ * Cada evento ocupa un registro de tamaño fijo, de {@value #LONGS_POR_REGISTRO} {@code long}, en un buffer circular reservado al crearlo:
+ * instante, origen, tipo de evento, comando, estado anterior y nuevo, cuenta, latencia y número de secuencia. Registrar un evento es un
+ * incremento atómico y unas pocas escrituras, sin cerrojos y sin crear ningún objeto, así que se puede hacer desde cualquier hilo en
+ * cada comando. Cuando el buffer se llena, los eventos nuevos sobrescriben a los más antiguos.
+ * <p>
+ * El buffer solo se escribe en un archivo con {@link CajaNegra#volcar(File)}, cuando se pide o tras una anomalía, y
+ * {@link LectorCajaNegra} lo convierte en una línea de tiempo legible.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class CajaNegra {
+
+    /**
+     * Número mágico del archivo volcado
+     */
+    static final int MAGIA = 0x434E4752;
+
+    /**
+     * Versión del formato del archivo volcado
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Tamaño de cada registro en {@code long}: instante, campos empaquetados, latencia y secuencia
+     */
+    static final int LONGS_POR_REGISTRO = 4;
+
+    private static final int POS_INSTANTE = 0;
+    private static final int POS_CAMPOS = 1;
+    private static final int POS_LATENCIA = 2;
+    private static final int POS_SECUENCIA = 3;
+
+    /**
+     * Origen de los eventos del propio servicio, como las transiciones y la restauración
+     */
+    public static final int ORIGEN_SERVICIO = 0;
+    /**
+     * Origen de los comandos enviados desde el widget
+     */
+    public static final int ORIGEN_WIDGET = 1;
+    /**
+     * Origen de los comandos enviados desde la notificación
+     */
+    public static final int ORIGEN_NOTIFICACION = 2;
+    /**
+     * Origen de los comandos enviados desde la activity
+     */
+    public static final int ORIGEN_ACTIVIDAD = 3;
+    /**
+     * Origen de los comandos de un intent sin origen, por ejemplo uno que el sistema vuelve a entregar
+     */
+    public static final int ORIGEN_DESCONOCIDO = 4;
+
+    /**
+     * Comando aceptado por {@link MaquinaEstados}
+     */
+    public static final int EVENTO_COMANDO = 0;
+    /**
+     * Comando rechazado por {@link MaquinaEstados}, que no ha cambiado nada
+     */
+    public static final int EVENTO_RECHAZADO = 1;
+    /**
+     * Cambio de estado de una cuenta cuyos efectos ya se han aplicado
+     */
+    public static final int EVENTO_TRANSICION = 2;
+    /**
+     * Vuelta marcada, o pedida con la cuenta sin estar en marcha si el estado nuevo no es {@link MaquinaEstados#ESTADO_CORRIENDO}
+     */
+    public static final int EVENTO_VUELTA = 3;
+    /**
+     * Estado restaurado tras morir el proceso
+     */
+    public static final int EVENTO_RESTAURADO = 4;
+
+    /**
+     * Valor del comando en los eventos que no tienen ninguno
+     */
+    public static final int SIN_COMANDO = 0xFF;
+
+    private final AtomicLongArray registros;
+
+    /**
+     * Secuencia del siguiente evento. El evento n se guarda en el registro {@code n & mascara}
+     */
+    private final AtomicLong siguiente = new AtomicLong();
+
+    private final int mascara;
+
+    /**
+     * Crea el registro con el buffer reservado
+     *
+     * @param capacidad eventos que se conservan. Se redondea a la potencia de dos superior
+     */
+    public CajaNegra(int capacidad) {
+        int registrosBuffer = Integer.highestOneBit(Math.max(capacidad - 1, 1)) << 1;
+        mascara = registrosBuffer - 1;
+        registros = new AtomicLongArray(registrosBuffer * LONGS_POR_REGISTRO);
+        for (int i = 0; i < registrosBuffer; i++)
+            registros.set(i * LONGS_POR_REGISTRO + POS_SECUENCIA, -1);
+    }
+
+    /**
+     * Registra un evento
+     *
+     * @param instanteNanos instante del evento en nanosegundos de un reloj monótono, como {@link Reloj#ahoraNanos()}
+     * @param origen        origen, una de las constantes ORIGEN_
+     * @param evento        tipo de evento, una de las constantes EVENTO_
+     * @param comando       comando de {@link MaquinaEstados}, o {@link CajaNegra#SIN_COMANDO}
+     * @param anterior      estado antes del evento
+     * @param nuevo         estado después del evento
+     * @param idContador    id de la cuenta
+     * @param latenciaNanos latencia del evento, por ejemplo desde que se pulsó el botón, o 0
+     */
+    public void registrar(long instanteNanos, int origen, int evento, int comando, int anterior, int nuevo, int idContador,
+                          long latenciaNanos) {
+        long secuencia = siguiente.getAndIncrement();
+        int base = (int) (secuencia & mascara) * LONGS_POR_REGISTRO;
+        // La secuencia se invalida antes de escribir y se publica al final, así que quien lee descarta un registro a medio escribir
+        registros.lazySet(base + POS_SECUENCIA, -1);
+        registros.lazySet(base + POS_INSTANTE, instanteNanos);
+        registros.lazySet(base + POS_CAMPOS, empaquetar(origen, evento, comando, anterior, nuevo, idContador));
+        registros.lazySet(base + POS_LATENCIA, latenciaNanos);
+        registros.lazySet(base + POS_SECUENCIA, secuencia);
+    }
+
+    /**
+     * Devuelve el número de eventos registrados, incluidos los sobrescritos
+     *
+     * @return eventos registrados
+     */
+    public long getEventos() {
+        return siguiente.get();
+    }
+
+    /**
+     * Devuelve el número de eventos que caben en el buffer
+     *
+     * @return capacidad
+     */
+    public int getCapacidad() {
+        return mascara + 1;
+    }
+
+    /**
+     * Escribe los eventos del buffer en un archivo, sustituyendo su contenido
+     *
+     * @param archivo archivo de destino
+     * @return eventos escritos
+     * @throws IOException si no se puede escribir
+     */
+    public int volcar(File archivo) throws IOException {
+        try (OutputStream salida = new FileOutputStream(archivo)) {
+            return volcar(salida);
+        }
+    }
+
+    /**
+     * Escribe los eventos del buffer, del más antiguo al más reciente. Se puede llamar mientras se registran eventos: los que se están
+     * escribiendo o se sobrescriben durante el volcado se omiten
+     *
+     * @param salida flujo de destino, que no se cierra
+     * @return eventos escritos
+     * @throws IOException si no se puede escribir
+     */
+    public int volcar(OutputStream salida) throws IOException {
+        long fin = siguiente.get();
+        long inicio = Math.max(0, fin - getCapacidad());
+        long[] copia = new long[(int) (fin - inicio) * LONGS_POR_REGISTRO];
+        int copiados = 0;
+        for (long secuencia = inicio; secuencia < fin; secuencia++) {
+            int base = (int) (secuencia & mascara) * LONGS_POR_REGISTRO;
+            if (registros.get(base + POS_SECUENCIA) != secuencia)
+                continue;
+
+            long instante = registros.get(base + POS_INSTANTE);
+            long campos = registros.get(base + POS_CAMPOS);
+            long latencia = registros.get(base + POS_LATENCIA);
+            if (registros.get(base + POS_SECUENCIA) != secuencia)
+                continue;
+
+            int destino = copiados++ * LONGS_POR_REGISTRO;
+            copia[destino + POS_INSTANTE] = instante;
+            copia[destino + POS_CAMPOS] = campos;
+            copia[destino + POS_LATENCIA] = latencia;
+            copia[destino + POS_SECUENCIA] = secuencia;
+        }
+
+        DataOutputStream datos = new DataOutputStream(salida);
+        datos.writeInt(MAGIA);
+        datos.writeInt(VERSION);
+        datos.writeInt(getCapacidad());
+        datos.writeInt(copiados);
+        for (int i = 0; i < copiados * LONGS_POR_REGISTRO; i++)
+            datos.writeLong(copia[i]);
+        datos.flush();
+        return copiados;
+    }
+
+    /**
+     * Empaqueta los campos pequeños de un evento en un {@code long}: 8 bits para el origen, el evento, el comando, el estado anterior y
+     * el nuevo, y 24 para la cuenta
+     */
+    static long empaquetar(int origen, int evento, int comando, int anterior, int nuevo, int idContador) {
+        return (long) (origen & 0xFF) << 56 | (long) (evento & 0xFF) << 48 | (long) (comando & 0xFF) << 40
+                | (long) (anterior & 0xFF) << 32 | (long) (nuevo & 0xFF) << 24 | idContador & 0xFFFFFF;
+    }
+}
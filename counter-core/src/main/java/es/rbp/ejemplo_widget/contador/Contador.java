@@ -0,0 +1,715 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.Arrays;
+
+/**
+ * Lógica de la cuenta sin dependencias de Android.
+ * <p>
+ * Junta la cuenta principal, que usa {@link MaquinaEstados}, {@link MotorTick} y {@link AlmacenEstado}, con las cuentas de
+ * {@link RegistroContadores}, y las mueve todas con un solo tick. El tiempo y la ejecución del tick se inyectan con {@link Reloj} y
+ * {@link Planificador}, por lo que la misma lógica se ejecuta en el servicio y en los tests de la JVM. Los cambios se reparten a los
+ * {@link Oyente} registrados.
+ * <p>
+ * Los comandos se pueden enviar desde cualquier hilo. Si llegan a la vez, {@link MaquinaEstados} los ordena y rechaza los que ya no
+ * tienen sentido.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class Contador {
+
+    /**
+     * Id de la cuenta principal. El resto de ids son cuentas de {@link RegistroContadores}
+     */
+    public static final int ID_PRINCIPAL = 0;
+
+    /**
+     * Segundo de una cuenta detenida
+     */
+    public static final int SEGUNDO_INICIAL = 0;
+
+    /**
+     * Vueltas que se conservan de cada sesión. Las anteriores se sobrescriben, aunque siguen contando en las estadísticas de vueltas
+     */
+    public static final int MAXIMO_VUELTAS = 4096;
+
+    /**
+     * Valor de {@link Contador#tickProgramado} sin ningún tick programado
+     */
+    private static final long SIN_TICK = Long.MIN_VALUE;
+
+    private final Reloj reloj;
+
+    private final Planificador planificador;
+
+    /**
+     * Indica si las cuentas de {@link Contador#registro} reciben el tick de cada segundo
+     */
+    private final boolean tickRegistro;
+
+    /**
+     * Decide qué comandos de la cuenta principal se aplican y en qué orden
+     */
+    private final MaquinaEstados maquina;
+
+    /**
+     * Anclas de tiempo de la cuenta principal.
+     * <p>
+     * También sirve de cerrojo entre los hilos que envían comandos y el hilo del tick
+     */
+    private final MotorTick motor = new MotorTick();
+
+    /**
+     * Cuentas distintas de la principal.
+     * <p>
+     * También sirve de cerrojo, ya que {@link RegistroContadores} no es seguro entre hilos. Nunca se bloquea {@link Contador#motor}
+     * teniendo este cerrojo
+     */
+    private final RegistroContadores registro = new RegistroContadores();
+
+    /**
+     * Oyentes a los que se reparten los cambios. Se recorren sin cerrojo en cada tick y casi nunca cambian, así que al añadir o quitar
+     * uno se sustituye el array entero. Recorrer un array no crea ningún iterador, por lo que el tick no crea objetos
+     */
+    private volatile Oyente[] oyentes = new Oyente[0];
+
+    /**
+     * Tick compartido por todas las cuentas
+     */
+    private final Runnable tick;
+
+    /**
+     * Instante en el que debería ejecutarse el tick programado, en la escala de {@link Reloj#ahoraNanos()}, o
+     * {@link Contador#SIN_TICK} si no hay ninguno
+     */
+    private long tickProgramado = SIN_TICK;
+
+    /**
+     * Retraso de cada tick respecto al instante para el que se programó
+     */
+    private final HistogramaLatencia retrasoTick = new HistogramaLatencia();
+
+    /**
+     * Reparte el tick de las cuentas de {@link Contador#registro} a los oyentes
+     */
+    private final RegistroContadores.Oyente oyenteRegistro;
+
+    /**
+     * Guarda el estado de la cuenta principal en cada transición. Es null si no se guarda
+     */
+    private AlmacenEstado almacen;
+
+    /**
+     * Recibe cada sesión de la cuenta principal al detenerse. Es null si no se guardan
+     */
+    private volatile OyenteSesiones oyenteSesiones;
+
+    /**
+     * Instante de inicio de la sesión de la cuenta principal, en la escala de {@link Reloj#ahoraPared()}
+     */
+    private long inicioSesion;
+
+    /**
+     * Pausas de la sesión de la cuenta principal
+     */
+    private int pausasSesion;
+
+    /**
+     * Segundo actual de la cuenta principal
+     */
+    private int segundoActual = SEGUNDO_INICIAL;
+
+    /**
+     * Ancla en nanosegundos de la cuenta principal. Se sustituye en cada cambio de estado, nunca en el tick
+     */
+    private volatile AnclaNanos anclaNanos = AnclaNanos.DETENIDA;
+
+    /**
+     * Vueltas de la sesión de la cuenta principal. Se vacía al empezar cada sesión
+     */
+    private final RegistroVueltas vueltas = new RegistroVueltas(MAXIMO_VUELTAS);
+
+    /**
+     * Estado de la última transición de la cuenta principal cuyos efectos se han aplicado
+     */
+    private volatile int estado = MaquinaEstados.ESTADO_DETENIDO;
+
+    /**
+     * Indica si alguien está mirando la cuenta. Si no, no se programa el tick y las cuentas son solo sus anclas de tiempo
+     */
+    private boolean observado = true;
+
+    /**
+     * Constructor de la clase
+     *
+     * @param reloj        fuente de tiempo
+     * @param planificador ejecuta el tick
+     * @param tickRegistro true si las cuentas del registro reciben el tick de cada segundo
+     */
+    public Contador(Reloj reloj, Planificador planificador, boolean tickRegistro) {
+        this(reloj, planificador, tickRegistro, new MaquinaEstados());
+    }
+
+    /**
+     * Constructor de la clase con una máquina de estados ya creada, por ejemplo cerca de que su versión vuelva a 0
+     *
+     * @param reloj        fuente de tiempo
+     * @param planificador ejecuta el tick
+     * @param tickRegistro true si las cuentas del registro reciben el tick de cada segundo
+     * @param maquina      máquina de estados de la cuenta principal, en la que aún no se ha aplicado ningún comando
+     */
+    Contador(Reloj reloj, Planificador planificador, boolean tickRegistro, MaquinaEstados maquina) {
+        this.reloj = reloj;
+        this.planificador = planificador;
+        this.tickRegistro = tickRegistro;
+        this.maquina = maquina;
+
+        tick = new Runnable() {
+            @Override
+            public void run() {
+                long ahora = Contador.this.reloj.ahora();
+                long ahoraNanos = Contador.this.reloj.ahoraNanos();
+                int segundo = -1;
+                synchronized (motor) {
+                    if (tickProgramado != SIN_TICK)
+                        retrasoTick.registrar(ahoraNanos - tickProgramado);
+                    tickProgramado = SIN_TICK;
+
+                    // Si se ha pausado o detenido mientras se ejecutaba el tick no hay que enviar nada de la cuenta principal
+                    if (estado == MaquinaEstados.ESTADO_CORRIENDO) {
+                        segundoActual = motor.segundosTranscurridos(ahora);
+                        segundo = segundoActual;
+                        publicar(ID_PRINCIPAL, estado, segundo);
+                    }
+                }
+
+                if (segundo >= 0)
+                    for (Oyente oyente : oyentes)
+                        oyente.alTick(ID_PRINCIPAL, segundo);
+
+                if (Contador.this.tickRegistro)
+                    synchronized (registro) {
+                        registro.tick(ahora, oyenteRegistro);
+                    }
+
+                programarTick();
+            }
+        };
+
+        oyenteRegistro = new RegistroContadores.Oyente() {
+            @Override
+            public void tick(int id, int segundoActual) {
+                for (Oyente oyente : oyentes)
+                    oyente.alTick(id, segundoActual);
+            }
+        };
+    }
+
+    /**
+     * Añade un oyente que recibe los cambios de todas las cuentas
+     *
+     * @param oyente oyente
+     */
+    public synchronized void agregarOyente(Oyente oyente) {
+        Oyente[] nuevos = Arrays.copyOf(oyentes, oyentes.length + 1);
+        nuevos[oyentes.length] = oyente;
+        oyentes = nuevos;
+    }
+
+    /**
+     * Quita un oyente
+     *
+     * @param oyente oyente
+     */
+    public synchronized void quitarOyente(Oyente oyente) {
+        Oyente[] actuales = oyentes;
+        for (int i = 0; i < actuales.length; i++)
+            if (actuales[i] == oyente) {
+                Oyente[] nuevos = Arrays.copyOf(actuales, actuales.length - 1);
+                System.arraycopy(actuales, i + 1, nuevos, i, actuales.length - i - 1);
+                oyentes = nuevos;
+                return;
+            }
+    }
+
+    /**
+     * Indica dónde se guarda el estado de la cuenta principal en cada transición
+     *
+     * @param almacen almacén del estado, o null para no guardarlo
+     */
+    public void setAlmacen(AlmacenEstado almacen) {
+        this.almacen = almacen;
+    }
+
+    /**
+     * Indica quién recibe las sesiones de la cuenta principal al detenerse, por ejemplo para guardarlas en {@link HistorialSesiones}
+     *
+     * @param oyenteSesiones oyente de las sesiones, o null para no recibirlas
+     */
+    public void setOyenteSesiones(OyenteSesiones oyenteSesiones) {
+        this.oyenteSesiones = oyenteSesiones;
+    }
+
+    /**
+     * Restaura la cuenta principal desde el último estado de {@link Contador#almacen}, si se guardó con la cuenta empezada.
+     * <p>
+     * Solo se avisa a los oyentes con {@link Oyente#publicar(int, int, int)}, ya que la cuenta no ha cambiado de estado. El almacén no
+     * guarda el inicio de la sesión ni sus pausas, así que la sesión restaurada empieza cuando habría empezado sin pausas
+     *
+     * @return true si se ha restaurado la cuenta
+     */
+    public boolean restaurar() {
+        if (almacen == null)
+            return false;
+
+        AlmacenEstado.EstadoGuardado guardado = almacen.leer();
+        if (guardado == null || guardado.estado == MaquinaEstados.ESTADO_DETENIDO)
+            return false;
+
+        synchronized (motor) {
+            if (!maquina.restaurar(guardado.estado))
+                return false;
+
+            long ahora = reloj.ahora();
+            long milis = guardado.milisTranscurridos(ahora, reloj.ahoraPared());
+            motor.restaurar(ahora, milis, guardado.estado == MaquinaEstados.ESTADO_PAUSADO);
+            anclaNanos = guardado.anclaNanos(ahora, reloj.ahoraPared(), reloj.ahoraNanos());
+            inicioSesion = reloj.ahoraPared() - milis;
+            pausasSesion = guardado.estado == MaquinaEstados.ESTADO_PAUSADO ? 1 : 0;
+            estado = guardado.estado;
+            segundoActual = motor.segundosTranscurridos(ahora);
+            programarTick();
+            publicar(ID_PRINCIPAL, estado, segundoActual);
+        }
+        return true;
+    }
+
+    /**
+     * Aplica un comando a la cuenta principal
+     *
+     * @param comando comando de {@link MaquinaEstados}
+     * @return true si se ha aplicado el comando
+     */
+    public boolean ejecutar(int comando) {
+        return aplicar(comando);
+    }
+
+    /**
+     * Aplica un comando a una cuenta
+     *
+     * @param id      id de la cuenta, o {@link Contador#ID_PRINCIPAL}
+     * @param comando comando de {@link MaquinaEstados}
+     * @return true si se ha aplicado el comando
+     */
+    public boolean ejecutar(int id, int comando) {
+        if (id == ID_PRINCIPAL)
+            return ejecutar(comando);
+
+        int anterior;
+        int nuevo;
+        int segundo;
+        long base;
+        synchronized (registro) {
+            long ahora = reloj.ahora();
+            anterior = registro.estado(id);
+            nuevo = registro.aplicar(id, comando, ahora);
+            if (nuevo == RegistroContadores.RECHAZADO)
+                return false;
+
+            segundo = registro.segundosTranscurridos(id, ahora);
+            base = registro.base(id, ahora);
+            publicar(id, nuevo, segundo);
+        }
+
+        programarTick();
+        for (Oyente oyente : oyentes)
+            oyente.alCambiarEstado(id, anterior, nuevo, segundo, base);
+        return true;
+    }
+
+    /**
+     * Aplica un comando a la cuenta principal y reparte la transición a los oyentes.
+     * <p>
+     * La transición se decide en {@link Contador#maquina} y sus efectos se aplican con el cerrojo de {@link Contador#motor} tomado
+     * en todo momento, así que las transiciones que llegan a la vez desde varios hilos se aplican enteras y en el orden de sus
+     * versiones. Si se decidiera fuera del cerrojo, otro hilo podría aplicar antes los efectos de una transición posterior, y los de
+     * esta, como la sesión terminada o la cuenta puesta a 0, se perderían o se aplicarían sobre un estado que ya no es el suyo
+     *
+     * @param comando comando de {@link MaquinaEstados}
+     * @return true si se ha aplicado el comando
+     */
+    private boolean aplicar(int comando) {
+        int anterior;
+        int nuevo;
+        int segundo;
+        long base;
+        // Sesión terminada por esta transición, que se copia con el cerrojo tomado por si desde otro hilo se empieza otra
+        long milisSesion = -1;
+        long inicio = 0;
+        long fin = 0;
+        int pausas = 0;
+        synchronized (motor) {
+            long transicion = maquina.aplicar(comando);
+            if (transicion == MaquinaEstados.RECHAZADA)
+                return false;
+
+            anterior = MaquinaEstados.anterior(transicion);
+            nuevo = MaquinaEstados.nuevo(transicion);
+            long ahora = reloj.ahora();
+            long ahoraNanos = reloj.ahoraNanos();
+            switch (nuevo) {
+                case MaquinaEstados.ESTADO_CORRIENDO:
+                    if (motor.estaEmpezado())
+                        motor.reanudar(ahora);
+                    else
+                        empezarSesion(ahora);
+                    anclaNanos = AnclaNanos.corriendo(ahoraNanos, anclaNanos.nanosTranscurridos(ahoraNanos));
+                    break;
+                case MaquinaEstados.ESTADO_PAUSADO:
+                    if (!motor.estaEmpezado())
+                        empezarSesion(ahora);
+                    motor.pausar(ahora);
+                    pausasSesion++;
+                    segundoActual = motor.segundosTranscurridos(ahora);
+                    anclaNanos = AnclaNanos.pausada(anclaNanos.nanosTranscurridos(ahoraNanos));
+                    break;
+                case MaquinaEstados.ESTADO_DETENIDO:
+                    if (motor.estaEmpezado()) {
+                        milisSesion = motor.milisTranscurridos(ahora);
+                        inicio = inicioSesion;
+                        fin = reloj.ahoraPared();
+                        pausas = pausasSesion;
+                    }
+                    motor.parar();
+                    anclaNanos = AnclaNanos.DETENIDA;
+                    segundoActual = SEGUNDO_INICIAL;
+                    break;
+            }
+
+            estado = nuevo;
+            segundo = segundoActual;
+            base = motor.base(ahora);
+            programarTick();
+            publicar(ID_PRINCIPAL, nuevo, segundo);
+            if (almacen != null)
+                almacen.guardar(nuevo, motor.milisTranscurridos(ahora), ahora, reloj.ahoraPared());
+        }
+
+        // La sesión se entrega antes que el cambio de estado, para que quien pinte la cuenta detenida vea ya la sesión guardada
+        OyenteSesiones oyenteSesiones = this.oyenteSesiones;
+        if (milisSesion >= 0 && oyenteSesiones != null)
+            oyenteSesiones.alTerminarSesion(inicio, fin, milisSesion, pausas);
+
+        for (Oyente oyente : oyentes)
+            oyente.alCambiarEstado(ID_PRINCIPAL, anterior, nuevo, segundo, base);
+        return true;
+    }
+
+    /**
+     * Empieza la cuenta principal y una sesión nueva
+     */
+    private void empezarSesion(long ahora) {
+        motor.empezar(ahora);
+        inicioSesion = reloj.ahoraPared();
+        pausasSesion = 0;
+        vueltas.reiniciar();
+    }
+
+    /**
+     * Marca una vuelta de la cuenta principal
+     *
+     * @param ahoraNanos instante en el que se pidió la vuelta, en la escala de {@link Reloj#ahoraNanos()}
+     * @return true si se ha marcado, false si la cuenta no está en marcha
+     */
+    public boolean vuelta(long ahoraNanos) {
+        synchronized (motor) {
+            AnclaNanos ancla = anclaNanos;
+            if (!ancla.corriendo)
+                return false;
+
+            vueltas.agregar(ancla.nanosTranscurridos(ahoraNanos));
+            return true;
+        }
+    }
+
+    /**
+     * Escribe en el lote las vueltas de la cuenta principal que no ha recibido todavía
+     *
+     * @param lote lote del lector
+     * @return true si hay algo nuevo
+     * @see RegistroVueltas#leer(LoteVueltas)
+     */
+    public boolean leerVueltas(LoteVueltas lote) {
+        return vueltas.leer(lote);
+    }
+
+    /**
+     * Hace que una cuenta del registro reciba el tick de cada segundo mientras esté en marcha, porque una vista la está mostrando.
+     * <p>
+     * El coste del tick crece con las cuentas observadas, así que solo se deben observar las que se muestran y dejar de observarlas
+     * con {@link Contador#dejarDeObservar(int)} cuando dejan de mostrarse. Las cuentas que nadie muestra siguen contando igual
+     *
+     * @param id id de la cuenta, que puede estar detenida
+     */
+    public void observar(int id) {
+        if (id == ID_PRINCIPAL)
+            return;
+
+        synchronized (registro) {
+            registro.observar(id);
+        }
+        programarTick();
+    }
+
+    /**
+     * Hace que una cuenta del registro deje de recibir el tick porque ya no la muestra ninguna vista
+     *
+     * @param id id de la cuenta
+     */
+    public void dejarDeObservar(int id) {
+        if (id == ID_PRINCIPAL)
+            return;
+
+        synchronized (registro) {
+            registro.dejarDeObservar(id);
+        }
+        programarTick();
+    }
+
+    /**
+     * Devuelve el número de cuentas del registro que reciben el tick porque alguna vista las muestra
+     *
+     * @return cuentas observadas
+     */
+    public int getObservadasRegistro() {
+        synchronized (registro) {
+            return registro.getObservadas();
+        }
+    }
+
+    /**
+     * Indica si alguien está mirando la cuenta.
+     * <p>
+     * Si nadie la mira no se programa el tick. Cuando alguien vuelve a mirarla se ejecuta un tick inmediato para enviar el segundo actual
+     *
+     * @param observado true si alguien está mirando la cuenta
+     */
+    public void setObservado(boolean observado) {
+        synchronized (motor) {
+            boolean anterior = this.observado;
+            this.observado = observado;
+            if (observado && !anterior) {
+                planificador.cancelar(tick);
+                planificador.programar(tick, 0);
+            } else {
+                programarTick();
+            }
+        }
+    }
+
+    /**
+     * Programa el siguiente tick compartido.
+     * <p>
+     * Si la cuenta principal está en marcha, el tick se alinea con sus segundos. Si no, y hay cuentas de {@link Contador#registro}
+     * observadas en marcha que reciben el tick, se programa cada {@link MotorTick#MILIS_POR_SEGUNDO}
+     */
+    private void programarTick() {
+        synchronized (motor) {
+            planificador.cancelar(tick);
+            tickProgramado = SIN_TICK;
+            if (!observado)
+                return;
+
+            long retraso;
+            if (estado == MaquinaEstados.ESTADO_CORRIENDO)
+                retraso = motor.retrasoSiguienteTick(reloj.ahora());
+            else if (tickRegistro && hayObservadasEnMarcha())
+                retraso = MotorTick.MILIS_POR_SEGUNDO;
+            else
+                return;
+
+            tickProgramado = reloj.ahoraNanos() + retraso * 1_000_000;
+            planificador.programar(tick, retraso);
+        }
+    }
+
+    /**
+     * Avisa a los oyentes del último estado de una cuenta con el cerrojo de la cuenta tomado
+     */
+    private void publicar(int id, int estado, int segundo) {
+        for (Oyente oyente : oyentes)
+            oyente.publicar(id, estado, segundo);
+    }
+
+    /**
+     * Devuelve el estado de la cuenta principal
+     *
+     * @return estado de {@link MaquinaEstados}
+     */
+    public int getEstado() {
+        return estado;
+    }
+
+    /**
+     * Devuelve el estado de una cuenta
+     *
+     * @param id id de la cuenta
+     * @return estado de {@link MaquinaEstados}
+     */
+    public int getEstado(int id) {
+        if (id == ID_PRINCIPAL)
+            return estado;
+
+        synchronized (registro) {
+            return registro.estado(id);
+        }
+    }
+
+    /**
+     * Devuelve el segundo actual de la cuenta principal, calculado a partir de sus anclas aunque no se esté ejecutando el tick
+     *
+     * @return segundo actual
+     */
+    public int getSegundoActual() {
+        synchronized (motor) {
+            if (estado != MaquinaEstados.ESTADO_DETENIDO)
+                segundoActual = motor.segundosTranscurridos(reloj.ahora());
+            return segundoActual;
+        }
+    }
+
+    /**
+     * Devuelve los milisegundos que lleva la cuenta principal en marcha, descontando las pausas
+     *
+     * @return milisegundos transcurridos
+     */
+    public long getMilisTranscurridos() {
+        synchronized (motor) {
+            return motor.milisTranscurridos(reloj.ahora());
+        }
+    }
+
+    /**
+     * Devuelve el histograma del retraso de cada tick respecto al instante para el que se programó, que muestra si el hilo del tick va
+     * cargado o si el sistema retrasa la ejecución
+     *
+     * @return histograma en nanosegundos, que se sigue actualizando
+     */
+    public HistogramaLatencia getRetrasoTick() {
+        return retrasoTick;
+    }
+
+    /**
+     * Devuelve el ancla en nanosegundos de la cuenta principal, con la que se calcula el tiempo con precisión de milisegundos sin
+     * necesitar ningún tick
+     *
+     * @return ancla actual, que no cambia hasta el siguiente cambio de estado
+     */
+    public AnclaNanos getAnclaNanos() {
+        return anclaNanos;
+    }
+
+    /**
+     * Devuelve la base de una cuenta en la escala de {@link Reloj#ahora()}
+     *
+     * @param id id de la cuenta
+     * @return base de la cuenta
+     * @see MotorTick#base(long)
+     */
+    public long getBase(int id) {
+        if (id == ID_PRINCIPAL)
+            synchronized (motor) {
+                return motor.base(reloj.ahora());
+            }
+
+        synchronized (registro) {
+            return registro.base(id, reloj.ahora());
+        }
+    }
+
+    /**
+     * Indica si alguna cuenta está en marcha
+     *
+     * @return true si alguna cuenta está en marcha
+     */
+    public boolean hayCuentasEnMarcha() {
+        return estado == MaquinaEstados.ESTADO_CORRIENDO || getCorriendoRegistro() > 0;
+    }
+
+    /**
+     * Indica si todas las cuentas están detenidas
+     *
+     * @return true si todas las cuentas están detenidas
+     */
+    public boolean estaDetenido() {
+        if (estado != MaquinaEstados.ESTADO_DETENIDO)
+            return false;
+
+        synchronized (registro) {
+            return registro.getTamano() == 0;
+        }
+    }
+
+    private int getCorriendoRegistro() {
+        synchronized (registro) {
+            return registro.getCorriendo();
+        }
+    }
+
+    private boolean hayObservadasEnMarcha() {
+        synchronized (registro) {
+            return registro.hayObservadasEnMarcha();
+        }
+    }
+
+    /**
+     * Interfaz para recibir los cambios de las cuentas
+     */
+    public interface Oyente {
+        /**
+         * Recibe el último estado y segundo de una cuenta.
+         * <p>
+         * Se llama con el cerrojo de la cuenta tomado, por lo que las llamadas llegan en el mismo orden en el que cambia la cuenta.
+         * Tiene que ser rápido y no puede enviar comandos al {@link Contador}
+         *
+         * @param id      id de la cuenta
+         * @param estado  estado de la cuenta
+         * @param segundo segundo actual de la cuenta
+         */
+        void publicar(int id, int estado, int segundo);
+
+        /**
+         * Recibe un cambio de estado de una cuenta, en el hilo que envió el comando y sin ningún cerrojo tomado
+         *
+         * @param id       id de la cuenta
+         * @param anterior estado anterior
+         * @param nuevo    nuevo estado
+         * @param segundo  segundo actual de la cuenta
+         * @param base     base de la cuenta en la escala de {@link Reloj#ahora()}
+         */
+        void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base);
+
+        /**
+         * Recibe el segundo actual de una cuenta en marcha en cada tick, en el hilo de {@link Planificador}
+         *
+         * @param id      id de la cuenta
+         * @param segundo segundo actual de la cuenta
+         */
+        void alTick(int id, int segundo);
+    }
+
+    /**
+     * Interfaz para recibir las sesiones terminadas de la cuenta principal
+     */
+    public interface OyenteSesiones {
+        /**
+         * Recibe una sesión de la cuenta principal al detenerse, en el hilo que envió el comando y sin ningún cerrojo tomado, antes de
+         * {@link Oyente#alCambiarEstado(int, int, int, int, long)}
+         *
+         * @param inicio        instante de inicio en la escala de {@link Reloj#ahoraPared()}
+         * @param fin           instante de fin en la escala de {@link Reloj#ahoraPared()}
+         * @param milisContados milisegundos de cuenta, descontando las pausas
+         * @param pausas        número de pausas
+         */
+        void alTerminarSesion(long inicio, long fin, long milisContados, int pausas);
+    }
+}
@@ -0,0 +1,339 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reparte el estado y el segundo de la cuenta a varios suscriptores, cada uno en su propio {@link Executor}.
+ * <p>
+ * Sigue el modelo de {@code java.util.concurrent.Flow}, que no está disponible en Java 8 ni con minSdk 26: cada {@link Suscriptor}
+ * recibe una {@link Suscripcion} con la que pide valores y se da de baja, y todas sus llamadas llegan en orden en su ejecutor.
+ * Al suscribirse recibe el último valor publicado, así que no hace falta pedir el estado por separado.
+ * <p>
+ * Los valores no se encolan. Cada suscripción guarda solo el último valor que no ha entregado, por lo que un suscriptor que va retrasado
+ * o que no ha pedido más valores no bloquea al hilo que publica ni acumula memoria: cuando vuelve a estar listo recibe el más reciente.
+ * Publicar no crea objetos y solo programa una entrega en el ejecutor de las suscripciones que no tenían ninguna pendiente.
+ * <p>
+ * Las suscripciones se guardan en un array que se sustituye al suscribirse o darse de baja, ya que casi nunca cambian.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class DifusorContador {
+
+    /**
+     * Valor de una suscripción cuando no hay nada pendiente de entregar
+     */
+    private static final long VACIO = Long.MIN_VALUE;
+
+    /**
+     * Avisa de los cambios en el número de suscriptores. Puede ser null
+     */
+    private final OyenteSuscriptores oyente;
+
+    /**
+     * Suscripciones activas
+     */
+    private SuscripcionConflada[] suscripciones = new SuscripcionConflada[0];
+
+    /**
+     * Último valor publicado, con el estado en los 32 bits altos y el segundo en los bajos
+     */
+    private long ultimo = VACIO;
+
+    /**
+     * Indica si ya no se publican más valores
+     */
+    private boolean cerrado;
+
+    /**
+     * Crea un difusor sin oyente de suscriptores
+     */
+    public DifusorContador() {
+        this(null);
+    }
+
+    /**
+     * Crea un difusor
+     *
+     * @param oyente recibe el número de suscriptores cada vez que cambia, o null
+     */
+    public DifusorContador(OyenteSuscriptores oyente) {
+        this.oyente = oyente;
+    }
+
+    /**
+     * Publica un nuevo valor para todos los suscriptores
+     *
+     * @param estado  estado de la cuenta
+     * @param segundo segundo de la cuenta
+     */
+    public synchronized void publicar(int estado, int segundo) {
+        if (cerrado)
+            return;
+
+        ultimo = ((long) estado << 32) | (segundo & 0xFFFFFFFFL);
+        for (SuscripcionConflada suscripcion : suscripciones)
+            suscripcion.ofrecer(ultimo);
+    }
+
+    /**
+     * Suscribe un suscriptor, que recibe {@link Suscriptor#alSuscribirse(Suscripcion)} y después el último valor publicado en cuanto
+     * lo pida
+     *
+     * @param suscriptor suscriptor
+     * @param ejecutor   ejecutor en el que se llama al suscriptor
+     * @return suscripción, que también recibe el suscriptor
+     */
+    public Suscripcion suscribir(Suscriptor suscriptor, Executor ejecutor) {
+        SuscripcionConflada suscripcion = new SuscripcionConflada(suscriptor, ejecutor);
+        int numero = -1;
+        synchronized (this) {
+            if (!cerrado) {
+                SuscripcionConflada[] nuevas = Arrays.copyOf(suscripciones, suscripciones.length + 1);
+                nuevas[suscripciones.length] = suscripcion;
+                suscripciones = nuevas;
+                numero = nuevas.length;
+                suscripcion.valor.set(ultimo);
+            }
+        }
+
+        // La entrega se programa fuera del cerrojo, por si el ejecutor llama al suscriptor en el mismo hilo
+        if (numero < 0) {
+            suscripcion.completar();
+            return suscripcion;
+        }
+        suscripcion.programar();
+        avisarOyente(numero);
+        return suscripcion;
+    }
+
+    /**
+     * Deja de publicar valores y avisa a todos los suscriptores con {@link Suscriptor#alCompletar()} tras entregarles lo pendiente
+     */
+    public void cerrar() {
+        SuscripcionConflada[] actuales;
+        synchronized (this) {
+            if (cerrado)
+                return;
+            cerrado = true;
+            actuales = suscripciones;
+            suscripciones = new SuscripcionConflada[0];
+        }
+
+        for (SuscripcionConflada suscripcion : actuales)
+            suscripcion.completar();
+        if (actuales.length > 0)
+            avisarOyente(0);
+    }
+
+    /**
+     * Devuelve el número de suscriptores
+     *
+     * @return suscriptores activos
+     */
+    public synchronized int getSuscriptores() {
+        return suscripciones.length;
+    }
+
+    /**
+     * Quita una suscripción cancelada
+     */
+    private void quitar(SuscripcionConflada suscripcion) {
+        int numero;
+        synchronized (this) {
+            int posicion = -1;
+            for (int i = 0; i < suscripciones.length; i++)
+                if (suscripciones[i] == suscripcion)
+                    posicion = i;
+            if (posicion < 0)
+                return;
+
+            SuscripcionConflada[] nuevas = Arrays.copyOf(suscripciones, suscripciones.length - 1);
+            System.arraycopy(suscripciones, posicion + 1, nuevas, posicion, suscripciones.length - posicion - 1);
+            suscripciones = nuevas;
+            numero = nuevas.length;
+        }
+        avisarOyente(numero);
+    }
+
+    /**
+     * Avisa al oyente fuera del cerrojo del difusor, ya que el oyente puede tomar el de {@link Contador}, que se toma antes de publicar
+     */
+    private void avisarOyente(int suscriptores) {
+        if (oyente != null)
+            oyente.alCambiarSuscriptores(suscriptores);
+    }
+
+    /**
+     * Suscripción que guarda solo el último valor pendiente y lo entrega en el ejecutor del suscriptor cuando hay demanda
+     */
+    private class SuscripcionConflada implements Suscripcion {
+
+        private final Suscriptor suscriptor;
+
+        private final Executor ejecutor;
+
+        /**
+         * Último valor sin entregar, o {@link DifusorContador#VACIO}
+         */
+        private final AtomicLong valor = new AtomicLong(VACIO);
+
+        /**
+         * Valores que ha pedido el suscriptor y que aún no ha recibido. {@link Long#MAX_VALUE} es una demanda sin límite
+         */
+        private final AtomicLong demanda = new AtomicLong();
+
+        /**
+         * Número de veces que se ha pedido entregar desde la última entrega. Solo hay una entrega en el ejecutor a la vez
+         */
+        private final AtomicInteger pendientes = new AtomicInteger();
+
+        private final Runnable entrega = new Runnable() {
+            @Override
+            public void run() {
+                entregar();
+            }
+        };
+
+        /**
+         * Solo se usa en el ejecutor del suscriptor
+         */
+        private boolean iniciada;
+
+        private volatile boolean cancelada;
+
+        private volatile boolean completada;
+
+        SuscripcionConflada(Suscriptor suscriptor, Executor ejecutor) {
+            this.suscriptor = suscriptor;
+            this.ejecutor = ejecutor;
+        }
+
+        /**
+         * Sustituye el valor pendiente. Solo se programa una entrega si no había ningún valor pendiente y el suscriptor ha pedido más.
+         * Si no ha pedido, {@link SuscripcionConflada#pedir(long)} programa la entrega del valor guardado
+         */
+        void ofrecer(long nuevo) {
+            if (valor.getAndSet(nuevo) == VACIO && demanda.get() > 0)
+                programar();
+        }
+
+        void completar() {
+            completada = true;
+            programar();
+        }
+
+        void programar() {
+            if (pendientes.getAndIncrement() == 0)
+                ejecutor.execute(entrega);
+        }
+
+        @Override
+        public void pedir(long valores) {
+            if (valores <= 0)
+                throw new IllegalArgumentException("Hay que pedir al menos un valor: " + valores);
+
+            long actual;
+            long nueva;
+            do {
+                actual = demanda.get();
+                nueva = actual + valores < 0 ? Long.MAX_VALUE : actual + valores;
+            } while (!demanda.compareAndSet(actual, nueva));
+            programar();
+        }
+
+        @Override
+        public void cancelar() {
+            if (cancelada)
+                return;
+            cancelada = true;
+            quitar(this);
+        }
+
+        /**
+         * Entrega en el ejecutor del suscriptor todo lo que se ha pedido desde la última entrega
+         */
+        private void entregar() {
+            int faltan = 1;
+            do {
+                if (!iniciada) {
+                    iniciada = true;
+                    suscriptor.alSuscribirse(this);
+                }
+
+                if (!cancelada && demanda.get() > 0) {
+                    long pendiente = valor.getAndSet(VACIO);
+                    if (pendiente != VACIO) {
+                        if (demanda.get() != Long.MAX_VALUE)
+                            demanda.decrementAndGet();
+                        suscriptor.alRecibir((int) (pendiente >> 32), (int) pendiente);
+                    }
+                }
+
+                if (!cancelada && completada && (valor.get() == VACIO || demanda.get() == 0)) {
+                    cancelada = true;
+                    suscriptor.alCompletar();
+                }
+
+                faltan = pendientes.addAndGet(-faltan);
+            } while (faltan != 0);
+        }
+    }
+
+    /**
+     * Recibe los valores del difusor, siempre en el ejecutor con el que se suscribió y nunca desde dos hilos a la vez
+     */
+    public interface Suscriptor {
+        /**
+         * Recibe la suscripción antes que ningún valor. Hasta que no se llama a {@link Suscripcion#pedir(long)} no llega ningún valor
+         *
+         * @param suscripcion suscripción con la que pedir valores y darse de baja
+         */
+        void alSuscribirse(Suscripcion suscripcion);
+
+        /**
+         * Recibe el último valor publicado que no había recibido
+         *
+         * @param estado  estado de la cuenta
+         * @param segundo segundo de la cuenta
+         */
+        void alRecibir(int estado, int segundo);
+
+        /**
+         * Indica que el difusor se ha cerrado y no llegarán más valores
+         */
+        void alCompletar();
+    }
+
+    /**
+     * Une un suscriptor con el difusor
+     */
+    public interface Suscripcion {
+        /**
+         * Pide más valores. Como los valores se conflan, pedir {@link Long#MAX_VALUE} no acumula nada aunque el suscriptor vaya retrasado
+         *
+         * @param valores número de valores, mayor que 0
+         * @throws IllegalArgumentException si valores no es mayor que 0
+         */
+        void pedir(long valores);
+
+        /**
+         * Da de baja al suscriptor, que deja de recibir valores y deja de estar referenciado por el difusor
+         */
+        void cancelar();
+    }
+
+    /**
+     * Recibe los cambios en el número de suscriptores, por ejemplo para mantener el tick solo mientras alguien mira la cuenta
+     */
+    public interface OyenteSuscriptores {
+        /**
+         * Recibe el número de suscriptores tras un cambio, fuera del cerrojo del difusor
+         *
+         * @param suscriptores número de suscriptores
+         */
+        void alCambiarSuscriptores(int suscriptores);
+    }
+}
@@ -0,0 +1,457 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+/**
+ * Mantiene los totales de las sesiones de la cuenta principal (de hoy, de esta semana y de siempre), la media por sesión y la racha de
+ * días seguidos con alguna sesión, sin recorrer {@link HistorialSesiones}.
+ * <p>
+ * Los totales se actualizan en tiempo constante al terminar cada sesión, que cuenta en el día en el que termina. El cambio de día y de
+ * semana no necesita ninguna alarma: los totales guardan el día y la semana a los que pertenecen, y al leerlos en otro día valen 0.
+ * Los días son los de la zona horaria indicada y las semanas empiezan en lunes.
+ * <p>
+ * Se guardan en un archivo mapeado en memoria con dos huecos que se escriben de forma alterna, cada uno con su número de secuencia y su
+ * CRC32, igual que {@link AlmacenEstado}. Leerlos cuesta lo mismo con diez sesiones que con un millón.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class EstadisticasSesiones implements Closeable {
+
+    /**
+     * Milisegundos de un día
+     */
+    public static final long MILIS_POR_DIA = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Número mágico de la cabecera del archivo
+     */
+    private static final int MAGIA = 0x45535441;
+
+    /**
+     * Versión del formato del archivo
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Tamaño de la cabecera del archivo
+     */
+    private static final int TAMANO_CABECERA = 8;
+
+    /**
+     * Tamaño de cada hueco: secuencia, sesiones, milisegundos totales, día y milisegundos del día, semana y milisegundos de la semana,
+     * último día con sesiones, racha, racha máxima y CRC32
+     */
+    private static final int TAMANO_HUECO = 80;
+
+    private static final int POS_SECUENCIA = 0;
+    private static final int POS_SESIONES = 8;
+    private static final int POS_MILIS_TOTALES = 16;
+    private static final int POS_DIA = 24;
+    private static final int POS_MILIS_DIA = 32;
+    private static final int POS_SEMANA = 40;
+    private static final int POS_MILIS_SEMANA = 48;
+    private static final int POS_ULTIMO_DIA_ACTIVO = 56;
+    private static final int POS_RACHA = 64;
+    private static final int POS_RACHA_MAXIMA = 68;
+    private static final int POS_CRC = 72;
+
+    /**
+     * Tamaño total del archivo
+     */
+    private static final int TAMANO_ARCHIVO = TAMANO_CABECERA + 2 * TAMANO_HUECO;
+
+    /**
+     * Día de un total que aún no tiene ninguna sesión
+     */
+    private static final long SIN_DIA = Long.MIN_VALUE;
+
+    private final RandomAccessFile archivo;
+
+    private final MappedByteBuffer buffer;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Zona horaria en la que se cuentan los días
+     */
+    private final TimeZone zona;
+
+    /**
+     * Secuencia del último hueco escrito
+     */
+    private long secuencia;
+
+    private long sesiones;
+
+    private long milisTotales;
+
+    /**
+     * Día de {@link EstadisticasSesiones#milisDia}, en días desde el 1 de enero de 1970 en {@link EstadisticasSesiones#zona}
+     */
+    private long dia = SIN_DIA;
+
+    private long milisDia;
+
+    /**
+     * Semana de {@link EstadisticasSesiones#milisSemana}, en semanas desde el lunes anterior al 1 de enero de 1970
+     */
+    private long semana = SIN_DIA;
+
+    private long milisSemana;
+
+    /**
+     * Último día con alguna sesión, que es el último de {@link EstadisticasSesiones#racha}
+     */
+    private long ultimoDiaActivo = SIN_DIA;
+
+    /**
+     * Días seguidos con alguna sesión hasta {@link EstadisticasSesiones#ultimoDiaActivo}
+     */
+    private int racha;
+
+    private int rachaMaxima;
+
+    /**
+     * Abre el archivo o lo crea si no existe
+     *
+     * @param ruta ruta del archivo
+     * @param zona zona horaria en la que se cuentan los días
+     * @throws IOException si no se puede abrir o mapear el archivo
+     */
+    public EstadisticasSesiones(File ruta, TimeZone zona) throws IOException {
+        this.zona = zona;
+        archivo = new RandomAccessFile(ruta, "rw");
+        if (archivo.length() != TAMANO_ARCHIVO)
+            archivo.setLength(TAMANO_ARCHIVO);
+
+        buffer = archivo.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, TAMANO_ARCHIVO);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIA || buffer.getInt(4) != VERSION) {
+            for (int i = 0; i < TAMANO_ARCHIVO; i++)
+                buffer.put(i, (byte) 0);
+            buffer.putInt(0, MAGIA);
+            buffer.putInt(4, VERSION);
+        }
+
+        int hueco = huecoValido(buffer, crc);
+        if (hueco >= 0)
+            cargar(posicion(hueco));
+    }
+
+    /**
+     * Lee los últimos totales guardados sin abrir el archivo como {@link EstadisticasSesiones#EstadisticasSesiones(File, TimeZone)}: no
+     * lo crea, no lo mapea y nunca escribe en él, así que se puede llamar desde cualquier proceso mientras el servicio lo tiene abierto.
+     * Cuesta una sola lectura del archivo, de menos de 200 bytes
+     *
+     * @param ruta ruta del archivo
+     * @param zona zona horaria en la que se cuentan los días
+     * @return totales guardados, que están a 0 si el archivo no existe o no tiene ningún hueco válido
+     * @throws IOException si no se puede leer el archivo
+     */
+    public static Resumen leerInstantanea(File ruta, TimeZone zona) throws IOException {
+        if (!ruta.exists())
+            return resumenVacio(zona);
+
+        byte[] bytes = new byte[TAMANO_ARCHIVO];
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "r")) {
+            if (archivo.length() != TAMANO_ARCHIVO)
+                return resumenVacio(zona);
+            archivo.readFully(bytes);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIA || buffer.getInt(4) != VERSION)
+            return resumenVacio(zona);
+
+        // Si el servicio escribe a la vez, el hueco a medio escribir no pasa el CRC y se usa el anterior
+        int hueco = huecoValido(buffer, new CRC32());
+        return hueco < 0 ? resumenVacio(zona) : leerResumen(buffer, posicion(hueco), zona);
+    }
+
+    /**
+     * Añade una sesión terminada a los totales
+     *
+     * @param fin           instante de fin en el reloj de pared
+     * @param milisContados milisegundos de cuenta, descontando las pausas
+     */
+    public synchronized void agregar(long fin, long milisContados) {
+        sumar(fin, milisContados);
+        guardar();
+    }
+
+    /**
+     * Vuelve a calcular los totales a partir de todas las sesiones del historial.
+     * <p>
+     * Recorre el historial entero, así que solo se usa cuando los totales no coinciden con él, por ejemplo la primera vez o si el
+     * proceso murió entre la escritura de la sesión y la de los totales
+     *
+     * @param historial historial de sesiones
+     * @throws IOException si no se puede leer el historial
+     */
+    public synchronized void reconstruir(HistorialSesiones historial) throws IOException {
+        sesiones = 0;
+        milisTotales = 0;
+        dia = SIN_DIA;
+        milisDia = 0;
+        semana = SIN_DIA;
+        milisSemana = 0;
+        ultimoDiaActivo = SIN_DIA;
+        racha = 0;
+        rachaMaxima = 0;
+        historial.consultar(Long.MIN_VALUE, Long.MAX_VALUE, new HistorialSesiones.Visitante() {
+            @Override
+            public void visitar(long inicio, long fin, long milisContados, int pausas) {
+                sumar(fin, milisContados);
+            }
+        });
+        guardar();
+    }
+
+    /**
+     * Devuelve el número de sesiones contadas
+     *
+     * @return sesiones contadas
+     */
+    public synchronized long getSesiones() {
+        return sesiones;
+    }
+
+    /**
+     * Lee los últimos totales guardados, que pueden haberse escrito desde otra instancia sobre el mismo archivo
+     *
+     * @return totales guardados
+     */
+    public synchronized Resumen leer() {
+        int hueco = huecoValido(buffer, crc);
+        return hueco < 0 ? resumenVacio(zona) : leerResumen(buffer, posicion(hueco), zona);
+    }
+
+    @Override
+    public void close() throws IOException {
+        archivo.close();
+    }
+
+    /**
+     * Suma una sesión a los totales en memoria, pasando al día y a la semana de la sesión si son posteriores. Si el reloj de pared ha
+     * retrocedido, la sesión se suma al día y a la semana actuales
+     */
+    private void sumar(long fin, long milisContados) {
+        long diaSesion = dia(fin, zona);
+        long semanaSesion = semana(diaSesion);
+        if (diaSesion > dia) {
+            dia = diaSesion;
+            milisDia = 0;
+        }
+        if (semanaSesion > semana) {
+            semana = semanaSesion;
+            milisSemana = 0;
+        }
+
+        if (diaSesion == ultimoDiaActivo + 1)
+            racha++;
+        else if (diaSesion > ultimoDiaActivo)
+            racha = 1;
+        ultimoDiaActivo = Math.max(ultimoDiaActivo, diaSesion);
+        rachaMaxima = Math.max(rachaMaxima, racha);
+
+        sesiones++;
+        milisTotales += milisContados;
+        milisDia += milisContados;
+        milisSemana += milisContados;
+    }
+
+    /**
+     * Escribe los totales en memoria en el hueco siguiente
+     */
+    private void guardar() {
+        secuencia++;
+        int pos = posicion((int) (secuencia & 1));
+        buffer.putLong(pos + POS_SECUENCIA, secuencia);
+        buffer.putLong(pos + POS_SESIONES, sesiones);
+        buffer.putLong(pos + POS_MILIS_TOTALES, milisTotales);
+        buffer.putLong(pos + POS_DIA, dia);
+        buffer.putLong(pos + POS_MILIS_DIA, milisDia);
+        buffer.putLong(pos + POS_SEMANA, semana);
+        buffer.putLong(pos + POS_MILIS_SEMANA, milisSemana);
+        buffer.putLong(pos + POS_ULTIMO_DIA_ACTIVO, ultimoDiaActivo);
+        buffer.putInt(pos + POS_RACHA, racha);
+        buffer.putInt(pos + POS_RACHA_MAXIMA, rachaMaxima);
+        buffer.putInt(pos + POS_CRC, calcularCrc(buffer, pos, crc));
+    }
+
+    /**
+     * Carga en memoria los totales de un hueco
+     */
+    private void cargar(int pos) {
+        secuencia = buffer.getLong(pos + POS_SECUENCIA);
+        sesiones = buffer.getLong(pos + POS_SESIONES);
+        milisTotales = buffer.getLong(pos + POS_MILIS_TOTALES);
+        dia = buffer.getLong(pos + POS_DIA);
+        milisDia = buffer.getLong(pos + POS_MILIS_DIA);
+        semana = buffer.getLong(pos + POS_SEMANA);
+        milisSemana = buffer.getLong(pos + POS_MILIS_SEMANA);
+        ultimoDiaActivo = buffer.getLong(pos + POS_ULTIMO_DIA_ACTIVO);
+        racha = buffer.getInt(pos + POS_RACHA);
+        rachaMaxima = buffer.getInt(pos + POS_RACHA_MAXIMA);
+    }
+
+    /**
+     * Devuelve el hueco válido con la secuencia más alta
+     *
+     * @return 0 o 1, o -1 si ninguno es válido
+     */
+    private static int huecoValido(ByteBuffer buffer, CRC32 crc) {
+        int mejor = -1;
+        long mejorSecuencia = 0;
+        for (int hueco = 0; hueco < 2; hueco++) {
+            int pos = posicion(hueco);
+            long secuenciaHueco = buffer.getLong(pos + POS_SECUENCIA);
+            if (secuenciaHueco > mejorSecuencia && buffer.getInt(pos + POS_CRC) == calcularCrc(buffer, pos, crc)) {
+                mejor = hueco;
+                mejorSecuencia = secuenciaHueco;
+            }
+        }
+        return mejor;
+    }
+
+    private static int calcularCrc(ByteBuffer buffer, int pos, CRC32 crc) {
+        crc.reset();
+        for (int i = 0; i < POS_CRC; i++)
+            crc.update(buffer.get(pos + i));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Lee los totales de un hueco
+     */
+    private static Resumen leerResumen(ByteBuffer buffer, int pos, TimeZone zona) {
+        return new Resumen(zona, buffer.getLong(pos + POS_SESIONES), buffer.getLong(pos + POS_MILIS_TOTALES),
+                buffer.getLong(pos + POS_DIA), buffer.getLong(pos + POS_MILIS_DIA), buffer.getLong(pos + POS_SEMANA),
+                buffer.getLong(pos + POS_MILIS_SEMANA), buffer.getLong(pos + POS_ULTIMO_DIA_ACTIVO), buffer.getInt(pos + POS_RACHA),
+                buffer.getInt(pos + POS_RACHA_MAXIMA));
+    }
+
+    private static Resumen resumenVacio(TimeZone zona) {
+        return new Resumen(zona, 0, 0, SIN_DIA, 0, SIN_DIA, 0, SIN_DIA, 0, 0);
+    }
+
+    private static int posicion(int hueco) {
+        return TAMANO_CABECERA + hueco * TAMANO_HUECO;
+    }
+
+    /**
+     * Devuelve el día de un instante en una zona horaria
+     *
+     * @param pared instante en el reloj de pared
+     * @param zona  zona horaria
+     * @return días desde el 1 de enero de 1970
+     */
+    public static long dia(long pared, TimeZone zona) {
+        return Math.floorDiv(pared + zona.getOffset(pared), MILIS_POR_DIA);
+    }
+
+    /**
+     * Devuelve la semana de un día. El 1 de enero de 1970 fue jueves, así que se suman 3 días para que las semanas empiecen en lunes
+     */
+    private static long semana(long dia) {
+        return Math.floorDiv(dia + 3, 7);
+    }
+
+    /**
+     * Totales leídos de {@link EstadisticasSesiones}. Los de hoy, de esta semana y la racha se calculan para el instante que se indica
+     */
+    public static class Resumen {
+
+        private final TimeZone zona;
+
+        /**
+         * Sesiones terminadas
+         */
+        public final long sesiones;
+
+        /**
+         * Milisegundos contados en todas las sesiones
+         */
+        public final long milisTotales;
+
+        /**
+         * Racha más larga de días seguidos con alguna sesión
+         */
+        public final int rachaMaxima;
+
+        private final long dia;
+
+        private final long milisDia;
+
+        private final long semana;
+
+        private final long milisSemana;
+
+        private final long ultimoDiaActivo;
+
+        private final int racha;
+
+        Resumen(TimeZone zona, long sesiones, long milisTotales, long dia, long milisDia, long semana, long milisSemana,
+                long ultimoDiaActivo, int racha, int rachaMaxima) {
+            this.zona = zona;
+            this.sesiones = sesiones;
+            this.milisTotales = milisTotales;
+            this.dia = dia;
+            this.milisDia = milisDia;
+            this.semana = semana;
+            this.milisSemana = milisSemana;
+            this.ultimoDiaActivo = ultimoDiaActivo;
+            this.racha = racha;
+            this.rachaMaxima = rachaMaxima;
+        }
+
+        /**
+         * Devuelve los milisegundos contados en las sesiones que terminaron hoy
+         *
+         * @param ahoraPared instante actual en el reloj de pared
+         * @return milisegundos de hoy
+         */
+        public long getMilisHoy(long ahoraPared) {
+            return dia(ahoraPared, zona) == dia ? milisDia : 0;
+        }
+
+        /**
+         * Devuelve los milisegundos contados en las sesiones que terminaron esta semana
+         *
+         * @param ahoraPared instante actual en el reloj de pared
+         * @return milisegundos de esta semana
+         */
+        public long getMilisSemana(long ahoraPared) {
+            return semana(dia(ahoraPared, zona)) == semana ? milisSemana : 0;
+        }
+
+        /**
+         * Devuelve los días seguidos con alguna sesión hasta hoy. La racha sigue viva si la última sesión fue ayer
+         *
+         * @param ahoraPared instante actual en el reloj de pared
+         * @return días de la racha actual
+         */
+        public int getRacha(long ahoraPared) {
+            return ultimoDiaActivo >= dia(ahoraPared, zona) - 1 ? racha : 0;
+        }
+
+        /**
+         * Devuelve la media de milisegundos contados por sesión
+         *
+         * @return media por sesión, o 0 si no hay sesiones
+         */
+        public long getMediaMilis() {
+            return sesiones == 0 ? 0 : milisTotales / sesiones;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exporta las sesiones de un {@link HistorialSesiones} en CSV o en JSON, por ejemplo para llevarlas a otra aplicación de control de
+ * horas.
+ * <p>
+ * Las sesiones pasan del archivo a la salida sin guardarse en ninguna lista: se leen página a página con
+ * {@link HistorialSesiones#consultarPagina(int, long, long, HistorialSesiones.Visitante)}, se escriben como texto en un bloque de tamaño
+ * fijo reservado al crear el exportador, y el bloque se envía a la salida cuando puede no caber otra página. Los números se escriben
+ * directamente en el bloque, sin crear ningún objeto, así que la memoria es la misma con mil sesiones que con diez millones.
+ * <p>
+ * Cada sesión tiene el inicio y el fin en milisegundos del reloj de pared desde la época, los milisegundos contados y las pausas.
+ * Una exportación se puede cancelar desde cualquier hilo con {@link ExportadorSesiones#cancelar()}, que se comprueba en cada página.
+ * Cada exportador sirve para una sola exportación
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class ExportadorSesiones {
+
+    /**
+     * Una sesión por línea con los campos separados por comas, tras una línea de cabecera
+     */
+    public static final int FORMATO_CSV = 0;
+
+    /**
+     * Un array con un objeto por sesión
+     */
+    public static final int FORMATO_JSON = 1;
+
+    /**
+     * Tamaño del bloque por defecto
+     */
+    public static final int TAMANO_BLOQUE = 64 * 1024;
+
+    /**
+     * Máximo de bytes que ocupa una sesión en cualquiera de los formatos, con los números más largos posibles
+     */
+    static final int MAXIMO_BYTES_SESION = 128;
+
+    /**
+     * Máximo de bytes que ocupan las sesiones de una página. El bloque se envía antes de cada página si le queda menos sitio
+     */
+    private static final int MAXIMO_BYTES_PAGINA = MAXIMO_BYTES_SESION * HistorialSesiones.REGISTROS_POR_PAGINA;
+
+    private static final byte[] CABECERA_CSV = ascii("inicio,fin,milis_contados,pausas\n");
+
+    private static final byte[] APERTURA_JSON = ascii("[");
+
+    private static final byte[] CIERRE_JSON = ascii("\n]\n");
+
+    private static final byte[] PRIMERA_SESION_JSON = ascii("\n{\"inicio\":");
+
+    private static final byte[] SIGUIENTE_SESION_JSON = ascii(",\n{\"inicio\":");
+
+    private static final byte[] FIN_JSON = ascii(",\"fin\":");
+
+    private static final byte[] MILIS_JSON = ascii(",\"milisContados\":");
+
+    private static final byte[] PAUSAS_JSON = ascii(",\"pausas\":");
+
+    /**
+     * {@link Long#MIN_VALUE}, el único número que no se puede escribir cambiando de signo
+     */
+    private static final byte[] MINIMO = ascii(String.valueOf(Long.MIN_VALUE));
+
+    private final HistorialSesiones historial;
+
+    private final int formato;
+
+    private final long desde;
+
+    private final long hasta;
+
+    /**
+     * Texto pendiente de enviar a la salida
+     */
+    private final byte[] bloque;
+
+    /**
+     * Bytes ocupados de {@link ExportadorSesiones#bloque}
+     */
+    private int usado;
+
+    private long exportadas;
+
+    private long bytesEscritos;
+
+    private volatile boolean cancelado;
+
+    /**
+     * Recibe cada sesión de una página y la escribe en el bloque, donde siempre cabe
+     */
+    private final HistorialSesiones.Visitante escritor = new HistorialSesiones.Visitante() {
+        @Override
+        public void visitar(long inicio, long fin, long milisContados, int pausas) {
+            if (formato == FORMATO_CSV) {
+                escribirNumero(inicio);
+                escribir((byte) ',');
+                escribirNumero(fin);
+                escribir((byte) ',');
+                escribirNumero(milisContados);
+                escribir((byte) ',');
+                escribirNumero(pausas);
+                escribir((byte) '\n');
+            } else {
+                escribir(exportadas == 0 ? PRIMERA_SESION_JSON : SIGUIENTE_SESION_JSON);
+                escribirNumero(inicio);
+                escribir(FIN_JSON);
+                escribirNumero(fin);
+                escribir(MILIS_JSON);
+                escribirNumero(milisContados);
+                escribir(PAUSAS_JSON);
+                escribirNumero(pausas);
+                escribir((byte) '}');
+            }
+            exportadas++;
+        }
+    };
+
+    /**
+     * Crea un exportador con un bloque de {@link ExportadorSesiones#TAMANO_BLOQUE} bytes
+     *
+     * @param historial historial del que se leen las sesiones
+     * @param formato   {@link ExportadorSesiones#FORMATO_CSV} o {@link ExportadorSesiones#FORMATO_JSON}
+     * @param desde     primer inicio de las sesiones exportadas en el reloj de pared, incluido
+     * @param hasta     último inicio de las sesiones exportadas en el reloj de pared, excluido
+     */
+    public ExportadorSesiones(HistorialSesiones historial, int formato, long desde, long hasta) {
+        this(historial, formato, desde, hasta, TAMANO_BLOQUE);
+    }
+
+    /**
+     * Crea un exportador
+     *
+     * @param historial    historial del que se leen las sesiones
+     * @param formato      {@link ExportadorSesiones#FORMATO_CSV} o {@link ExportadorSesiones#FORMATO_JSON}
+     * @param desde        primer inicio de las sesiones exportadas en el reloj de pared, incluido
+     * @param hasta        último inicio de las sesiones exportadas en el reloj de pared, excluido
+     * @param tamanoBloque bytes que se envían a la salida de una vez como mucho. Tiene que caber una página de sesiones
+     */
+    public ExportadorSesiones(HistorialSesiones historial, int formato, long desde, long hasta, int tamanoBloque) {
+        if (formato != FORMATO_CSV && formato != FORMATO_JSON)
+            throw new IllegalArgumentException("Formato desconocido: " + formato);
+        if (tamanoBloque < MAXIMO_BYTES_PAGINA)
+            throw new IllegalArgumentException("El bloque tiene que tener al menos " + MAXIMO_BYTES_PAGINA + " bytes: " + tamanoBloque);
+
+        this.historial = historial;
+        this.formato = formato;
+        this.desde = desde;
+        this.hasta = hasta;
+        this.bloque = new byte[tamanoBloque];
+    }
+
+    /**
+     * Escribe las sesiones del rango en la salida, en el orden en el que se guardaron. Las que se guardan mientras se exporta se
+     * incluyen si empiezan dentro del rango.
+     * <p>
+     * Si se cancela, deja de escribir sin completar el último bloque ni cerrar el formato, así que lo escrito se debe descartar
+     *
+     * @param salida flujo de destino, que no se cierra. Recibe bloques de como mucho el tamaño del bloque
+     * @return sesiones exportadas
+     * @throws IOException si no se puede leer el historial o escribir en la salida
+     */
+    public long exportar(OutputStream salida) throws IOException {
+        escribir(formato == FORMATO_CSV ? CABECERA_CSV : APERTURA_JSON);
+        int pagina = 0;
+        while (pagina != HistorialSesiones.FIN_CONSULTA) {
+            if (cancelado)
+                return exportadas;
+
+            if (bloque.length - usado < MAXIMO_BYTES_PAGINA)
+                enviar(salida);
+            pagina = historial.consultarPagina(pagina, desde, hasta, escritor);
+        }
+
+        if (formato == FORMATO_JSON) {
+            if (bloque.length - usado < CIERRE_JSON.length)
+                enviar(salida);
+            escribir(CIERRE_JSON);
+        }
+        enviar(salida);
+        salida.flush();
+        return exportadas;
+    }
+
+    /**
+     * Pide que se deje de exportar. Se puede llamar desde cualquier hilo, antes o durante {@link ExportadorSesiones#exportar}
+     */
+    public void cancelar() {
+        cancelado = true;
+    }
+
+    /**
+     * Indica si se ha cancelado la exportación
+     *
+     * @return true si se ha llamado a {@link ExportadorSesiones#cancelar()}
+     */
+    public boolean estaCancelado() {
+        return cancelado;
+    }
+
+    /**
+     * Devuelve las sesiones exportadas hasta ahora. Solo es exacto desde el hilo que exporta o cuando ha terminado
+     *
+     * @return sesiones exportadas
+     */
+    public long getExportadas() {
+        return exportadas;
+    }
+
+    /**
+     * Devuelve los bytes enviados a la salida hasta ahora. Solo es exacto desde el hilo que exporta o cuando ha terminado
+     *
+     * @return bytes enviados
+     */
+    public long getBytesEscritos() {
+        return bytesEscritos;
+    }
+
+    private void enviar(OutputStream salida) throws IOException {
+        if (usado == 0)
+            return;
+
+        salida.write(bloque, 0, usado);
+        bytesEscritos += usado;
+        usado = 0;
+    }
+
+    private void escribir(byte caracter) {
+        bloque[usado++] = caracter;
+    }
+
+    private void escribir(byte[] texto) {
+        System.arraycopy(texto, 0, bloque, usado, texto.length);
+        usado += texto.length;
+    }
+
+    /**
+     * Escribe un número en decimal, de la última cifra a la primera
+     */
+    private void escribirNumero(long valor) {
+        if (valor == Long.MIN_VALUE) {
+            escribir(MINIMO);
+            return;
+        }
+        if (valor < 0) {
+            escribir((byte) '-');
+            valor = -valor;
+        }
+
+        int fin = usado + cifras(valor);
+        for (int i = fin - 1; i >= usado; i--) {
+            bloque[i] = (byte) ('0' + valor % 10);
+            valor /= 10;
+        }
+        usado = fin;
+    }
+
+    private static int cifras(long valor) {
+        int cifras = 1;
+        while (valor >= 10) {
+            valor /= 10;
+            cifras++;
+        }
+        return cifras;
+    }
+
+    private static byte[] ascii(String texto) {
+        return texto.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Interfaz para saber cómo termina una exportación que se hace en otro hilo
+     */
+    public interface Oyente {
+        /**
+         * Recibe el final de una exportación completa o cancelada
+         *
+         * @param exportador exportador, con las sesiones y los bytes exportados
+         */
+        void alTerminar(ExportadorSesiones exportador);
+
+        /**
+         * Recibe el error que ha interrumpido una exportación
+         *
+         * @param exportador exportador, con las sesiones y los bytes exportados antes del error
+         * @param error      error de lectura del historial o de escritura en la salida
+         */
+        void alFallar(ExportadorSesiones exportador, IOException error);
+    }
+}
@@ -0,0 +1,197 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias en nanosegundos con cubetas logarítmicas, para medir en producción sin cerrojos ni memoria que crezca.
+ * <p>
+ * Cada potencia de dos se divide en {@value #SUBCUBETAS} cubetas, así que el valor que se devuelve de un percentil se aleja como mucho
+ * un 25% del real. Hay {@value #CUBETAS} cubetas para todo el rango de {@code long}, unos 2 KB, y registrar una muestra son unos pocos
+ * incrementos atómicos sin crear ningún objeto, por lo que se puede llamar en cada tick desde cualquier hilo.
+ * <p>
+ * Las lecturas no son una instantánea atómica: si se registran muestras mientras se lee, el total y las cubetas pueden diferir en
+ * esas muestras, lo que no importa para diagnosticar.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class HistogramaLatencia {
+
+    /**
+     * Bits de cada potencia de dos con los que se elige la cubeta
+     */
+    private static final int BITS_SUBCUBETA = 2;
+
+    /**
+     * Cubetas en las que se divide cada potencia de dos
+     */
+    public static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+
+    /**
+     * Número total de cubetas. Los valores menores que {@link HistogramaLatencia#SUBCUBETAS} tienen una cubeta cada uno, y el resto
+     * hasta la potencia de dos 62, la mayor de un {@code long} positivo
+     */
+    public static final int CUBETAS = (63 - BITS_SUBCUBETA) * SUBCUBETAS + SUBCUBETAS;
+
+    private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+
+    private final AtomicLong muestras = new AtomicLong();
+
+    /**
+     * Suma de todas las muestras en nanosegundos
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong maximo = new AtomicLong();
+
+    /**
+     * Registra una muestra
+     *
+     * @param nanos latencia en nanosegundos. Las negativas cuentan como 0
+     */
+    public void registrar(long nanos) {
+        nanos = Math.max(nanos, 0);
+        cubetas.incrementAndGet(cubeta(nanos));
+        muestras.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long actual = maximo.get();
+        while (nanos > actual && !maximo.compareAndSet(actual, nanos))
+            actual = maximo.get();
+    }
+
+    /**
+     * Devuelve el número de muestras registradas
+     *
+     * @return número de muestras
+     */
+    public long getMuestras() {
+        return muestras.get();
+    }
+
+    /**
+     * Devuelve la media de las muestras
+     *
+     * @return media en nanosegundos, o 0 si no hay muestras
+     */
+    public long getMedia() {
+        long n = muestras.get();
+        return n == 0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * Devuelve la muestra máxima
+     *
+     * @return máximo en nanosegundos
+     */
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Devuelve un percentil de las muestras
+     *
+     * @param percentil percentil entre 0 y 100
+     * @return límite superior de la cubeta en la que cae el percentil, sin pasar del máximo, o 0 si no hay muestras
+     */
+    public long getPercentil(double percentil) {
+        long n = 0;
+        for (int i = 0; i < CUBETAS; i++)
+            n += cubetas.get(i);
+        if (n == 0)
+            return 0;
+
+        long rango = Math.max(1, (long) Math.ceil(n * percentil / 100));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cubetas.get(i);
+            if (acumulado >= rango)
+                return Math.min(limiteSuperior(i), maximo.get());
+        }
+        return maximo.get();
+    }
+
+    /**
+     * Devuelve las muestras de una cubeta
+     *
+     * @param cubeta índice de la cubeta, de 0 a {@link HistogramaLatencia#CUBETAS} - 1
+     * @return muestras de la cubeta
+     */
+    public long getMuestras(int cubeta) {
+        return cubetas.get(cubeta);
+    }
+
+    /**
+     * Devuelve la cubeta en la que cae una latencia
+     *
+     * @param nanos latencia en nanosegundos, no negativa
+     * @return índice de la cubeta
+     */
+    public static int cubeta(long nanos) {
+        if (nanos < SUBCUBETAS)
+            return (int) nanos;
+
+        int exponente = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponente - BITS_SUBCUBETA)) & (SUBCUBETAS - 1);
+        return (exponente - BITS_SUBCUBETA + 1) * SUBCUBETAS + sub;
+    }
+
+    /**
+     * Devuelve la menor latencia que cae en una cubeta
+     *
+     * @param cubeta índice de la cubeta
+     * @return límite inferior en nanosegundos
+     */
+    public static long limiteInferior(int cubeta) {
+        if (cubeta < SUBCUBETAS)
+            return cubeta;
+
+        int exponente = cubeta / SUBCUBETAS + BITS_SUBCUBETA - 1;
+        return (long) (SUBCUBETAS + cubeta % SUBCUBETAS) << (exponente - BITS_SUBCUBETA);
+    }
+
+    /**
+     * Devuelve la mayor latencia que cae en una cubeta
+     *
+     * @param cubeta índice de la cubeta
+     * @return límite superior en nanosegundos, incluido
+     */
+    public static long limiteSuperior(int cubeta) {
+        return cubeta == CUBETAS - 1 ? Long.MAX_VALUE : limiteInferior(cubeta + 1) - 1;
+    }
+
+    /**
+     * Escribe el resumen y las cubetas con muestras, en microsegundos
+     *
+     * @param salida  salida, por ejemplo la de {@code Service#dump}
+     * @param sangria texto al principio de cada línea
+     */
+    public void escribir(PrintWriter salida, String sangria) {
+        salida.print(sangria);
+        salida.println(this);
+        for (int i = 0; i < CUBETAS; i++) {
+            long n = cubetas.get(i);
+            if (n == 0)
+                continue;
+
+            salida.print(sangria);
+            salida.print("  ");
+            salida.print(microsegundos(limiteInferior(i)));
+            salida.print(" - ");
+            salida.print(microsegundos(limiteSuperior(i)));
+            salida.print(" us: ");
+            salida.println(n);
+        }
+    }
+
+    private static String microsegundos(long nanos) {
+        return nanos < 1000 ? String.valueOf(nanos / 1000.0) : String.valueOf(nanos / 1000);
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getMuestras() + " media=" + getMedia() / 1000 + "us p50=" + getPercentil(50) / 1000 + "us p90="
+                + getPercentil(90) / 1000 + "us p99=" + getPercentil(99) / 1000 + "us max=" + getMaximo() / 1000 + "us";
+    }
+}
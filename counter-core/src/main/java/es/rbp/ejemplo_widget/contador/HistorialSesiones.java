@@ -0,0 +1,515 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Guarda el historial de las sesiones de la cuenta principal, desde que se empieza hasta que se detiene, en un registro binario al que
+ * solo se añade al final.
+ * <p>
+ * Cada sesión ocupa un registro de {@link HistorialSesiones#TAMANO_REGISTRO} bytes con el inicio y el fin en el reloj de pared, los
+ * milisegundos contados y el número de pausas, y un CRC32 para descartar un registro a medias si el proceso muere mientras se escribe.
+ * Los registros se agrupan en páginas de {@link HistorialSesiones#REGISTROS_POR_PAGINA}. Un índice disperso, guardado en un segundo
+ * archivo, tiene el primer y el último inicio de cada página, así que una consulta por rango de fechas solo lee las páginas que pueden
+ * tener sesiones del rango. Al abrir solo se lee el índice y la última página.
+ * <p>
+ * Solo se escribe al terminar una sesión, nunca en cada tick. Las escrituras y las lecturas usan buffers que se reutilizan
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class HistorialSesiones implements Closeable {
+
+    /**
+     * Tamaño de cada registro: inicio, fin, milisegundos contados, pausas y CRC32
+     */
+    public static final int TAMANO_REGISTRO = 32;
+
+    /**
+     * Registros de cada página, que ocupa 4 KB
+     */
+    public static final int REGISTROS_POR_PAGINA = 128;
+
+    /**
+     * Número mágico de la cabecera del registro
+     */
+    private static final int MAGIA_REGISTRO = 0x45534853;
+
+    /**
+     * Número mágico de la cabecera del índice
+     */
+    private static final int MAGIA_INDICE = 0x45534849;
+
+    /**
+     * Versión del formato de los archivos
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Tamaño de la cabecera del registro, igual que el de un registro
+     */
+    private static final int TAMANO_CABECERA = TAMANO_REGISTRO;
+
+    /**
+     * Tamaño de la cabecera del índice
+     */
+    private static final int TAMANO_CABECERA_INDICE = 16;
+
+    /**
+     * Tamaño de cada entrada del índice: el primer y el último inicio de la página
+     */
+    private static final int TAMANO_ENTRADA = 16;
+
+    private static final int TAMANO_PAGINA = TAMANO_REGISTRO * REGISTROS_POR_PAGINA;
+
+    /**
+     * Valor de {@link HistorialSesiones#consultarPagina(int, long, long, Visitante)} cuando ya no quedan páginas con sesiones del rango
+     */
+    public static final int FIN_CONSULTA = -1;
+
+    private static final int POS_INICIO = 0;
+    private static final int POS_FIN = 8;
+    private static final int POS_MILIS = 16;
+    private static final int POS_PAUSAS = 24;
+    private static final int POS_CRC = 28;
+
+    private final RandomAccessFile archivoRegistro;
+
+    private final RandomAccessFile archivoIndice;
+
+    private final FileChannel registro;
+
+    private final FileChannel indice;
+
+    /**
+     * Buffer de un registro para escribirlo y comprobar su CRC
+     */
+    private final ByteBuffer bufferRegistro = ByteBuffer.allocate(TAMANO_REGISTRO).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Buffer de una entrada del índice
+     */
+    private final ByteBuffer bufferEntrada = ByteBuffer.allocate(TAMANO_ENTRADA).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Buffer de una página para las consultas
+     */
+    private final ByteBuffer bufferPagina = ByteBuffer.allocateDirect(TAMANO_PAGINA).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Menor inicio de cada página
+     */
+    private long[] minimos = new long[16];
+
+    /**
+     * Mayor inicio de cada página
+     */
+    private long[] maximos = new long[16];
+
+    /**
+     * Mayor inicio desde la primera página hasta cada página. Nunca decrece, por lo que se puede buscar la primera página de una consulta
+     * con una búsqueda binaria aunque el reloj de pared haya retrocedido alguna vez
+     */
+    private long[] maximosAcumulados = new long[16];
+
+    /**
+     * Número de sesiones guardadas
+     */
+    private long sesiones;
+
+    /**
+     * Indica si ninguna página tiene inicios anteriores a los de las páginas previas, lo normal salvo que el reloj de pared haya
+     * retrocedido. Si es así, una consulta deja de leer en la primera página posterior al rango
+     */
+    private boolean ordenado = true;
+
+    /**
+     * Páginas leídas por las consultas desde que se abrió el historial
+     */
+    private long paginasLeidas;
+
+    /**
+     * Abre el historial o lo crea si no existe.
+     * <p>
+     * Si el último registro está a medias se descarta, y si el índice no está al día con el registro se reconstruye lo que falta
+     *
+     * @param rutaRegistro ruta del archivo de sesiones
+     * @param rutaIndice   ruta del archivo del índice
+     * @throws IOException si no se pueden abrir los archivos o el archivo de sesiones no es un historial
+     */
+    public HistorialSesiones(File rutaRegistro, File rutaIndice) throws IOException {
+        archivoRegistro = new RandomAccessFile(rutaRegistro, "rw");
+        archivoIndice = new RandomAccessFile(rutaIndice, "rw");
+        registro = archivoRegistro.getChannel();
+        indice = archivoIndice.getChannel();
+        try {
+            abrirRegistro();
+            abrirIndice();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Añade una sesión terminada al final del historial y actualiza la entrada de su página en el índice
+     *
+     * @param inicio        instante de inicio en el reloj de pared
+     * @param fin           instante de fin en el reloj de pared
+     * @param milisContados milisegundos de cuenta, descontando las pausas
+     * @param pausas        número de pausas
+     * @throws IOException si no se puede escribir
+     */
+    public synchronized void agregar(long inicio, long fin, long milisContados, int pausas) throws IOException {
+        bufferRegistro.clear();
+        bufferRegistro.putLong(POS_INICIO, inicio);
+        bufferRegistro.putLong(POS_FIN, fin);
+        bufferRegistro.putLong(POS_MILIS, milisContados);
+        bufferRegistro.putInt(POS_PAUSAS, pausas);
+        bufferRegistro.putInt(POS_CRC, calcularCrc());
+        escribir(registro, bufferRegistro, posicionRegistro(sesiones));
+
+        int pagina = (int) (sesiones / REGISTROS_POR_PAGINA);
+        if (sesiones % REGISTROS_POR_PAGINA == 0)
+            nuevaPagina(pagina, inicio);
+        else
+            ampliarPagina(pagina, inicio);
+        sesiones++;
+        escribirEntrada(pagina);
+    }
+
+    /**
+     * Recorre las sesiones que empezaron dentro de un rango, en el orden en el que se guardaron, leyendo solo las páginas que pueden
+     * tenerlas
+     *
+     * @param desde     primer instante del rango en el reloj de pared, incluido
+     * @param hasta     último instante del rango en el reloj de pared, excluido
+     * @param visitante recibe cada sesión del rango
+     * @return número de sesiones del rango
+     * @throws IOException si no se puede leer
+     */
+    public synchronized int consultar(long desde, long hasta, Visitante visitante) throws IOException {
+        int paginas = getPaginas();
+        int encontradas = 0;
+        for (int pagina = primeraPagina(desde, paginas); pagina < paginas; pagina++) {
+            if (minimos[pagina] >= hasta) {
+                if (ordenado)
+                    break;
+                continue;
+            }
+            if (maximos[pagina] < desde)
+                continue;
+
+            encontradas += visitarPagina(pagina, desde, hasta, visitante);
+        }
+        return encontradas;
+    }
+
+    /**
+     * Recorre las sesiones del rango de una sola página, la siguiente a partir de la indicada que puede tenerlas.
+     * <p>
+     * A diferencia de {@link HistorialSesiones#consultar(long, long, Visitante)}, solo retiene el historial mientras lee esa página,
+     * así que un recorrido largo, como una exportación de meses de sesiones, no retrasa {@link HistorialSesiones#agregar} más de lo que
+     * se tarda en leer 4 KB. Se empieza en la página 0 y se sigue con la que devuelve cada llamada
+     *
+     * @param pagina    página desde la que se busca
+     * @param desde     primer instante del rango en el reloj de pared, incluido
+     * @param hasta     último instante del rango en el reloj de pared, excluido
+     * @param visitante recibe cada sesión del rango de la página, como mucho {@link HistorialSesiones#REGISTROS_POR_PAGINA}
+     * @return página por la que seguir, o {@link HistorialSesiones#FIN_CONSULTA} si ya no quedan páginas con sesiones del rango
+     * @throws IOException si no se puede leer
+     */
+    public synchronized int consultarPagina(int pagina, long desde, long hasta, Visitante visitante) throws IOException {
+        int paginas = getPaginas();
+        for (pagina = Math.max(pagina, primeraPagina(desde, paginas)); pagina < paginas; pagina++) {
+            if (minimos[pagina] >= hasta) {
+                if (ordenado)
+                    return FIN_CONSULTA;
+                continue;
+            }
+            if (maximos[pagina] < desde)
+                continue;
+
+            visitarPagina(pagina, desde, hasta, visitante);
+            return pagina + 1;
+        }
+        return FIN_CONSULTA;
+    }
+
+    /**
+     * Devuelve el número de sesiones guardadas
+     *
+     * @return sesiones guardadas
+     */
+    public synchronized long getSesiones() {
+        return sesiones;
+    }
+
+    /**
+     * Devuelve las páginas leídas por las consultas desde que se abrió el historial
+     *
+     * @return páginas leídas
+     */
+    public synchronized long getPaginasLeidas() {
+        return paginasLeidas;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            archivoRegistro.close();
+        } finally {
+            archivoIndice.close();
+        }
+    }
+
+    /**
+     * Comprueba la cabecera del registro, o la escribe si el archivo es nuevo, y descarta los registros a medias del final
+     */
+    private void abrirRegistro() throws IOException {
+        long longitud = registro.size();
+        if (longitud < TAMANO_CABECERA) {
+            bufferRegistro.clear();
+            for (int i = 0; i < TAMANO_CABECERA; i++)
+                bufferRegistro.put(i, (byte) 0);
+            bufferRegistro.putInt(0, MAGIA_REGISTRO);
+            bufferRegistro.putInt(4, VERSION);
+            bufferRegistro.putInt(8, TAMANO_REGISTRO);
+            bufferRegistro.putInt(12, REGISTROS_POR_PAGINA);
+            registro.truncate(0);
+            escribir(registro, bufferRegistro, 0);
+            return;
+        }
+
+        leer(registro, bufferRegistro, 0, TAMANO_CABECERA);
+        if (bufferRegistro.getInt(0) != MAGIA_REGISTRO || bufferRegistro.getInt(4) != VERSION)
+            throw new IOException("El archivo no es un historial de sesiones");
+
+        // Solo se puede quedar a medias la última escritura
+        sesiones = (longitud - TAMANO_CABECERA) / TAMANO_REGISTRO;
+        while (sesiones > 0) {
+            leer(registro, bufferRegistro, posicionRegistro(sesiones - 1), TAMANO_REGISTRO);
+            if (bufferRegistro.getInt(POS_CRC) == calcularCrc())
+                break;
+            sesiones--;
+        }
+        if (registro.size() != posicionRegistro(sesiones))
+            registro.truncate(posicionRegistro(sesiones));
+    }
+
+    /**
+     * Carga el índice en memoria. Las entradas que faltan y la de la última página, que puede no estar al día si el proceso murió entre
+     * la escritura del registro y la del índice, se reconstruyen leyendo sus páginas
+     */
+    private void abrirIndice() throws IOException {
+        int paginas = getPaginas();
+        reservar(paginas);
+
+        int validas = 0;
+        if (indice.size() >= TAMANO_CABECERA_INDICE) {
+            leer(indice, bufferEntrada, 0, TAMANO_CABECERA_INDICE);
+            if (bufferEntrada.getInt(0) == MAGIA_INDICE && bufferEntrada.getInt(4) == VERSION)
+                validas = (int) Math.min((indice.size() - TAMANO_CABECERA_INDICE) / TAMANO_ENTRADA, paginas);
+        }
+        if (validas == 0) {
+            bufferEntrada.clear();
+            for (int i = 0; i < TAMANO_CABECERA_INDICE; i++)
+                bufferEntrada.put(i, (byte) 0);
+            bufferEntrada.putInt(0, MAGIA_INDICE);
+            bufferEntrada.putInt(4, VERSION);
+            indice.truncate(0);
+            escribir(indice, bufferEntrada, 0);
+        }
+
+        // Las entradas se leen de una vez: 16 bytes por cada 4 KB de sesiones
+        if (validas > 0) {
+            ByteBuffer entradas = ByteBuffer.allocate(validas * TAMANO_ENTRADA).order(ByteOrder.LITTLE_ENDIAN);
+            leer(indice, entradas, TAMANO_CABECERA_INDICE, entradas.capacity());
+            for (int pagina = 0; pagina < validas; pagina++) {
+                minimos[pagina] = entradas.getLong(pagina * TAMANO_ENTRADA);
+                maximos[pagina] = entradas.getLong(pagina * TAMANO_ENTRADA + 8);
+            }
+        }
+
+        for (int pagina = Math.max(validas - 1, 0); pagina < paginas; pagina++) {
+            int registros = leerPagina(pagina);
+            minimos[pagina] = Long.MAX_VALUE;
+            maximos[pagina] = Long.MIN_VALUE;
+            for (int i = 0; i < registros; i++) {
+                long inicio = bufferPagina.getLong(i * TAMANO_REGISTRO + POS_INICIO);
+                minimos[pagina] = Math.min(minimos[pagina], inicio);
+                maximos[pagina] = Math.max(maximos[pagina], inicio);
+            }
+            escribirEntrada(pagina);
+        }
+        paginasLeidas = 0;
+
+        long acumulado = Long.MIN_VALUE;
+        for (int pagina = 0; pagina < paginas; pagina++) {
+            if (pagina > 0 && minimos[pagina] < acumulado)
+                ordenado = false;
+            acumulado = Math.max(acumulado, maximos[pagina]);
+            maximosAcumulados[pagina] = acumulado;
+        }
+        if (indice.size() > TAMANO_CABECERA_INDICE + (long) paginas * TAMANO_ENTRADA)
+            indice.truncate(TAMANO_CABECERA_INDICE + (long) paginas * TAMANO_ENTRADA);
+    }
+
+    /**
+     * Empieza la entrada del índice de una página nueva
+     */
+    private void nuevaPagina(int pagina, long inicio) {
+        reservar(pagina + 1);
+        long acumulado = pagina == 0 ? Long.MIN_VALUE : maximosAcumulados[pagina - 1];
+        if (inicio < acumulado)
+            ordenado = false;
+        minimos[pagina] = inicio;
+        maximos[pagina] = inicio;
+        maximosAcumulados[pagina] = Math.max(acumulado, inicio);
+    }
+
+    /**
+     * Añade un inicio a la entrada del índice de la última página. Dentro de una página el orden da igual, ya que se leen todos sus
+     * registros
+     */
+    private void ampliarPagina(int pagina, long inicio) {
+        if (pagina > 0 && inicio < maximosAcumulados[pagina - 1])
+            ordenado = false;
+        minimos[pagina] = Math.min(minimos[pagina], inicio);
+        maximos[pagina] = Math.max(maximos[pagina], inicio);
+        maximosAcumulados[pagina] = Math.max(maximosAcumulados[pagina], inicio);
+    }
+
+    /**
+     * Devuelve la primera página cuyo mayor inicio acumulado no es anterior al rango
+     */
+    private int primeraPagina(long desde, int paginas) {
+        int bajo = 0;
+        int alto = paginas;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (maximosAcumulados[medio] < desde)
+                bajo = medio + 1;
+            else
+                alto = medio;
+        }
+        return bajo;
+    }
+
+    /**
+     * Lee una página y pasa al visitante sus sesiones del rango
+     *
+     * @return número de sesiones del rango en la página
+     */
+    private int visitarPagina(int pagina, long desde, long hasta, Visitante visitante) throws IOException {
+        int registros = leerPagina(pagina);
+        int encontradas = 0;
+        for (int i = 0; i < registros; i++) {
+            int pos = i * TAMANO_REGISTRO;
+            long inicio = bufferPagina.getLong(pos + POS_INICIO);
+            if (inicio < desde || inicio >= hasta)
+                continue;
+
+            encontradas++;
+            visitante.visitar(inicio, bufferPagina.getLong(pos + POS_FIN), bufferPagina.getLong(pos + POS_MILIS),
+                    bufferPagina.getInt(pos + POS_PAUSAS));
+        }
+        return encontradas;
+    }
+
+    /**
+     * Lee los registros de una página en {@link HistorialSesiones#bufferPagina}
+     *
+     * @return número de registros de la página
+     */
+    private int leerPagina(int pagina) throws IOException {
+        long primero = (long) pagina * REGISTROS_POR_PAGINA;
+        int registros = (int) Math.min(REGISTROS_POR_PAGINA, sesiones - primero);
+        leer(registro, bufferPagina, posicionRegistro(primero), registros * TAMANO_REGISTRO);
+        paginasLeidas++;
+        return registros;
+    }
+
+    private void escribirEntrada(int pagina) throws IOException {
+        bufferEntrada.clear();
+        bufferEntrada.putLong(0, minimos[pagina]);
+        bufferEntrada.putLong(8, maximos[pagina]);
+        escribir(indice, bufferEntrada, TAMANO_CABECERA_INDICE + (long) pagina * TAMANO_ENTRADA);
+    }
+
+    /**
+     * Amplía los arrays del índice para que quepan las páginas indicadas
+     */
+    private void reservar(int paginas) {
+        if (paginas <= minimos.length)
+            return;
+
+        int capacidad = Math.max(paginas, minimos.length * 2);
+        minimos = Arrays.copyOf(minimos, capacidad);
+        maximos = Arrays.copyOf(maximos, capacidad);
+        maximosAcumulados = Arrays.copyOf(maximosAcumulados, capacidad);
+    }
+
+    /**
+     * Calcula el CRC32 de los datos de {@link HistorialSesiones#bufferRegistro}
+     */
+    private int calcularCrc() {
+        crc.reset();
+        crc.update(bufferRegistro.array(), 0, POS_CRC);
+        return (int) crc.getValue();
+    }
+
+    private int getPaginas() {
+        return (int) ((sesiones + REGISTROS_POR_PAGINA - 1) / REGISTROS_POR_PAGINA);
+    }
+
+    private static long posicionRegistro(long sesion) {
+        return TAMANO_CABECERA + sesion * TAMANO_REGISTRO;
+    }
+
+    /**
+     * Escribe el buffer entero en una posición del archivo
+     */
+    private static void escribir(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining())
+            posicion += canal.write(buffer, posicion);
+    }
+
+    /**
+     * Lee bytes de una posición del archivo al principio del buffer
+     */
+    private static void leer(FileChannel canal, ByteBuffer buffer, long posicion, int bytes) throws IOException {
+        buffer.clear();
+        buffer.limit(bytes);
+        while (buffer.hasRemaining()) {
+            int leidos = canal.read(buffer, posicion);
+            if (leidos < 0)
+                throw new IOException("Fin del archivo en la posición " + posicion);
+            posicion += leidos;
+        }
+    }
+
+    /**
+     * Recibe las sesiones de una consulta
+     */
+    public interface Visitante {
+        /**
+         * Recibe una sesión
+         *
+         * @param inicio        instante de inicio en el reloj de pared
+         * @param fin           instante de fin en el reloj de pared
+         * @param milisContados milisegundos de cuenta, descontando las pausas
+         * @param pausas        número de pausas
+         */
+        void visitar(long inicio, long fin, long milisContados, int pausas);
+    }
+}
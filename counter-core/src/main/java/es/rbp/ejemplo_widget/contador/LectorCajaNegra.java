@@ -0,0 +1,165 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Convierte un volcado de {@link CajaNegra} en una línea de tiempo legible.
+ * <p>
+ * Se puede usar desde la JVM con un volcado sacado del dispositivo:
+ * {@code adb exec-out run-as es.rbp.ejemplo_widget cat files/caja_negra.bin > caja_negra.bin} y
+ * {@code java -cp counter-core.jar es.rbp.ejemplo_widget.contador.LectorCajaNegra caja_negra.bin}
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class LectorCajaNegra {
+
+    private static final String[] ORIGENES = {"servicio", "widget", "notificación", "activity", "desconocido"};
+
+    private static final String[] EVENTOS = {"comando", "RECHAZADO", "transición", "vuelta", "restaurado"};
+
+    private static final String[] COMANDOS = {"empezar", "pausar", "reanudar", "parar"};
+
+    private static final String[] ESTADOS = {"?", "pausado", "corriendo", "detenido"};
+
+    private LectorCajaNegra() {
+    }
+
+    /**
+     * Lee un volcado
+     *
+     * @param entrada flujo con el volcado, que no se cierra
+     * @return eventos del más antiguo al más reciente
+     * @throws IOException si no se puede leer o no es un volcado de {@link CajaNegra}
+     */
+    public static List<Evento> leer(InputStream entrada) throws IOException {
+        DataInputStream datos = new DataInputStream(entrada);
+        if (datos.readInt() != CajaNegra.MAGIA)
+            throw new IOException("No es un volcado de la caja negra");
+        int version = datos.readInt();
+        if (version != CajaNegra.VERSION)
+            throw new IOException("Versión del volcado no soportada: " + version);
+
+        datos.readInt();
+        int numero = datos.readInt();
+        List<Evento> eventos = new ArrayList<>(numero);
+        for (int i = 0; i < numero; i++) {
+            long instante = datos.readLong();
+            long campos = datos.readLong();
+            long latencia = datos.readLong();
+            long secuencia = datos.readLong();
+            eventos.add(new Evento(secuencia, instante, campos, latencia));
+        }
+        return eventos;
+    }
+
+    /**
+     * Escribe los eventos como una línea de tiempo, con el instante de cada uno relativo al primero
+     *
+     * @param eventos eventos del más antiguo al más reciente
+     * @param salida  salida
+     */
+    public static void escribir(List<Evento> eventos, PrintWriter salida) {
+        if (eventos.isEmpty()) {
+            salida.println("Sin eventos");
+            return;
+        }
+
+        long primero = eventos.get(0).instanteNanos;
+        long anterior = -1;
+        for (Evento evento : eventos) {
+            // Los huecos en la secuencia son eventos que se sobrescribieron mientras se volcaba
+            if (anterior >= 0 && evento.secuencia != anterior + 1)
+                salida.println("  ... " + (evento.secuencia - anterior - 1) + " eventos perdidos");
+            anterior = evento.secuencia;
+            salida.print(String.format("%10.3f ms  ", (evento.instanteNanos - primero) / 1e6));
+            salida.println(evento);
+        }
+    }
+
+    /**
+     * Escribe en la salida estándar la línea de tiempo de los volcados indicados
+     *
+     * @param args rutas de los volcados
+     * @throws IOException si no se puede leer algún volcado
+     */
+    public static void main(String[] args) throws IOException {
+        PrintWriter salida = new PrintWriter(System.out, true);
+        for (String ruta : args) {
+            salida.println(ruta + ":");
+            try (InputStream entrada = new BufferedInputStream(new FileInputStream(ruta))) {
+                escribir(leer(entrada), salida);
+            }
+        }
+    }
+
+    private static String nombre(String[] nombres, int valor) {
+        return valor >= 0 && valor < nombres.length ? nombres[valor] : String.valueOf(valor);
+    }
+
+    /**
+     * Evento leído de un volcado
+     */
+    public static class Evento {
+
+        /**
+         * Número de secuencia del evento en la caja negra
+         */
+        public final long secuencia;
+
+        /**
+         * Instante del evento en nanosegundos del reloj monótono
+         */
+        public final long instanteNanos;
+
+        public final int origen;
+
+        public final int evento;
+
+        /**
+         * Comando de {@link MaquinaEstados}, o {@link CajaNegra#SIN_COMANDO}
+         */
+        public final int comando;
+
+        public final int anterior;
+
+        public final int nuevo;
+
+        public final int idContador;
+
+        public final long latenciaNanos;
+
+        Evento(long secuencia, long instanteNanos, long campos, long latenciaNanos) {
+            this.secuencia = secuencia;
+            this.instanteNanos = instanteNanos;
+            this.origen = (int) (campos >>> 56);
+            this.evento = (int) (campos >>> 48) & 0xFF;
+            this.comando = (int) (campos >>> 40) & 0xFF;
+            this.anterior = (int) (campos >>> 32) & 0xFF;
+            this.nuevo = (int) (campos >>> 24) & 0xFF;
+            this.idContador = (int) campos & 0xFFFFFF;
+            this.latenciaNanos = latenciaNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder texto = new StringBuilder()
+                    .append('#').append(secuencia).append(' ')
+                    .append(nombre(ORIGENES, origen)).append(' ')
+                    .append(nombre(EVENTOS, evento));
+            if (comando != CajaNegra.SIN_COMANDO)
+                texto.append(' ').append(nombre(COMANDOS, comando));
+            texto.append(' ').append(nombre(ESTADOS, anterior)).append(" -> ").append(nombre(ESTADOS, nuevo))
+                    .append(" cuenta ").append(idContador);
+            if (latenciaNanos > 0)
+                texto.append(String.format(" latencia %.3f ms", latenciaNanos / 1e6));
+            return texto.toString();
+        }
+    }
+}
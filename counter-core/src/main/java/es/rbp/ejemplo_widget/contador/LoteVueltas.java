@@ -0,0 +1,80 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Cambios de la lista de vueltas desde la última lectura de un lector de {@link RegistroVueltas}.
+ * <p>
+ * Cada lector tiene su propio lote, que se reutiliza en cada lectura y guarda hasta dónde ha leído. Los arrays solo crecen cuando
+ * llegan más vueltas de golpe que en cualquier lectura anterior, así que leer las vueltas nuevas no crea objetos
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class LoteVueltas {
+
+    /**
+     * Indica si el lector tiene que vaciar su lista antes de añadir las vueltas del lote, porque ha empezado otra sesión o se han
+     * sobrescrito vueltas que no había leído
+     */
+    public boolean reinicio;
+
+    /**
+     * Número de la primera vuelta del lote, empezando en 0
+     */
+    public long primera;
+
+    /**
+     * Número de vueltas del lote
+     */
+    public int tamano;
+
+    /**
+     * Tiempo de cuenta de cada vuelta del lote, en nanosegundos. Solo son válidas las primeras {@link LoteVueltas#tamano}
+     */
+    public long[] splits = new long[0];
+
+    /**
+     * Duración de cada vuelta del lote, en nanosegundos. Solo son válidas las primeras {@link LoteVueltas#tamano}
+     */
+    public long[] duraciones = new long[0];
+
+    /**
+     * Vueltas de la sesión, incluidas las que ya no se conservan
+     */
+    public long vueltas;
+
+    /**
+     * Duración de la vuelta más rápida de la sesión, en nanosegundos
+     */
+    public long mejor;
+
+    /**
+     * Duración de la vuelta más lenta de la sesión, en nanosegundos
+     */
+    public long peor;
+
+    /**
+     * Duración media de las vueltas de la sesión, en nanosegundos
+     */
+    public long media;
+
+    /**
+     * Sesión de la última lectura, o -1 si no se ha leído nunca
+     */
+    int generacion = -1;
+
+    /**
+     * Número de vueltas leídas de la sesión
+     */
+    long cursor;
+
+    /**
+     * Asegura que caben las vueltas indicadas
+     */
+    void preparar(int tamano) {
+        if (splits.length >= tamano)
+            return;
+
+        int capacidad = Math.max(tamano, splits.length * 2);
+        splits = new long[capacidad];
+        duraciones = new long[capacidad];
+    }
+}
@@ -0,0 +1,240 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Máquina de estados de la cuenta sin cerrojos.
+ * <p>
+ * El estado y una versión se guardan en una sola palabra atómica. Cada comando busca el nuevo estado en
+ * {@link MaquinaEstados#TRANSICIONES} y lo aplica con compare-and-set, por lo que si llegan a la vez comandos desde el widget,
+ * la notificación y la activity, cada uno se aplica sobre el estado que ha dejado el anterior y los que no tienen sentido se rechazan.
+ * <p>
+ * La versión aumenta en cada transición y permite ordenar los efectos de transiciones que se han aplicado desde hilos distintos. Tiene
+ * {@value #BITS_VERSION} bits y vuelve a 0 al pasar del máximo, así que se compara con {@link MaquinaEstados#esPosterior(int, int)}.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class MaquinaEstados {
+
+    /**
+     * Estado de la cuenta que indica que la cuenta está pausada
+     */
+    public static final int ESTADO_PAUSADO = 1;
+    /**
+     * Estado de la cuenta que indica que la cuenta está en marcha
+     */
+    public static final int ESTADO_CORRIENDO = 2;
+    /**
+     * Estado de la cuenta que indica que la cuenta está detenida
+     */
+    public static final int ESTADO_DETENIDO = 3;
+
+    /**
+     * Comando para empezar la cuenta, o reanudarla si está pausada
+     */
+    public static final int COMANDO_EMPEZAR = 0;
+    /**
+     * Comando para pausar la cuenta
+     */
+    public static final int COMANDO_PAUSAR = 1;
+    /**
+     * Comando para reanudar la cuenta pausada
+     */
+    public static final int COMANDO_REANUDAR = 2;
+    /**
+     * Comando para detener la cuenta
+     */
+    public static final int COMANDO_PARAR = 3;
+
+    /**
+     * Valor que devuelve {@link MaquinaEstados#aplicar(int)} cuando el comando no es válido en el estado actual
+     */
+    public static final long RECHAZADA = -1;
+
+    /**
+     * Valor de la tabla de transiciones para los comandos que no son válidos en un estado
+     */
+    private static final int INVALIDA = 0;
+
+    /**
+     * Bits de la palabra de estado que ocupa el estado. El resto es la versión
+     */
+    private static final int BITS_ESTADO = 2;
+
+    /**
+     * Bits de la palabra de estado que ocupa la versión, ya que el bit de signo nunca se usa
+     */
+    public static final int BITS_VERSION = 31 - BITS_ESTADO;
+
+    /**
+     * Desplazamiento que lleva el bit alto de la versión al bit de signo de un int
+     */
+    private static final int DESPLAZAMIENTO_SERIE = Integer.SIZE - BITS_VERSION;
+
+    /**
+     * Máscara del estado dentro de la palabra de estado
+     */
+    private static final int MASCARA_ESTADO = (1 << BITS_ESTADO) - 1;
+
+    /**
+     * Máscara de la palabra de estado para que nunca sea negativa
+     */
+    private static final int MASCARA_PALABRA = Integer.MAX_VALUE;
+
+    /**
+     * Tabla de transiciones indexada por [estado][comando]. Contiene el nuevo estado o {@link MaquinaEstados#INVALIDA}
+     */
+    private static final int[][] TRANSICIONES = new int[4][4];
+
+    static {
+        TRANSICIONES[ESTADO_DETENIDO][COMANDO_EMPEZAR] = ESTADO_CORRIENDO;
+        TRANSICIONES[ESTADO_CORRIENDO][COMANDO_PAUSAR] = ESTADO_PAUSADO;
+        TRANSICIONES[ESTADO_CORRIENDO][COMANDO_PARAR] = ESTADO_DETENIDO;
+        TRANSICIONES[ESTADO_PAUSADO][COMANDO_EMPEZAR] = ESTADO_CORRIENDO;
+        TRANSICIONES[ESTADO_PAUSADO][COMANDO_REANUDAR] = ESTADO_CORRIENDO;
+        TRANSICIONES[ESTADO_PAUSADO][COMANDO_PARAR] = ESTADO_DETENIDO;
+    }
+
+    /**
+     * Palabra de estado con la que se crea la máquina
+     */
+    private final int palabraInicial;
+
+    /**
+     * Palabra de estado, con la versión en los bits altos y el estado en los {@link MaquinaEstados#BITS_ESTADO} bajos
+     */
+    private final AtomicInteger palabra;
+
+    /**
+     * Crea la máquina con la cuenta detenida y la versión 0
+     */
+    public MaquinaEstados() {
+        this(0);
+    }
+
+    /**
+     * Crea la máquina con la cuenta detenida en una versión, para comprobar el paso de la versión por 0 sin aplicar
+     * 2^{@value #BITS_VERSION} comandos
+     *
+     * @param version versión inicial
+     */
+    MaquinaEstados(int version) {
+        palabraInicial = ((version << BITS_ESTADO) | ESTADO_DETENIDO) & MASCARA_PALABRA;
+        palabra = new AtomicInteger(palabraInicial);
+    }
+
+    /**
+     * Aplica un comando sobre el estado actual
+     *
+     * @param comando comando que se aplica
+     * @return la transición aplicada, o {@link MaquinaEstados#RECHAZADA} si el comando no es válido en el estado actual
+     * @see MaquinaEstados#anterior(long)
+     * @see MaquinaEstados#nuevo(long)
+     * @see MaquinaEstados#version(long)
+     */
+    public long aplicar(int comando) {
+        while (true) {
+            int actual = palabra.get();
+            int nuevoEstado = TRANSICIONES[actual & MASCARA_ESTADO][comando];
+            if (nuevoEstado == INVALIDA)
+                return RECHAZADA;
+
+            int siguiente = ((((actual >>> BITS_ESTADO) + 1) << BITS_ESTADO) | nuevoEstado) & MASCARA_PALABRA;
+            if (palabra.compareAndSet(actual, siguiente))
+                return ((long) siguiente << 32) | actual;
+        }
+    }
+
+    /**
+     * Restaura el estado guardado de la cuenta. Solo tiene efecto si aún no se ha aplicado ningún comando
+     *
+     * @param estado estado restaurado
+     * @return true si se ha restaurado el estado
+     */
+    public boolean restaurar(int estado) {
+        return palabra.compareAndSet(palabraInicial, (palabraInicial & ~MASCARA_ESTADO) | estado);
+    }
+
+    /**
+     * Devuelve el estado actual de la cuenta
+     *
+     * @return estado actual
+     */
+    public int estado() {
+        return palabra.get() & MASCARA_ESTADO;
+    }
+
+    /**
+     * Devuelve la versión de la última transición aplicada
+     *
+     * @return versión actual
+     */
+    public int version() {
+        return palabra.get() >>> BITS_ESTADO;
+    }
+
+    /**
+     * Devuelve el estado anterior de una transición
+     *
+     * @param transicion transición devuelta por {@link MaquinaEstados#aplicar(int)}
+     * @return estado anterior
+     */
+    public static int anterior(long transicion) {
+        return (int) transicion & MASCARA_ESTADO;
+    }
+
+    /**
+     * Devuelve el nuevo estado de una transición
+     *
+     * @param transicion transición devuelta por {@link MaquinaEstados#aplicar(int)}
+     * @return nuevo estado
+     */
+    public static int nuevo(long transicion) {
+        return (int) (transicion >>> 32) & MASCARA_ESTADO;
+    }
+
+    /**
+     * Devuelve la versión de una transición. Las transiciones posteriores tienen una versión mayor salvo al volver a 0, así que las
+     * versiones se comparan con {@link MaquinaEstados#esPosterior(int, int)}
+     *
+     * @param transicion transición devuelta por {@link MaquinaEstados#aplicar(int)}
+     * @return versión de la transición
+     */
+    public static int version(long transicion) {
+        return (int) (transicion >>> 32) >>> BITS_ESTADO;
+    }
+
+    /**
+     * Compara dos versiones teniendo en cuenta que vuelven a 0 al pasar del máximo: una versión es posterior a otra si está
+     * menos de 2^({@value #BITS_VERSION} - 1) transiciones por delante de ella
+     *
+     * @param version versión que se compara
+     * @param otra    versión de referencia
+     * @return true si la versión es posterior a la de referencia
+     */
+    public static boolean esPosterior(int version, int otra) {
+        return (version - otra) << DESPLAZAMIENTO_SERIE > 0;
+    }
+
+    /**
+     * Indica si un valor es uno de los comandos. Los comandos que llegan de otro proceso se comprueban con este método antes de
+     * aplicarlos, ya que se usan como índice de {@link MaquinaEstados#TRANSICIONES}
+     *
+     * @param comando valor que se comprueba
+     * @return true si es uno de los COMANDO_
+     */
+    public static boolean esComando(int comando) {
+        return comando >= COMANDO_EMPEZAR && comando <= COMANDO_PARAR;
+    }
+
+    /**
+     * Indica el estado al que lleva un comando desde un estado, sin aplicarlo
+     *
+     * @param estado  estado de partida
+     * @param comando comando
+     * @return nuevo estado, o 0 si el comando no es válido en ese estado
+     */
+    public static int destino(int estado, int comando) {
+        return TRANSICIONES[estado][comando];
+    }
+}
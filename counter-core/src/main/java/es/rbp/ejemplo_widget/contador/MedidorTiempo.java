@@ -0,0 +1,48 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Acumula el tiempo que tarda una tarea que se repite para calcular la media cada cierto número de ejecuciones
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class MedidorTiempo {
+
+    /**
+     * Número de mediciones con las que se calcula cada media
+     */
+    private final int muestras;
+
+    /**
+     * Nanosegundos acumulados desde la última media
+     */
+    private long acumulado;
+
+    /**
+     * Mediciones acumuladas desde la última media
+     */
+    private int mediciones;
+
+    /**
+     * @param muestras número de mediciones con las que se calcula cada media
+     */
+    public MedidorTiempo(int muestras) {
+        this.muestras = muestras;
+    }
+
+    /**
+     * Añade una medición
+     *
+     * @param nanos nanosegundos que ha tardado la tarea
+     * @return media en nanosegundos si se han completado las muestras, o -1 si aún faltan mediciones
+     */
+    public long medir(long nanos) {
+        acumulado += nanos;
+        if (++mediciones < muestras)
+            return -1;
+
+        long media = acumulado / mediciones;
+        acumulado = 0;
+        mediciones = 0;
+        return media;
+    }
+}
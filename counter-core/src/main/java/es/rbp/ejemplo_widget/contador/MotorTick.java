@@ -0,0 +1,167 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Calcula el tiempo transcurrido de la cuenta a partir de anclas de tiempo en lugar de sumar un segundo en cada tick.
+ * <p>
+ * Todos los instantes que recibe son milisegundos de un reloj monótono, como {@code SystemClock.elapsedRealtime()}.
+ * El tiempo transcurrido es siempre {@code ahora - ancla - tiempoPausado}, por lo que el retraso con el que se ejecute cada tick
+ * no se acumula: un tick que llega tarde muestra el segundo correcto y el siguiente se programa para el próximo segundo entero.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class MotorTick {
+
+    /**
+     * Milisegundos que dura un segundo de la cuenta
+     */
+    public static final long MILIS_POR_SEGUNDO = 1000;
+
+    /**
+     * Valor de {@link MotorTick#inicioPausa} cuando la cuenta no está pausada
+     */
+    private static final long SIN_PAUSA = -1;
+
+    /**
+     * Instante en el que empezó la cuenta
+     */
+    private long ancla;
+
+    /**
+     * Milisegundos que la cuenta ha estado pausada desde que empezó
+     */
+    private long tiempoPausado;
+
+    /**
+     * Instante en el que se pausó la cuenta, o {@link MotorTick#SIN_PAUSA} si está en marcha
+     */
+    private long inicioPausa = SIN_PAUSA;
+
+    /**
+     * Indica si la cuenta ha empezado
+     */
+    private boolean empezado;
+
+    /**
+     * Empieza la cuenta desde cero
+     *
+     * @param ahora instante actual
+     */
+    public void empezar(long ahora) {
+        ancla = ahora;
+        tiempoPausado = 0;
+        inicioPausa = SIN_PAUSA;
+        empezado = true;
+    }
+
+    /**
+     * Pausa la cuenta. Si ya estaba pausada no hace nada
+     *
+     * @param ahora instante actual
+     */
+    public void pausar(long ahora) {
+        if (empezado && inicioPausa == SIN_PAUSA)
+            inicioPausa = ahora;
+    }
+
+    /**
+     * Reanuda la cuenta sumando el tiempo que ha estado pausada a {@link MotorTick#tiempoPausado}
+     *
+     * @param ahora instante actual
+     */
+    public void reanudar(long ahora) {
+        if (inicioPausa != SIN_PAUSA) {
+            tiempoPausado += ahora - inicioPausa;
+            inicioPausa = SIN_PAUSA;
+        }
+    }
+
+    /**
+     * Restaura una cuenta que llevaba los milisegundos indicados
+     *
+     * @param ahora           instante actual
+     * @param milisAcumulados milisegundos que llevaba la cuenta
+     * @param pausado         true si la cuenta estaba pausada
+     */
+    public void restaurar(long ahora, long milisAcumulados, boolean pausado) {
+        ancla = ahora - milisAcumulados;
+        tiempoPausado = 0;
+        inicioPausa = pausado ? ahora : SIN_PAUSA;
+        empezado = true;
+    }
+
+    /**
+     * Detiene la cuenta y reinicia las anclas
+     */
+    public void parar() {
+        ancla = 0;
+        tiempoPausado = 0;
+        inicioPausa = SIN_PAUSA;
+        empezado = false;
+    }
+
+    /**
+     * Indica si la cuenta ha empezado y no se ha detenido
+     *
+     * @return true si la cuenta ha empezado
+     */
+    public boolean estaEmpezado() {
+        return empezado;
+    }
+
+    /**
+     * Indica si la cuenta está pausada
+     *
+     * @return true si la cuenta está pausada
+     */
+    public boolean estaPausado() {
+        return inicioPausa != SIN_PAUSA;
+    }
+
+    /**
+     * Devuelve los milisegundos que lleva la cuenta en marcha, descontando las pausas
+     *
+     * @param ahora instante actual
+     * @return milisegundos transcurridos
+     */
+    public long milisTranscurridos(long ahora) {
+        if (!empezado)
+            return 0;
+
+        long fin = inicioPausa == SIN_PAUSA ? ahora : inicioPausa;
+        return fin - ancla - tiempoPausado;
+    }
+
+    /**
+     * Devuelve los segundos enteros que lleva la cuenta en marcha, descontando las pausas
+     *
+     * @param ahora instante actual
+     * @return segundos transcurridos
+     */
+    public int segundosTranscurridos(long ahora) {
+        return (int) (milisTranscurridos(ahora) / MILIS_POR_SEGUNDO);
+    }
+
+    /**
+     * Devuelve el instante en el que habría empezado la cuenta si nunca se hubiera pausado.
+     * <p>
+     * Es la base que necesita un {@code Chronometer} para mostrar la cuenta por sí solo.
+     *
+     * @param ahora instante actual
+     * @return base de la cuenta en la misma escala que ahora
+     */
+    public long base(long ahora) {
+        return ahora - milisTranscurridos(ahora);
+    }
+
+    /**
+     * Devuelve los milisegundos que faltan hasta el siguiente segundo entero de la cuenta.
+     * <p>
+     * El resultado está entre 1 y {@link MotorTick#MILIS_POR_SEGUNDO}, por lo que nunca se programa un tick inmediato.
+     *
+     * @param ahora instante actual
+     * @return milisegundos hasta el siguiente tick
+     */
+    public long retrasoSiguienteTick(long ahora) {
+        return MILIS_POR_SEGUNDO - milisTranscurridos(ahora) % MILIS_POR_SEGUNDO;
+    }
+}
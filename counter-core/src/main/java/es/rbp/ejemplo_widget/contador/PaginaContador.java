@@ -0,0 +1,382 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Página compartida en un archivo mapeado en memoria en la que el proceso de la cuenta publica su estado, para que las vistas de otro
+ * proceso lo lean sin ninguna llamada al servicio.
+ * <p>
+ * La protege un seqlock: el escritor pone la secuencia en impar, escribe los datos y la vuelve a poner en par, y el lector copia los
+ * datos entre dos lecturas de la secuencia y reintenta si no coinciden o son impares. Leer no toma cerrojos, no escribe en la página y
+ * no crea objetos, así que se puede hacer en cada fotograma.
+ * <p>
+ * El modelo de memoria de Java no dice nada del orden en el que otro proceso ve las escrituras de un {@link MappedByteBuffer}, así que
+ * los datos llevan además un CRC32, como los huecos de {@link AlmacenEstado}: la secuencia evita leer mientras se escribe y el CRC
+ * garantiza que nunca se acepta una copia mezclada de dos publicaciones.
+ * <p>
+ * Lo escrito sobrevive a la muerte del proceso de la cuenta, y el ancla sigue siendo válida mientras no se reinicie el dispositivo. Cada
+ * publicación lleva el ancla de arranque de {@link ArranqueDispositivo} para que los lectores lo comprueben.
+ * Si el proceso muere a mitad de una escritura la secuencia se queda impar y los lectores fallan hasta que el proceso vuelva a abrir
+ * la página y publique.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class PaginaContador implements Closeable {
+
+    /**
+     * Número mágico de la cabecera de la página
+     */
+    private static final int MAGIA = 0x50414743;
+
+    /**
+     * Versión del formato de la página
+     */
+    private static final int VERSION = 2;
+
+    private static final int POS_MAGIA = 0;
+    private static final int POS_VERSION = 4;
+
+    /**
+     * Secuencia del seqlock. Es impar mientras se escribe
+     */
+    private static final int POS_SECUENCIA = 8;
+
+    private static final int POS_ESTADO = 16;
+    private static final int POS_SEGUNDO = 20;
+    private static final int POS_CORRIENDO = 24;
+    private static final int POS_ANCLA = 32;
+    private static final int POS_MARCA = 40;
+    private static final int POS_VUELTAS = 48;
+    private static final int POS_MEJOR = 56;
+    private static final int POS_PEOR = 64;
+    private static final int POS_MEDIA = 72;
+    private static final int POS_ARRANQUE = 80;
+
+    /**
+     * CRC32 de los datos, de {@link PaginaContador#POS_ESTADO} hasta aquí
+     */
+    private static final int POS_CRC = 88;
+
+    /**
+     * Tamaño de la página
+     */
+    static final int TAMANO = 96;
+
+    /**
+     * Bytes que copia el lector: la secuencia, los datos y el CRC
+     */
+    private static final int TAMANO_DATOS = POS_CRC + 4 - POS_SECUENCIA;
+
+    /**
+     * Veces que el lector reintenta antes de rendirse, por ejemplo si el escritor murió a mitad de una escritura
+     */
+    static final int MAXIMO_INTENTOS = 64;
+
+    private final RandomAccessFile archivo;
+
+    private final MappedByteBuffer buffer;
+
+    private final CRC32 crc = new CRC32();
+
+    private long secuencia;
+
+    private int estado = MaquinaEstados.ESTADO_DETENIDO;
+    private int segundo;
+    private AnclaNanos ancla = AnclaNanos.DETENIDA;
+    private long marcaMonotona;
+    private long anclaArranque;
+    private long vueltas;
+    private long mejor;
+    private long peor;
+    private long media;
+
+    /**
+     * Abre la página para escribir en ella, o la crea si no existe. Solo puede haber un escritor, el proceso de la cuenta
+     *
+     * @param ruta ruta del archivo
+     * @throws IOException si no se puede abrir o mapear el archivo
+     */
+    public PaginaContador(File ruta) throws IOException {
+        archivo = new RandomAccessFile(ruta, "rw");
+        // No se trunca si ya tiene el tamaño, para que los lectores que la tienen mapeada sigan viendo la misma página
+        if (archivo.length() != TAMANO)
+            archivo.setLength(TAMANO);
+
+        buffer = archivo.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, TAMANO);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(POS_MAGIA) == MAGIA && buffer.getInt(POS_VERSION) == VERSION)
+            secuencia = buffer.getLong(POS_SECUENCIA) & ~1L;
+        buffer.putInt(POS_MAGIA, MAGIA);
+        buffer.putInt(POS_VERSION, VERSION);
+    }
+
+    /**
+     * Publica el estado de la cuenta
+     *
+     * @param estado        estado de la cuenta de {@link MaquinaEstados}
+     * @param segundo       segundo actual de la cuenta
+     * @param ancla         ancla de la cuenta en la escala de {@link Reloj#ahoraNanos()}
+     * @param marcaMonotona instante de la publicación en la escala de {@link Reloj#ahora()}
+     * @param marcaPared    instante de la publicación en la escala de {@link Reloj#ahoraPared()}
+     */
+    public synchronized void publicar(int estado, int segundo, AnclaNanos ancla, long marcaMonotona, long marcaPared) {
+        this.estado = estado;
+        this.segundo = segundo;
+        this.ancla = ancla;
+        this.marcaMonotona = marcaMonotona;
+        this.anclaArranque = ArranqueDispositivo.ancla(marcaMonotona, marcaPared);
+        escribir();
+    }
+
+    /**
+     * Publica el resumen de las vueltas de la sesión
+     *
+     * @param vueltas vueltas de la sesión
+     * @param mejor   duración de la vuelta más rápida, en nanosegundos
+     * @param peor    duración de la vuelta más lenta, en nanosegundos
+     * @param media   duración media de las vueltas, en nanosegundos
+     */
+    public synchronized void publicarVueltas(long vueltas, long mejor, long peor, long media) {
+        if (vueltas == this.vueltas && mejor == this.mejor && peor == this.peor && media == this.media)
+            return;
+
+        this.vueltas = vueltas;
+        this.mejor = mejor;
+        this.peor = peor;
+        this.media = media;
+        escribir();
+    }
+
+    /**
+     * Devuelve el número de publicaciones desde que se creó la página
+     *
+     * @return publicaciones
+     */
+    public synchronized long getPublicaciones() {
+        return secuencia / 2;
+    }
+
+    private void escribir() {
+        long impar = secuencia + 1;
+        secuencia += 2;
+        buffer.putLong(POS_SECUENCIA, impar);
+        buffer.putInt(POS_ESTADO, estado);
+        buffer.putInt(POS_SEGUNDO, segundo);
+        buffer.putInt(POS_CORRIENDO, ancla.corriendo ? 1 : 0);
+        buffer.putLong(POS_ANCLA, ancla.getValor());
+        buffer.putLong(POS_MARCA, marcaMonotona);
+        buffer.putLong(POS_VUELTAS, vueltas);
+        buffer.putLong(POS_MEJOR, mejor);
+        buffer.putLong(POS_PEOR, peor);
+        buffer.putLong(POS_MEDIA, media);
+        buffer.putLong(POS_ARRANQUE, anclaArranque);
+        crc.reset();
+        for (int i = POS_ESTADO; i < POS_CRC; i++)
+            crc.update(buffer.get(i));
+        buffer.putInt(POS_CRC, (int) crc.getValue());
+        buffer.putLong(POS_SECUENCIA, secuencia);
+    }
+
+    @Override
+    public void close() throws IOException {
+        archivo.close();
+    }
+
+    /**
+     * Lee la página desde otro proceso. No escribe nunca en ella.
+     * <p>
+     * Cada lector tiene su propia copia de trabajo, así que no se puede usar desde varios hilos a la vez
+     */
+    public static class Lector implements Closeable {
+
+        private final RandomAccessFile archivo;
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Copia de los datos que se valida antes de entregarla
+         */
+        private final byte[] copia = new byte[TAMANO_DATOS];
+
+        private final ByteBuffer vistaCopia = ByteBuffer.wrap(copia).order(ByteOrder.LITTLE_ENDIAN);
+
+        private final CRC32 crc = new CRC32();
+
+        private Lector(RandomAccessFile archivo, MappedByteBuffer buffer) {
+            this.archivo = archivo;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Abre la página para leerla
+         *
+         * @param ruta ruta del archivo
+         * @return lector, o null si el archivo no existe o no es una página, por ejemplo porque aún no se ha iniciado el escritor
+         * @throws IOException si no se puede abrir o mapear el archivo
+         */
+        public static Lector abrir(File ruta) throws IOException {
+            if (!ruta.exists())
+                return null;
+
+            RandomAccessFile archivo = new RandomAccessFile(ruta, "r");
+            try {
+                if (archivo.length() != TAMANO) {
+                    archivo.close();
+                    return null;
+                }
+                MappedByteBuffer buffer = archivo.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, TAMANO);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.getInt(POS_MAGIA) != MAGIA || buffer.getInt(POS_VERSION) != VERSION) {
+                    archivo.close();
+                    return null;
+                }
+                return new Lector(archivo, buffer);
+            } catch (IOException e) {
+                archivo.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Lee la última publicación completa
+         *
+         * @param destino instantánea en la que se copia
+         * @return true si se ha leído, false si tras {@link PaginaContador#MAXIMO_INTENTOS} intentos el escritor seguía a mitad de
+         * una escritura o no se ha publicado nada todavía
+         */
+        public boolean leer(Instantanea destino) {
+            for (int intento = 0; intento < MAXIMO_INTENTOS; intento++) {
+                long antes = buffer.getLong(POS_SECUENCIA);
+                if (antes == 0)
+                    return false;
+                if ((antes & 1) != 0)
+                    continue;
+
+                for (int i = 0; i < TAMANO_DATOS; i++)
+                    copia[i] = buffer.get(POS_SECUENCIA + i);
+                if (buffer.getLong(POS_SECUENCIA) != antes || vistaCopia.getLong(0) != antes)
+                    continue;
+
+                crc.reset();
+                crc.update(copia, POS_ESTADO - POS_SECUENCIA, POS_CRC - POS_ESTADO);
+                if (vistaCopia.getInt(POS_CRC - POS_SECUENCIA) != (int) crc.getValue())
+                    continue;
+
+                destino.copiar(vistaCopia);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            archivo.close();
+        }
+    }
+
+    /**
+     * Copia de una publicación de la página. Se reutiliza en cada lectura, y solo crea un {@link AnclaNanos} cuando cambia el ancla
+     */
+    public static class Instantanea {
+
+        /**
+         * Secuencia de la publicación, que crece con cada una. Sirve para saber si ha cambiado algo desde la lectura anterior
+         */
+        public long secuencia;
+
+        /**
+         * Estado de la cuenta de {@link MaquinaEstados}
+         */
+        public int estado = MaquinaEstados.ESTADO_DETENIDO;
+
+        /**
+         * Segundo de la cuenta en el último tick publicado. Si nadie mira la cuenta no hay tick, así que el tiempo actual se calcula con
+         * {@link Instantanea#getAncla()}
+         */
+        public int segundo;
+
+        /**
+         * Instante de la publicación en la escala de {@link Reloj#ahora()}
+         */
+        public long marcaMonotona;
+
+        /**
+         * Ancla de arranque del dispositivo en la publicación
+         *
+         * @see ArranqueDispositivo#ancla(long, long)
+         */
+        public long anclaArranque;
+
+        /**
+         * Vueltas de la sesión
+         */
+        public long vueltas;
+
+        /**
+         * Duración de la vuelta más rápida de la sesión, en nanosegundos
+         */
+        public long mejor;
+
+        /**
+         * Duración de la vuelta más lenta de la sesión, en nanosegundos
+         */
+        public long peor;
+
+        /**
+         * Duración media de las vueltas de la sesión, en nanosegundos
+         */
+        public long media;
+
+        private boolean corriendo;
+
+        private long valorAncla;
+
+        private AnclaNanos ancla = AnclaNanos.DETENIDA;
+
+        void copiar(ByteBuffer datos) {
+            secuencia = datos.getLong(0);
+            estado = datos.getInt(POS_ESTADO - POS_SECUENCIA);
+            segundo = datos.getInt(POS_SEGUNDO - POS_SECUENCIA);
+            corriendo = datos.getInt(POS_CORRIENDO - POS_SECUENCIA) != 0;
+            valorAncla = datos.getLong(POS_ANCLA - POS_SECUENCIA);
+            marcaMonotona = datos.getLong(POS_MARCA - POS_SECUENCIA);
+            vueltas = datos.getLong(POS_VUELTAS - POS_SECUENCIA);
+            mejor = datos.getLong(POS_MEJOR - POS_SECUENCIA);
+            peor = datos.getLong(POS_PEOR - POS_SECUENCIA);
+            media = datos.getLong(POS_MEDIA - POS_SECUENCIA);
+            anclaArranque = datos.getLong(POS_ARRANQUE - POS_SECUENCIA);
+        }
+
+        /**
+         * Devuelve el ancla de la cuenta, con la que se calcula el tiempo transcurrido en cada fotograma
+         *
+         * @return ancla publicada. Es el mismo objeto mientras no cambie
+         */
+        public AnclaNanos getAncla() {
+            if (ancla.corriendo != corriendo || ancla.getValor() != valorAncla)
+                ancla = AnclaNanos.desdeValor(corriendo, valorAncla);
+            return ancla;
+        }
+
+        /**
+         * Indica si la publicación es de este arranque del dispositivo comparando su ancla de arranque con la actual. Si no, el
+         * dispositivo se ha reiniciado desde la publicación y el ancla de la cuenta ya no sirve, aunque el reloj monótono haya superado
+         * la marca
+         *
+         * @param ahoraMonotono instante actual en la escala de {@link Reloj#ahora()}
+         * @param ahoraPared    instante actual en la escala de {@link Reloj#ahoraPared()}
+         * @return true si el ancla es válida
+         */
+        public boolean esDeEsteArranque(long ahoraMonotono, long ahoraPared) {
+            return ArranqueDispositivo.mismoArranque(anclaArranque, ArranqueDispositivo.ancla(ahoraMonotono, ahoraPared));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Ejecuta las tareas de {@link Contador} con retraso.
+ * <p>
+ * En Android es un {@code Handler}, y en los tests un planificador que ejecuta las tareas al avanzar un reloj virtual.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public interface Planificador {
+
+    /**
+     * Programa una tarea para que se ejecute pasados los milisegundos indicados
+     *
+     * @param tarea        tarea que se ejecuta
+     * @param retrasoMilis milisegundos de retraso
+     */
+    void programar(Runnable tarea, long retrasoMilis);
+
+    /**
+     * Cancela todas las ejecuciones pendientes de una tarea
+     *
+     * @param tarea tarea que se cancela
+     */
+    void cancelar(Runnable tarea);
+}
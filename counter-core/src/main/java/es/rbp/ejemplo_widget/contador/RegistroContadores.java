@@ -0,0 +1,381 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.Arrays;
+
+/**
+ * Registro de varias cuentas independientes identificadas por un id.
+ * <p>
+ * Las cuentas se guardan en arrays de primitivos, uno por campo, y un índice con direccionamiento abierto traduce cada id a su posición,
+ * así que no se crea ningún objeto por cuenta. Igual que {@link MotorTick}, cada cuenta solo guarda anclas de tiempo, por lo que
+ * el tick compartido ({@link RegistroContadores#tick(long, Oyente)}) no tiene que recorrer las cuentas: solo avisa de las que se están
+ * mostrando. Así su coste depende del número de cuentas observadas, que son las que muestra alguna vista, y no del de cuentas activas.
+ * <p>
+ * Una cuenta detenida no ocupa sitio en el registro: al pararla se elimina, y un id que no está en el registro está detenido. Observar
+ * una cuenta no depende de su estado, así que una cuenta que se sigue mostrando vuelve a recibir el tick al empezarla de nuevo.
+ * <p>
+ * Esta clase no es segura entre hilos.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class RegistroContadores {
+
+    /**
+     * Valor que devuelve {@link RegistroContadores#aplicar(int, int, long)} cuando el comando no es válido en el estado actual
+     */
+    public static final int RECHAZADO = 0;
+
+    /**
+     * Capacidad inicial de los arrays
+     */
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    /**
+     * Valor de {@link RegistroContadores#inicioPausas} cuando la cuenta no está pausada
+     */
+    private static final long SIN_PAUSA = Long.MIN_VALUE;
+
+    /**
+     * Id de cada cuenta
+     */
+    private int[] ids = new int[CAPACIDAD_INICIAL];
+
+    /**
+     * Estado de cada cuenta, con los valores de {@link MaquinaEstados}
+     */
+    private int[] estados = new int[CAPACIDAD_INICIAL];
+
+    /**
+     * Base de cada cuenta: instante en el que habría empezado si nunca se hubiera pausado
+     */
+    private long[] bases = new long[CAPACIDAD_INICIAL];
+
+    /**
+     * Instante en el que se pausó cada cuenta, o {@link RegistroContadores#SIN_PAUSA}
+     */
+    private long[] inicioPausas = new long[CAPACIDAD_INICIAL];
+
+    /**
+     * Número de cuentas del registro
+     */
+    private int tamano;
+
+    /**
+     * Número de cuentas en marcha
+     */
+    private int corriendo;
+
+    /**
+     * Índice de ids con direccionamiento abierto. Cada celda guarda la posición de la cuenta más uno, o 0 si está vacía
+     */
+    private int[] tabla = new int[CAPACIDAD_INICIAL * 2];
+
+    /**
+     * Ids de las cuentas que se están mostrando y reciben el tick
+     */
+    private int[] observados = new int[CAPACIDAD_INICIAL];
+
+    /**
+     * Número de cuentas que se están mostrando
+     */
+    private int numeroObservados;
+
+    /**
+     * Aplica un comando de {@link MaquinaEstados} a una cuenta. Si la cuenta no existe se considera detenida
+     *
+     * @param id      id de la cuenta
+     * @param comando comando de {@link MaquinaEstados}
+     * @param ahora   instante actual
+     * @return el nuevo estado, o {@link RegistroContadores#RECHAZADO} si el comando no es válido en el estado actual
+     */
+    public int aplicar(int id, int comando, long ahora) {
+        int posicion = buscar(id);
+        int anterior = posicion < 0 ? MaquinaEstados.ESTADO_DETENIDO : estados[posicion];
+        int nuevo = MaquinaEstados.destino(anterior, comando);
+        if (nuevo == RECHAZADO)
+            return RECHAZADO;
+
+        switch (nuevo) {
+            case MaquinaEstados.ESTADO_CORRIENDO:
+                if (posicion < 0) {
+                    posicion = crear(id);
+                    bases[posicion] = ahora;
+                } else {
+                    bases[posicion] += ahora - inicioPausas[posicion];
+                }
+                inicioPausas[posicion] = SIN_PAUSA;
+                corriendo++;
+                break;
+            case MaquinaEstados.ESTADO_PAUSADO:
+                inicioPausas[posicion] = ahora;
+                corriendo--;
+                break;
+            case MaquinaEstados.ESTADO_DETENIDO:
+                eliminar(posicion);
+                return nuevo;
+        }
+        estados[posicion] = nuevo;
+        return nuevo;
+    }
+
+    /**
+     * Devuelve el estado de una cuenta
+     *
+     * @param id id de la cuenta
+     * @return estado de {@link MaquinaEstados}
+     */
+    public int estado(int id) {
+        int posicion = buscar(id);
+        return posicion < 0 ? MaquinaEstados.ESTADO_DETENIDO : estados[posicion];
+    }
+
+    /**
+     * Devuelve los milisegundos que lleva una cuenta en marcha, descontando las pausas
+     *
+     * @param id    id de la cuenta
+     * @param ahora instante actual
+     * @return milisegundos transcurridos, o 0 si la cuenta está detenida
+     */
+    public long milisTranscurridos(int id, long ahora) {
+        int posicion = buscar(id);
+        if (posicion < 0)
+            return 0;
+
+        long fin = inicioPausas[posicion] == SIN_PAUSA ? ahora : inicioPausas[posicion];
+        return fin - bases[posicion];
+    }
+
+    /**
+     * Devuelve los segundos enteros que lleva una cuenta en marcha, descontando las pausas
+     *
+     * @param id    id de la cuenta
+     * @param ahora instante actual
+     * @return segundos transcurridos
+     */
+    public int segundosTranscurridos(int id, long ahora) {
+        return (int) (milisTranscurridos(id, ahora) / MotorTick.MILIS_POR_SEGUNDO);
+    }
+
+    /**
+     * Devuelve la base de una cuenta para un {@code Chronometer}
+     *
+     * @param id    id de la cuenta
+     * @param ahora instante actual
+     * @return base de la cuenta en la misma escala que ahora
+     * @see MotorTick#base(long)
+     */
+    public long base(int id, long ahora) {
+        return ahora - milisTranscurridos(id, ahora);
+    }
+
+    /**
+     * Hace que una cuenta reciba el tick compartido mientras esté en marcha porque se está mostrando
+     *
+     * @param id id de la cuenta, que puede estar detenida
+     */
+    public void observar(int id) {
+        for (int i = 0; i < numeroObservados; i++)
+            if (observados[i] == id)
+                return;
+
+        if (numeroObservados == observados.length)
+            observados = Arrays.copyOf(observados, numeroObservados * 2);
+        observados[numeroObservados++] = id;
+    }
+
+    /**
+     * Hace que una cuenta deje de recibir el tick compartido porque ya no se muestra
+     *
+     * @param id id de la cuenta
+     */
+    public void dejarDeObservar(int id) {
+        for (int i = 0; i < numeroObservados; i++)
+            if (observados[i] == id) {
+                observados[i] = observados[--numeroObservados];
+                return;
+            }
+    }
+
+    /**
+     * Avisa al oyente del segundo actual de las cuentas observadas que están en marcha
+     *
+     * @param ahora  instante actual
+     * @param oyente oyente que recibe las cuentas
+     */
+    public void tick(long ahora, Oyente oyente) {
+        for (int i = 0; i < numeroObservados; i++) {
+            int id = observados[i];
+            int posicion = buscar(id);
+            if (posicion >= 0 && estados[posicion] == MaquinaEstados.ESTADO_CORRIENDO)
+                oyente.tick(id, (int) ((ahora - bases[posicion]) / MotorTick.MILIS_POR_SEGUNDO));
+        }
+    }
+
+    /**
+     * Indica si alguna cuenta observada está en marcha, es decir, si el tick compartido tiene a quién avisar
+     *
+     * @return true si alguna cuenta observada está en marcha
+     */
+    public boolean hayObservadasEnMarcha() {
+        for (int i = 0; i < numeroObservados; i++) {
+            int posicion = buscar(observados[i]);
+            if (posicion >= 0 && estados[posicion] == MaquinaEstados.ESTADO_CORRIENDO)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Devuelve el número de cuentas observadas
+     *
+     * @return cuentas observadas
+     */
+    public int getObservadas() {
+        return numeroObservados;
+    }
+
+    /**
+     * Devuelve el número de cuentas en marcha
+     *
+     * @return cuentas en marcha
+     */
+    public int getCorriendo() {
+        return corriendo;
+    }
+
+    /**
+     * Devuelve el número de cuentas del registro, que son las que no están detenidas
+     *
+     * @return cuentas del registro
+     */
+    public int getTamano() {
+        return tamano;
+    }
+
+    /**
+     * Devuelve la posición de una cuenta en los arrays
+     *
+     * @param id id de la cuenta
+     * @return posición, o -1 si no existe
+     */
+    private int buscar(int id) {
+        int mascara = tabla.length - 1;
+        for (int i = mezclar(id) & mascara; tabla[i] != 0; i = (i + 1) & mascara)
+            if (ids[tabla[i] - 1] == id)
+                return tabla[i] - 1;
+
+        return -1;
+    }
+
+    /**
+     * Devuelve la celda de {@link RegistroContadores#tabla} que ocupa un id que existe
+     */
+    private int celda(int id) {
+        int mascara = tabla.length - 1;
+        int i = mezclar(id) & mascara;
+        while (ids[tabla[i] - 1] != id)
+            i = (i + 1) & mascara;
+
+        return i;
+    }
+
+    /**
+     * Crea una cuenta
+     *
+     * @param id id de la cuenta
+     * @return posición de la cuenta
+     */
+    private int crear(int id) {
+        if (tamano == ids.length) {
+            int capacidad = tamano * 2;
+            ids = Arrays.copyOf(ids, capacidad);
+            estados = Arrays.copyOf(estados, capacidad);
+            bases = Arrays.copyOf(bases, capacidad);
+            inicioPausas = Arrays.copyOf(inicioPausas, capacidad);
+        }
+
+        int posicion = tamano++;
+        ids[posicion] = id;
+
+        // La tabla se mantiene como mucho medio llena
+        if (tamano * 2 > tabla.length)
+            redimensionarTabla(tabla.length * 2);
+        else
+            insertarEnTabla(posicion);
+
+        return posicion;
+    }
+
+    /**
+     * Elimina una cuenta del registro
+     *
+     * @param posicion posición de la cuenta
+     */
+    private void eliminar(int posicion) {
+        int id = ids[posicion];
+        if (estados[posicion] == MaquinaEstados.ESTADO_CORRIENDO)
+            corriendo--;
+        quitarDeTabla(id);
+
+        // La última cuenta ocupa el hueco para que los arrays sigan siendo contiguos
+        int ultima = --tamano;
+        if (posicion != ultima) {
+            ids[posicion] = ids[ultima];
+            estados[posicion] = estados[ultima];
+            bases[posicion] = bases[ultima];
+            inicioPausas[posicion] = inicioPausas[ultima];
+            tabla[celda(ids[posicion])] = posicion + 1;
+        }
+    }
+
+    private void insertarEnTabla(int posicion) {
+        int mascara = tabla.length - 1;
+        int i = mezclar(ids[posicion]) & mascara;
+        while (tabla[i] != 0)
+            i = (i + 1) & mascara;
+
+        tabla[i] = posicion + 1;
+    }
+
+    private void redimensionarTabla(int capacidad) {
+        tabla = new int[capacidad];
+        for (int posicion = 0; posicion < tamano; posicion++)
+            insertarEnTabla(posicion);
+    }
+
+    /**
+     * Quita un id de la tabla desplazando hacia atrás las celdas siguientes para no dejar huecos en las secuencias de sondeo
+     */
+    private void quitarDeTabla(int id) {
+        int mascara = tabla.length - 1;
+        int hueco = celda(id);
+        tabla[hueco] = 0;
+
+        for (int i = (hueco + 1) & mascara; tabla[i] != 0; i = (i + 1) & mascara) {
+            int ideal = mezclar(ids[tabla[i] - 1]) & mascara;
+            // La celda se puede mover al hueco si su posición ideal no está entre el hueco y ella
+            if (((i - ideal) & mascara) >= ((i - hueco) & mascara)) {
+                tabla[hueco] = tabla[i];
+                tabla[i] = 0;
+                hueco = i;
+            }
+        }
+    }
+
+    private static int mezclar(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Interfaz que recibe el tick compartido de las cuentas observadas
+     */
+    public interface Oyente {
+        /**
+         * Recibe el segundo actual de una cuenta en marcha
+         *
+         * @param id            id de la cuenta
+         * @param segundoActual segundo actual de la cuenta
+         */
+        void tick(int id, int segundoActual);
+    }
+}
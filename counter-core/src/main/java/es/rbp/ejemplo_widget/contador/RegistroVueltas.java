@@ -0,0 +1,200 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.Arrays;
+
+/**
+ * Guarda las vueltas de una sesión de la cuenta principal y mantiene la mejor, la peor y la media sin recorrerlas.
+ * <p>
+ * Cada vuelta se guarda como el tiempo de cuenta en el que se marcó, en nanosegundos, en un buffer circular de {@code long} cuya
+ * capacidad es una potencia de dos. Mientras no se llena se duplica, así que añadir una vuelta cuesta O(1) amortizado y ocupa 8 bytes;
+ * al llegar a la capacidad máxima se sobrescriben las más antiguas, aunque siguen contando en las estadísticas. No se crea ningún objeto
+ * por vuelta.
+ * <p>
+ * Quien muestra las vueltas no recibe la lista entera en cada cambio: con {@link RegistroVueltas#leer(LoteVueltas)} recibe solo las
+ * vueltas nuevas desde su última lectura, o la lista entera si se ha empezado otra sesión o se le han sobrescrito vueltas sin leer.
+ * Es seguro entre hilos.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class RegistroVueltas {
+
+    /**
+     * Capacidad inicial del buffer
+     */
+    private static final int CAPACIDAD_INICIAL = 64;
+
+    /**
+     * Capacidad máxima del buffer, una potencia de dos
+     */
+    private final int capacidadMaxima;
+
+    /**
+     * Tiempo de cuenta de cada vuelta. La vuelta n está en la posición {@code n & (splits.length - 1)}
+     */
+    private long[] splits = new long[CAPACIDAD_INICIAL];
+
+    /**
+     * Número de vueltas de la sesión, incluidas las sobrescritas
+     */
+    private long vueltas;
+
+    /**
+     * Tiempo de cuenta de la vuelta anterior a la más antigua que se conserva, o 0 si no se ha sobrescrito ninguna
+     */
+    private long splitBase;
+
+    /**
+     * Sesión de las vueltas. Cambia en cada {@link RegistroVueltas#reiniciar()}
+     */
+    private int generacion;
+
+    private long mejor;
+
+    private long peor;
+
+    /**
+     * Suma de las duraciones de todas las vueltas
+     */
+    private long suma;
+
+    /**
+     * Crea un registro vacío
+     *
+     * @param capacidadMaxima vueltas que se conservan como máximo. Se redondea a la potencia de dos superior
+     */
+    public RegistroVueltas(int capacidadMaxima) {
+        int capacidad = CAPACIDAD_INICIAL;
+        while (capacidad < capacidadMaxima)
+            capacidad <<= 1;
+        this.capacidadMaxima = capacidad;
+    }
+
+    /**
+     * Añade una vuelta
+     *
+     * @param splitNanos tiempo de cuenta en el que se marcó la vuelta, en nanosegundos. Si es anterior al de la vuelta anterior, por
+     *                   ejemplo porque dos pulsaciones llegaron desordenadas, cuenta como una vuelta de duración 0
+     * @return número de la vuelta, empezando en 1
+     */
+    public synchronized long agregar(long splitNanos) {
+        long anterior = ultimoSplit();
+        long split = Math.max(splitNanos, anterior);
+        long duracion = split - anterior;
+
+        if (vueltas == splits.length && splits.length < capacidadMaxima)
+            splits = Arrays.copyOf(splits, splits.length * 2);
+        int posicion = (int) (vueltas & (splits.length - 1));
+        if (vueltas >= splits.length)
+            splitBase = splits[posicion];
+        splits[posicion] = split;
+
+        mejor = vueltas == 0 ? duracion : Math.min(mejor, duracion);
+        peor = vueltas == 0 ? duracion : Math.max(peor, duracion);
+        suma += duracion;
+        return ++vueltas;
+    }
+
+    /**
+     * Borra las vueltas para empezar una sesión nueva. Conserva el buffer, así que la sesión siguiente no vuelve a crecer
+     */
+    public synchronized void reiniciar() {
+        generacion++;
+        vueltas = 0;
+        splitBase = 0;
+        mejor = 0;
+        peor = 0;
+        suma = 0;
+    }
+
+    /**
+     * Escribe en el lote las vueltas que no ha recibido desde su última lectura y las estadísticas actuales
+     *
+     * @param lote lote del lector, que guarda hasta dónde ha leído
+     * @return true si hay algo nuevo: vueltas nuevas o una lista que hay que empezar de cero
+     */
+    public synchronized boolean leer(LoteVueltas lote) {
+        long primera = getPrimera();
+        boolean reinicio = lote.generacion != generacion || lote.cursor < primera;
+        long desde = reinicio ? primera : lote.cursor;
+        if (!reinicio && desde == vueltas)
+            return false;
+
+        int tamano = (int) (vueltas - desde);
+        lote.preparar(tamano);
+        int mascara = splits.length - 1;
+        long anterior = desde == primera ? splitBase : splits[(int) ((desde - 1) & mascara)];
+        for (int i = 0; i < tamano; i++) {
+            long split = splits[(int) ((desde + i) & mascara)];
+            lote.splits[i] = split;
+            lote.duraciones[i] = split - anterior;
+            anterior = split;
+        }
+
+        lote.reinicio = reinicio;
+        lote.primera = desde;
+        lote.tamano = tamano;
+        lote.vueltas = vueltas;
+        lote.mejor = mejor;
+        lote.peor = peor;
+        lote.media = getMedia();
+        lote.generacion = generacion;
+        lote.cursor = vueltas;
+        return true;
+    }
+
+    /**
+     * Devuelve el número de vueltas de la sesión, incluidas las sobrescritas
+     *
+     * @return vueltas de la sesión
+     */
+    public synchronized long getVueltas() {
+        return vueltas;
+    }
+
+    /**
+     * Devuelve la duración de la vuelta más rápida
+     *
+     * @return nanosegundos, o 0 si no hay vueltas
+     */
+    public synchronized long getMejor() {
+        return mejor;
+    }
+
+    /**
+     * Devuelve la duración de la vuelta más lenta
+     *
+     * @return nanosegundos, o 0 si no hay vueltas
+     */
+    public synchronized long getPeor() {
+        return peor;
+    }
+
+    /**
+     * Devuelve la duración media de las vueltas
+     *
+     * @return nanosegundos, o 0 si no hay vueltas
+     */
+    public synchronized long getMedia() {
+        return vueltas == 0 ? 0 : suma / vueltas;
+    }
+
+    /**
+     * Devuelve la capacidad actual del buffer, que crece hasta la capacidad máxima
+     *
+     * @return vueltas que caben sin crecer
+     */
+    public synchronized int getCapacidad() {
+        return splits.length;
+    }
+
+    /**
+     * Devuelve el número de la vuelta más antigua que se conserva, empezando en 0
+     */
+    private long getPrimera() {
+        return Math.max(0, vueltas - splits.length);
+    }
+
+    private long ultimoSplit() {
+        return vueltas == 0 ? 0 : splits[(int) ((vueltas - 1) & (splits.length - 1))];
+    }
+}
@@ -0,0 +1,35 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Fuente de tiempo de {@link Contador}.
+ * <p>
+ * En Android es {@code SystemClock.elapsedRealtime()}, {@code SystemClock.elapsedRealtimeNanos()} y {@link System#currentTimeMillis()}, y en los tests un reloj virtual que
+ * se avanza a mano.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public interface Reloj {
+
+    /**
+     * Devuelve el instante actual de un reloj monótono que sigue avanzando con el dispositivo dormido
+     *
+     * @return milisegundos del reloj monótono
+     */
+    long ahora();
+
+    /**
+     * Devuelve el instante actual del mismo reloj monótono que {@link Reloj#ahora()}, con resolución de nanosegundos
+     *
+     * @return nanosegundos del reloj monótono
+     * @see AnclaNanos
+     */
+    long ahoraNanos();
+
+    /**
+     * Devuelve el instante actual del reloj de pared, que se usa para restaurar la cuenta tras reiniciar el dispositivo
+     *
+     * @return milisegundos desde la época Unix
+     * @see AlmacenEstado.EstadoGuardado#milisTranscurridos(long, long)
+     */
+    long ahoraPared();
+}
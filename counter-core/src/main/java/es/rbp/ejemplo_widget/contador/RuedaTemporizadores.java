@@ -0,0 +1,345 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.Arrays;
+
+/**
+ * Rueda jerárquica de temporizadores para programar miles de avisos, como los intervalos de un entrenamiento o una cadena de
+ * pomodoros, sin un {@code Handler.postDelayed} por cada uno.
+ * <p>
+ * El tiempo de la rueda es un número entero de pasos, por ejemplo los segundos de la cuenta, y solo avanza cuando se llama a
+ * {@link RuedaTemporizadores#avanzar(long, Oyente)} desde el tick. Hay {@value #NIVELES} niveles de {@value #RANURAS} ranuras: el primero
+ * tiene una ranura por paso y cada nivel siguiente una por cada ranura completa del anterior, así que caben temporizadores a unos 194
+ * días de segundos. Los que están más lejos se colocan en el último nivel y se vuelven a colocar al llegar a su ranura.
+ * <p>
+ * Programar y cancelar son O(1): cada temporizador es un nodo de una lista doblemente enlazada de su ranura, guardado en arrays
+ * paralelos que se reutilizan, así que tampoco crean objetos. Avanzar un paso vence la ranura del paso en el primer nivel y, cada
+ * {@value #RANURAS} pasos, baja los temporizadores de una ranura del nivel siguiente. Un temporizador se identifica con un
+ * {@code long} que incluye una generación del nodo, para que cancelar uno que ya ha vencido no cancele al que reutiliza su nodo.
+ * <p>
+ * Todos los métodos toman el cerrojo de la rueda, así que se puede programar desde cualquier hilo mientras otro avanza
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class RuedaTemporizadores {
+
+    /**
+     * Bits del paso que indexan las ranuras de cada nivel
+     */
+    private static final int BITS_RANURA = 6;
+
+    /**
+     * Ranuras de cada nivel
+     */
+    public static final int RANURAS = 1 << BITS_RANURA;
+
+    /**
+     * Número de niveles
+     */
+    public static final int NIVELES = 4;
+
+    private static final int MASCARA = RANURAS - 1;
+
+    /**
+     * Pasos que abarcan todos los niveles. Un temporizador más lejano se coloca a esta distancia y se recoloca al llegar a ella
+     */
+    static final long HORIZONTE = 1L << (BITS_RANURA * NIVELES);
+
+    /**
+     * Valor de {@link RuedaTemporizadores#getSiguientePaso()} si no hay ningún temporizador pendiente
+     */
+    public static final long SIN_PASO = Long.MAX_VALUE;
+
+    /**
+     * Índice que termina las listas
+     */
+    private static final int NINGUNO = -1;
+
+    /**
+     * Valor de {@link RuedaTemporizadores#ranuras} de un nodo libre
+     */
+    private static final int LIBRE = -1;
+
+    /**
+     * Primer nodo de la lista de cada ranura, con las de todos los niveles seguidas
+     */
+    private final int[] cabezas = new int[NIVELES * RANURAS];
+
+    private long[] vencimientos;
+
+    private int[] datos;
+
+    private int[] siguientes;
+
+    private int[] anteriores;
+
+    /**
+     * Ranura en la que está cada nodo, o {@link RuedaTemporizadores#LIBRE}
+     */
+    private int[] ranuras;
+
+    /**
+     * Generación de cada nodo, que aumenta al liberarlo
+     */
+    private int[] generaciones;
+
+    /**
+     * Primer nodo libre. Los nodos libres se enlazan por {@link RuedaTemporizadores#siguientes}
+     */
+    private int libre = NINGUNO;
+
+    /**
+     * Nodos que se han usado alguna vez. Los siguientes nunca se han usado
+     */
+    private int usados;
+
+    private int pendientes;
+
+    /**
+     * Último paso procesado
+     */
+    private long ahora;
+
+    /**
+     * Crea una rueda vacía en el paso 0
+     *
+     * @param capacidad temporizadores pendientes para los que se reserva memoria. Si se pasa de ella, se amplía
+     */
+    public RuedaTemporizadores(int capacidad) {
+        capacidad = Math.max(capacidad, 1);
+        vencimientos = new long[capacidad];
+        datos = new int[capacidad];
+        siguientes = new int[capacidad];
+        anteriores = new int[capacidad];
+        ranuras = new int[capacidad];
+        generaciones = new int[capacidad];
+        Arrays.fill(cabezas, NINGUNO);
+    }
+
+    /**
+     * Programa un temporizador
+     *
+     * @param paso paso en el que vence. Si ya ha pasado, vence en el siguiente avance
+     * @param dato valor que se entrega al vencer, por ejemplo qué aviso es
+     * @return temporizador, para cancelarlo
+     */
+    public synchronized long programar(long paso, int dato) {
+        int nodo = reservarNodo();
+        vencimientos[nodo] = paso;
+        datos[nodo] = dato;
+        colocar(nodo, ahora + 1);
+        pendientes++;
+        return temporizador(nodo);
+    }
+
+    /**
+     * Cancela un temporizador pendiente
+     *
+     * @param temporizador temporizador devuelto por {@link RuedaTemporizadores#programar(long, int)}
+     * @return true si estaba pendiente, false si ya había vencido o se había cancelado
+     */
+    public synchronized boolean cancelar(long temporizador) {
+        int nodo = (int) temporizador;
+        if (nodo < 0 || nodo >= usados || ranuras[nodo] == LIBRE || generaciones[nodo] != (int) (temporizador >>> 32))
+            return false;
+
+        desenlazar(nodo);
+        liberar(nodo);
+        pendientes--;
+        return true;
+    }
+
+    /**
+     * Avanza la rueda paso a paso hasta el indicado, venciendo los temporizadores de cada paso
+     *
+     * @param hasta  paso hasta el que se avanza, incluido. Si no es posterior al actual no hace nada
+     * @param oyente recibe los temporizadores vencidos
+     * @return número de temporizadores vencidos
+     */
+    public synchronized int avanzar(long hasta, Oyente oyente) {
+        int vencidos = 0;
+        while (ahora < hasta) {
+            if (pendientes == 0) {
+                ahora = hasta;
+                break;
+            }
+
+            ahora++;
+            // Cada vez que se completa una vuelta de un nivel, baja la ranura que empieza ahora del nivel siguiente
+            for (int nivel = 1; nivel < NIVELES && (ahora & ((1L << (BITS_RANURA * nivel)) - 1)) == 0; nivel++)
+                recolocar(ranura(nivel, ahora));
+
+            int ranura = ranura(0, ahora);
+            while (cabezas[ranura] != NINGUNO) {
+                int nodo = cabezas[ranura];
+                long temporizador = temporizador(nodo);
+                long vencimiento = vencimientos[nodo];
+                int dato = datos[nodo];
+                desenlazar(nodo);
+                liberar(nodo);
+                pendientes--;
+                vencidos++;
+                oyente.alVencer(temporizador, dato, vencimiento);
+            }
+        }
+        return vencidos;
+    }
+
+    /**
+     * Devuelve el primer paso en el que {@link RuedaTemporizadores#avanzar(long, Oyente)} tiene algo que hacer: vencer temporizadores o
+     * bajar de nivel los de una ranura. No es necesariamente un vencimiento, pero nunca es posterior al siguiente, así que basta con
+     * despertar en él, avanzar y volver a pedirlo. Recorre como mucho una vuelta de cada nivel
+     *
+     * @return paso, o {@link RuedaTemporizadores#SIN_PASO} si no hay temporizadores pendientes
+     */
+    public synchronized long getSiguientePaso() {
+        if (pendientes == 0)
+            return SIN_PASO;
+
+        long siguiente = SIN_PASO;
+        for (int nivel = 0; nivel < NIVELES; nivel++) {
+            int desplazamiento = BITS_RANURA * nivel;
+            long bloque = ahora >> desplazamiento;
+            for (int i = 1; i <= RANURAS; i++) {
+                if (cabezas[nivel * RANURAS + (int) ((bloque + i) & MASCARA)] != NINGUNO) {
+                    siguiente = Math.min(siguiente, (bloque + i) << desplazamiento);
+                    break;
+                }
+            }
+        }
+        return siguiente;
+    }
+
+    /**
+     * Cancela todos los temporizadores y lleva la rueda a un paso, por ejemplo al volver a empezar la cuenta
+     *
+     * @param paso nuevo paso actual
+     */
+    public synchronized void vaciar(long paso) {
+        for (int nodo = 0; nodo < usados; nodo++)
+            if (ranuras[nodo] != LIBRE)
+                liberar(nodo);
+        Arrays.fill(cabezas, NINGUNO);
+        pendientes = 0;
+        ahora = paso;
+    }
+
+    /**
+     * Devuelve el último paso procesado
+     *
+     * @return paso actual
+     */
+    public synchronized long getPaso() {
+        return ahora;
+    }
+
+    /**
+     * Devuelve el número de temporizadores pendientes
+     *
+     * @return temporizadores pendientes
+     */
+    public synchronized int getPendientes() {
+        return pendientes;
+    }
+
+    /**
+     * Coloca un nodo en la ranura que le corresponde por su distancia al paso actual
+     *
+     * @param minimo primer paso en el que puede vencer. Al programar es el siguiente, ya que la ranura del actual ya se ha procesado
+     */
+    private void colocar(int nodo, long minimo) {
+        long paso = Math.max(vencimientos[nodo], minimo);
+        long distancia = paso - ahora;
+        if (distancia >= HORIZONTE) {
+            paso = ahora + HORIZONTE - 1;
+            distancia = HORIZONTE - 1;
+        }
+
+        int nivel = 0;
+        while (distancia >= 1L << (BITS_RANURA * (nivel + 1)))
+            nivel++;
+        enlazar(nodo, ranura(nivel, paso));
+    }
+
+    /**
+     * Vuelve a colocar los nodos de una ranura de un nivel superior, que bajan de nivel o vencen en el paso actual
+     */
+    private void recolocar(int ranura) {
+        int nodo = cabezas[ranura];
+        cabezas[ranura] = NINGUNO;
+        while (nodo != NINGUNO) {
+            int siguiente = siguientes[nodo];
+            colocar(nodo, ahora);
+            nodo = siguiente;
+        }
+    }
+
+    private void enlazar(int nodo, int ranura) {
+        int cabeza = cabezas[ranura];
+        siguientes[nodo] = cabeza;
+        anteriores[nodo] = NINGUNO;
+        if (cabeza != NINGUNO)
+            anteriores[cabeza] = nodo;
+        cabezas[ranura] = nodo;
+        ranuras[nodo] = ranura;
+    }
+
+    private void desenlazar(int nodo) {
+        int siguiente = siguientes[nodo];
+        int anterior = anteriores[nodo];
+        if (anterior == NINGUNO)
+            cabezas[ranuras[nodo]] = siguiente;
+        else
+            siguientes[anterior] = siguiente;
+        if (siguiente != NINGUNO)
+            anteriores[siguiente] = anterior;
+    }
+
+    private int reservarNodo() {
+        if (libre != NINGUNO) {
+            int nodo = libre;
+            libre = siguientes[nodo];
+            return nodo;
+        }
+
+        if (usados == vencimientos.length) {
+            int capacidad = usados * 2;
+            vencimientos = Arrays.copyOf(vencimientos, capacidad);
+            datos = Arrays.copyOf(datos, capacidad);
+            siguientes = Arrays.copyOf(siguientes, capacidad);
+            anteriores = Arrays.copyOf(anteriores, capacidad);
+            ranuras = Arrays.copyOf(ranuras, capacidad);
+            generaciones = Arrays.copyOf(generaciones, capacidad);
+        }
+        return usados++;
+    }
+
+    private void liberar(int nodo) {
+        ranuras[nodo] = LIBRE;
+        generaciones[nodo]++;
+        siguientes[nodo] = libre;
+        libre = nodo;
+    }
+
+    private long temporizador(int nodo) {
+        return (long) generaciones[nodo] << 32 | nodo;
+    }
+
+    private static int ranura(int nivel, long paso) {
+        return nivel * RANURAS + (int) ((paso >> (BITS_RANURA * nivel)) & MASCARA);
+    }
+
+    /**
+     * Interfaz para recibir los temporizadores vencidos
+     */
+    public interface Oyente {
+        /**
+         * Recibe un temporizador vencido, en el hilo que avanza la rueda y con su cerrojo tomado. Puede programar y cancelar
+         * temporizadores
+         *
+         * @param temporizador temporizador que ha vencido
+         * @param dato         valor con el que se programó
+         * @param paso         paso con el que se programó, que puede ser anterior al actual
+         */
+        void alVencer(long temporizador, int dato, long paso);
+    }
+}
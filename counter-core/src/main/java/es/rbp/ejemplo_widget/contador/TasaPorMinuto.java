@@ -0,0 +1,84 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cuenta cuántas veces ocurre algo en cada uno de los últimos {@value #MINUTOS} minutos, sin cerrojos y con memoria fija.
+ * <p>
+ * Cada minuto tiene un hueco en un buffer circular que guarda en un solo {@code long} el número del minuto y la cuenta, así que un
+ * incremento es una sola operación atómica y nunca se suma a un minuto que ya ha pasado: el primer evento de un minuto nuevo
+ * sustituye al hueco del minuto que ocupaba su lugar.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class TasaPorMinuto {
+
+    /**
+     * Minutos que se conservan
+     */
+    public static final int MINUTOS = 16;
+
+    private static final long MILIS_POR_MINUTO = 60_000;
+
+    /**
+     * Bits de cada hueco que guardan la cuenta. Los demás guardan el número del minuto
+     */
+    private static final int BITS_CUENTA = 24;
+
+    private static final long MASCARA_CUENTA = (1L << BITS_CUENTA) - 1;
+
+    private final AtomicLongArray huecos = new AtomicLongArray(MINUTOS);
+
+    /**
+     * Registra un evento
+     *
+     * @param ahora instante del evento en milisegundos de un reloj monótono, como {@link Reloj#ahora()}
+     */
+    public void registrar(long ahora) {
+        long minuto = ahora / MILIS_POR_MINUTO;
+        int i = (int) (minuto % MINUTOS);
+        long actual;
+        long nuevo;
+        do {
+            actual = huecos.get(i);
+            if (actual >>> BITS_CUENTA != minuto)
+                nuevo = minuto << BITS_CUENTA | 1;
+            else if ((actual & MASCARA_CUENTA) == MASCARA_CUENTA)
+                return;
+            else
+                nuevo = actual + 1;
+        } while (!huecos.compareAndSet(i, actual, nuevo));
+    }
+
+    /**
+     * Devuelve los eventos de un minuto
+     *
+     * @param ahora  instante actual en la misma escala que {@link TasaPorMinuto#registrar(long)}
+     * @param atras  minutos hacia atrás, 0 para el minuto actual, hasta {@link TasaPorMinuto#MINUTOS} - 1
+     * @return eventos del minuto, o 0 si no hubo ninguno
+     */
+    public long getEventos(long ahora, int atras) {
+        long minuto = ahora / MILIS_POR_MINUTO - atras;
+        if (minuto < 0)
+            return 0;
+
+        long hueco = huecos.get((int) (minuto % MINUTOS));
+        return hueco >>> BITS_CUENTA == minuto ? hueco & MASCARA_CUENTA : 0;
+    }
+
+    /**
+     * Escribe los eventos de los últimos minutos, empezando por el actual
+     *
+     * @param salida salida, por ejemplo la de {@code Service#dump}
+     * @param ahora  instante actual en la misma escala que {@link TasaPorMinuto#registrar(long)}
+     */
+    public void escribir(PrintWriter salida, long ahora) {
+        for (int atras = 0; atras < MINUTOS; atras++) {
+            if (atras > 0)
+                salida.print(' ');
+            salida.print(getEventos(ahora, atras));
+        }
+        salida.println();
+    }
+}
@@ -0,0 +1,149 @@
+package es.rbp.ejemplo_widget.contador;
+
+/**
+ * Escribe los segundos de una cuenta como texto en un buffer de caracteres que se reutiliza, sin crear ningún objeto.
+ * <p>
+ * El formato es el mismo que el de {@code DateUtils.formatElapsedTime} y el de {@code Chronometer}: "MM:SS" por debajo de una hora
+ * y "H:MM:SS" a partir de ella, de forma que el texto fijo y el cronómetro de las vistas coinciden. {@link TextoTiempo#formatearMilis(long)}
+ * añade los milisegundos: "MM:SS.mmm". Los pares de dígitos de 00 a 59 están
+ * preparados de antemano, así que cada formato solo copia caracteres.
+ * <p>
+ * Si el segundo no ha cambiado desde el último formato no se vuelve a escribir, y {@link TextoTiempo#formatear(int)} lo indica para
+ * que no se vuelva a enviar el texto a la vista. No es seguro entre hilos: cada hilo que pinta texto tiene su propia instancia.
+ *
+ * @author Ricardo Bordería Pi
+ */
+public class TextoTiempo {
+
+    /**
+     * Longitud máxima del texto: las horas de un int caben en 6 dígitos, más ":MM:SS" y ".mmm"
+     */
+    private static final int LONGITUD_MAXIMA = 16;
+
+    /**
+     * Pares de dígitos de 00 a 59, dos caracteres por número
+     */
+    private static final char[] DIGITOS = new char[60 * 2];
+
+    static {
+        for (int i = 0; i < 60; i++) {
+            DIGITOS[i * 2] = (char) ('0' + i / 10);
+            DIGITOS[i * 2 + 1] = (char) ('0' + i % 10);
+        }
+    }
+
+    /**
+     * Texto del último segundo formateado
+     */
+    private final char[] texto = new char[LONGITUD_MAXIMA];
+
+    /**
+     * Número de caracteres de {@link TextoTiempo#texto} que forman el texto
+     */
+    private int longitud;
+
+    /**
+     * Último segundo formateado, o -1 si todavía no se ha formateado ninguno o el último formato fue con milisegundos
+     */
+    private int segundo = -1;
+
+    /**
+     * Últimos milisegundos formateados, o -1 si todavía no se han formateado o el último formato fue sin milisegundos
+     */
+    private long milis = -1;
+
+    /**
+     * Escribe el segundo indicado en {@link TextoTiempo#getTexto()}
+     *
+     * @param segundo segundos de la cuenta. Los negativos se muestran como 0
+     * @return true si el texto ha cambiado desde el último formato
+     */
+    public boolean formatear(int segundo) {
+        segundo = Math.max(segundo, 0);
+        if (segundo == this.segundo)
+            return false;
+
+        this.segundo = segundo;
+        milis = -1;
+        escribir(segundo);
+        return true;
+    }
+
+    /**
+     * Escribe los milisegundos indicados en {@link TextoTiempo#getTexto()}, con el mismo formato que {@link TextoTiempo#formatear(int)}
+     * seguido de ".mmm"
+     *
+     * @param milis milisegundos de la cuenta. Los negativos se muestran como 0
+     * @return true si el texto ha cambiado desde el último formato
+     */
+    public boolean formatearMilis(long milis) {
+        milis = Math.max(milis, 0);
+        if (milis == this.milis)
+            return false;
+
+        this.milis = milis;
+        segundo = -1;
+        escribir((int) Math.min(milis / 1000, Integer.MAX_VALUE));
+        int resto = (int) (milis % 1000);
+        texto[longitud++] = '.';
+        texto[longitud++] = (char) ('0' + resto / 100);
+        texto[longitud++] = (char) ('0' + resto / 10 % 10);
+        texto[longitud++] = (char) ('0' + resto % 10);
+        return true;
+    }
+
+    /**
+     * Escribe los segundos al principio del buffer y actualiza {@link TextoTiempo#longitud}
+     */
+    private void escribir(int segundo) {
+        int horas = segundo / 3600;
+        int minutos = segundo / 60 % 60;
+        int posicion = 0;
+        if (horas > 0) {
+            // Las horas se escriben hacia atrás en un hueco al final del buffer y se copian al principio
+            int fin = LONGITUD_MAXIMA;
+            do {
+                texto[--fin] = (char) ('0' + horas % 10);
+                horas /= 10;
+            } while (horas > 0);
+            for (int i = fin; i < LONGITUD_MAXIMA; i++)
+                texto[posicion++] = texto[i];
+            texto[posicion++] = ':';
+        }
+        texto[posicion++] = DIGITOS[minutos * 2];
+        texto[posicion++] = DIGITOS[minutos * 2 + 1];
+        texto[posicion++] = ':';
+        texto[posicion++] = DIGITOS[segundo % 60 * 2];
+        texto[posicion++] = DIGITOS[segundo % 60 * 2 + 1];
+        longitud = posicion;
+    }
+
+    /**
+     * Devuelve el buffer con el texto del último segundo formateado. Solo son válidos los primeros {@link TextoTiempo#getLongitud()}
+     * caracteres, y se sobrescriben en el siguiente formato
+     *
+     * @return buffer del texto
+     */
+    public char[] getTexto() {
+        return texto;
+    }
+
+    /**
+     * Devuelve el número de caracteres del texto
+     *
+     * @return longitud del texto
+     */
+    public int getLongitud() {
+        return longitud;
+    }
+
+    /**
+     * Crea un String con el texto, para las vistas que lo guardan en lugar de copiarlo
+     *
+     * @return texto del último segundo formateado
+     */
+    @Override
+    public String toString() {
+        return new String(texto, 0, longitud);
+    }
+}
@@ -0,0 +1,141 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link AlmacenEstado} restaura el último estado guardado aunque el proceso muera a mitad de una escritura
+ */
+public class AlmacenEstadoTest {
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    @Test
+    public void sinEstadoGuardado() throws IOException {
+        try (AlmacenEstado almacen = new AlmacenEstado(carpeta.newFile())) {
+            assertNull(almacen.leer());
+        }
+    }
+
+    @Test
+    public void restauraElUltimoEstado() throws IOException {
+        File ruta = carpeta.newFile();
+        try (AlmacenEstado almacen = new AlmacenEstado(ruta)) {
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 0, 1_000, 50_000);
+            almacen.guardar(MaquinaEstados.ESTADO_PAUSADO, 4_000, 5_000, 54_000);
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 4_000, 9_000, 58_000);
+        }
+
+        // Se vuelve a abrir como si el proceso se hubiera reiniciado
+        try (AlmacenEstado almacen = new AlmacenEstado(ruta)) {
+            AlmacenEstado.EstadoGuardado guardado = almacen.leer();
+            assertEquals(MaquinaEstados.ESTADO_CORRIENDO, guardado.estado);
+            assertEquals(10_000, guardado.milisTranscurridos(15_000, 64_000));
+
+            almacen.guardar(MaquinaEstados.ESTADO_PAUSADO, 7_000, 12_000, 61_000);
+            assertEquals(7_000, almacen.leer().milisTranscurridos(100_000, 200_000));
+        }
+    }
+
+    @Test
+    public void usaElRelojDeParedTrasReiniciarElDispositivo() throws IOException {
+        try (AlmacenEstado almacen = new AlmacenEstado(carpeta.newFile())) {
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 2_000, 90_000, 1_000_000);
+
+            // El reloj monótono vuelve a empezar desde 0 al reiniciar el dispositivo
+            assertEquals(32_000, almacen.leer().milisTranscurridos(5_000, 1_030_000));
+        }
+    }
+
+    @Test
+    public void usaElRelojDeParedTrasReiniciarAunqueElMonotonoHayaSuperadoLaMarca() throws IOException {
+        try (AlmacenEstado almacen = new AlmacenEstado(carpeta.newFile())) {
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 2_000, 90_000, 1_000_000);
+
+            // Tras estar apagado 300 s, el dispositivo lleva ya 200 s en marcha: más que cuando se guardó el estado
+            assertEquals(502_000, almacen.leer().milisTranscurridos(200_000, 1_500_000));
+        }
+    }
+
+    @Test
+    public void toleraLosAjustesPequenosDelRelojDePared() throws IOException {
+        try (AlmacenEstado almacen = new AlmacenEstado(carpeta.newFile())) {
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 2_000, 90_000, 1_000_000);
+
+            // NTP adelanta el reloj de pared 1 s en el mismo arranque: se sigue usando el monótono
+            assertEquals(7_000, almacen.leer().milisTranscurridos(95_000, 1_006_000));
+        }
+    }
+
+    @Test
+    public void ignoraUnaEscrituraIncompleta() throws IOException {
+        File ruta = carpeta.newFile();
+        try (AlmacenEstado almacen = new AlmacenEstado(ruta)) {
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 0, 1_000, 50_000);
+            almacen.guardar(MaquinaEstados.ESTADO_PAUSADO, 3_000, 4_000, 53_000);
+        }
+
+        // Se corrompe el último hueco escrito, como si el proceso hubiera muerto a mitad de la escritura
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "rw")) {
+            archivo.seek(8 + 24);
+            archivo.writeLong(123_456);
+        }
+
+        try (AlmacenEstado almacen = new AlmacenEstado(ruta)) {
+            AlmacenEstado.EstadoGuardado guardado = almacen.leer();
+            assertEquals(MaquinaEstados.ESTADO_CORRIENDO, guardado.estado);
+            assertEquals(1_000, guardado.marcaMonotona);
+        }
+    }
+
+    @Test
+    public void leeLaInstantaneaSinAbrirElAlmacen() throws IOException {
+        File ruta = new File(carpeta.getRoot(), "estado.bin");
+        assertNull(AlmacenEstado.leerInstantanea(ruta));
+        assertFalse(ruta.exists());
+
+        try (AlmacenEstado almacen = new AlmacenEstado(ruta)) {
+            assertNull(AlmacenEstado.leerInstantanea(ruta));
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 0, 1_000, 50_000);
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 4_000, 9_000, 58_000);
+
+            // Se lee mientras el almacén sigue abierto, como hace la activity con el servicio en marcha
+            AlmacenEstado.EstadoGuardado guardado = AlmacenEstado.leerInstantanea(ruta);
+            assertEquals(MaquinaEstados.ESTADO_CORRIENDO, guardado.estado);
+            assertEquals(10_000, guardado.milisTranscurridos(15_000, 64_000));
+
+            AnclaNanos ancla = guardado.anclaNanos(15_000, 64_000, 777_000_000_000L);
+            assertTrue(ancla.corriendo);
+            assertEquals(10_500, ancla.milisTranscurridos(777_500_000_000L));
+
+            almacen.guardar(MaquinaEstados.ESTADO_PAUSADO, 7_000, 12_000, 61_000);
+            ancla = AlmacenEstado.leerInstantanea(ruta).anclaNanos(100_000, 200_000, 0);
+            assertFalse(ancla.corriendo);
+            assertEquals(7_000, ancla.milisTranscurridos(123_000_000_000L));
+        }
+    }
+
+    @Test
+    public void laInstantaneaIgnoraUnaEscrituraIncompleta() throws IOException {
+        File ruta = carpeta.newFile();
+        try (AlmacenEstado almacen = new AlmacenEstado(ruta)) {
+            almacen.guardar(MaquinaEstados.ESTADO_CORRIENDO, 0, 1_000, 50_000);
+            almacen.guardar(MaquinaEstados.ESTADO_PAUSADO, 3_000, 4_000, 53_000);
+        }
+
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "rw")) {
+            archivo.seek(8 + 24);
+            archivo.writeLong(123_456);
+        }
+
+        assertEquals(MaquinaEstados.ESTADO_CORRIENDO, AlmacenEstado.leerInstantanea(ruta).estado);
+    }
+}
@@ -0,0 +1,100 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link CajaNegra} conserva los últimos eventos y que {@link LectorCajaNegra} los decodifica tal y como se registraron
+ */
+public class CajaNegraTest {
+
+    @Test
+    public void decodificaLosEventosRegistrados() throws IOException {
+        CajaNegra caja = new CajaNegra(8);
+        caja.registrar(1_000_000, CajaNegra.ORIGEN_WIDGET, CajaNegra.EVENTO_COMANDO, MaquinaEstados.COMANDO_EMPEZAR,
+                MaquinaEstados.ESTADO_DETENIDO, MaquinaEstados.ESTADO_CORRIENDO, 0x123456, 2_500_000);
+        caja.registrar(3_000_000, CajaNegra.ORIGEN_NOTIFICACION, CajaNegra.EVENTO_RECHAZADO, MaquinaEstados.COMANDO_REANUDAR,
+                MaquinaEstados.ESTADO_CORRIENDO, MaquinaEstados.ESTADO_CORRIENDO, 0, 0);
+
+        List<LectorCajaNegra.Evento> eventos = volcarYLeer(caja, 2);
+        LectorCajaNegra.Evento primero = eventos.get(0);
+        assertEquals(0, primero.secuencia);
+        assertEquals(1_000_000, primero.instanteNanos);
+        assertEquals(CajaNegra.ORIGEN_WIDGET, primero.origen);
+        assertEquals(CajaNegra.EVENTO_COMANDO, primero.evento);
+        assertEquals(MaquinaEstados.COMANDO_EMPEZAR, primero.comando);
+        assertEquals(MaquinaEstados.ESTADO_DETENIDO, primero.anterior);
+        assertEquals(MaquinaEstados.ESTADO_CORRIENDO, primero.nuevo);
+        assertEquals(0x123456, primero.idContador);
+        assertEquals(2_500_000, primero.latenciaNanos);
+
+        StringWriter texto = new StringWriter();
+        LectorCajaNegra.escribir(eventos, new PrintWriter(texto, true));
+        assertTrue(texto.toString(), texto.toString().contains("notificación RECHAZADO reanudar corriendo -> corriendo"));
+        assertTrue(texto.toString(), texto.toString().contains("2.000 ms"));
+    }
+
+    @Test
+    public void conservaLosUltimosEventosAlDarLaVuelta() throws IOException {
+        CajaNegra caja = new CajaNegra(5);
+        assertEquals(8, caja.getCapacidad());
+        for (int i = 0; i < 20; i++)
+            caja.registrar(i, CajaNegra.ORIGEN_SERVICIO, CajaNegra.EVENTO_TRANSICION, CajaNegra.SIN_COMANDO, 0, 0, i, 0);
+
+        List<LectorCajaNegra.Evento> eventos = volcarYLeer(caja, 8);
+        assertEquals(20, caja.getEventos());
+        for (int i = 0; i < eventos.size(); i++) {
+            assertEquals(12 + i, eventos.get(i).secuencia);
+            assertEquals(12 + i, eventos.get(i).idContador);
+        }
+    }
+
+    @Test
+    public void noMezclaRegistrosDeVariosHilos() throws Exception {
+        final CajaNegra caja = new CajaNegra(1024);
+        Thread[] hilos = new Thread[4];
+        for (int h = 0; h < hilos.length; h++) {
+            final int origen = h;
+            hilos[h] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Cada hilo escribe su origen también como cuenta y latencia, así que un registro mezclado no coincide
+                    for (int i = 0; i < 100_000; i++)
+                        caja.registrar(i, origen, CajaNegra.EVENTO_COMANDO, 0, 0, 0, origen, origen);
+                }
+            });
+            hilos[h].start();
+        }
+
+        // Se vuelca mientras escriben: los registros a medio escribir se descartan en lugar de salir mezclados
+        for (int i = 0; i < 20; i++) {
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            caja.volcar(salida);
+            for (LectorCajaNegra.Evento evento : LectorCajaNegra.leer(new ByteArrayInputStream(salida.toByteArray()))) {
+                assertEquals(evento.origen, evento.idContador);
+                assertEquals(evento.origen, evento.latenciaNanos);
+            }
+        }
+        for (Thread hilo : hilos)
+            hilo.join();
+
+        assertEquals(400_000, caja.getEventos());
+        volcarYLeer(caja, 1024);
+    }
+
+    private static List<LectorCajaNegra.Evento> volcarYLeer(CajaNegra caja, int esperados) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        assertEquals(esperados, caja.volcar(salida));
+        List<LectorCajaNegra.Evento> eventos = LectorCajaNegra.leer(new ByteArrayInputStream(salida.toByteArray()));
+        assertEquals(esperados, eventos.size());
+        return eventos;
+    }
+}
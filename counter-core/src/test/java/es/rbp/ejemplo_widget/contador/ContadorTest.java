@@ -0,0 +1,362 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static es.rbp.ejemplo_widget.contador.MaquinaEstados.*;
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba {@link Contador} en la JVM con un {@link RelojVirtual} que se avanza a mano
+ */
+public class ContadorTest {
+
+    /**
+     * Veces que se envían a la vez PARAR y EMPEZAR en {@link ContadorTest#pararYEmpezarALaVezAplicaLosDosEfectos()}
+     */
+    private static final int CARRERAS = 200;
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    private RelojVirtual reloj;
+
+    private Contador contador;
+
+    private final List<String> eventos = new ArrayList<>();
+
+    @Before
+    public void crearContador() {
+        reloj = new RelojVirtual(1_000_000);
+        contador = new Contador(reloj, reloj, true);
+        contador.agregarOyente(new Contador.Oyente() {
+            @Override
+            public void publicar(int id, int estado, int segundo) {
+            }
+
+            @Override
+            public void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base) {
+                eventos.add(id + ":" + anterior + "->" + nuevo + "@" + segundo);
+            }
+
+            @Override
+            public void alTick(int id, int segundo) {
+                eventos.add(id + ":" + segundo);
+            }
+        });
+    }
+
+    @Test
+    public void repartePausasYTicks() {
+        assertTrue(contador.ejecutar(COMANDO_EMPEZAR));
+        reloj.avanzar(2_500);
+        assertTrue(contador.ejecutar(COMANDO_PAUSAR));
+        assertFalse(contador.ejecutar(COMANDO_PAUSAR));
+        reloj.avanzar(10_000);
+        assertTrue(contador.ejecutar(COMANDO_REANUDAR));
+        reloj.avanzar(600);
+
+        assertEquals("[0:3->2@0, 0:1, 0:2, 0:2->1@2, 0:1->2@2, 0:3]", eventos.toString());
+        assertEquals(3_100, contador.getMilisTranscurridos());
+    }
+
+    @Test
+    public void sinNadieMirandoNoHayTicks() {
+        contador.ejecutar(COMANDO_EMPEZAR);
+        contador.setObservado(false);
+        reloj.avanzar(60_000);
+        assertEquals(1, eventos.size());
+        assertEquals(60, contador.getSegundoActual());
+
+        // Al volver a mirar se envía el segundo actual sin esperar al siguiente segundo entero
+        reloj.avanzar(300);
+        contador.setObservado(true);
+        reloj.avanzar(0);
+        assertEquals("0:60", eventos.get(1));
+    }
+
+    @Test
+    public void lasCuentasDelRegistroCompartenElTick() {
+        contador.observar(7);
+        contador.ejecutar(7, COMANDO_EMPEZAR);
+        reloj.avanzar(500);
+        contador.ejecutar(COMANDO_EMPEZAR);
+        reloj.avanzar(1_000);
+
+        assertEquals("[7:3->2@0, 0:3->2@0, 0:1, 7:1]", eventos.toString());
+        assertTrue(contador.ejecutar(7, COMANDO_PARAR));
+        contador.ejecutar(COMANDO_PARAR);
+        assertTrue(contador.estaDetenido());
+        assertEquals(0, reloj.pendientes());
+    }
+
+    @Test
+    public void soloRecibenElTickLasCuentasQueSeMuestran() {
+        contador.ejecutar(7, COMANDO_EMPEZAR);
+        contador.ejecutar(8, COMANDO_EMPEZAR);
+        // Sin ninguna cuenta mostrada ni la principal en marcha no hay tick
+        assertEquals(0, reloj.pendientes());
+
+        contador.observar(8);
+        assertEquals(1, contador.getObservadasRegistro());
+        reloj.avanzar(2_000);
+        assertEquals("[7:3->2@0, 8:3->2@0, 8:1, 8:2]", eventos.toString());
+
+        contador.dejarDeObservar(8);
+        assertEquals(0, reloj.pendientes());
+        reloj.avanzar(5_000);
+        assertEquals(4, eventos.size());
+        assertEquals(ESTADO_CORRIENDO, contador.getEstado(7));
+    }
+
+    @Test
+    public void enModoCronometroLasCuentasDelRegistroNoRecibenTick() {
+        final List<String> ticks = new ArrayList<>();
+        Contador cronometro = new Contador(reloj, reloj, false);
+        cronometro.agregarOyente(new Contador.Oyente() {
+            @Override
+            public void publicar(int id, int estado, int segundo) {
+            }
+
+            @Override
+            public void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base) {
+            }
+
+            @Override
+            public void alTick(int id, int segundo) {
+                ticks.add(id + ":" + segundo);
+            }
+        });
+
+        // Sin la cuenta principal en marcha no se programa ningún tick
+        cronometro.ejecutar(7, COMANDO_EMPEZAR);
+        assertEquals(0, reloj.pendientes());
+        reloj.avanzar(500);
+        cronometro.ejecutar(COMANDO_EMPEZAR);
+        reloj.avanzar(2_000);
+
+        assertEquals("[0:1, 0:2]", ticks.toString());
+        assertEquals(ESTADO_CORRIENDO, cronometro.getEstado(7));
+    }
+
+    @Test
+    public void siguePasandoComandosCuandoLaVersionVuelveA0() {
+        Contador cerca = new Contador(reloj, reloj, true, new MaquinaEstados((1 << MaquinaEstados.BITS_VERSION) - 2));
+        for (int vuelta = 0; vuelta < 3; vuelta++) {
+            assertTrue(cerca.ejecutar(COMANDO_EMPEZAR));
+            assertEquals(ESTADO_CORRIENDO, cerca.getEstado());
+            reloj.avanzar(1_000);
+            assertTrue(cerca.ejecutar(COMANDO_PAUSAR));
+            assertEquals(ESTADO_PAUSADO, cerca.getEstado());
+            assertEquals(1_000, cerca.getMilisTranscurridos());
+            assertTrue(cerca.ejecutar(COMANDO_PARAR));
+            assertEquals(ESTADO_DETENIDO, cerca.getEstado());
+        }
+    }
+
+    @Test
+    public void pararYEmpezarALaVezAplicaLosDosEfectos() throws Exception {
+        try (AlmacenEstado almacen = new AlmacenEstado(carpeta.newFile())) {
+            for (int carrera = 0; carrera < CARRERAS; carrera++) {
+                final CountDownLatch dentro = new CountDownLatch(1);
+                final CountDownLatch liberar = new CountDownLatch(1);
+                final AtomicInteger sesiones = new AtomicInteger();
+                final Contador concurrente = new Contador(reloj, reloj, true);
+                concurrente.setAlmacen(almacen);
+                concurrente.setOyenteSesiones(new Contador.OyenteSesiones() {
+                    @Override
+                    public void alTerminarSesion(long inicio, long fin, long milisContados, int pausas) {
+                        sesiones.incrementAndGet();
+                    }
+                });
+                concurrente.agregarOyente(new Contador.Oyente() {
+                    @Override
+                    public void publicar(int id, int estado, int segundo) {
+                        // Retiene el cerrojo de la cuenta al pausar, para que PARAR y EMPEZAR esperen a la vez a tomarlo
+                        if (estado != ESTADO_PAUSADO)
+                            return;
+                        dentro.countDown();
+                        try {
+                            liberar.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    @Override
+                    public void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base) {
+                    }
+
+                    @Override
+                    public void alTick(int id, int segundo) {
+                    }
+                });
+                concurrente.ejecutar(COMANDO_EMPEZAR);
+                reloj.avanzar(3_000);
+
+                Thread pausar = enviar(concurrente, COMANDO_PAUSAR);
+                dentro.await();
+                Thread parar = enviar(concurrente, COMANDO_PARAR);
+                esperarBloqueado(parar);
+                Thread empezar = enviar(concurrente, COMANDO_EMPEZAR);
+                esperarBloqueado(empezar);
+                liberar.countDown();
+                pausar.join();
+                parar.join();
+                empezar.join();
+
+                // PARAR siempre se aplica. Si EMPEZAR se aplica antes, reanuda la sesión pausada, y si se aplica después empieza una
+                // sesión nueva en 0, así que siempre se termina una sesión y la cuenta que sigue en marcha no arrastra los 3 segundos
+                assertEquals(1, sesiones.get());
+                if (concurrente.getEstado() == ESTADO_CORRIENDO)
+                    assertEquals(0, concurrente.getMilisTranscurridos());
+                else
+                    assertEquals(ESTADO_DETENIDO, concurrente.getEstado());
+
+                AlmacenEstado.EstadoGuardado guardado = almacen.leer();
+                assertEquals(concurrente.getEstado(), guardado.estado);
+                assertEquals(concurrente.getMilisTranscurridos(), guardado.milisAcumulados);
+                concurrente.ejecutar(COMANDO_PARAR);
+            }
+        }
+    }
+
+    /**
+     * Crea un hilo que envía un comando al contador
+     */
+    private static Thread enviar(final Contador contador, final int comando) {
+        Thread hilo = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                contador.ejecutar(comando);
+            }
+        });
+        hilo.start();
+        return hilo;
+    }
+
+    /**
+     * Espera a que un hilo esté bloqueado esperando un cerrojo
+     */
+    private static void esperarBloqueado(Thread hilo) {
+        while (hilo.getState() != Thread.State.BLOCKED)
+            Thread.yield();
+    }
+
+    @Test
+    public void elAnclaNanosSoloCambiaConElEstado() {
+        assertSame(AnclaNanos.DETENIDA, contador.getAnclaNanos());
+        contador.ejecutar(COMANDO_EMPEZAR);
+        AnclaNanos corriendo = contador.getAnclaNanos();
+        reloj.avanzar(2_345);
+        assertSame(corriendo, contador.getAnclaNanos());
+        assertEquals(2_345, corriendo.milisTranscurridos(reloj.ahoraNanos()));
+
+        contador.ejecutar(COMANDO_PAUSAR);
+        reloj.avanzar(10_000);
+        assertFalse(contador.getAnclaNanos().corriendo);
+        assertEquals(2_345, contador.getAnclaNanos().milisTranscurridos(reloj.ahoraNanos()));
+
+        contador.ejecutar(COMANDO_REANUDAR);
+        reloj.avanzar(655);
+        assertEquals(3_000, contador.getAnclaNanos().milisTranscurridos(reloj.ahoraNanos()));
+        assertEquals(contador.getMilisTranscurridos(), contador.getAnclaNanos().milisTranscurridos(reloj.ahoraNanos()));
+
+        contador.ejecutar(COMANDO_PARAR);
+        assertSame(AnclaNanos.DETENIDA, contador.getAnclaNanos());
+    }
+
+    @Test
+    public void mideElRetrasoDeCadaTick() {
+        contador.ejecutar(COMANDO_EMPEZAR);
+        reloj.avanzar(3_500);
+        contador.ejecutar(COMANDO_PAUSAR);
+        reloj.avanzar(5_000);
+
+        // El reloj virtual ejecuta cada tick justo cuando se programó, y el tick cancelado por la pausa no cuenta
+        HistogramaLatencia retraso = contador.getRetrasoTick();
+        assertEquals(3, retraso.getMuestras());
+        assertEquals(0, retraso.getMaximo());
+    }
+
+    @Test
+    public void marcaVueltasSoloConLaCuentaEnMarcha() {
+        LoteVueltas lote = new LoteVueltas();
+        assertFalse(contador.vuelta(reloj.ahoraNanos()));
+        contador.ejecutar(COMANDO_EMPEZAR);
+        reloj.avanzar(1_000);
+        assertTrue(contador.vuelta(reloj.ahoraNanos()));
+        contador.ejecutar(COMANDO_PAUSAR);
+        reloj.avanzar(5_000);
+        assertFalse(contador.vuelta(reloj.ahoraNanos()));
+        contador.ejecutar(COMANDO_REANUDAR);
+        reloj.avanzar(1_500);
+        assertTrue(contador.vuelta(reloj.ahoraNanos()));
+
+        // La pausa no cuenta en la duración de la vuelta
+        assertTrue(contador.leerVueltas(lote));
+        assertEquals(2, lote.tamano);
+        assertEquals(1_000_000_000L, lote.duraciones[0]);
+        assertEquals(1_500_000_000L, lote.duraciones[1]);
+        assertEquals(2_500_000_000L, lote.splits[1]);
+
+        // Cada sesión empieza sin vueltas
+        contador.ejecutar(COMANDO_PARAR);
+        contador.ejecutar(COMANDO_EMPEZAR);
+        assertTrue(contador.leerVueltas(lote));
+        assertTrue(lote.reinicio);
+        assertEquals(0, lote.tamano);
+    }
+
+    @Test
+    public void avisaDeLasSesionesTerminadas() {
+        final List<String> sesiones = new ArrayList<>();
+        contador.setOyenteSesiones(new Contador.OyenteSesiones() {
+            @Override
+            public void alTerminarSesion(long inicio, long fin, long milisContados, int pausas) {
+                sesiones.add(inicio + "-" + fin + ":" + milisContados + "/" + pausas);
+            }
+        });
+
+        contador.ejecutar(COMANDO_PARAR);
+        long inicio = reloj.ahoraPared();
+        contador.ejecutar(COMANDO_EMPEZAR);
+        reloj.avanzar(2_000);
+        contador.ejecutar(COMANDO_PAUSAR);
+        reloj.avanzar(5_000);
+        contador.ejecutar(COMANDO_REANUDAR);
+        reloj.avanzar(1_000);
+        contador.ejecutar(COMANDO_PAUSAR);
+        contador.ejecutar(COMANDO_PARAR);
+        contador.ejecutar(7, COMANDO_EMPEZAR);
+        contador.ejecutar(7, COMANDO_PARAR);
+
+        assertEquals("[" + inicio + "-" + (inicio + 8_000) + ":3000/2]", sesiones.toString());
+    }
+
+    @Test
+    public void restauraDesdeElAlmacen() throws IOException {
+        try (AlmacenEstado almacen = new AlmacenEstado(carpeta.newFile())) {
+            contador.setAlmacen(almacen);
+            contador.ejecutar(COMANDO_EMPEZAR);
+            reloj.avanzar(4_200);
+
+            // Un contador nuevo hace de servicio recreado tras morir el proceso
+            Contador restaurado = new Contador(reloj, reloj, true);
+            restaurado.setAlmacen(almacen);
+            reloj.avanzar(1_000);
+            assertTrue(restaurado.restaurar());
+            assertEquals(ESTADO_CORRIENDO, restaurado.getEstado());
+            assertEquals(5, restaurado.getSegundoActual());
+            assertEquals(5_200, restaurado.getAnclaNanos().milisTranscurridos(reloj.ahoraNanos()));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link DifusorContador} entrega a cada suscriptor solo el último valor cuando va retrasado, respeta lo que pide cada uno
+ * y deja de referenciar a los que se dan de baja
+ */
+public class DifusorContadorTest {
+
+    private final List<Integer> numerosSuscriptores = new ArrayList<>();
+
+    private final DifusorContador difusor = new DifusorContador(new DifusorContador.OyenteSuscriptores() {
+        @Override
+        public void alCambiarSuscriptores(int suscriptores) {
+            numerosSuscriptores.add(suscriptores);
+        }
+    });
+
+    @Test
+    public void entregaSoloElUltimoValor() {
+        Registro registro = new Registro(Long.MAX_VALUE);
+        difusor.suscribir(registro, registro);
+        for (int segundo = 1; segundo <= 1000; segundo++)
+            difusor.publicar(2, segundo);
+
+        assertEquals(1, registro.pendientes.size());
+        registro.ejecutar();
+        assertEquals("[2:1000]", registro.recibidos.toString());
+    }
+
+    @Test
+    public void vuelveAProgramarTrasEntregar() {
+        Registro registro = new Registro(Long.MAX_VALUE);
+        difusor.suscribir(registro, registro);
+        difusor.publicar(2, 1);
+        registro.ejecutar();
+        difusor.publicar(1, 2);
+
+        assertEquals(1, registro.pendientes.size());
+        registro.ejecutar();
+        assertEquals("[2:1, 1:2]", registro.recibidos.toString());
+    }
+
+    @Test
+    public void conservaSegundosGrandes() {
+        Registro registro = new Registro(Long.MAX_VALUE);
+        difusor.suscribir(registro, registro);
+        difusor.publicar(3, Integer.MAX_VALUE);
+        registro.ejecutar();
+        assertEquals("[3:" + Integer.MAX_VALUE + "]", registro.recibidos.toString());
+    }
+
+    @Test
+    public void alSuscribirseRecibeElUltimoValor() {
+        difusor.publicar(2, 41);
+        difusor.publicar(2, 42);
+        Registro registro = new Registro(Long.MAX_VALUE);
+        difusor.suscribir(registro, registro);
+        registro.ejecutar();
+        assertEquals("[2:42]", registro.recibidos.toString());
+    }
+
+    @Test
+    public void cadaSuscriptorVaASuRitmo() {
+        Registro rapido = new Registro(Long.MAX_VALUE);
+        Registro lento = new Registro(Long.MAX_VALUE);
+        difusor.suscribir(rapido, rapido);
+        difusor.suscribir(lento, lento);
+
+        for (int segundo = 1; segundo <= 3; segundo++) {
+            difusor.publicar(2, segundo);
+            rapido.ejecutar();
+        }
+        lento.ejecutar();
+
+        assertEquals("[2:1, 2:2, 2:3]", rapido.recibidos.toString());
+        assertEquals("[2:3]", lento.recibidos.toString());
+    }
+
+    @Test
+    public void respetaLaDemanda() {
+        Registro registro = new Registro(1);
+        difusor.suscribir(registro, registro);
+        difusor.publicar(2, 1);
+        difusor.publicar(2, 2);
+        registro.ejecutar();
+        difusor.publicar(2, 3);
+        assertTrue(registro.pendientes.isEmpty());
+        assertEquals("[2:2]", registro.recibidos.toString());
+
+        // Sin demanda el valor se queda guardado, conflado con los siguientes, hasta que se pide otro
+        difusor.publicar(2, 4);
+        registro.suscripcion.pedir(1);
+        registro.ejecutar();
+        assertEquals("[2:2, 2:4]", registro.recibidos.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rechazaPedirCeroValores() {
+        difusor.suscribir(new Registro(Long.MAX_VALUE), new Registro(Long.MAX_VALUE)).pedir(0);
+    }
+
+    @Test
+    public void cancelarQuitaAlSuscriptor() {
+        Registro registro = new Registro(Long.MAX_VALUE);
+        DifusorContador.Suscripcion suscripcion = difusor.suscribir(registro, registro);
+        difusor.publicar(2, 1);
+        suscripcion.cancelar();
+        suscripcion.cancelar();
+        registro.ejecutar();
+        difusor.publicar(2, 2);
+
+        assertTrue(registro.recibidos.isEmpty());
+        assertTrue(registro.pendientes.isEmpty());
+        assertEquals(0, difusor.getSuscriptores());
+        assertEquals("[1, 0]", numerosSuscriptores.toString());
+    }
+
+    @Test
+    public void cerrarEntregaLoPendienteYCompleta() {
+        Registro registro = new Registro(Long.MAX_VALUE);
+        difusor.suscribir(registro, registro);
+        difusor.publicar(2, 7);
+        difusor.cerrar();
+        difusor.publicar(2, 8);
+        registro.ejecutar();
+        assertEquals("[2:7, completado]", registro.recibidos.toString());
+
+        Registro tardio = new Registro(Long.MAX_VALUE);
+        difusor.suscribir(tardio, tardio);
+        tardio.ejecutar();
+        assertEquals("[completado]", tardio.recibidos.toString());
+        assertEquals("[1, 0]", numerosSuscriptores.toString());
+    }
+
+    /**
+     * Suscriptor que apunta lo que recibe, con un ejecutor que guarda las entregas hasta llamar a {@link Registro#ejecutar()}
+     */
+    private static class Registro implements DifusorContador.Suscriptor, Executor {
+
+        final Queue<Runnable> pendientes = new ArrayDeque<>();
+
+        final List<String> recibidos = new ArrayList<>();
+
+        /**
+         * Valores que se piden al suscribirse
+         */
+        private final long demandaInicial;
+
+        DifusorContador.Suscripcion suscripcion;
+
+        Registro(long demandaInicial) {
+            this.demandaInicial = demandaInicial;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pendientes.add(command);
+        }
+
+        void ejecutar() {
+            while (!pendientes.isEmpty())
+                pendientes.poll().run();
+        }
+
+        @Override
+        public void alSuscribirse(DifusorContador.Suscripcion suscripcion) {
+            this.suscripcion = suscripcion;
+            suscripcion.pedir(demandaInicial);
+        }
+
+        @Override
+        public void alRecibir(int estado, int segundo) {
+            recibidos.add(estado + ":" + segundo);
+        }
+
+        @Override
+        public void alCompletar() {
+            recibidos.add("completado");
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link EstadisticasSesiones} mantiene los totales, la racha y el cambio de día sin recorrer el historial, y que coinciden
+ * con los que se reconstruyen desde {@link HistorialSesiones}
+ */
+public class EstadisticasSesionesTest {
+
+    private static final long HORA = 3_600_000;
+
+    private static final long DIA = EstadisticasSesiones.MILIS_POR_DIA;
+
+    /**
+     * Lunes 5 de enero de 1970 a las 00:00 UTC
+     */
+    private static final long LUNES = 4 * DIA;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    @Test
+    public void sumaLosTotalesDeHoyYDeLaSemana() throws IOException {
+        try (EstadisticasSesiones estadisticas = new EstadisticasSesiones(carpeta.newFile(), UTC)) {
+            estadisticas.agregar(LUNES + 10 * HORA, 1_000);
+            estadisticas.agregar(LUNES + 2 * DIA + HORA, 2_000);
+            estadisticas.agregar(LUNES + 2 * DIA + 3 * HORA, 3_000);
+
+            EstadisticasSesiones.Resumen resumen = estadisticas.leer();
+            long miercoles = LUNES + 2 * DIA + 20 * HORA;
+            assertEquals(3, resumen.sesiones);
+            assertEquals(6_000, resumen.milisTotales);
+            assertEquals(2_000, resumen.getMediaMilis());
+            assertEquals(5_000, resumen.getMilisHoy(miercoles));
+            assertEquals(6_000, resumen.getMilisSemana(miercoles));
+
+            // Al día siguiente y a la semana siguiente los totales valen 0 sin que haga falta escribir nada
+            assertEquals(0, resumen.getMilisHoy(miercoles + DIA));
+            assertEquals(6_000, resumen.getMilisSemana(miercoles + DIA));
+            assertEquals(0, resumen.getMilisSemana(LUNES + 7 * DIA));
+            assertEquals(6_000, resumen.milisTotales);
+
+            estadisticas.agregar(LUNES + 7 * DIA + HORA, 500);
+            assertEquals(500, estadisticas.leer().getMilisSemana(LUNES + 7 * DIA + 2 * HORA));
+        }
+    }
+
+    @Test
+    public void cuentaLaRacha() throws IOException {
+        try (EstadisticasSesiones estadisticas = new EstadisticasSesiones(carpeta.newFile(), UTC)) {
+            for (int dia = 0; dia < 5; dia++) {
+                estadisticas.agregar(LUNES + dia * DIA + HORA, 1_000);
+                estadisticas.agregar(LUNES + dia * DIA + 2 * HORA, 1_000);
+            }
+
+            EstadisticasSesiones.Resumen resumen = estadisticas.leer();
+            assertEquals(5, resumen.getRacha(LUNES + 4 * DIA + 23 * HORA));
+            // La racha sigue viva el día siguiente, aunque aún no haya ninguna sesión
+            assertEquals(5, resumen.getRacha(LUNES + 5 * DIA + 12 * HORA));
+            assertEquals(0, resumen.getRacha(LUNES + 6 * DIA + 12 * HORA));
+
+            estadisticas.agregar(LUNES + 7 * DIA, 1_000);
+            resumen = estadisticas.leer();
+            assertEquals(1, resumen.getRacha(LUNES + 7 * DIA));
+            assertEquals(5, resumen.rachaMaxima);
+        }
+    }
+
+    @Test
+    public void cuentaLosDiasEnLaZonaHoraria() throws IOException {
+        // A las 23:30 UTC ya es el día siguiente en UTC+2
+        TimeZone zona = TimeZone.getTimeZone("GMT+02:00");
+        try (EstadisticasSesiones estadisticas = new EstadisticasSesiones(carpeta.newFile(), zona)) {
+            estadisticas.agregar(LUNES + 23 * HORA + HORA / 2, 1_000);
+            EstadisticasSesiones.Resumen resumen = estadisticas.leer();
+            assertEquals(1_000, resumen.getMilisHoy(LUNES + DIA + HORA));
+            assertEquals(0, resumen.getMilisHoy(LUNES + 12 * HORA));
+        }
+    }
+
+    @Test
+    public void restauraLosTotalesAunqueSeCorrompaUnaEscritura() throws IOException {
+        File ruta = carpeta.newFile();
+        try (EstadisticasSesiones estadisticas = new EstadisticasSesiones(ruta, UTC)) {
+            estadisticas.agregar(LUNES, 1_000);
+            estadisticas.agregar(LUNES + HORA, 2_000);
+        }
+
+        // Se corrompe el último hueco escrito, como si el proceso hubiera muerto a mitad de la escritura
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "rw")) {
+            archivo.seek(8 + 16);
+            archivo.writeLong(123_456);
+        }
+
+        try (EstadisticasSesiones estadisticas = new EstadisticasSesiones(ruta, UTC)) {
+            assertEquals(1, estadisticas.getSesiones());
+            estadisticas.agregar(LUNES + 2 * HORA, 4_000);
+            assertEquals(5_000, estadisticas.leer().milisTotales);
+        }
+    }
+
+    @Test
+    public void leeLaInstantaneaSinAbrirLasEstadisticas() throws IOException {
+        File ruta = new File(carpeta.getRoot(), "estadisticas.bin");
+        assertEquals(0, EstadisticasSesiones.leerInstantanea(ruta, UTC).sesiones);
+        assertFalse(ruta.exists());
+
+        try (EstadisticasSesiones estadisticas = new EstadisticasSesiones(ruta, UTC)) {
+            assertEquals(0, EstadisticasSesiones.leerInstantanea(ruta, UTC).sesiones);
+            estadisticas.agregar(LUNES + HORA, 1_000);
+            estadisticas.agregar(LUNES + 2 * HORA, 2_000);
+
+            // Se lee mientras las estadísticas siguen abiertas, como hacen la activity y el widget con el servicio en marcha
+            EstadisticasSesiones.Resumen resumen = EstadisticasSesiones.leerInstantanea(ruta, UTC);
+            assertEquals(2, resumen.sesiones);
+            assertEquals(3_000, resumen.getMilisHoy(LUNES + 3 * HORA));
+            assertEquals(1, resumen.getRacha(LUNES + 3 * HORA));
+        }
+
+        // Un archivo con otro formato no se reinicia, ya que solo lo hace quien lo abre para escribir
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "rw")) {
+            archivo.writeInt(0);
+        }
+        long tamano = ruta.length();
+        assertEquals(0, EstadisticasSesiones.leerInstantanea(ruta, UTC).sesiones);
+        assertEquals(tamano, ruta.length());
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "r")) {
+            assertEquals(0, archivo.readInt());
+        }
+    }
+
+    @Test
+    public void laInstantaneaIgnoraUnaEscrituraIncompleta() throws IOException {
+        File ruta = carpeta.newFile();
+        try (EstadisticasSesiones estadisticas = new EstadisticasSesiones(ruta, UTC)) {
+            estadisticas.agregar(LUNES, 1_000);
+            estadisticas.agregar(LUNES + HORA, 2_000);
+        }
+
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "rw")) {
+            archivo.seek(8 + 16);
+            archivo.writeLong(123_456);
+        }
+
+        assertEquals(1_000, EstadisticasSesiones.leerInstantanea(ruta, UTC).milisTotales);
+    }
+
+    @Test
+    public void coincideConLasReconstruidasDesdeElHistorial() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile());
+             EstadisticasSesiones incrementales = new EstadisticasSesiones(carpeta.newFile(), UTC);
+             EstadisticasSesiones reconstruidas = new EstadisticasSesiones(carpeta.newFile(), UTC)) {
+            long fin = LUNES;
+            for (int i = 0; i < 1000; i++) {
+                // Sesiones cada vez más separadas, para que haya rachas que se rompen
+                fin += HORA * (1 + i % 50);
+                historial.agregar(fin - 1_000 * i, fin, 1_000 * i, i % 4);
+                incrementales.agregar(fin, 1_000 * i);
+            }
+            reconstruidas.reconstruir(historial);
+
+            EstadisticasSesiones.Resumen esperado = incrementales.leer();
+            EstadisticasSesiones.Resumen resumen = reconstruidas.leer();
+            assertEquals(esperado.sesiones, resumen.sesiones);
+            assertEquals(esperado.milisTotales, resumen.milisTotales);
+            assertEquals(esperado.rachaMaxima, resumen.rachaMaxima);
+            assertEquals(esperado.getMilisHoy(fin), resumen.getMilisHoy(fin));
+            assertEquals(esperado.getMilisSemana(fin), resumen.getMilisSemana(fin));
+            assertEquals(esperado.getRacha(fin), resumen.getRacha(fin));
+            assertTrue(resumen.rachaMaxima > 1);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link ExportadorSesiones} escribe las sesiones del rango en CSV y en JSON, en bloques que nunca pasan del tamaño
+ * indicado, y que deja de escribir al cancelarlo
+ */
+public class ExportadorSesionesTest {
+
+    private static final long HORA = 3_600_000;
+
+    private static final int BLOQUE_MINIMO = ExportadorSesiones.MAXIMO_BYTES_SESION * HistorialSesiones.REGISTROS_POR_PAGINA;
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    @Test
+    public void exportaEnCsv() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            historial.agregar(HORA, 2 * HORA, 1_500, 0);
+            historial.agregar(3 * HORA, 5 * HORA, 60_000, 2);
+
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            ExportadorSesiones exportador = new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_CSV, 0, Long.MAX_VALUE);
+            assertEquals(2, exportador.exportar(salida));
+            assertEquals("inicio,fin,milis_contados,pausas\n"
+                    + "3600000,7200000,1500,0\n"
+                    + "10800000,18000000,60000,2\n", texto(salida));
+            assertEquals(salida.size(), exportador.getBytesEscritos());
+        }
+    }
+
+    @Test
+    public void exportaEnJson() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_JSON, 0, Long.MAX_VALUE).exportar(salida);
+            assertEquals("[\n]\n", texto(salida));
+
+            historial.agregar(HORA, 2 * HORA, 1_500, 0);
+            historial.agregar(3 * HORA, 5 * HORA, 60_000, 2);
+            salida.reset();
+            new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_JSON, 0, Long.MAX_VALUE).exportar(salida);
+            assertEquals("[\n"
+                    + "{\"inicio\":3600000,\"fin\":7200000,\"milisContados\":1500,\"pausas\":0},\n"
+                    + "{\"inicio\":10800000,\"fin\":18000000,\"milisContados\":60000,\"pausas\":2}\n"
+                    + "]\n", texto(salida));
+        }
+    }
+
+    @Test
+    public void soloExportaElRango() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            for (int i = 0; i < 1000; i++)
+                historial.agregar(i * HORA, i * HORA + 1, i, 0);
+
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            ExportadorSesiones exportador = new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_CSV, 500 * HORA, 510 * HORA);
+            assertEquals(10, exportador.exportar(salida));
+            String[] lineas = texto(salida).split("\n");
+            assertEquals(11, lineas.length);
+            assertEquals(500 * HORA + "," + (500 * HORA + 1) + ",500,0", lineas[1]);
+            assertEquals(509 * HORA + "," + (509 * HORA + 1) + ",509,0", lineas[10]);
+            assertEquals(1, historial.getPaginasLeidas());
+        }
+    }
+
+    @Test
+    public void escribeEnBloquesAcotados() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            // Los números más largos posibles, para comprobar que una página siempre cabe en el bloque. Las que empiezan en
+            // Long.MAX_VALUE quedan fuera del rango
+            for (int i = 0; i < 1000; i++)
+                historial.agregar(i % 2 == 0 ? Long.MIN_VALUE : Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE);
+
+            final int[] escrituras = new int[1];
+            ByteArrayOutputStream salida = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    assertTrue(len <= BLOQUE_MINIMO);
+                    escrituras[0]++;
+                    super.write(b, off, len);
+                }
+            };
+            ExportadorSesiones exportador = new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_JSON, Long.MIN_VALUE,
+                    Long.MAX_VALUE, BLOQUE_MINIMO);
+            assertEquals(500, exportador.exportar(salida));
+            assertTrue(escrituras[0] > 1);
+
+            String[] lineas = texto(salida).split("\n");
+            assertEquals(500 + 2, lineas.length);
+            assertEquals("{\"inicio\":-9223372036854775808,\"fin\":-9223372036854775808,"
+                    + "\"milisContados\":-9223372036854775808,\"pausas\":-2147483648},", lineas[1]);
+            assertTrue(lineas[1].length() <= ExportadorSesiones.MAXIMO_BYTES_SESION);
+        }
+    }
+
+    @Test
+    public void dejaDeEscribirAlCancelar() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            for (int i = 0; i < 10_000; i++)
+                historial.agregar(i * HORA, i * HORA + 1, i, 0);
+
+            final ExportadorSesiones exportador = new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_CSV, 0, Long.MAX_VALUE,
+                    BLOQUE_MINIMO);
+            OutputStream salida = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    throw new AssertionError();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    exportador.cancelar();
+                }
+            };
+            long exportadas = exportador.exportar(salida);
+            assertTrue(exportador.estaCancelado());
+            assertTrue(exportadas < 1000);
+            assertTrue(historial.getPaginasLeidas() < 10);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rechazaUnBloqueDondeNoCabeUnaPagina() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            new ExportadorSesiones(historial, ExportadorSesiones.FORMATO_CSV, 0, Long.MAX_VALUE, BLOQUE_MINIMO - 1);
+        }
+    }
+
+    private static String texto(ByteArrayOutputStream salida) {
+        return new String(salida.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,89 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que las cubetas de {@link HistogramaLatencia} cubren todo el rango sin huecos y que los percentiles se alejan como mucho un
+ * 25% del valor real, también con muestras registradas desde varios hilos
+ */
+public class HistogramaLatenciaTest {
+
+    @Test
+    public void lasCubetasSonContiguas() {
+        assertEquals(0, HistogramaLatencia.limiteInferior(0));
+        for (int i = 1; i < HistogramaLatencia.CUBETAS; i++) {
+            long inferior = HistogramaLatencia.limiteInferior(i);
+            assertEquals(HistogramaLatencia.limiteSuperior(i - 1) + 1, inferior);
+            assertEquals(i, HistogramaLatencia.cubeta(inferior));
+            assertEquals(i, HistogramaLatencia.cubeta(HistogramaLatencia.limiteSuperior(i)));
+        }
+        assertEquals(HistogramaLatencia.CUBETAS - 1, HistogramaLatencia.cubeta(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void calculaLosPercentiles() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        for (int i = 1; i <= 1000; i++)
+            histograma.registrar(i * 1_000L);
+        histograma.registrar(-5);
+
+        assertEquals(1001, histograma.getMuestras());
+        assertEquals(1_000_000, histograma.getMaximo());
+        assertEquals(500_000, histograma.getMedia(), 1_000);
+        assertPercentil(500_000, histograma.getPercentil(50));
+        assertPercentil(990_000, histograma.getPercentil(99));
+        assertEquals(1_000_000, histograma.getPercentil(100));
+        assertEquals(0, histograma.getPercentil(0.01));
+    }
+
+    @Test
+    public void registraDesdeVariosHilos() throws InterruptedException {
+        final HistogramaLatencia histograma = new HistogramaLatencia();
+        Thread[] hilos = new Thread[4];
+        for (int h = 0; h < hilos.length; h++) {
+            final long semilla = h;
+            hilos[h] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(semilla);
+                    for (int i = 0; i < 100_000; i++)
+                        histograma.registrar(random.nextInt(10_000_000));
+                }
+            });
+            hilos[h].start();
+        }
+        for (Thread hilo : hilos)
+            hilo.join();
+
+        long suma = 0;
+        for (int i = 0; i < HistogramaLatencia.CUBETAS; i++)
+            suma += histograma.getMuestras(i);
+        assertEquals(400_000, histograma.getMuestras());
+        assertEquals(400_000, suma);
+        assertPercentil(5_000_000, histograma.getPercentil(50));
+    }
+
+    @Test
+    public void escribeSoloLasCubetasConMuestras() {
+        HistogramaLatencia histograma = new HistogramaLatencia();
+        histograma.registrar(1_100_000);
+        histograma.registrar(1_200_000);
+        StringWriter texto = new StringWriter();
+        histograma.escribir(new PrintWriter(texto, true), "  ");
+
+        String[] lineas = texto.toString().split("\n");
+        assertEquals(2, lineas.length);
+        assertTrue(lineas[0], lineas[0].startsWith("  n=2 "));
+        assertTrue(lineas[1], lineas[1].endsWith(" us: 2"));
+    }
+
+    private static void assertPercentil(long esperado, long percentil) {
+        assertTrue(esperado + " ~ " + percentil, Math.abs(percentil - esperado) <= esperado / 4);
+    }
+}
@@ -0,0 +1,159 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link HistorialSesiones} devuelve las sesiones de un rango leyendo solo sus páginas, y que sobrevive a una escritura a
+ * medias y a la pérdida del índice
+ */
+public class HistorialSesionesTest {
+
+    private static final long HORA = 3_600_000;
+
+    private static final long DIA = 24 * HORA;
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    private final List<String> visitadas = new ArrayList<>();
+
+    private final HistorialSesiones.Visitante visitante = new HistorialSesiones.Visitante() {
+        @Override
+        public void visitar(long inicio, long fin, long milisContados, int pausas) {
+            visitadas.add(inicio / HORA + "-" + fin / HORA + ":" + milisContados + "/" + pausas);
+        }
+    };
+
+    @Test
+    public void guardaYLeeLasSesiones() throws IOException {
+        File registro = carpeta.newFile();
+        File indice = carpeta.newFile();
+        try (HistorialSesiones historial = new HistorialSesiones(registro, indice)) {
+            historial.agregar(HORA, 2 * HORA, 1_500, 0);
+            historial.agregar(3 * HORA, 5 * HORA, 60_000, 2);
+        }
+
+        try (HistorialSesiones historial = new HistorialSesiones(registro, indice)) {
+            assertEquals(2, historial.getSesiones());
+            assertEquals(2, historial.consultar(0, Long.MAX_VALUE, visitante));
+            assertEquals("[1-2:1500/0, 3-5:60000/2]", visitadas.toString());
+        }
+    }
+
+    @Test
+    public void soloLeeLasPaginasDelRango() throws IOException {
+        // Una sesión por hora durante 100 días: 2400 sesiones en 19 páginas
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            for (int i = 0; i < 2400; i++)
+                historial.agregar(i * HORA, i * HORA + HORA / 2, HORA / 2, 1);
+
+            assertEquals(30 * 24, historial.consultar(70 * DIA, 100 * DIA, visitante));
+            assertEquals("1680-1680:1800000/1", visitadas.get(0));
+            assertEquals(6, historial.getPaginasLeidas());
+
+            assertEquals(24, historial.consultar(10 * DIA, 11 * DIA, visitante));
+            assertEquals(6 + 2, historial.getPaginasLeidas());
+
+            assertEquals(0, historial.consultar(200 * DIA, 300 * DIA, visitante));
+            assertEquals(6 + 2, historial.getPaginasLeidas());
+        }
+    }
+
+    @Test
+    public void consultaPaginaAPagina() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            for (int i = 0; i < 2400; i++)
+                historial.agregar(i * HORA, i * HORA + HORA / 2, HORA / 2, 1);
+
+            // Del día 70 al 100 hay 720 sesiones, de la página 13 a la 18, y cada llamada lee como mucho una
+            int pagina = 0;
+            long leidas = 0;
+            while (pagina != HistorialSesiones.FIN_CONSULTA) {
+                pagina = historial.consultarPagina(pagina, 70 * DIA, 100 * DIA, visitante);
+                assertTrue(historial.getPaginasLeidas() - leidas <= 1);
+                leidas = historial.getPaginasLeidas();
+            }
+            assertEquals(720, visitadas.size());
+            assertEquals("1680-1680:1800000/1", visitadas.get(0));
+            assertEquals(6, leidas);
+
+            assertEquals(HistorialSesiones.FIN_CONSULTA, historial.consultarPagina(0, 200 * DIA, 300 * DIA, visitante));
+        }
+    }
+
+    @Test
+    public void encuentraSesionesSiElRelojRetrocede() throws IOException {
+        try (HistorialSesiones historial = new HistorialSesiones(carpeta.newFile(), carpeta.newFile())) {
+            for (int i = 0; i < 500; i++)
+                historial.agregar((1000 + i) * HORA, (1000 + i) * HORA, 0, 0);
+            // Se ajusta el reloj de pared hacia atrás
+            for (int i = 0; i < 300; i++)
+                historial.agregar((10 + i) * HORA, (10 + i) * HORA, 0, 0);
+
+            assertEquals(10, historial.consultar(10 * HORA, 20 * HORA, visitante));
+            assertEquals(20, historial.consultar(1290 * HORA, 1310 * HORA, visitante));
+        }
+    }
+
+    @Test
+    public void descartaUnaEscrituraIncompleta() throws IOException {
+        File registro = carpeta.newFile();
+        File indice = carpeta.newFile();
+        try (HistorialSesiones historial = new HistorialSesiones(registro, indice)) {
+            for (int i = 0; i < 200; i++)
+                historial.agregar(i * HORA, i * HORA, i, 0);
+        }
+
+        // El proceso muere a mitad de la última sesión: se queda sin CRC y con un trozo de la siguiente
+        try (RandomAccessFile archivo = new RandomAccessFile(registro, "rw")) {
+            archivo.seek(archivo.length() - 4);
+            archivo.writeInt(0);
+            archivo.write(new byte[10]);
+        }
+
+        try (HistorialSesiones historial = new HistorialSesiones(registro, indice)) {
+            assertEquals(199, historial.getSesiones());
+            assertEquals(1, historial.consultar(198 * HORA, 300 * HORA, visitante));
+
+            historial.agregar(400 * HORA, 401 * HORA, 7, 1);
+            assertEquals(2, historial.consultar(198 * HORA, Long.MAX_VALUE, visitante));
+            assertEquals("[198-198:198/0, 198-198:198/0, 400-401:7/1]", visitadas.toString());
+        }
+        assertEquals(32 + 200 * HistorialSesiones.TAMANO_REGISTRO, registro.length());
+    }
+
+    @Test
+    public void reconstruyeElIndice() throws IOException {
+        File registro = carpeta.newFile();
+        File indice = carpeta.newFile();
+        try (HistorialSesiones historial = new HistorialSesiones(registro, indice)) {
+            for (int i = 0; i < 1000; i++)
+                historial.agregar(i * HORA, i * HORA, 0, 0);
+        }
+        assertTrue(indice.delete());
+
+        try (HistorialSesiones historial = new HistorialSesiones(registro, indice)) {
+            assertEquals(100, historial.consultar(500 * HORA, 600 * HORA, visitante));
+            assertEquals(2, historial.getPaginasLeidas());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rechazaOtrosArchivos() throws IOException {
+        File registro = carpeta.newFile();
+        try (RandomAccessFile archivo = new RandomAccessFile(registro, "rw")) {
+            archivo.write(new byte[64]);
+        }
+        new HistorialSesiones(registro, carpeta.newFile());
+    }
+}
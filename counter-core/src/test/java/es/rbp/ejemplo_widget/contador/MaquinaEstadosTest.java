@@ -0,0 +1,142 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static es.rbp.ejemplo_widget.contador.MaquinaEstados.*;
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba las transiciones de {@link MaquinaEstados} y que se mantienen sus invariantes con comandos concurrentes
+ */
+public class MaquinaEstadosTest {
+
+    private static final int HILOS = 4;
+
+    private static final int COMANDOS_POR_HILO = 1_000_000;
+
+    @Test
+    public void tablaDeTransiciones() {
+        MaquinaEstados maquina = new MaquinaEstados();
+        assertEquals(ESTADO_DETENIDO, maquina.estado());
+
+        assertEquals(RECHAZADA, maquina.aplicar(COMANDO_PAUSAR));
+        assertEquals(RECHAZADA, maquina.aplicar(COMANDO_REANUDAR));
+        assertEquals(RECHAZADA, maquina.aplicar(COMANDO_PARAR));
+
+        long transicion = maquina.aplicar(COMANDO_EMPEZAR);
+        assertEquals(ESTADO_DETENIDO, anterior(transicion));
+        assertEquals(ESTADO_CORRIENDO, nuevo(transicion));
+        assertEquals(1, version(transicion));
+
+        assertEquals(RECHAZADA, maquina.aplicar(COMANDO_EMPEZAR));
+        assertEquals(ESTADO_PAUSADO, nuevo(maquina.aplicar(COMANDO_PAUSAR)));
+        assertEquals(ESTADO_CORRIENDO, nuevo(maquina.aplicar(COMANDO_REANUDAR)));
+
+        transicion = maquina.aplicar(COMANDO_PARAR);
+        assertEquals(ESTADO_DETENIDO, nuevo(transicion));
+        assertEquals(4, version(transicion));
+    }
+
+    @Test
+    public void reconoceLosComandos() {
+        assertTrue(esComando(COMANDO_EMPEZAR));
+        assertTrue(esComando(COMANDO_PARAR));
+        assertFalse(esComando(-1));
+        assertFalse(esComando(COMANDO_PARAR + 1));
+    }
+
+    @Test
+    public void laVersionVuelveA0() {
+        int maxima = (1 << BITS_VERSION) - 1;
+        MaquinaEstados maquina = new MaquinaEstados(maxima - 1);
+        assertTrue(maquina.restaurar(ESTADO_PAUSADO));
+        assertEquals(maxima - 1, maquina.version());
+
+        long ultima = maquina.aplicar(COMANDO_REANUDAR);
+        assertEquals(maxima, version(ultima));
+        long primera = maquina.aplicar(COMANDO_PAUSAR);
+        assertEquals(0, version(primera));
+        assertEquals(ESTADO_PAUSADO, nuevo(primera));
+        assertEquals(ESTADO_CORRIENDO, anterior(primera));
+
+        assertTrue(esPosterior(version(primera), version(ultima)));
+        assertFalse(esPosterior(version(ultima), version(primera)));
+        assertFalse(esPosterior(0, 0));
+        assertTrue(esPosterior(1 << (BITS_VERSION - 1) - 1, 0));
+        assertFalse(esPosterior(1 << (BITS_VERSION - 1), 0));
+    }
+
+    @Test
+    public void comandosConcurrentes() throws InterruptedException {
+        final MaquinaEstados maquina = new MaquinaEstados();
+        // Transiciones aplicadas por cada hilo, indexadas por [hilo][anterior][nuevo]
+        final long[][][] aplicadas = new long[HILOS][4][4];
+        final long[] ultimaVersion = new long[HILOS];
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch salida = new CountDownLatch(1);
+        Thread[] hilos = new Thread[HILOS];
+
+        for (int h = 0; h < HILOS; h++) {
+            final int hilo = h;
+            hilos[h] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(hilo);
+                        salida.await();
+                        for (int i = 0; i < COMANDOS_POR_HILO; i++) {
+                            int comando = random.nextInt(4);
+                            long transicion = maquina.aplicar(comando);
+                            if (transicion == RECHAZADA)
+                                continue;
+
+                            int anterior = anterior(transicion);
+                            int nuevo = nuevo(transicion);
+                            assertEquals(nuevo, destino(anterior, comando));
+                            // Las versiones que ve un mismo hilo siempre aumentan
+                            assertTrue(version(transicion) > ultimaVersion[hilo]);
+                            ultimaVersion[hilo] = version(transicion);
+                            aplicadas[hilo][anterior][nuevo]++;
+                        }
+                    } catch (Throwable t) {
+                        error[0] = t;
+                    }
+                }
+            });
+            hilos[h].start();
+        }
+
+        salida.countDown();
+        for (Thread hilo : hilos)
+            hilo.join();
+        if (error[0] != null)
+            throw new AssertionError(error[0]);
+
+        long total = 0;
+        long[] entradas = new long[4];
+        long[] salidas = new long[4];
+        for (long[][] porHilo : aplicadas)
+            for (int anterior = 1; anterior <= 3; anterior++)
+                for (int nuevo = 1; nuevo <= 3; nuevo++) {
+                    entradas[nuevo] += porHilo[anterior][nuevo];
+                    salidas[anterior] += porHilo[anterior][nuevo];
+                    total += porHilo[anterior][nuevo];
+                }
+
+        // Cada transición aplicada sale del estado en el que dejó la máquina la anterior
+        int estadoFinal = maquina.estado();
+        for (int estado = 1; estado <= 3; estado++) {
+            long esperado = (estado == estadoFinal ? 1 : 0) - (estado == ESTADO_DETENIDO ? 1 : 0);
+            assertEquals(esperado, entradas[estado] - salidas[estado]);
+        }
+
+        // Ninguna transición se ha perdido ni duplicado
+        long transicion = maquina.aplicar(COMANDO_PARAR);
+        if (transicion == RECHAZADA)
+            transicion = maquina.aplicar(COMANDO_EMPEZAR);
+        assertEquals(total + 1, version(transicion));
+    }
+}
@@ -0,0 +1,70 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link MotorTick} no acumula deriva con un reloj simulado en el que cada tick llega con retraso
+ */
+public class MotorTickTest {
+
+    private static final int SEGUNDOS_24_HORAS = 24 * 60 * 60;
+
+    /**
+     * Retraso máximo del looper más el tiempo que tarda el tick en actualizar las vistas
+     */
+    private static final long JITTER_MAXIMO = 250;
+
+    @Test
+    public void sinDerivaEn24Horas() {
+        Random random = new Random(42);
+        MotorTick motor = new MotorTick();
+
+        long ahora = 5_000;
+        long ancla = ahora;
+        motor.empezar(ahora);
+        long programado = ahora + motor.retrasoSiguienteTick(ahora);
+
+        for (int tick = 1; tick <= SEGUNDOS_24_HORAS; tick++) {
+            // El tick se ejecuta tarde y además tarda en actualizar la notificación y el widget
+            ahora = programado + random.nextInt((int) JITTER_MAXIMO / 2);
+            assertEquals(tick, motor.segundosTranscurridos(ahora));
+
+            ahora += random.nextInt((int) JITTER_MAXIMO / 2);
+            programado = ahora + motor.retrasoSiguienteTick(ahora);
+            assertEquals(ancla + (tick + 1) * MotorTick.MILIS_POR_SEGUNDO, programado);
+        }
+
+        assertEquals(SEGUNDOS_24_HORAS, motor.segundosTranscurridos(ancla + SEGUNDOS_24_HORAS * MotorTick.MILIS_POR_SEGUNDO));
+    }
+
+    @Test
+    public void descuentaLasPausas() {
+        MotorTick motor = new MotorTick();
+        motor.empezar(1_000);
+
+        motor.pausar(3_500);
+        assertTrue(motor.estaPausado());
+        assertEquals(2, motor.segundosTranscurridos(60_000));
+
+        motor.reanudar(10_000);
+        assertEquals(2_500, motor.milisTranscurridos(10_000));
+        assertEquals(500, motor.retrasoSiguienteTick(10_000));
+        assertEquals(3, motor.segundosTranscurridos(10_500));
+        assertEquals(7_500, motor.base(10_000));
+        assertEquals(7_500, motor.base(20_000));
+    }
+
+    @Test
+    public void pararReiniciaLaCuenta() {
+        MotorTick motor = new MotorTick();
+        motor.empezar(0);
+        motor.parar();
+
+        assertFalse(motor.estaEmpezado());
+        assertEquals(0, motor.segundosTranscurridos(10_000));
+    }
+}
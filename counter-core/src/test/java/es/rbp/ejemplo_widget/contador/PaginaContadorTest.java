@@ -0,0 +1,153 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link PaginaContador} entrega a un lector con su propio mapeo del archivo, como el de otro proceso, solo
+ * publicaciones completas
+ */
+public class PaginaContadorTest {
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    @Test
+    public void elLectorVeLaUltimaPublicacion() throws IOException {
+        File ruta = carpeta.newFile("pagina.bin");
+        try (PaginaContador pagina = new PaginaContador(ruta);
+             PaginaContador.Lector lector = PaginaContador.Lector.abrir(ruta)) {
+            PaginaContador.Instantanea instantanea = new PaginaContador.Instantanea();
+            assertFalse("Sin publicaciones no hay nada que leer", lector.leer(instantanea));
+
+            AnclaNanos ancla = AnclaNanos.corriendo(5_000_000_000L, 2_000_000_000L);
+            pagina.publicar(MaquinaEstados.ESTADO_CORRIENDO, 2, ancla, 1_000, 50_000);
+            pagina.publicarVueltas(3, 400_000_000, 900_000_000, 600_000_000);
+
+            assertTrue(lector.leer(instantanea));
+            assertEquals(MaquinaEstados.ESTADO_CORRIENDO, instantanea.estado);
+            assertEquals(2, instantanea.segundo);
+            assertEquals(1_000, instantanea.marcaMonotona);
+            assertEquals(3, instantanea.vueltas);
+            assertEquals(400_000_000, instantanea.mejor);
+            assertEquals(900_000_000, instantanea.peor);
+            assertEquals(600_000_000, instantanea.media);
+            assertEquals(2, pagina.getPublicaciones());
+
+            AnclaNanos leida = instantanea.getAncla();
+            assertTrue(leida.corriendo);
+            assertEquals(ancla.nanosTranscurridos(7_000_000_000L), leida.nanosTranscurridos(7_000_000_000L));
+            assertEquals(49_000, instantanea.anclaArranque);
+            assertTrue(instantanea.esDeEsteArranque(1_000, 50_000));
+            assertTrue(instantanea.esDeEsteArranque(60_000, 111_000));
+            // Reiniciado: el reloj monótono ha vuelto a empezar y va por detrás de la marca o ya la ha superado
+            assertFalse(instantanea.esDeEsteArranque(999, 900_000));
+            assertFalse(instantanea.esDeEsteArranque(200_000, 900_000));
+
+            // Sin cambios en el ancla no se crea otra
+            long secuencia = instantanea.secuencia;
+            pagina.publicar(MaquinaEstados.ESTADO_CORRIENDO, 3, ancla, 2_000, 51_000);
+            assertTrue(lector.leer(instantanea));
+            assertTrue(instantanea.secuencia > secuencia);
+            assertSame(leida, instantanea.getAncla());
+
+            pagina.publicar(MaquinaEstados.ESTADO_DETENIDO, 0, AnclaNanos.DETENIDA, 3_000, 52_000);
+            assertTrue(lector.leer(instantanea));
+            assertSame(AnclaNanos.DETENIDA, instantanea.getAncla());
+        }
+    }
+
+    @Test
+    public void rechazaUnaEscrituraInterrumpida() throws IOException {
+        File ruta = carpeta.newFile("pagina.bin");
+        try (PaginaContador pagina = new PaginaContador(ruta)) {
+            pagina.publicar(MaquinaEstados.ESTADO_PAUSADO, 7, AnclaNanos.pausada(7_500_000_000L), 1_000, 50_000);
+        }
+
+        // El proceso muere con la secuencia impar, a mitad de la siguiente escritura
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "rw")) {
+            archivo.seek(8);
+            archivo.write(new byte[]{3, 0, 0, 0, 0, 0, 0, 0});
+        }
+
+        PaginaContador.Instantanea instantanea = new PaginaContador.Instantanea();
+        try (PaginaContador.Lector lector = PaginaContador.Lector.abrir(ruta)) {
+            assertFalse(lector.leer(instantanea));
+
+            // Al volver a abrirla el escritor sigue con una secuencia mayor y los lectores vuelven a leer
+            try (PaginaContador pagina = new PaginaContador(ruta)) {
+                pagina.publicar(MaquinaEstados.ESTADO_PAUSADO, 7, AnclaNanos.pausada(7_500_000_000L), 2_000, 51_000);
+                assertTrue(lector.leer(instantanea));
+                assertEquals(4, instantanea.secuencia);
+                assertEquals(7_500, instantanea.getAncla().milisTranscurridos(0));
+            }
+        }
+    }
+
+    @Test
+    public void noAbreUnArchivoQueNoEsUnaPagina() throws IOException {
+        assertNull(PaginaContador.Lector.abrir(new File(carpeta.getRoot(), "no_existe.bin")));
+
+        File ruta = carpeta.newFile("otro.bin");
+        try (RandomAccessFile archivo = new RandomAccessFile(ruta, "rw")) {
+            archivo.setLength(PaginaContador.TAMANO);
+        }
+        assertNull(PaginaContador.Lector.abrir(ruta));
+    }
+
+    @Test
+    public void nuncaEntregaUnaPublicacionMezclada() throws Exception {
+        File ruta = carpeta.newFile("pagina.bin");
+        final PaginaContador pagina = new PaginaContador(ruta);
+        final AtomicBoolean seguir = new AtomicBoolean(true);
+        Thread escritor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Todos los campos de la publicación i se derivan de i, así que una mezcla de dos publicaciones no cuadra
+                for (int i = 1; seguir.get(); i++) {
+                    pagina.publicar(MaquinaEstados.ESTADO_CORRIENDO, i, AnclaNanos.pausada(i * 3L), i * 5L, i * 17L);
+                    pagina.publicarVueltas(i, i * 7L, i * 11L, i * 13L);
+                }
+            }
+        });
+        escritor.start();
+
+        int leidas = 0;
+        try (PaginaContador.Lector lector = PaginaContador.Lector.abrir(ruta)) {
+            PaginaContador.Instantanea instantanea = new PaginaContador.Instantanea();
+            long anterior = 0;
+            long fin = System.nanoTime() + 500_000_000L;
+            while (System.nanoTime() < fin) {
+                if (!lector.leer(instantanea))
+                    continue;
+
+                leidas++;
+                long i = instantanea.segundo;
+                assertEquals(i * 3, instantanea.getAncla().nanosTranscurridos(0));
+                assertEquals(i * 5, instantanea.marcaMonotona);
+                assertEquals(i * 12, instantanea.anclaArranque);
+                // Entre las dos publicaciones de la vuelta i el resumen de vueltas es el de la i - 1
+                long v = instantanea.vueltas;
+                assertTrue(v == i || v == i - 1);
+                assertEquals(v * 7, instantanea.mejor);
+                assertEquals(v * 11, instantanea.peor);
+                assertEquals(v * 13, instantanea.media);
+                assertTrue(instantanea.secuencia >= anterior);
+                anterior = instantanea.secuencia;
+            }
+        } finally {
+            seguir.set(false);
+            escritor.join();
+            pagina.close();
+        }
+        assertTrue(leidas > 0);
+    }
+}
@@ -0,0 +1,116 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link RegistroContadores} lleva cuentas independientes y que el tick compartido solo avisa de las cuentas observadas.
+ * El coste del tick con distintos números de cuentas se mide en {@code RegistroBenchmark}
+ */
+public class RegistroContadoresTest {
+
+    @Test
+    public void cuentasIndependientes() {
+        RegistroContadores registro = new RegistroContadores();
+        assertEquals(MaquinaEstados.ESTADO_CORRIENDO, registro.aplicar(1, MaquinaEstados.COMANDO_EMPEZAR, 0));
+        assertEquals(MaquinaEstados.ESTADO_CORRIENDO, registro.aplicar(2, MaquinaEstados.COMANDO_EMPEZAR, 500));
+        assertEquals(MaquinaEstados.ESTADO_PAUSADO, registro.aplicar(1, MaquinaEstados.COMANDO_PAUSAR, 1_500));
+        assertEquals(MaquinaEstados.ESTADO_CORRIENDO, registro.aplicar(1, MaquinaEstados.COMANDO_REANUDAR, 2_500));
+
+        assertEquals(3_000, registro.milisTranscurridos(1, 4_000));
+        assertEquals(3_500, registro.milisTranscurridos(2, 4_000));
+        assertEquals(1_000, registro.base(1, 4_000));
+        assertEquals(2, registro.getCorriendo());
+
+        assertEquals(MaquinaEstados.ESTADO_DETENIDO, registro.aplicar(2, MaquinaEstados.COMANDO_PARAR, 5_000));
+        assertEquals(MaquinaEstados.ESTADO_DETENIDO, registro.estado(2));
+        assertEquals(0, registro.milisTranscurridos(2, 6_000));
+        assertEquals(1, registro.getTamano());
+        assertEquals(1, registro.getCorriendo());
+    }
+
+    @Test
+    public void rechazaComandosInvalidos() {
+        RegistroContadores registro = new RegistroContadores();
+        assertEquals(RegistroContadores.RECHAZADO, registro.aplicar(7, MaquinaEstados.COMANDO_PAUSAR, 0));
+        assertEquals(RegistroContadores.RECHAZADO, registro.aplicar(7, MaquinaEstados.COMANDO_PARAR, 0));
+        assertEquals(0, registro.getTamano());
+
+        registro.aplicar(7, MaquinaEstados.COMANDO_EMPEZAR, 0);
+        assertEquals(RegistroContadores.RECHAZADO, registro.aplicar(7, MaquinaEstados.COMANDO_EMPEZAR, 100));
+        assertEquals(RegistroContadores.RECHAZADO, registro.aplicar(7, MaquinaEstados.COMANDO_REANUDAR, 100));
+    }
+
+    @Test
+    public void encuentraLasCuentasTrasEliminarOtras() {
+        RegistroContadores registro = new RegistroContadores();
+        for (int id = 0; id < 5_000; id++)
+            registro.aplicar(id * 31, MaquinaEstados.COMANDO_EMPEZAR, id);
+
+        // Se paran las cuentas impares, que se eliminan del registro y dejan huecos en el índice
+        for (int id = 1; id < 5_000; id += 2)
+            registro.aplicar(id * 31, MaquinaEstados.COMANDO_PARAR, 10_000);
+
+        assertEquals(2_500, registro.getTamano());
+        for (int id = 0; id < 5_000; id++) {
+            int esperado = id % 2 == 0 ? MaquinaEstados.ESTADO_CORRIENDO : MaquinaEstados.ESTADO_DETENIDO;
+            assertEquals(esperado, registro.estado(id * 31));
+            if (id % 2 == 0)
+                assertEquals(10_000 - id, registro.milisTranscurridos(id * 31, 10_000));
+        }
+    }
+
+    @Test
+    public void elTickSoloAvisaDeLasCuentasObservadasEnMarcha() {
+        RegistroContadores registro = new RegistroContadores();
+        registro.aplicar(1, MaquinaEstados.COMANDO_EMPEZAR, 0);
+        registro.aplicar(2, MaquinaEstados.COMANDO_EMPEZAR, 0);
+        registro.aplicar(3, MaquinaEstados.COMANDO_EMPEZAR, 0);
+        registro.aplicar(3, MaquinaEstados.COMANDO_PAUSAR, 1_000);
+        registro.observar(2);
+        registro.observar(3);
+
+        final int[] recibido = new int[2];
+        registro.tick(7_500, new RegistroContadores.Oyente() {
+            @Override
+            public void tick(int id, int segundoActual) {
+                recibido[0] = id;
+                recibido[1] = segundoActual;
+            }
+        });
+        assertArrayEquals(new int[]{2, 7}, recibido);
+        assertTrue(registro.hayObservadasEnMarcha());
+
+        // Una cuenta parada no recibe el tick, pero se sigue mostrando y lo vuelve a recibir al empezarla de nuevo
+        registro.aplicar(2, MaquinaEstados.COMANDO_PARAR, 8_000);
+        assertFalse(registro.hayObservadasEnMarcha());
+        registro.tick(9_000, new RegistroContadores.Oyente() {
+            @Override
+            public void tick(int id, int segundoActual) {
+                fail("La cuenta " + id + " no está en marcha");
+            }
+        });
+
+        registro.aplicar(2, MaquinaEstados.COMANDO_EMPEZAR, 9_000);
+        recibido[0] = 0;
+        registro.tick(11_000, new RegistroContadores.Oyente() {
+            @Override
+            public void tick(int id, int segundoActual) {
+                recibido[0] = id;
+                recibido[1] = segundoActual;
+            }
+        });
+        assertArrayEquals(new int[]{2, 2}, recibido);
+
+        // Al dejar de mostrarla ya no recibe el tick aunque siga en marcha
+        registro.dejarDeObservar(2);
+        assertEquals(1, registro.getObservadas());
+        registro.tick(12_000, new RegistroContadores.Oyente() {
+            @Override
+            public void tick(int id, int segundoActual) {
+                fail("La cuenta " + id + " no se está mostrando");
+            }
+        });
+    }
+}
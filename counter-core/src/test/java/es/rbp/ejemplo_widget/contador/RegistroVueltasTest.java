@@ -0,0 +1,96 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link RegistroVueltas} mantiene las estadísticas al añadir vueltas y entrega a cada lector solo lo que no ha leído
+ */
+public class RegistroVueltasTest {
+
+    @Test
+    public void mantieneLaMejorLaPeorYLaMedia() {
+        RegistroVueltas registro = new RegistroVueltas(64);
+        registro.agregar(300);
+        registro.agregar(400);
+        registro.agregar(900);
+        // Una pulsación que llega desordenada cuenta como una vuelta de duración 0
+        registro.agregar(800);
+
+        assertEquals(4, registro.getVueltas());
+        assertEquals(0, registro.getMejor());
+        assertEquals(500, registro.getPeor());
+        assertEquals(225, registro.getMedia());
+    }
+
+    @Test
+    public void entregaSoloLasVueltasNuevas() {
+        RegistroVueltas registro = new RegistroVueltas(64);
+        LoteVueltas lote = new LoteVueltas();
+        assertTrue(registro.leer(lote));
+        assertTrue(lote.reinicio);
+        assertEquals(0, lote.tamano);
+        assertFalse(registro.leer(lote));
+
+        registro.agregar(100);
+        registro.agregar(250);
+        assertTrue(registro.leer(lote));
+        assertFalse(lote.reinicio);
+        assertEquals(0, lote.primera);
+        assertEquals(2, lote.tamano);
+        assertEquals(150, lote.duraciones[1]);
+
+        registro.agregar(600);
+        assertTrue(registro.leer(lote));
+        assertEquals(2, lote.primera);
+        assertEquals(1, lote.tamano);
+        assertEquals(600, lote.splits[0]);
+        assertEquals(350, lote.duraciones[0]);
+        assertEquals(3, lote.vueltas);
+        assertEquals(100, lote.mejor);
+        assertEquals(350, lote.peor);
+        assertEquals(200, lote.media);
+        assertFalse(registro.leer(lote));
+
+        registro.reiniciar();
+        registro.agregar(50);
+        assertTrue(registro.leer(lote));
+        assertTrue(lote.reinicio);
+        assertEquals(1, lote.tamano);
+        assertEquals(50, lote.duraciones[0]);
+    }
+
+    @Test
+    public void creceYDespuesSobrescribeLasMasAntiguas() {
+        RegistroVueltas registro = new RegistroVueltas(100);
+        LoteVueltas lote = new LoteVueltas();
+        for (int i = 1; i <= 64; i++)
+            registro.agregar(i * 10);
+        assertEquals(64, registro.getCapacidad());
+        registro.leer(lote);
+
+        for (int i = 65; i <= 1000; i++)
+            registro.agregar(i * 10 + i % 7);
+        assertEquals(128, registro.getCapacidad());
+        assertEquals(1000, registro.getVueltas());
+
+        // El lector se ha quedado atrás y recibe las vueltas que se conservan, con la duración de la más antigua bien calculada
+        assertTrue(registro.leer(lote));
+        assertTrue(lote.reinicio);
+        assertEquals(1000 - 128, lote.primera);
+        assertEquals(128, lote.tamano);
+        for (int i = 0; i < lote.tamano; i++) {
+            long vuelta = lote.primera + i + 1;
+            assertEquals(vuelta * 10 + vuelta % 7, lote.splits[i]);
+            assertEquals(10 + vuelta % 7 - (vuelta - 1) % 7, lote.duraciones[i]);
+        }
+        assertEquals(1000, lote.vueltas);
+
+        registro.agregar(20_000);
+        assertTrue(registro.leer(lote));
+        assertFalse(lote.reinicio);
+        assertEquals(1000, lote.primera);
+        assertEquals(20_000 - (10_000 + 1000 % 7), lote.duraciones[0]);
+    }
+}
@@ -0,0 +1,109 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Reloj y planificador virtuales para los tests, que sustituyen a {@code SystemClock} y a {@code Handler.postDelayed}.
+ * <p>
+ * El tiempo solo avanza al llamar a {@link RelojVirtual#avanzar(long)}, que ejecuta en orden las tareas que vencen por el camino sin
+ * esperar. Las tareas que vencen en el mismo instante se ejecutan en el orden en el que se programaron, igual que en un looper, así que
+ * cada ejecución es determinista
+ */
+public class RelojVirtual implements Reloj, Planificador {
+
+    private final PriorityQueue<Programada> tareas = new PriorityQueue<>();
+
+    private long ahora;
+
+    /**
+     * Orden de programación, que desempata las tareas que vencen en el mismo instante
+     */
+    private long secuencia;
+
+    /**
+     * Crea un reloj que empieza en el instante indicado
+     *
+     * @param inicio instante inicial
+     */
+    public RelojVirtual(long inicio) {
+        ahora = inicio;
+    }
+
+    @Override
+    public long ahora() {
+        return ahora;
+    }
+
+    @Override
+    public long ahoraNanos() {
+        return ahora * 1_000_000;
+    }
+
+    @Override
+    public long ahoraPared() {
+        return ahora;
+    }
+
+    @Override
+    public void programar(Runnable tarea, long retrasoMilis) {
+        tareas.add(new Programada(ahora + Math.max(retrasoMilis, 0), secuencia++, tarea));
+    }
+
+    @Override
+    public void cancelar(Runnable tarea) {
+        Iterator<Programada> iterador = tareas.iterator();
+        while (iterador.hasNext())
+            if (iterador.next().tarea == tarea)
+                iterador.remove();
+    }
+
+    /**
+     * Devuelve el número de tareas programadas
+     *
+     * @return tareas pendientes
+     */
+    public int pendientes() {
+        return tareas.size();
+    }
+
+    /**
+     * Avanza el reloj ejecutando en orden las tareas que vencen por el camino, incluidas las que programan esas mismas tareas
+     *
+     * @param milis milisegundos que avanza el reloj
+     */
+    public void avanzar(long milis) {
+        long fin = ahora + milis;
+        while (!tareas.isEmpty() && tareas.peek().instante <= fin) {
+            Programada siguiente = tareas.poll();
+            ahora = Math.max(ahora, siguiente.instante);
+            siguiente.tarea.run();
+        }
+        ahora = fin;
+    }
+
+    /**
+     * Tarea programada para un instante
+     */
+    private static class Programada implements Comparable<Programada> {
+
+        final long instante;
+
+        final long secuencia;
+
+        final Runnable tarea;
+
+        Programada(long instante, long secuencia, Runnable tarea) {
+            this.instante = instante;
+            this.secuencia = secuencia;
+            this.tarea = tarea;
+        }
+
+        @Override
+        public int compareTo(Programada otra) {
+            if (instante != otra.instante)
+                return Long.compare(instante, otra.instante);
+            return Long.compare(secuencia, otra.secuencia);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link RuedaTemporizadores} vence cada temporizador exactamente en su paso, en cualquier nivel y tras saltos de
+ * cualquier tamaño, comparándola con una lista de referencia
+ */
+public class RuedaTemporizadoresTest {
+
+    private final RuedaTemporizadores rueda = new RuedaTemporizadores(4);
+
+    /**
+     * Paso en el que ha vencido cada dato
+     */
+    private final Map<Integer, Long> vencidos = new HashMap<>();
+
+    private final RuedaTemporizadores.Oyente oyente = new RuedaTemporizadores.Oyente() {
+        @Override
+        public void alVencer(long temporizador, int dato, long paso) {
+            assertNull(vencidos.put(dato, rueda.getPaso()));
+        }
+    };
+
+    @Test
+    public void venceEnSuPasoEnTodosLosNiveles() {
+        long[] pasos = {1, 63, 64, 65, 4095, 4096, 4097, 262_143, 262_144, 1_000_000, RuedaTemporizadores.HORIZONTE + 5};
+        for (int i = 0; i < pasos.length; i++)
+            rueda.programar(pasos[i], i);
+        assertEquals(pasos.length, rueda.getPendientes());
+
+        for (long paso = 1; paso <= RuedaTemporizadores.HORIZONTE + 10; paso++)
+            rueda.avanzar(paso, oyente);
+        for (int i = 0; i < pasos.length; i++)
+            assertEquals(Long.valueOf(pasos[i]), vencidos.get(i));
+        assertEquals(0, rueda.getPendientes());
+    }
+
+    @Test
+    public void venceLosAtrasadosEnElSiguienteAvance() {
+        rueda.avanzar(100, oyente);
+        rueda.programar(50, 1);
+        rueda.programar(100, 2);
+        assertEquals(101, rueda.getSiguientePaso());
+
+        assertEquals(2, rueda.avanzar(5000, oyente));
+        assertEquals(Long.valueOf(101), vencidos.get(1));
+        assertEquals(Long.valueOf(101), vencidos.get(2));
+        assertEquals(RuedaTemporizadores.SIN_PASO, rueda.getSiguientePaso());
+    }
+
+    @Test
+    public void coincideConUnaListaDeReferencia() {
+        Random random = new Random(25);
+        Map<Long, Integer> temporizadores = new HashMap<>();
+        Map<Integer, Long> esperados = new HashMap<>();
+        List<Long> pendientes = new ArrayList<>();
+        int siguienteDato = 0;
+        for (int ronda = 0; ronda < 2000; ronda++) {
+            for (int i = random.nextInt(20); i > 0; i--) {
+                // Distancias de todos los niveles, y algunas ya pasadas
+                long distancia = (long) Math.pow(2, random.nextDouble() * 26) - 100;
+                long paso = rueda.getPaso() + distancia;
+                int dato = siguienteDato++;
+                long temporizador = rueda.programar(paso, dato);
+                temporizadores.put(temporizador, dato);
+                esperados.put(dato, Math.max(paso, rueda.getPaso() + 1));
+                pendientes.add(temporizador);
+            }
+            for (int i = random.nextInt(5); i > 0 && !pendientes.isEmpty(); i--) {
+                long temporizador = pendientes.remove(random.nextInt(pendientes.size()));
+                int dato = temporizadores.get(temporizador);
+                boolean pendiente = !vencidos.containsKey(dato);
+                assertEquals(pendiente, rueda.cancelar(temporizador));
+                assertFalse(rueda.cancelar(temporizador));
+                if (pendiente)
+                    esperados.remove(dato);
+            }
+
+            // Nada vence antes del paso que indica la rueda
+            long primero = Long.MAX_VALUE;
+            for (Map.Entry<Integer, Long> esperado : esperados.entrySet())
+                if (!vencidos.containsKey(esperado.getKey()))
+                    primero = Math.min(primero, esperado.getValue());
+            long siguientePaso = rueda.getSiguientePaso();
+            assertTrue(siguientePaso <= primero);
+            if (siguientePaso != RuedaTemporizadores.SIN_PASO)
+                assertEquals(0, rueda.avanzar(siguientePaso - 1, oyente));
+
+            rueda.avanzar(rueda.getPaso() + 1 + random.nextInt(random.nextBoolean() ? 64 : 20_000), oyente);
+        }
+        long ultimo = 0;
+        for (long paso : esperados.values())
+            ultimo = Math.max(ultimo, paso);
+        rueda.avanzar(ultimo, oyente);
+
+        assertEquals(0, rueda.getPendientes());
+        assertEquals(esperados.size(), vencidos.size());
+        for (Map.Entry<Integer, Long> esperado : esperados.entrySet())
+            assertEquals(esperado.getValue(), vencidos.get(esperado.getKey()));
+    }
+
+    @Test
+    public void noCancelaAlQueReutilizaElNodo() {
+        long vencido = rueda.programar(1, 1);
+        rueda.avanzar(1, oyente);
+        long nuevo = rueda.programar(2, 2);
+
+        assertFalse(rueda.cancelar(vencido));
+        assertEquals(1, rueda.getPendientes());
+        assertTrue(rueda.cancelar(nuevo));
+        assertEquals(0, rueda.getPendientes());
+    }
+
+    @Test
+    public void sePuedeProgramarDesdeElOyente() {
+        final RuedaTemporizadores cadena = new RuedaTemporizadores(1);
+        final List<Long> pasos = new ArrayList<>();
+        cadena.programar(10, 0);
+        // Cada vencimiento programa el siguiente intervalo, como una cadena de pomodoros
+        int vencidos = cadena.avanzar(100, new RuedaTemporizadores.Oyente() {
+            @Override
+            public void alVencer(long temporizador, int dato, long paso) {
+                pasos.add(cadena.getPaso());
+                if (dato < 3)
+                    cadena.programar(paso + 25, dato + 1);
+            }
+        });
+        assertEquals(4, vencidos);
+        assertEquals("[10, 35, 60, 85]", pasos.toString());
+    }
+
+    @Test
+    public void vaciaTodosLosTemporizadores() {
+        for (int i = 0; i < 100; i++)
+            rueda.programar(i * 1000, i);
+        rueda.avanzar(10, oyente);
+
+        rueda.vaciar(0);
+        assertEquals(0, rueda.getPendientes());
+        assertEquals(0, rueda.getPaso());
+        assertEquals(0, rueda.avanzar(1_000_000, oyente));
+        assertEquals(1, vencidos.size());
+    }
+}
@@ -0,0 +1,356 @@
+package es.rbp.ejemplo_widget.contador;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reproduce trazas de comandos sobre un {@link Contador} con un {@link RelojVirtual}, miles de veces más rápido que en tiempo real,
+ * y compara cada paso con un modelo de referencia escrito a partir de lo que ve el usuario, sin reutilizar {@link MaquinaEstados}.
+ * <p>
+ * Las trazas mezclan los comandos de la activity, el widget y la notificación, incluidas pulsaciones simultáneas desde varios orígenes
+ * y en el mismo milisegundo que el tick. Se comprueba:
+ * <ul>
+ * <li>que se aceptan y rechazan los mismos comandos que en el modelo, y que el estado y el tiempo de cada cuenta coinciden</li>
+ * <li>que cada tick lleva el segundo del modelo y solo llega a cuentas en marcha mientras alguien mira</li>
+ * <li>que los ticks de la cuenta principal llegan justo en cada segundo entero de la cuenta, sin saltarse ninguno mientras no cambia
+ * nada</li>
+ * </ul>
+ * Si algo no coincide se lanza un {@link AssertionError} con la traza, que se puede volver a reproducir con {@link Traza#leer(String)}
+ */
+class SimuladorContador {
+
+    static final int ORIGEN_ACTIVITY = 0;
+    static final int ORIGEN_WIDGET = 1;
+    static final int ORIGEN_NOTIFICACION = 2;
+
+    /**
+     * Pseudocomando con el que la activity se conecta al servicio y empieza a mirar la cuenta
+     */
+    static final int MIRAR = 4;
+
+    /**
+     * Pseudocomando con el que la activity se desconecta del servicio
+     */
+    static final int DEJAR_DE_MIRAR = 5;
+
+    private static final String[] ORIGENES = {"activity", "widget", "notificacion"};
+
+    private static final String[] COMANDOS = {"empezar", "pausar", "reanudar", "parar", "mirar", "dejar"};
+
+    /**
+     * Comandos que puede enviar cada origen, indexados por el origen
+     */
+    private static final int[][] COMANDOS_ORIGEN = {
+            {MaquinaEstados.COMANDO_EMPEZAR, MaquinaEstados.COMANDO_PAUSAR, MaquinaEstados.COMANDO_PARAR, MIRAR, DEJAR_DE_MIRAR},
+            {MaquinaEstados.COMANDO_EMPEZAR, MaquinaEstados.COMANDO_PAUSAR},
+            {MaquinaEstados.COMANDO_REANUDAR, MaquinaEstados.COMANDO_PAUSAR, MaquinaEstados.COMANDO_PARAR}
+    };
+
+    /**
+     * Ids de las cuentas que pueden mostrar los widgets, además de la principal
+     */
+    private static final int CUENTAS_WIDGET = 3;
+
+    /**
+     * Tiempo que se sigue simulando tras el último paso para comprobar los ticks finales
+     */
+    private static final long COLA = 3_500;
+
+    private static final long INICIO = 1_000_000;
+
+    private long milisSimulados;
+
+    private long ticks;
+
+    private long comandos;
+
+    /**
+     * Reproduce una traza sobre un contador nuevo
+     *
+     * @param traza traza de comandos
+     * @throws AssertionError si el contador no se comporta como el modelo
+     */
+    void reproducir(final Traza traza) {
+        final RelojVirtual reloj = new RelojVirtual(INICIO);
+        final Contador contador = new Contador(reloj, reloj, true);
+        final Modelo modelo = new Modelo();
+        contador.setObservado(false);
+        // Cada cuenta del registro la muestra un widget, así que todas reciben el tick
+        for (int id = 1; id <= CUENTAS_WIDGET; id++)
+            contador.observar(id);
+
+        // Segundo del último tick de la cuenta principal desde el último cambio de estado o de quién mira, o -1 si no ha llegado ninguno
+        final long[] ultimoTick = {-1};
+        // Al volver a mirar llega un tick inmediato, que es el único que no coincide con un segundo entero de la cuenta
+        final boolean[] tickInmediato = {false};
+        contador.agregarOyente(new Contador.Oyente() {
+            @Override
+            public void publicar(int id, int estado, int segundo) {
+            }
+
+            @Override
+            public void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base) {
+                comprobar(traza, "segundo del cambio de estado de la cuenta", id, modelo.segundo(id, reloj.ahora()), segundo);
+                if (id == Contador.ID_PRINCIPAL)
+                    ultimoTick[0] = -1;
+            }
+
+            @Override
+            public void alTick(int id, int segundo) {
+                ticks++;
+                long ahora = reloj.ahora();
+                comprobar(traza, "tick de una cuenta que no está en marcha", id, MaquinaEstados.ESTADO_CORRIENDO, modelo.estado(id));
+                comprobar(traza, "tick sin nadie mirando la cuenta", id, 1, modelo.observado ? 1 : 0);
+                comprobar(traza, "segundo del tick de la cuenta", id, modelo.segundo(id, ahora), segundo);
+                if (id != Contador.ID_PRINCIPAL)
+                    return;
+
+                if (ultimoTick[0] >= 0)
+                    comprobar(traza, "tick siguiente de la cuenta principal", id, ultimoTick[0] + 1, segundo);
+                if (!tickInmediato[0])
+                    comprobar(traza, "tick en un segundo entero de la cuenta principal", id, segundo * MotorTick.MILIS_POR_SEGUNDO,
+                            modelo.milis(id, ahora));
+                ultimoTick[0] = segundo;
+                tickInmediato[0] = false;
+            }
+        });
+
+        long anterior = 0;
+        for (Paso paso : traza.pasos) {
+            reloj.avanzar(paso.instante - anterior);
+            anterior = paso.instante;
+            comandos++;
+            long ahora = reloj.ahora();
+
+            if (paso.comando == MIRAR || paso.comando == DEJAR_DE_MIRAR) {
+                tickInmediato[0] = !modelo.observado && paso.comando == MIRAR;
+                modelo.observado = paso.comando == MIRAR;
+                ultimoTick[0] = -1;
+                contador.setObservado(modelo.observado);
+                continue;
+            }
+
+            boolean esperado = modelo.aplicar(paso.id, paso.comando, ahora);
+            comprobar(traza, "aceptación del paso", paso, esperado ? 1 : 0, contador.ejecutar(paso.id, paso.comando) ? 1 : 0);
+            comprobarCuenta(traza, contador, modelo, paso.id, ahora);
+        }
+
+        reloj.avanzar(COLA);
+        milisSimulados += anterior + COLA;
+        for (int id = 0; id <= CUENTAS_WIDGET; id++)
+            comprobarCuenta(traza, contador, modelo, id, reloj.ahora());
+        comprobar(traza, "cuenta final", Contador.ID_PRINCIPAL, modelo.segundo(Contador.ID_PRINCIPAL, reloj.ahora()),
+                contador.getSegundoActual());
+        comprobar(traza, "todas las cuentas detenidas", Contador.ID_PRINCIPAL, modelo.todasDetenidas() ? 1 : 0, contador.estaDetenido() ? 1 : 0);
+    }
+
+    private static void comprobarCuenta(Traza traza, Contador contador, Modelo modelo, int id, long ahora) {
+        comprobar(traza, "estado de la cuenta", id, modelo.estado(id), contador.getEstado(id));
+        if (modelo.estado(id) != MaquinaEstados.ESTADO_DETENIDO)
+            comprobar(traza, "milisegundos de la cuenta según su base", id, modelo.milis(id, ahora), ahora - contador.getBase(id));
+        if (id == Contador.ID_PRINCIPAL)
+            comprobar(traza, "milisegundos de la cuenta principal", id, modelo.milis(id, ahora), contador.getMilisTranscurridos());
+    }
+
+    /**
+     * Lanza un {@link AssertionError} con la traza si no coinciden los valores. El mensaje solo se construye al fallar, ya que se
+     * comprueba en cada paso de millones de sesiones
+     *
+     * @param que    qué se comprueba
+     * @param sujeto cuenta o paso que se comprueba
+     */
+    private static void comprobar(Traza traza, String que, Object sujeto, long esperado, long obtenido) {
+        if (esperado != obtenido)
+            throw new AssertionError(que + " (" + sujeto + "): se esperaba " + esperado + " y se ha obtenido " + obtenido
+                    + "\nTraza: " + traza);
+    }
+
+    long getMilisSimulados() {
+        return milisSimulados;
+    }
+
+    long getTicks() {
+        return ticks;
+    }
+
+    long getComandos() {
+        return comandos;
+    }
+
+    /**
+     * Paso de una traza: un origen envía un comando a una cuenta en un instante
+     */
+    static class Paso {
+
+        /**
+         * Milisegundos desde el principio de la traza
+         */
+        final long instante;
+
+        final int origen;
+
+        final int comando;
+
+        final int id;
+
+        Paso(long instante, int origen, int comando, int id) {
+            this.instante = instante;
+            this.origen = origen;
+            this.comando = comando;
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            String texto = instante + ":" + ORIGENES[origen] + ":" + COMANDOS[comando];
+            return id == Contador.ID_PRINCIPAL ? texto : texto + ":" + id;
+        }
+    }
+
+    /**
+     * Secuencia de pasos ordenada por instante
+     */
+    static class Traza {
+
+        final List<Paso> pasos;
+
+        Traza(List<Paso> pasos) {
+            this.pasos = Collections.unmodifiableList(pasos);
+        }
+
+        /**
+         * Lee una traza grabada con el formato de {@link Traza#toString()}: pasos separados por espacios con la forma
+         * {@code instante:origen:comando}, seguidos de {@code :id} si no son de la cuenta principal
+         *
+         * @param texto traza grabada
+         * @return traza
+         */
+        static Traza leer(String texto) {
+            List<Paso> pasos = new ArrayList<>();
+            for (String paso : texto.trim().split("\\s+")) {
+                String[] partes = paso.split(":");
+                int id = partes.length > 3 ? Integer.parseInt(partes[3]) : Contador.ID_PRINCIPAL;
+                pasos.add(new Paso(Long.parseLong(partes[0]), indice(ORIGENES, partes[1]), indice(COMANDOS, partes[2]), id));
+            }
+            return new Traza(pasos);
+        }
+
+        /**
+         * Genera una traza aleatoria con los comandos que puede enviar cada origen.
+         * <p>
+         * Los intervalos entre pasos mezclan pulsaciones simultáneas, pasos en segundos enteros que coinciden con el tick,
+         * intervalos cortos y esperas largas
+         *
+         * @param random generador, que con la misma semilla genera la misma traza
+         * @param pasos  número de pasos
+         * @return traza
+         */
+        static Traza aleatoria(Random random, int pasos) {
+            List<Paso> lista = new ArrayList<>(pasos);
+            long instante = 0;
+            if (random.nextBoolean())
+                lista.add(new Paso(instante, ORIGEN_ACTIVITY, MIRAR, Contador.ID_PRINCIPAL));
+
+            for (int i = 0; i < pasos; i++) {
+                // Con tipo < 15 el paso llega en el mismo milisegundo que el anterior, como dos pulsaciones desde sitios distintos
+                int tipo = random.nextInt(100);
+                if (tipo >= 90)
+                    instante += random.nextInt(120_000);
+                else if (tipo >= 35)
+                    instante += random.nextInt(1_500);
+                else if (tipo >= 15)
+                    instante += (1 + random.nextInt(3)) * MotorTick.MILIS_POR_SEGUNDO;
+
+                int origen = random.nextInt(ORIGENES.length);
+                int[] comandos = COMANDOS_ORIGEN[origen];
+                int comando = comandos[random.nextInt(comandos.length)];
+                int id = origen == ORIGEN_WIDGET ? random.nextInt(CUENTAS_WIDGET + 1) : Contador.ID_PRINCIPAL;
+                lista.add(new Paso(instante, origen, comando, id));
+            }
+            return new Traza(lista);
+        }
+
+        private static int indice(String[] nombres, String nombre) {
+            for (int i = 0; i < nombres.length; i++)
+                if (nombres[i].equals(nombre))
+                    return i;
+            throw new IllegalArgumentException("Nombre desconocido en la traza: " + nombre);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder texto = new StringBuilder();
+            for (Paso paso : pasos)
+                texto.append(paso).append(' ');
+            return texto.toString().trim();
+        }
+    }
+
+    /**
+     * Modelo de referencia de las cuentas, tal y como las ve el usuario: empezar pone en marcha una cuenta detenida o pausada, pausar
+     * solo pausa una cuenta en marcha, reanudar solo reanuda una pausada y parar vuelve a cero una cuenta que no esté detenida
+     */
+    private static class Modelo {
+
+        private final Map<Integer, long[]> cuentas = new HashMap<>();
+
+        /**
+         * Indica si alguien está mirando las cuentas
+         */
+        boolean observado;
+
+        /**
+         * Aplica un comando
+         *
+         * @return true si el comando tiene efecto
+         */
+        boolean aplicar(int id, int comando, long ahora) {
+            int estado = estado(id);
+            switch (comando) {
+                case MaquinaEstados.COMANDO_EMPEZAR:
+                case MaquinaEstados.COMANDO_REANUDAR:
+                    if (estado == MaquinaEstados.ESTADO_DETENIDO && comando == MaquinaEstados.COMANDO_EMPEZAR)
+                        cuentas.put(id, new long[]{MaquinaEstados.ESTADO_CORRIENDO, 0, ahora});
+                    else if (estado == MaquinaEstados.ESTADO_PAUSADO)
+                        cuentas.put(id, new long[]{MaquinaEstados.ESTADO_CORRIENDO, milis(id, ahora), ahora});
+                    else
+                        return false;
+                    return true;
+                case MaquinaEstados.COMANDO_PAUSAR:
+                    if (estado != MaquinaEstados.ESTADO_CORRIENDO)
+                        return false;
+                    cuentas.put(id, new long[]{MaquinaEstados.ESTADO_PAUSADO, milis(id, ahora), ahora});
+                    return true;
+                default:
+                    return cuentas.remove(id) != null;
+            }
+        }
+
+        int estado(int id) {
+            long[] cuenta = cuentas.get(id);
+            return cuenta == null ? MaquinaEstados.ESTADO_DETENIDO : (int) cuenta[0];
+        }
+
+        /**
+         * Milisegundos de la cuenta: lo acumulado en los tramos anteriores más el tramo en marcha
+         */
+        long milis(int id, long ahora) {
+            long[] cuenta = cuentas.get(id);
+            if (cuenta == null)
+                return 0;
+            return cuenta[0] == MaquinaEstados.ESTADO_CORRIENDO ? cuenta[1] + ahora - cuenta[2] : cuenta[1];
+        }
+
+        int segundo(int id, long ahora) {
+            return (int) (milis(id, ahora) / MotorTick.MILIS_POR_SEGUNDO);
+        }
+
+        boolean todasDetenidas() {
+            return cuentas.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reproduce con {@link SimuladorContador} trazas grabadas de casos conocidos y muchas sesiones aleatorias.
+ * <p>
+ * El número de sesiones aleatorias y la semilla se pueden cambiar con las propiedades {@code simulador.sesiones} y
+ * {@code simulador.semilla}, por ejemplo para ejecutar millones de sesiones en la integración continua:
+ * {@code ./gradlew :counter-core:test -Psimulador.sesiones=5000000}
+ */
+public class SimuladorContadorTest {
+
+    private static final int SESIONES_POR_DEFECTO = 20_000;
+
+    /**
+     * Pasos de cada sesión aleatoria
+     */
+    private static final int PASOS = 40;
+
+    @Test
+    public void pulsacionesSimultaneasEnElTick() {
+        // Se empieza desde dos sitios a la vez y se pausa y reanuda justo en el segundo en el que vence el tick
+        SimuladorContador simulador = new SimuladorContador();
+        simulador.reproducir(SimuladorContador.Traza.leer("0:activity:mirar 0:widget:empezar 0:activity:empezar "
+                + "3000:notificacion:pausar 3000:widget:pausar 4500:notificacion:reanudar 4500:widget:empezar "
+                + "9000:activity:parar 9000:notificacion:parar"));
+        assertEquals(9, simulador.getComandos());
+    }
+
+    @Test
+    public void cuentasDelWidgetSinNadieMirando() {
+        // Las cuentas del widget avanzan por sus anclas sin tick, y al conectarse la activity reciben el tick compartido
+        SimuladorContador simulador = new SimuladorContador();
+        simulador.reproducir(SimuladorContador.Traza.leer("0:widget:empezar:2 700:widget:empezar:3 1200:widget:pausar:2 "
+                + "60000:activity:mirar 60250:widget:empezar:2 61000:widget:empezar 65500:activity:dejar 70000:widget:pausar:3"));
+        assertTrue(simulador.getTicks() > 0);
+    }
+
+    @Test
+    public void sesionesAleatorias() {
+        int sesiones = Integer.getInteger("simulador.sesiones", SESIONES_POR_DEFECTO);
+        long semilla = Long.getLong("simulador.semilla", 42);
+        Random random = new Random(semilla);
+        SimuladorContador simulador = new SimuladorContador();
+
+        long inicio = System.nanoTime();
+        for (int i = 0; i < sesiones; i++)
+            simulador.reproducir(SimuladorContador.Traza.aleatoria(random, PASOS));
+        long milisReales = Math.max((System.nanoTime() - inicio) / 1_000_000, 1);
+
+        System.out.println(sesiones + " sesiones: " + simulador.getMilisSimulados() / 3_600_000 + " h simuladas, "
+                + simulador.getTicks() + " ticks y " + simulador.getComandos() + " comandos en " + milisReales + " ms ("
+                + simulador.getMilisSimulados() / milisReales + " veces más rápido que en tiempo real)");
+        assertTrue(simulador.getComandos() >= (long) sesiones * PASOS);
+        assertTrue(simulador.getTicks() > 0);
+    }
+}
@@ -0,0 +1,44 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link TasaPorMinuto} cuenta los eventos de cada minuto y olvida los que ya no caben
+ */
+public class TasaPorMinutoTest {
+
+    private static final long MINUTO = 60_000;
+
+    @Test
+    public void cuentaLosEventosDeCadaMinuto() {
+        TasaPorMinuto tasa = new TasaPorMinuto();
+        long inicio = 100 * MINUTO;
+        for (int i = 0; i < 30; i++)
+            tasa.registrar(inicio + i * 1_000);
+        for (int i = 0; i < 5; i++)
+            tasa.registrar(inicio + 2 * MINUTO + i);
+
+        long ahora = inicio + 2 * MINUTO + 30_000;
+        assertEquals(5, tasa.getEventos(ahora, 0));
+        assertEquals(0, tasa.getEventos(ahora, 1));
+        assertEquals(30, tasa.getEventos(ahora, 2));
+    }
+
+    @Test
+    public void olvidaLosMinutosQueYaNoCaben() {
+        TasaPorMinuto tasa = new TasaPorMinuto();
+        tasa.registrar(0);
+        tasa.registrar(3 * MINUTO);
+
+        // El minuto 16 usa el hueco del minuto 0: aunque aún no tenga eventos, no hereda los del minuto 0
+        long ahora = TasaPorMinuto.MINUTOS * MINUTO;
+        assertEquals(0, tasa.getEventos(ahora, 0));
+        assertEquals(1, tasa.getEventos(ahora, TasaPorMinuto.MINUTOS - 3));
+
+        tasa.registrar(ahora);
+        tasa.registrar(ahora + 1);
+        assertEquals(2, tasa.getEventos(ahora, 0));
+    }
+}
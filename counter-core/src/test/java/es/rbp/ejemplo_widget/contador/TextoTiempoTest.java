@@ -0,0 +1,58 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que {@link TextoTiempo} escribe el mismo texto que el cronómetro de las vistas y detecta cuándo no ha cambiado
+ */
+public class TextoTiempoTest {
+
+    private final TextoTiempo texto = new TextoTiempo();
+
+    @Test
+    public void formatoDelCronometro() {
+        assertEquals("00:00", formatear(0));
+        assertEquals("00:07", formatear(7));
+        assertEquals("01:05", formatear(65));
+        assertEquals("59:59", formatear(3_599));
+        assertEquals("1:00:00", formatear(3_600));
+        assertEquals("25:03:09", formatear(25 * 3_600 + 189));
+        assertEquals("596523:14:07", formatear(Integer.MAX_VALUE));
+        assertEquals("00:00", formatear(-5));
+    }
+
+    @Test
+    public void noReescribeElMismoSegundo() {
+        assertTrue(texto.formatear(42));
+        assertFalse(texto.formatear(42));
+        assertEquals("00:42", texto.toString());
+        assertTrue(texto.formatear(43));
+        assertEquals(5, texto.getLongitud());
+    }
+
+    @Test
+    public void formatoConMilisegundos() {
+        assertTrue(texto.formatearMilis(0));
+        assertEquals("00:00.000", texto.toString());
+        texto.formatearMilis(65_042);
+        assertEquals("01:05.042", texto.toString());
+        texto.formatearMilis(3_600_999);
+        assertEquals("1:00:00.999", texto.toString());
+        texto.formatearMilis(Integer.MAX_VALUE * 1000L + 7);
+        assertEquals("596523:14:07.007", texto.toString());
+        assertFalse(texto.formatearMilis(Integer.MAX_VALUE * 1000L + 7));
+
+        // Cambiar de formato siempre vuelve a escribir el texto
+        assertTrue(texto.formatear(65));
+        assertEquals("01:05", texto.toString());
+        assertTrue(texto.formatearMilis(65_000));
+        assertEquals("01:05.000", texto.toString());
+    }
+
+    private String formatear(int segundo) {
+        texto.formatear(segundo);
+        return new String(texto.getTexto(), 0, texto.getLongitud());
+    }
+}
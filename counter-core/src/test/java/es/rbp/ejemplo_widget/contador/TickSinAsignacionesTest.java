@@ -0,0 +1,149 @@
+package es.rbp.ejemplo_widget.contador;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Comprueba que el tick de {@link Contador}, con su reparto por {@link DifusorContador} y el texto de {@link TextoTiempo}, no crea
+ * ningún objeto una vez en marcha.
+ * <p>
+ * Cuenta los bytes que reserva el hilo del test con {@link com.sun.management.ThreadMXBean}, por lo que solo se ejecuta en las JVM
+ * que lo soportan
+ */
+public class TickSinAsignacionesTest {
+
+    /**
+     * Ticks para que el JIT compile el camino del tick antes de medir
+     */
+    private static final int TICKS_CALENTAMIENTO = 50_000;
+
+    private static final int TICKS_MEDIDOS = 10_000;
+
+    private long ahora = 1_000_000;
+
+    private Runnable tarea;
+
+    private long retraso;
+
+    private final TextoTiempo texto = new TextoTiempo();
+
+    private int caracteres;
+
+    @Test
+    public void elTickNoCreaObjetos() {
+        java.lang.management.ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mxBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) mxBean;
+        Assume.assumeTrue(hilos.isThreadAllocatedMemorySupported() && hilos.isThreadAllocatedMemoryEnabled());
+
+        Contador contador = crearContador();
+        contador.ejecutar(Contador.ID_PRINCIPAL, MaquinaEstados.COMANDO_EMPEZAR);
+        contador.ejecutar(7, MaquinaEstados.COMANDO_EMPEZAR);
+        contador.observar(7);
+        avanzar(TICKS_CALENTAMIENTO);
+
+        long id = Thread.currentThread().getId();
+        // Lo que reserva la propia medición se descuenta midiendo primero sin ticks
+        long inicio = hilos.getThreadAllocatedBytes(id);
+        long vacio = hilos.getThreadAllocatedBytes(id) - inicio;
+        inicio = hilos.getThreadAllocatedBytes(id);
+        avanzar(TICKS_MEDIDOS);
+        long reservados = hilos.getThreadAllocatedBytes(id) - inicio - vacio;
+
+        assertEquals(TICKS_CALENTAMIENTO + TICKS_MEDIDOS, contador.getSegundoActual());
+        assertTrue(caracteres > 0);
+        assertEquals("Bytes reservados en " + TICKS_MEDIDOS + " ticks", 0, reservados);
+    }
+
+    /**
+     * Crea un contador con el mismo reparto que el servicio: el tick publica en un difusor, que entrega en el acto a un suscriptor
+     * que escribe el texto del segundo
+     */
+    private Contador crearContador() {
+        final DifusorContador difusor = new DifusorContador();
+        difusor.suscribir(new DifusorContador.Suscriptor() {
+            @Override
+            public void alSuscribirse(DifusorContador.Suscripcion suscripcion) {
+                suscripcion.pedir(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void alRecibir(int estado, int segundo) {
+                if (texto.formatear(segundo))
+                    caracteres += texto.getLongitud();
+            }
+
+            @Override
+            public void alCompletar() {
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+
+        Contador contador = new Contador(new Reloj() {
+            @Override
+            public long ahora() {
+                return ahora;
+            }
+
+            @Override
+            public long ahoraNanos() {
+                return ahora * 1_000_000;
+            }
+
+            @Override
+            public long ahoraPared() {
+                return ahora;
+            }
+        }, new Planificador() {
+            @Override
+            public void programar(Runnable tarea, long retrasoMilis) {
+                TickSinAsignacionesTest.this.tarea = tarea;
+                retraso = retrasoMilis;
+            }
+
+            @Override
+            public void cancelar(Runnable tarea) {
+                if (TickSinAsignacionesTest.this.tarea == tarea)
+                    TickSinAsignacionesTest.this.tarea = null;
+            }
+        }, true);
+
+        contador.agregarOyente(new Contador.Oyente() {
+            @Override
+            public void publicar(int id, int estado, int segundo) {
+                if (id == Contador.ID_PRINCIPAL)
+                    difusor.publicar(estado, segundo);
+            }
+
+            @Override
+            public void alCambiarEstado(int id, int anterior, int nuevo, int segundo, long base) {
+            }
+
+            @Override
+            public void alTick(int id, int segundo) {
+            }
+        });
+        return contador;
+    }
+
+    /**
+     * Ejecuta los ticks indicados, avanzando el reloj hasta cada uno
+     */
+    private void avanzar(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            Runnable siguiente = tarea;
+            tarea = null;
+            ahora += retraso;
+            siguiente.run();
+        }
+    }
+}